@@ -23,11 +23,19 @@ public final class W3CValidation {
      */
     public static void hierarchyRequest(Node base, Node other) {
         // TODO: elaborate this method
-        if (other == base || other == base.getParentNode() || other instanceof org.w3c.dom.Document) {
+        if (other instanceof org.w3c.dom.Document || isInclusiveAncestor(other, base)) {
             throw new DOMException(DOMException.HIERARCHY_REQUEST_ERR, "Cannot perform this operation because of hierarchy request error.");
         }
     }
 
+    // walks up from the base, which also catches inserting a fragment into one of its own descendants
+    private static boolean isInclusiveAncestor(Node other, Node base) {
+        for (Node node = base; node != null; node = node.parentNode()) {
+            if (node == other) return true;
+        }
+        return false;
+    }
+
     /*
     NamedNodeMap.setNamedItem
         Raised if an attempt is made to add a node doesn't belong in this NamedNodeMap. Examples would include trying
@@ -80,7 +88,8 @@ public final class W3CValidation {
      */
     public static void modificationAllowed(Node... nodes) {
         if (nodes.length == 0) return;
-        if (nodes.length >= 1 && (nodes[0] instanceof org.w3c.dom.DocumentType || nodes[0] instanceof org.w3c.dom.Entity)) {
+        if (nodes.length >= 1 && (nodes[0] instanceof org.w3c.dom.DocumentType || nodes[0] instanceof org.w3c.dom.Entity
+            || nodes[0] != null && nodes[0].isSealed())) {
             throw new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "Cannot perform this operation because of no modification allowed error.");
         }
         if (nodes.length >= 2 && (nodes[1].parentNode() instanceof org.w3c.dom.DocumentType || nodes[1].parentNode() instanceof org.w3c.dom.Entity)) {
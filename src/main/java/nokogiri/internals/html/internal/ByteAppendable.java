@@ -0,0 +1,247 @@
+package nokogiri.internals.html.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import nokogiri.internals.html.helper.Validate;
+
+/**
+ A QuietAppendable that encodes what is appended straight to bytes, into a reusable buffer which is drained to a
+ {@link Sink} when full. So output can be serialized to a stream, channel, or buffer without first being built as a
+ String and then encoded.
+ <p>UTF-8, US-ASCII, and ISO-8859-1 are encoded inline. Other charsets are encoded with a {@link CharsetEncoder}, via a
+ reusable char buffer. Characters that the charset can't encode are replaced with {@code ?}, as with
+ {@link String#getBytes(Charset)}.</p>
+ <p>Call {@link #finish()} once done, to flush the remaining bytes and return the buffers to their pool; or
+ {@link #release()}, if the output failed. An IOException from the sink is rethrown as an
+ {@link UncheckedIOException}.</p>
+ */
+public final class ByteAppendable extends QuietAppendable {
+    /** The destination of encoded bytes. */
+    @FunctionalInterface
+    public interface Sink {
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private static final int BufferSize = 8 * 1024;
+    private static final SoftPool<byte[]> BytePool = new SoftPool<>(() -> new byte[BufferSize]);
+    private static final SoftPool<char[]> CharPool = new SoftPool<>(() -> new char[BufferSize / 4]);
+
+    private static final int Utf8 = 0, Ascii = 1, Latin1 = 2, Fallback = 3;
+    private static final byte Replacement = '?';
+
+    private final Sink sink;
+    private final int mode;
+    private byte[] buf;
+    private int pos = 0;
+    private char highSurrogate = 0; // a pending high surrogate, to pair with the next char appended
+
+    // fallback encoder state
+    private final CharsetEncoder encoder;
+    private final char[] chars;
+    private final CharBuffer charBuffer;
+    private final ByteBuffer byteBuffer;
+
+    /**
+     Create a new appendable.
+     @param charset the charset to encode with
+     @param sink the destination of the encoded bytes
+     */
+    public ByteAppendable(Charset charset, Sink sink) {
+        Validate.notNull(charset);
+        Validate.notNull(sink);
+        this.sink = sink;
+        buf = BytePool.borrow();
+        switch (charset.name()) {
+            case "UTF-8": mode = Utf8; break;
+            case "US-ASCII": mode = Ascii; break;
+            case "ISO-8859-1": mode = Latin1; break;
+            default: mode = Fallback;
+        }
+        if (mode == Fallback) {
+            encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = CharPool.borrow();
+            charBuffer = CharBuffer.wrap(chars);
+            charBuffer.limit(0);
+            byteBuffer = ByteBuffer.wrap(buf);
+        } else {
+            encoder = null;
+            chars = null;
+            charBuffer = null;
+            byteBuffer = null;
+        }
+    }
+
+    @Override
+    public ByteAppendable append(CharSequence csq) {
+        final int len = csq.length();
+        if (mode == Fallback) {
+            for (int i = 0; i < len; i++) queue(csq.charAt(i));
+        } else {
+            for (int i = 0; i < len; i++) encode(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public ByteAppendable append(char c) {
+        if (mode == Fallback) queue(c);
+        else                  encode(c);
+        return this;
+    }
+
+    @Override
+    public ByteAppendable append(char[] chars, int offset, int len) {
+        final int end = offset + len;
+        if (mode == Fallback) {
+            for (int i = offset; i < end; i++) queue(chars[i]);
+        } else {
+            for (int i = offset; i < end; i++) encode(chars[i]);
+        }
+        return this;
+    }
+
+    /**
+     Flush any remaining bytes to the sink, and release this appendable's buffers. It must not be used after.
+     */
+    public void finish() {
+        if (buf == null) return;
+        try {
+            if (highSurrogate != 0) { // unpaired at the end
+                highSurrogate = 0;
+                if (mode != Fallback) put(Replacement);
+            }
+            if (mode == Fallback) {
+                encodeChars(true);
+                CoderResult result;
+                do {
+                    result = encoder.flush(byteBuffer);
+                    drainEncoded();
+                } while (result.isOverflow());
+            }
+            drain();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     Release this appendable's buffers without flushing, as when the output failed part way. It must not be used after.
+     Does nothing if already finished.
+     */
+    public void release() {
+        if (buf == null) return;
+        if (mode == Fallback) CharPool.release(chars);
+        BytePool.release(buf);
+        buf = null;
+    }
+
+    // inline encoders
+
+    private void encode(char c) {
+        if (c < 0x80 && highSurrogate == 0) { // the common case
+            if (pos == buf.length) drain();
+            buf[pos++] = (byte) c;
+            return;
+        }
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                encodeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            put(Replacement); // unpaired high surrogate; then encode c as normal
+            encode(c);
+            return;
+        }
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put(Replacement);
+        } else {
+            encodeCodePoint(c);
+        }
+    }
+
+    private void encodeCodePoint(int cp) {
+        if (mode == Ascii) {
+            put(cp < 0x80 ? (byte) cp : Replacement);
+        } else if (mode == Latin1) {
+            put(cp < 0x100 ? (byte) cp : Replacement);
+        } else { // UTF-8
+            if (buf.length - pos < 4) drain();
+            if (cp < 0x80) {
+                buf[pos++] = (byte) cp;
+            } else if (cp < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (cp >> 6));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (cp < 0x10000) {
+                buf[pos++] = (byte) (0xE0 | (cp >> 12));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            }
+        }
+    }
+
+    private void put(byte b) {
+        if (pos == buf.length) drain();
+        buf[pos++] = b;
+    }
+
+    private void drain() {
+        if (pos == 0) return;
+        try {
+            sink.write(buf, 0, pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pos = 0;
+    }
+
+    // fallback encoder
+
+    private void queue(char c) {
+        if (charBuffer.limit() == chars.length) encodeChars(false);
+        chars[charBuffer.limit()] = c;
+        charBuffer.limit(charBuffer.limit() + 1);
+    }
+
+    /** Encode the queued chars. A trailing partial surrogate pair is kept queued unless this is the end of input. */
+    private void encodeChars(boolean endOfInput) {
+        CoderResult result;
+        do {
+            byteBuffer.position(pos);
+            result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+            drainEncoded();
+            if (result.isError()) { // not expected with REPLACE actions
+                try {
+                    result.throwException();
+                } catch (CharacterCodingException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        } while (result.isOverflow());
+        charBuffer.compact().flip(); // keep any remainder at the start, ready to queue after
+    }
+
+    private void drainEncoded() {
+        pos = byteBuffer.position();
+        drain();
+        byteBuffer.position(0);
+    }
+}
@@ -29,13 +29,13 @@ public final class StringUtil {
      * @param string string to test
      * @return if string is blank
      */
-    public static boolean isBlank(@Nullable String string) {
-        if (string == null || string.isEmpty())
+    public static boolean isBlank(@Nullable CharSequence string) {
+        if (string == null || string.length() == 0)
             return true;
 
         int l = string.length();
         for (int i = 0; i < l; i++) {
-            if (!StringUtil.isWhitespace(string.codePointAt(i)))
+            if (!StringUtil.isWhitespace(Character.codePointAt(string, i)))
                 return false;
         }
         return true;
@@ -188,14 +188,14 @@ public final class StringUtil {
      * @param string string to normalize whitespace within
      * @param stripLeading set to true if you wish to remove any leading whitespace
      */
-    public static void appendNormalisedWhitespace(StringBuilder accum, String string, boolean stripLeading) {
+    public static void appendNormalisedWhitespace(StringBuilder accum, CharSequence string, boolean stripLeading) {
         boolean lastWasWhite = false;
         boolean reachedNonWhite = false;
 
         int len = string.length();
         int c;
         for (int i = 0; i < len; i+= Character.charCount(c)) {
-            c = string.codePointAt(i);
+            c = Character.codePointAt(string, i);
             if (isActuallyWhitespace(c)) {
                 if ((stripLeading && !reachedNonWhite) || lastWasWhite)
                     continue;
@@ -378,7 +378,11 @@ public final class StringUtil {
     private static final SoftPool<StringBuilder> BuilderPool = new SoftPool<>(
             () -> new StringBuilder(InitBuilderSize));
 
-    private static String stripControlChars(final String input) {
-        return controlChars.matcher(input).replaceAll("");
+    static String stripControlChars(final String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (input.charAt(i) < 0x20)
+                return controlChars.matcher(input).replaceAll("");
+        }
+        return input; // the common case; skips the matcher, which otherwise matches empty at each position
     }
 }
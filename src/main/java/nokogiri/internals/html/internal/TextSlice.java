@@ -0,0 +1,67 @@
+package nokogiri.internals.html.internal;
+
+import nokogiri.internals.html.helper.Validate;
+
+/**
+ A read-only slice of a source string, that is not copied until it is converted {@link #toString() to a String}. Used to
+ hold the values of text and data nodes as a reference into the retained parse input.
+ <p>A slice retains its whole source. So a document with only a few of its slices still live (e.g. after removing most
+ of its content) retains more than it needs; see {@link nokogiri.internals.html.nodes.Document#compactText()}.</p>
+ */
+public final class TextSlice implements CharSequence {
+    private final String source;
+    private final int offset;
+    private final int length;
+
+    /**
+     Create a new slice.
+     @param source the source string
+     @param start the start of the slice in the source (inclusive)
+     @param end the end of the slice in the source (exclusive)
+     */
+    public TextSlice(String source, int start, int end) {
+        Validate.notNull(source);
+        Validate.isTrue(start >= 0 && start <= end && end <= source.length(), "Slice out of bounds");
+        this.source = source;
+        this.offset = start;
+        this.length = end - start;
+    }
+
+    /** The source string that this slices. */
+    public String source() {
+        return source;
+    }
+
+    /** The start of this slice in the source. */
+    public int offset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index " + index + " out of " + length);
+        return source.charAt(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        Validate.isTrue(start >= 0 && start <= end && end <= length, "Slice out of bounds");
+        return new TextSlice(source, offset + start, offset + end);
+    }
+
+    /** Append this slice to the builder, without an intermediate copy. */
+    public StringBuilder appendTo(StringBuilder accum) {
+        return accum.append(source, offset, offset + length);
+    }
+
+    /** A copy of this slice as a String. */
+    @Override
+    public String toString() {
+        return source.substring(offset, offset + length);
+    }
+}
@@ -0,0 +1,224 @@
+package nokogiri.internals.html.internal;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ Resolves relative URLs against a base URL, per <a href="https://www.rfc-editor.org/rfc/rfc3986#section-5.2">RFC 3986
+ section 5.2</a>. The base is parsed once, and each reference is resolved by string operations, without allocating a
+ {@link java.net.URL}; so it is much cheaper than {@link StringUtil#resolve(String, String)} when resolving many URLs
+ against the same base (as when extracting all the links of a page).
+ <p>As with {@code StringUtil.resolve}, control characters are removed, and surrounding whitespace trimmed, first. The
+ result is the same as {@code StringUtil.resolve} for typical links, but not for every input. It follows the RFC where
+ {@code java.net.URL} departs from it: dot segments ({@code ./} and {@code ../}) are also removed from absolute URLs and
+ absolute paths; an empty reference resolves to the base without its fragment; the user info of an authority is kept;
+ and a reference with the base's scheme but no authority (like {@code https:foo}) is not resolved against the base's
+ authority. References with opaque schemes (like {@code mailto:} and {@code javascript:}) are returned as they are,
+ without lower-casing the scheme.</p>
+ <p>If the base is not an absolute hierarchical URL (such as {@code https://example.com/} or {@code file:/path}), or a
+ reference contains a backslash (which browsers treat as a slash, in some URLs), the URL is resolved by
+ {@code StringUtil.resolve} instead.</p>
+ <p>A resolver is immutable, so may be shared across threads.</p>
+ */
+public final class UrlResolver {
+    private final String baseUri;
+    private final boolean hierarchical; // if the base is an absolute, hierarchical URL; otherwise, we delegate
+    private final String scheme; // lower-cased
+    private final @Nullable String authority;
+    private final String path;
+    private final @Nullable String query;
+    private final String directory; // the base path, up to and including its last /; for merging relative paths
+    private final boolean directoryHasDots;
+
+    /**
+     Create a resolver for the base URL.
+     @param baseUri the base URL that references will be resolved against
+     */
+    public UrlResolver(String baseUri) {
+        this.baseUri = baseUri;
+        String base = StringUtil.stripControlChars(baseUri).trim();
+        Components c = Components.parse(base);
+        hierarchical = c.schemeEnd > 0 && base.indexOf('\\') < 0
+            && (c.authStart >= 0 || (c.pathEnd > c.pathStart && base.charAt(c.pathStart) == '/'));
+        if (!hierarchical) {
+            scheme = path = directory = "";
+            authority = query = null;
+            directoryHasDots = false;
+            return;
+        }
+        scheme = Normalizer.lowerCase(base.substring(0, c.schemeEnd));
+        authority = c.authStart >= 0 ? base.substring(c.authStart, c.authEnd) : null;
+        path = base.substring(c.pathStart, c.pathEnd);
+        query = c.queryStart >= 0 ? base.substring(c.queryStart, c.queryEnd) : null;
+        directory = path.isEmpty() ? "/" : path.substring(0, path.lastIndexOf('/') + 1);
+        directoryHasDots = hasDotSegment(directory, 0, directory.length());
+    }
+
+    /** The base URL, as given. */
+    public String baseUri() {
+        return baseUri;
+    }
+
+    /**
+     Resolve the reference against the base URL.
+     @param relUrl the URL to resolve; may be relative, or already absolute
+     @return the absolute URL, or an empty string if one could not be made (as when the base is not absolute, and the
+     reference is relative)
+     */
+    public String resolve(String relUrl) {
+        String ref = StringUtil.stripControlChars(relUrl).trim();
+        if (!hierarchical || ref.indexOf('\\') >= 0)
+            return StringUtil.resolve(baseUri, relUrl);
+
+        Components r = Components.parse(ref);
+        if (r.schemeEnd > 0 && r.authStart < 0 && (r.pathEnd == r.pathStart || ref.charAt(r.pathStart) != '/'))
+            return ref; // an opaque URL, like mailto:; nothing to resolve
+
+        StringBuilder sb = StringUtil.borrowBuilder();
+        if (r.schemeEnd > 0) {
+            sb.append(Normalizer.lowerCase(ref.substring(0, r.schemeEnd))).append(':');
+            if (r.authStart >= 0) sb.append("//").append(ref, r.authStart, r.authEnd);
+            appendRemovingDotSegments(sb, ref, r.pathStart, r.pathEnd);
+            appendQuery(sb, ref, r);
+        } else {
+            sb.append(scheme).append(':');
+            if (r.authStart >= 0) { // a network-path reference, like //example.com/
+                sb.append("//").append(ref, r.authStart, r.authEnd);
+                appendRemovingDotSegments(sb, ref, r.pathStart, r.pathEnd);
+                appendQuery(sb, ref, r);
+            } else {
+                if (authority != null) sb.append("//").append(authority);
+                if (r.pathEnd == r.pathStart) { // the base path, with the reference's query if it has one
+                    sb.append(path);
+                    if (r.queryStart >= 0) appendQuery(sb, ref, r);
+                    else if (query != null) sb.append('?').append(query);
+                } else if (ref.charAt(r.pathStart) == '/') {
+                    appendRemovingDotSegments(sb, ref, r.pathStart, r.pathEnd);
+                    appendQuery(sb, ref, r);
+                } else if (!directoryHasDots && !hasDotSegment(ref, r.pathStart, r.pathEnd)) { // merge, with nothing to remove
+                    sb.append(directory).append(ref, r.pathStart, r.pathEnd);
+                    appendQuery(sb, ref, r);
+                } else {
+                    appendRemovingDotSegments(sb, directory + ref.substring(r.pathStart, r.pathEnd), 0, -1);
+                    appendQuery(sb, ref, r);
+                }
+            }
+        }
+        if (r.fragmentStart >= 0) sb.append('#').append(ref, r.fragmentStart, ref.length());
+        return StringUtil.releaseBuilder(sb);
+    }
+
+    private static void appendQuery(StringBuilder sb, String ref, Components r) {
+        if (r.queryStart >= 0) sb.append('?').append(ref, r.queryStart, r.queryEnd);
+    }
+
+    /**
+     Append the path, with its dot segments removed, per RFC 3986 section 5.2.4.
+     @param end the end of the path, or -1 for the end of the string
+     */
+    static void appendRemovingDotSegments(StringBuilder out, String path, int start, int end) {
+        if (end < 0) end = path.length();
+        if (!hasDotSegment(path, start, end)) {
+            out.append(path, start, end);
+            return;
+        }
+        final int outStart = out.length();
+        int i = start;
+        while (i < end) {
+            if (path.startsWith("../", i)) { // A
+                i += 3;
+            } else if (path.startsWith("./", i)) {
+                i += 2;
+            } else if (path.startsWith("/./", i)) { // B: replace with /
+                i += 2;
+            } else if (i + 2 == end && path.startsWith("/.", i)) {
+                out.append('/');
+                i = end;
+            } else if (path.startsWith("/../", i)) { // C: replace with /, and remove the last output segment
+                i += 3;
+                removeLastSegment(out, outStart);
+            } else if (i + 3 == end && path.startsWith("/..", i)) {
+                removeLastSegment(out, outStart);
+                out.append('/');
+                i = end;
+            } else if ((i + 1 == end && path.charAt(i) == '.') || (i + 2 == end && path.startsWith("..", i))) { // D
+                i = end;
+            } else { // E: move the first segment, and its leading / if any, to the output
+                int next = path.indexOf('/', i + 1);
+                if (next < 0 || next > end) next = end;
+                out.append(path, i, next);
+                i = next;
+            }
+        }
+    }
+
+    private static void removeLastSegment(StringBuilder out, int outStart) {
+        int slash = out.lastIndexOf("/");
+        out.setLength(Math.max(slash, outStart));
+    }
+
+    /** If a segment of the path is {@code .} or {@code ..}. Most paths have none, so are copied as is. */
+    private static boolean hasDotSegment(String path, int start, int end) {
+        for (int i = path.indexOf('.', start); i >= 0 && i < end; i = path.indexOf('.', i + 1)) {
+            if (i > start && path.charAt(i - 1) != '/') continue;
+            int next = i + 1;
+            if (next < end && path.charAt(next) == '.') next++;
+            if (next == end || path.charAt(next) == '/') return true;
+        }
+        return false;
+    }
+
+    /**
+     The component boundaries of a URL reference, per the RFC 3986 appendix B pattern
+     {@code ^(([^:/?#]+):)?(//([^/?#]*))?([^?#]*)(\?([^#]*))?(#(.*))?}. A start of -1 marks an absent component.
+     */
+    private static final class Components {
+        int schemeEnd = -1; // the index of the scheme's :
+        int authStart = -1, authEnd = -1;
+        int pathStart, pathEnd;
+        int queryStart = -1, queryEnd = -1;
+        int fragmentStart = -1;
+
+        static Components parse(String s) {
+            Components c = new Components();
+            int len = s.length();
+            int i = 0;
+            if (len > 0 && StringUtil.isAsciiLetter(s.charAt(0))) {
+                int j = 1;
+                while (j < len && isSchemeChar(s.charAt(j))) j++;
+                if (j < len && s.charAt(j) == ':') {
+                    c.schemeEnd = j;
+                    i = j + 1;
+                }
+            }
+            if (s.startsWith("//", i)) {
+                c.authStart = i + 2;
+                c.authEnd = indexOfAny(s, c.authStart, true);
+                i = c.authEnd;
+            }
+            c.pathStart = i;
+            c.pathEnd = indexOfAny(s, i, false);
+            i = c.pathEnd;
+            if (i < len && s.charAt(i) == '?') {
+                c.queryStart = i + 1;
+                int hash = s.indexOf('#', c.queryStart);
+                c.queryEnd = hash >= 0 ? hash : len;
+                i = c.queryEnd;
+            }
+            if (i < len && s.charAt(i) == '#') c.fragmentStart = i + 1;
+            return c;
+        }
+
+        private static boolean isSchemeChar(char c) {
+            return StringUtil.isAsciiLetter(c) || StringUtil.isDigit(c) || c == '+' || c == '-' || c == '.';
+        }
+
+        /** The index of the next ?, # (or /, if slash), or the length. */
+        private static int indexOfAny(String s, int from, boolean slash) {
+            for (int i = from; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '?' || c == '#' || (slash && c == '/')) return i;
+            }
+            return s.length();
+        }
+    }
+}
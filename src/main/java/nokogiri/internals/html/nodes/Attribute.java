@@ -26,8 +26,8 @@ public class Attribute implements Cloneable, Attr {
             "noshade", "novalidate", "nowrap", "open", "readonly", "required", "reversed", "seamless", "selected",
             "sortable", "truespeed", "typemustmatch"
     };
-    private String key;
-    @Nullable private String val;
+    String key;
+    @Nullable String val;
     @Nullable Attributes parent; // used to update the holding Attributes when the key / value is changed via this interface
 
     /**
@@ -185,7 +185,7 @@ public class Attribute implements Cloneable, Attr {
     // org.w3c.dom.Node
     @Override
     public boolean isSameNode(org.w3c.dom.Node other) {
-        return this.hashCode() == other.hashCode();
+        return this == other;
     }
     // org.w3c.dom.Node
     @Override
@@ -330,10 +330,13 @@ public class Attribute implements Cloneable, Attr {
     public String setValueWithReturn(@Nullable String val) {
         String oldVal = this.val;
         if (parent != null) {
+            parent.checkNotSealed();
             int i = parent.indexOfKey(this.key);
             if (i != Attributes.NotFound) {
                 oldVal = parent.get(this.key); // trust the container more
+                parent.ensureOwned();
                 parent.vals[i] = val;
+                parent.syncAttribute(i);
             }
         }
         this.val = val;
@@ -430,10 +433,14 @@ public class Attribute implements Cloneable, Attr {
         key = key.trim();
         Validate.notEmpty(key); // trimming could potentially make empty, so validate here
         if (parent != null) {
+            parent.checkNotSealed();
             int i = parent.indexOfKey(this.key);
             if (i != Attributes.NotFound) {
                 String oldKey = parent.keys[i];
+                parent.ensureOwned();
                 parent.keys[i] = key;
+                parent.keyChanged();
+                parent.syncAttribute(i);
 
                 // if tracking source positions, update the key in the range map
                 Map<String, Range.AttributeRange> ranges = parent.getRanges();
@@ -501,6 +508,34 @@ public class Attribute implements Cloneable, Attr {
         }
     }
 
+    /** Write the attribute minified, and return the number of characters saved compared to the regular output. */
+    static int htmlMinified(String key, @Nullable String val, QuietAppendable accum, Document.OutputSettings out) {
+        if (shouldCollapseAttribute(key, val, out) || out.syntax() != Syntax.html) {
+            htmlNoValidate(key, val, accum, out);
+            return 0;
+        }
+        assert val != null; // else collapsed
+        // a boolean attribute with some other value (like hidden="until-found") keeps it, as it may be meaningful
+        if (!canUnquote(val)) {
+            htmlNoValidate(key, val, accum, out);
+            return 0;
+        }
+        accum.append(key).append('=');
+        Entities.escape(accum, val, out, Entities.ForAttribute);
+        return 2;
+    }
+
+    /** If the value can be written without quotes: is not empty, and has no whitespace, quotes, =, <, >, or `. */
+    private static boolean canUnquote(String val) {
+        if (val.isEmpty()) return false;
+        for (int i = 0; i < val.length(); i++) {
+            char c = val.charAt(i);
+            if (StringUtil.isWhitespace(c) || c == '"' || c == '\'' || c == '=' || c == '<' || c == '>' || c == '`')
+                return false;
+        }
+        return true;
+    }
+
     // collapse unknown foo=null, known checked=null, checked="", checked=checked; write out others
     protected static boolean shouldCollapseAttribute(final String key, @Nullable final String val, final Document.OutputSettings out) {
         return (out.syntax() == Syntax.html &&
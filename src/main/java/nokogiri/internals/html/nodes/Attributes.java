@@ -36,6 +36,23 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
     @Nullable
     Object[] vals = new Object[InitialCapacity];
     Element ownerElement;
+    boolean sealed; // set when the owning document is sealed; then any change throws
+    // the Attribute nodes handed out for each slot, created on first access, so that each attribute has a stable
+    // identity (for the W3C DOM, and XPath). Parallel to keys and vals; null until an Attribute is first requested
+    @Nullable Attribute[] attrs;
+    // above this many attributes, key lookups use a hash index rather than a linear scan
+    static final int HashThreshold = 12;
+    @Nullable private KeyIndex keyIndex; // built on the first lookup above the threshold; dropped when keys move
+    // set when the keys and vals arrays are shared with a clone (or the original); copied before the first write
+    private boolean shared;
+    // the escaped form of these attributes, when output settings cacheEscaped() is set; dropped in ensureOwned()
+    @Nullable private Escaped escaped;
+
+    /** The attributes of a sealed element that has none; so that reading them does not create a new set. */
+    static final Attributes EmptySealed = new Attributes();
+    static {
+        EmptySealed.sealed = true;
+    }
 
     // org.w3c.dom.NamedNodeMap
     @Override
@@ -73,8 +90,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
     @Override
     public org.w3c.dom.Node item(int index) {
         if (index < 0 || index >= size()) { return null; }
-        String key = keys[index];
-        return new Attribute(key, checkNotNull(vals[index]), this);
+        return attributeAt(index);
     }
 
     // org.w3c.dom.NamedNodeMap
@@ -124,9 +140,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
             public Attribute next() {
                 checkModified();
                 if (i >= size) throw new NoSuchElementException();
-                String key = keys[i];
-                assert key != null;
-                final Attribute attr = new Attribute(key, (String) vals[i], Attributes.this);
+                final Attribute attr = attributeAt(i);
                 i++;
                 return attr;
             }
@@ -151,17 +165,25 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException(e);
         }
+        clone.sealed = false; // a copy of a sealed set is modifiable
+        clone.attrs = null; // and its attributes are new nodes
+        clone.keyIndex = null;
         clone.size = size;
-        clone.keys = Arrays.copyOf(keys, size);
-        clone.vals = Arrays.copyOf(vals, size);
 
-        // make a copy of the user data map. (Contents are shallow).
         int i = indexOfKey(UserDataKey);
-        if (i != NotFound) {
+        if (i == NotFound) {
+            // copy on write: share the arrays until either set is modified. (A sealed set can't be, so stays unshared.)
+            clone.shared = true;
+            if (!sealed) shared = true;
+        } else {
+            clone.keys = Arrays.copyOf(keys, size);
+            clone.vals = Arrays.copyOf(vals, size);
+            clone.shared = false;
+            // make a copy of the user data map. (Contents are shallow).
             //noinspection unchecked
             @SuppressWarnings("unchecked")
             Map<String, Object> userData = (Map<String, Object>) vals[i];
-            vals[i] = userData != null ? new HashMap<>(userData) : null;
+            clone.vals[i] = userData != null ? new HashMap<>(userData) : null;
         }
 
         return clone;
@@ -222,7 +244,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
      */
     @Nullable public Attribute attribute(String key) {
         int i = indexOfKey(key);
-        return i == NotFound ? null : new Attribute(key, checkNotNull(vals[i]), this);
+        return i == NotFound ? null : attributeAt(i);
     }
 
     /**
@@ -245,10 +267,13 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
      */
     public Attributes put(String key, @Nullable String value) {
         Validate.notNull(key);
+        checkNotSealed();
         int i = indexOfKey(key);
-        if (i != NotFound)
+        if (i != NotFound) {
+            ensureOwned();
             vals[i] = value;
-        else
+            syncAttribute(i);
+        } else
             addObject(key, value);
         return this;
     }
@@ -276,6 +301,8 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
         Validate.notNull(attribute);
         put(attribute.getKey(), attribute.getValue());
         attribute.parent = this;
+        int i = indexOfKey(attribute.getKey());
+        ensureAttrs()[i] = attribute; // the put attribute is now the node for this key
         return this;
     }
 
@@ -293,14 +320,19 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
     @SuppressWarnings("AssignmentToNull")
     private void remove(int index) {
         Validate.isFalse(index >= size);
+        checkNotSealed();
+        ensureOwned();
         int shifted = size - index - 1;
         if (shifted > 0) {
             System.arraycopy(keys, index + 1, keys, index, shifted);
             System.arraycopy(vals, index + 1, vals, index, shifted);
+            if (attrs != null) System.arraycopy(attrs, index + 1, attrs, index, shifted);
         }
         size--;
         keys[size] = null; // release hold
         vals[size] = null;
+        if (attrs != null) attrs[size] = null;
+        keyIndex = null;
     }
 
     /**
@@ -330,6 +362,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
     public void addAll(Attributes incoming) {
         int incomingSize = incoming.size(); // not adding internal
         if (incomingSize == 0) return;
+        checkNotSealed();
         checkCapacity(size + incomingSize);
 
         boolean needsPut = size != 0; // if this set is empty, no need to check existing set, so can add() vs put()
@@ -440,6 +473,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
      */
     public Attributes userData(String key, @Nullable Object value) {
         Validate.notNull(key);
+        checkNotSealed();
         if (value == null && !hasKey(UserDataKey)) return this; // no user data exists, so short-circuit
         Map<String, Object> userData = userData();
         if (value == null)  userData.remove(key);
@@ -490,13 +524,20 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
      * Internal method. Lowercases all (non-internal) keys.
      */
     public void normalize() {
+        checkNotSealed();
         for (int i = 0; i < size; i++) {
             assert keys[i] != null;
             String key = keys[i];
             assert key != null;
-            if (!isInternalKey(key))
-                keys[i] = lowerCase(key);
+            if (!isInternalKey(key)) {
+                String lower = lowerCase(key);
+                if (lower.equals(key)) continue;
+                ensureOwned();
+                keys[i] = lower;
+                syncAttribute(i);
+            }
         }
+        keyIndex = null;
     }
 
     /**
@@ -508,6 +549,18 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
         if (size == 0) return 0;
         boolean preserve = settings.preserveAttributeCase();
         int dupes = 0;
+        if (size > HashThreshold) { // an attribute is a dupe if an earlier one has its key
+            for (int i = 0; i < size; i++) {
+                String keyI = keys[i];
+                assert keyI != null;
+                if ((preserve ? indexOfKey(keyI) : indexOfKeyIgnoreCase(keyI)) != i) {
+                    dupes++;
+                    remove(i);
+                    i--;
+                }
+            }
+            return dupes;
+        }
         for (int i = 0; i < size; i++) {
             String keyI = keys[i];
             assert keyI != null;
@@ -533,8 +586,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
             assert key != null;
             if (isInternalKey(key))
                 continue; // skip internal keys
-            Attribute attr = new Attribute(key, (String) vals[i], Attributes.this);
-            list.add(attr);
+            list.add(attributeAt(i));
         }
         return Collections.unmodifiableList(list);
     }
@@ -582,6 +634,7 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
 
     int indexOfKey(String key) {
         Validate.notNull(key);
+        if (size > HashThreshold) return keyIndex().indexOf(key, false, this);
         for (int i = 0; i < size; i++) {
             if (key.equals(keys[i]))
                 return i;
@@ -621,19 +674,37 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
     }
 
     void putIgnoreCase(String key, @Nullable String value) {
+        checkNotSealed();
         int i = indexOfKeyIgnoreCase(key);
         if (i != NotFound) {
+            ensureOwned();
             vals[i] = value;
             String old = keys[i];
             assert old != null;
-            if (!old.equals(key)) // case changed, update
+            if (!old.equals(key)) { // case changed, update
                 keys[i] = key;
+                keyIndex = null;
+            }
+            syncAttribute(i);
         }
         else
             addObject(key, value);
     }
 
     final void html(final QuietAppendable accum, final Document.OutputSettings out) {
+        if (!out.cacheEscaped()) {
+            htmlUncached(accum, out);
+            return;
+        }
+        Escaped cached = escaped;
+        if (cached == null || !cached.matches(out, 0, null)) {
+            cached = Escaped.attributes(this, out);
+            escaped = cached;
+        }
+        accum.append(cached.html);
+    }
+
+    final void htmlUncached(final QuietAppendable accum, final Document.OutputSettings out) {
         final int sz = size;
         for (int i = 0; i < sz; i++) {
             String key = keys[i];
@@ -646,13 +717,78 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
         }
     }
 
+    /**
+     Write these attributes minified: with unquoted values where the HTML syntax allows, and boolean attributes as just
+     their keys.
+     @return the number of characters saved, compared to {@link #html(QuietAppendable, Document.OutputSettings)}
+     */
+    final int htmlMinified(final QuietAppendable accum, final Document.OutputSettings out) {
+        int saved = 0;
+        final int sz = size;
+        for (int i = 0; i < sz; i++) {
+            String key = keys[i];
+            assert key != null;
+            if (isInternalKey(key))
+                continue;
+            final String validated = Attribute.getValidKey(key, out.syntax());
+            if (validated != null)
+                saved += Attribute.htmlMinified(validated, (String) vals[i], accum.append(' '), out);
+        }
+        return saved;
+    }
+
     private void addObject(String key, @Nullable Object value) {
+        checkNotSealed();
+        ensureOwned();
         checkCapacity(size + 1);
         keys[size] = key;
         vals[size] = value;
+        if (keyIndex != null && !keyIndex.add(key, size)) keyIndex = null; // rebuilt larger on next lookup
         size++;
     }
 
+    /**
+     Mark these attributes as sealed. A large set builds its key index now, and every set its Attribute nodes, so that
+     reads don't need to: a sealed set is then only read, and may be shared across threads without locking.
+     */
+    void seal() {
+        if (size > HashThreshold) keyIndex();
+        for (int i = 0; i < size; i++) createAttributeAt(i);
+        sealed = true;
+    }
+
+    /** Called when a key has been changed in place, outside of these methods. */
+    void keyChanged() {
+        keyIndex = null;
+    }
+
+    private KeyIndex keyIndex() {
+        KeyIndex index = keyIndex;
+        if (index == null) {
+            index = new KeyIndex(this);
+            keyIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     Called before writing to the arrays: drops the cached escaped form, and if the arrays are shared with a clone,
+     takes a copy of them.
+     */
+    void ensureOwned() {
+        escaped = null;
+        if (!shared) return;
+        keys = Arrays.copyOf(keys, Math.max(size, InitialCapacity));
+        vals = Arrays.copyOf(vals, keys.length);
+        if (attrs != null) attrs = Arrays.copyOf(attrs, keys.length);
+        shared = false;
+    }
+
+    /** Throws if these attributes belong to a sealed document. */
+    void checkNotSealed() {
+        if (sealed) throw new UnsupportedOperationException("Can not modify the attributes of a sealed document");
+    }
+
     // check there's room for more
     private void checkCapacity(int minNewSize) {
         Validate.isTrue(minNewSize >= size);
@@ -665,10 +801,50 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
 
         keys = Arrays.copyOf(keys, newCap);
         vals = Arrays.copyOf(vals, newCap);
+        if (attrs != null) attrs = Arrays.copyOf(attrs, newCap);
+    }
+
+    /** Get the Attribute node for the slot, creating it on first access; later calls return the same node. */
+    Attribute attributeAt(int i) {
+        if (sealed) { // created in seal(), so only read here
+            assert attrs != null;
+            return attrs[i];
+        }
+        return createAttributeAt(i);
+    }
+
+    private Attribute createAttributeAt(int i) {
+        Attribute[] attrs = ensureAttrs();
+        Attribute attr = attrs[i];
+        if (attr == null) {
+            String key = keys[i];
+            assert key != null;
+            attr = new Attribute(key, (String) vals[i], this);
+            attrs[i] = attr;
+        }
+        return attr;
+    }
+
+    private Attribute[] ensureAttrs() {
+        if (attrs == null) attrs = new Attribute[keys.length];
+        return attrs;
+    }
+
+    /** Update the slot's Attribute node, if one has been created, after its key or value was changed in place. */
+    void syncAttribute(int i) {
+        if (attrs == null) return;
+        Attribute attr = attrs[i];
+        if (attr != null) {
+            String key = keys[i];
+            assert key != null;
+            attr.key = key;
+            attr.val = (String) vals[i];
+        }
     }
 
     private int indexOfKeyIgnoreCase(String key) {
         Validate.notNull(key);
+        if (size > HashThreshold) return keyIndex().indexOf(key, true, this);
         for (int i = 0; i < size; i++) {
             if (key.equalsIgnoreCase(keys[i]))
                 return i;
@@ -738,4 +914,62 @@ public class Attributes implements org.w3c.dom.NamedNodeMap, Iterable<Attribute>
             }
         }
     }
+
+    /**
+     An open addressing hash index of the keys of a large set of attributes, to their slots. Holds two tables: one of
+     the keys as is, and one of the keys lower-cased, for case-insensitive lookups. Each table entry is a slot + 1, or 0
+     if empty; and each table is kept at most half full. Equal keys (before deduplication) are found in slot order, as
+     each is probed after the earlier ones.
+     */
+    private static final class KeyIndex {
+        private final int[] exact;
+        private final int[] folded;
+        private String[] lowerKeys;
+
+        KeyIndex(Attributes attributes) {
+            int capacity = Integer.highestOneBit(Math.max(attributes.size, HashThreshold) * 4);
+            exact = new int[capacity];
+            folded = new int[capacity];
+            lowerKeys = new String[attributes.keys.length];
+            for (int i = 0; i < attributes.size; i++) {
+                String key = attributes.keys[i];
+                assert key != null;
+                add(key, i);
+            }
+        }
+
+        /** Index the key at the slot. Returns false if the index is too full to add it, and needs to be rebuilt. */
+        boolean add(String key, int slot) {
+            if ((slot + 1) * 2 > exact.length) return false;
+            if (slot >= lowerKeys.length) lowerKeys = Arrays.copyOf(lowerKeys, Math.max(slot + 1, lowerKeys.length * 2));
+            String lower = lowerCase(key);
+            lowerKeys[slot] = lower;
+            insert(exact, key.hashCode(), slot);
+            insert(folded, lower.hashCode(), slot);
+            return true;
+        }
+
+        private static void insert(int[] table, int hash, int slot) {
+            int mask = table.length - 1;
+            int i = spread(hash) & mask;
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = slot + 1;
+        }
+
+        int indexOf(String key, boolean ignoreCase, Attributes attributes) {
+            String find = ignoreCase ? lowerCase(key) : key;
+            int[] table = ignoreCase ? folded : exact;
+            int mask = table.length - 1;
+            for (int i = spread(find.hashCode()) & mask; table[i] != 0; i = (i + 1) & mask) {
+                int slot = table[i] - 1;
+                if (find.equals(ignoreCase ? lowerKeys[slot] : attributes.keys[slot]))
+                    return slot;
+            }
+            return NotFound;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
@@ -4,12 +4,17 @@ import org.w3c.dom.CDATASection;
 import org.w3c.dom.DOMException;
 
 import nokogiri.internals.html.internal.QuietAppendable;
+import nokogiri.internals.html.internal.TextSlice;
 
 public class CDataNode extends TextNode implements CDATASection {
     public CDataNode(String text) {
         super(text);
     }
 
+    public CDataNode(TextSlice text) {
+        super(text);
+    }
+
     // org.w3c.dom.Node
     @Override
     public String getNodeName() {
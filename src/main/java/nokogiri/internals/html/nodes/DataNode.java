@@ -5,6 +5,7 @@ import org.w3c.dom.DOMException;
 
 import nokogiri.internals.html.helper.W3CValidation;
 import nokogiri.internals.html.internal.QuietAppendable;
+import nokogiri.internals.html.internal.TextSlice;
 
 public class DataNode extends LeafNode implements CharacterData {
 
@@ -16,6 +17,15 @@ public class DataNode extends LeafNode implements CharacterData {
         super(data);
     }
 
+    /**
+     Create a new DataNode whose contents are a slice of the parse input.
+     @param data data contents, as a slice
+     @see nokogiri.internals.html.parser.Parser#setSliceText(boolean)
+     */
+    public DataNode(TextSlice data) {
+        super(data);
+    }
+
     @Override
     public DataNode clone() {
         return (DataNode) super.clone();
@@ -121,6 +131,15 @@ public class DataNode extends LeafNode implements CharacterData {
         return coreValue();
     }
 
+    /**
+     Get the data contents of this node, without copying them if they are still a slice of the parse input.
+     @return data, as a {@link TextSlice} or a String
+     @see #getWholeData()
+     */
+    public CharSequence wholeDataSequence() {
+        return coreSequence();
+    }
+
     /**
      * Set the data contents of this node.
      * @param data un-encoded data
@@ -135,8 +154,13 @@ public class DataNode extends LeafNode implements CharacterData {
     void outerHtmlHead(QuietAppendable accum, Document.OutputSettings out) {
         /* For XML output, escape the DataNode in a CData section. The data may contain pseudo-CData content if it was
         parsed as HTML, so don't double up Cdata. Output in polyglot HTML / XHTML / XML format. */
+        if (out.syntax() != Document.OutputSettings.Syntax.xml) {
+            // In HTML, data is not escaped in the output of data nodes, so < and & in script, style is OK
+            accum.append(coreSequence());
+            return;
+        }
         final String data = getWholeData();
-        if (out.syntax() == Document.OutputSettings.Syntax.xml && !data.contains("<![CDATA[")) {
+        if (!data.contains("<![CDATA[")) {
             if (parentNameIs("script"))
                 accum.append("//<![CDATA[\n").append(data).append("\n//]]>");
             else if (parentNameIs("style"))
@@ -144,7 +168,6 @@ public class DataNode extends LeafNode implements CharacterData {
             else
                 accum.append("<![CDATA[").append(data).append("]]>");
         } else {
-            // In HTML, data is not escaped in the output of data nodes, so < and & in script, style is OK
             accum.append(data);
         }
     }
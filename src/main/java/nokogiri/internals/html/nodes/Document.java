@@ -1,7 +1,11 @@
 package nokogiri.internals.html.nodes;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.jspecify.annotations.Nullable;
 import org.w3c.dom.DOMException;
@@ -10,12 +14,15 @@ import org.w3c.dom.NamedNodeMap;
 import nokogiri.internals.html.helper.DataUtil;
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.helper.W3CValidation;
+import nokogiri.internals.html.internal.QuietAppendable;
 import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.internal.TextSlice;
 import nokogiri.internals.html.select.Elements;
 import nokogiri.internals.html.parser.ParseSettings;
 import nokogiri.internals.html.parser.Parser;
 import nokogiri.internals.html.parser.Tag;
 import nokogiri.internals.html.select.Evaluator;
+import nokogiri.internals.html.select.NodeVisitor;
 
 import static nokogiri.internals.html.parser.Parser.NamespaceHtml;
 
@@ -143,10 +150,16 @@ public class Document extends Element implements org.w3c.dom.Document {
         return element;
     }
     // org.w3c.dom.Document
+    // nokogiri.internals.html.nodes.Document
+    /**
+     Create an empty {@link DocumentFragment} owned by this document. Build a run of nodes in the fragment, and insert
+     it to move them all into the tree in one operation.
+     */
     @Override
-    public org.w3c.dom.DocumentFragment createDocumentFragment() {
-        // TODO: create DocumentFragment class and implement this method
-        return null;
+    public DocumentFragment createDocumentFragment() {
+        DocumentFragment fragment = new DocumentFragment(baseUri());
+        fragment.setOwnerDocument(this);
+        return fragment;
     }
     // org.w3c.dom.Document
     @Override
@@ -192,10 +205,31 @@ public class Document extends Element implements org.w3c.dom.Document {
         return super.getElementsByTagName(tagName);
     }
     // org.w3c.dom.Document
+    /**
+     Import a copy of a node from another document into this one. The copy has no parent, and is owned by this
+     document, ready to be inserted. It is made as a {@link Node#clone()} (or a {@link Node#shallowClone()} if not
+     deep), so the copy shares the source's strings, and its attribute arrays until either side is modified. Any
+     {@link org.w3c.dom.UserDataHandler}s on the source nodes are notified, with {@code NODE_IMPORTED}; user data is not
+     copied.
+     */
     @Override
     public org.w3c.dom.Node importNode(org.w3c.dom.Node importedNode, boolean deep) throws DOMException {
-        // TODO: implement this method
-        return null;
+        if (importedNode instanceof Attribute) {
+            Attribute attr = ((Attribute) importedNode).clone();
+            attr.parent = null;
+            return attr;
+        }
+        Node source = importable(importedNode);
+        Node copy = deep ? source.clone() : source.shallowClone();
+        copy.remove(); // a cloned leaf is parented to a shell of its document
+        Iterator<Node> sources = (deep ? source.nodeStream() : Stream.of(source)).iterator();
+        copy.nodeStream().forEach(node -> {
+            node.document = this;
+            node.userData = new HashMap<>(); // the clone's maps are the source's
+            node.dataHandlers = new HashMap<>();
+            sources.next().notifyUserDataHandlers(org.w3c.dom.UserDataHandler.NODE_IMPORTED, node);
+        });
+        return copy;
     }
     // org.w3c.dom.Document
     @Override
@@ -262,9 +296,36 @@ public class Document extends Element implements org.w3c.dom.Document {
     @Override
     public void setDocumentURI(String documentURI) { setBaseUri(documentURI); }
     // org.w3c.dom.Document
+    /**
+     Adopt a node (and its descendants) from another document into this one, without copying. The node is removed from
+     its parent, and each node in its subtree is set to be owned by this document. Any
+     {@link org.w3c.dom.UserDataHandler}s on those nodes are notified, with {@code NODE_ADOPTED}.
+     */
+    @Override
     public org.w3c.dom.Node adoptNode(org.w3c.dom.Node node) throws DOMException {
-        // TODO: implement this method
-        return null;
+        if (node instanceof Attribute) {
+            Attribute attr = (Attribute) node;
+            if (attr.parent != null) {
+                attr.parent.remove(attr.getKey());
+                attr.parent = null;
+            }
+            return attr;
+        }
+        Node adopted = importable(node);
+        W3CValidation.modificationAllowed(this);
+        W3CValidation.modificationAllowed(adopted);
+        adopted.remove();
+        adopted.nodeStream().forEach(n -> {
+            n.document = this;
+            n.notifyUserDataHandlers(org.w3c.dom.UserDataHandler.NODE_ADOPTED, null);
+        });
+        return adopted;
+    }
+
+    private static Node importable(org.w3c.dom.Node node) {
+        if (!(node instanceof Node) || node instanceof Document || node instanceof DocumentType)
+            throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not supported for this type of node.");
+        return (Node) node;
     }
     // org.w3c.dom.Document
     @Override
@@ -299,6 +360,11 @@ public class Document extends Element implements org.w3c.dom.Document {
         return super.html(); // no outer wrapper tag
     }
 
+    @Override
+    protected void outerHtml(QuietAppendable accum) {
+        innerHtml(accum); // no outer wrapper tag
+    }
+
     /**
      Set the text of the {@code body} of this document. Any existing nodes within the body will be cleared.
      @param text un-encoded text
@@ -409,10 +475,77 @@ public class Document extends Element implements org.w3c.dom.Document {
      * @return this document, for chaining.
      */
     public Document parser(Parser parser) {
+        checkNotSealed();
         this.parser = parser;
         return this;
     }
 
+    /**
+     Freeze this document into a compact, read-only snapshot, stored as arrays rather than as node objects. The snapshot
+     uses much less memory than the document, is safe to share between threads, and can be queried with selectors. It is
+     not affected by later changes to this document.
+     @return a frozen copy of this document
+     @see FrozenDocument#thaw()
+     */
+    public FrozenDocument freeze() {
+        return FrozenDocument.of(this);
+    }
+
+    /**
+     Seal this document, making it immutable, so that it can be read by many threads concurrently, without locking.
+     <p>State that is otherwise computed lazily on read (the sibling indexes and the child element lists) is computed
+     now, so that reads never write. After sealing, any method that would modify the document, its nodes, or their
+     attributes throws an {@link UnsupportedOperationException} (or a {@link DOMException}, via the W3C DOM methods). A
+     sealed document can not be unsealed; {@link #clone()} it to get a modifiable copy.</p>
+     <p>As with any object shared between threads, publish the sealed document safely (e.g. via a final or volatile
+     field, or a concurrent collection). The {@link #outputSettings() output settings} object is not sealed; configure it
+     before sealing, and don't change it while the document is being read.</p>
+     @return this document, for chaining
+     @see #isSealed()
+     */
+    public Document seal() {
+        if (isSealed()) return this;
+        traverse(new NodeVisitor() {
+            @Override public void head(Node node, int depth) {}
+
+            @Override public void tail(Node node, int depth) {
+                // children first, so the document only reports as sealed once everything within it is
+                if (node instanceof Element)
+                    ((Element) node).sealContent();
+                else if (node.hasAttributes())
+                    node.attributes().seal();
+            }
+        });
+        return this;
+    }
+
+    /**
+     Compact the text of this document that is still held as slices of the parse input (see {@link
+     Parser#setSliceText(boolean)}), by copying it into one new, right-sized buffer. A slice retains its whole source, so
+     after most of a large document has been removed, the remaining nodes can still retain all of the original input;
+     compacting lets that be collected.
+     @return this document, for chaining
+     */
+    public Document compactText() {
+        checkNotSealed();
+        List<LeafNode> sliced = new ArrayList<>();
+        StringBuilder buffer = StringUtil.borrowBuilder();
+        traverse((node, depth) -> {
+            if (node instanceof LeafNode && ((LeafNode) node).value instanceof TextSlice) {
+                sliced.add((LeafNode) node);
+                ((TextSlice) ((LeafNode) node).value).appendTo(buffer);
+            }
+        });
+        String source = StringUtil.releaseBuilder(buffer);
+        int pos = 0;
+        for (LeafNode node : sliced) {
+            int len = ((TextSlice) node.value).length();
+            node.value = new TextSlice(source, pos, pos + len);
+            pos += len;
+        }
+        return this;
+    }
+
     public enum QuirksMode {
         noQuirks, quirks, limitedQuirks
     }
@@ -422,6 +555,7 @@ public class Document extends Element implements org.w3c.dom.Document {
     }
 
     public Document quirksMode(QuirksMode quirksMode) {
+        checkNotSealed();
         this.quirksMode = quirksMode;
         return this;
     }
@@ -437,6 +571,7 @@ public class Document extends Element implements org.w3c.dom.Document {
     }
 
     public void charset(Charset charset) {
+        checkNotSealed();
         outputSettings.charset(charset);
         ensureMetaCharsetElement();
     }
@@ -534,6 +669,7 @@ public class Document extends Element implements org.w3c.dom.Document {
      */
     public Document outputSettings(OutputSettings outputSettings) {
         Validate.notNull(outputSettings);
+        checkNotSealed();
         this.outputSettings = outputSettings;
         return this;
     }
@@ -553,6 +689,9 @@ public class Document extends Element implements org.w3c.dom.Document {
         private int indentAmount = 1;
         private int maxPaddingWidth = 30;
         private Syntax syntax = Syntax.html;
+        private boolean parallel = false;
+        private boolean minify = false;
+        private boolean cacheEscaped = false;
 
         /**
          Create a new OutputSettings object, with the default settings (UTF-8, HTML, EscapeMode.base, pretty-printing,
@@ -734,5 +873,73 @@ public class Document extends Element implements org.w3c.dom.Document {
             this.maxPaddingWidth = maxPaddingWidth;
             return this;
         }
+
+        /**
+         * Get if minified output is enabled. Default is false.
+         * @return if output is minified.
+         */
+        public boolean minify() {
+            return minify;
+        }
+
+        /**
+         * Enable or disable minified output. If enabled, the HTML output methods drop comments; collapse whitespace,
+         * and drop it where it is not rendered (beside block elements), except in whitespace preserving elements like
+         * {@code pre}; omit the end tags that the HTML syntax allows (e.g. of {@code li}, {@code p}, {@code td}, and
+         * {@code body}); write attribute values without quotes where allowed; and write boolean attributes as just
+         * their names. The pretty print and outline settings are ignored.
+         * <p>Tags and attributes are only shortened in the {@link Syntax#html html} syntax.</p>
+         * @param minify new minify setting
+         * @return this, for chaining
+         * @see Node#minify(Appendable)
+         */
+        public OutputSettings minify(boolean minify) {
+            this.minify = minify;
+            return this;
+        }
+
+        /**
+         * Get if the escaped form of text and attributes is cached. Default is false.
+         * @return if escaped output is cached.
+         */
+        public boolean cacheEscaped() {
+            return cacheEscaped;
+        }
+
+        /**
+         * Enable or disable caching of escaped output. If enabled, each text node and set of attributes keeps the
+         * escaped form it was last printed as, with the escape mode, charset, and syntax it was escaped with, and
+         * reuses it when printed again with the same settings, until it is modified. So a tree that is serialized
+         * repeatedly, and changes little between each, is only escaped once.
+         * <p>The cache costs some memory for each node that needs escaping; text that needs no escaping is cached
+         * as its own value.</p>
+         * @param cacheEscaped new cache setting
+         * @return this, for chaining
+         */
+        public OutputSettings cacheEscaped(boolean cacheEscaped) {
+            this.cacheEscaped = cacheEscaped;
+            return this;
+        }
+
+        /**
+         * Get if parallel serialization is enabled. Default is false.
+         * @return if large nodes are serialized in parallel.
+         */
+        public boolean parallel() {
+            return parallel;
+        }
+
+        /**
+         * Enable or disable parallel serialization. If enabled, a large node (of more than some thousands of
+         * descendants) is split into runs of sibling subtrees, which are serialized concurrently on the common
+         * ForkJoinPool, and then joined in order. The output is the same as the sequential output.
+         * <p>The nodes must not be modified while they are being serialized.</p>
+         * @param parallel new parallel setting
+         * @return this, for chaining
+         */
+        public OutputSettings parallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
     }
 }
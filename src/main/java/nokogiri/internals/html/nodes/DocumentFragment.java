@@ -0,0 +1,92 @@
+package nokogiri.internals.html.nodes;
+
+import org.jspecify.annotations.Nullable;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.NamedNodeMap;
+
+import nokogiri.internals.html.internal.QuietAppendable;
+import nokogiri.internals.html.parser.Tag;
+
+import static nokogiri.internals.html.parser.Parser.NamespaceHtml;
+
+/**
+ A lightweight container of nodes, which is never itself part of a tree. When a fragment is inserted into an element
+ (with {@link Element#appendChild(Node)}, {@link Element#insertChildren(int, Node...)}, {@link Node#before(Node)}, or
+ the {@code org.w3c.dom} methods), its children are moved into the element in one splice, and the fragment is left
+ empty.
+ <p>So a fragment is the efficient way to build a large run of siblings, such as table rows or list items: build them
+ in a detached fragment, and then insert it, rather than inserting each node into the live tree.</p>
+ @see Document#createDocumentFragment()
+ */
+public class DocumentFragment extends Element implements org.w3c.dom.DocumentFragment {
+    static final String NodeName = "#document-fragment";
+
+    /**
+     Create a new, empty fragment.
+     @param baseUri base URI of the fragment's nodes
+     */
+    public DocumentFragment(@Nullable String baseUri) {
+        super(new Tag(NodeName, NamespaceHtml), baseUri);
+    }
+
+    @Override
+    public DocumentFragment clone() {
+        return (DocumentFragment) super.clone();
+    }
+
+    @Override
+    public DocumentFragment shallowClone() {
+        DocumentFragment clone = new DocumentFragment(baseUri());
+        clone.document = document;
+        return clone;
+    }
+
+    @Override
+    public String nodeName() {
+        return NodeName;
+    }
+
+    // org.w3c.dom.Node
+    @Override
+    public String getNodeName() {
+        return NodeName;
+    }
+
+    // org.w3c.dom.Node
+    @Override
+    public String getNodeValue() throws DOMException {
+        return null;
+    }
+
+    // org.w3c.dom.Node
+    @Override
+    public void setNodeValue(String value) throws DOMException {
+        // no-op
+    }
+
+    // org.w3c.dom.Node
+    @Override
+    public short getNodeType() {
+        return DOCUMENT_FRAGMENT_NODE;
+    }
+
+    // org.w3c.dom.Node
+    @Override
+    public org.w3c.dom.Node getParentNode() {
+        return null;
+    }
+
+    // org.w3c.dom.Node
+    @Override
+    public NamedNodeMap getAttributes() { return null; }
+
+    @Override
+    public String outerHtml() {
+        return super.html(); // no outer wrapper tag
+    }
+
+    @Override
+    protected void outerHtml(QuietAppendable accum) {
+        innerHtml(accum); // no outer wrapper tag
+    }
+}
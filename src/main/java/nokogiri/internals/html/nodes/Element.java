@@ -4,6 +4,8 @@ import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -16,6 +18,7 @@ import nokogiri.internals.html.helper.W3CValidation;
 import nokogiri.internals.html.internal.Normalizer;
 import nokogiri.internals.html.internal.QuietAppendable;
 import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.internal.UrlResolver;
 import nokogiri.internals.html.parser.ParseSettings;
 import nokogiri.internals.html.parser.Parser;
 import nokogiri.internals.html.parser.Tag;
@@ -23,6 +26,7 @@ import nokogiri.internals.html.select.Collector;
 import nokogiri.internals.html.select.Elements;
 import nokogiri.internals.html.select.Evaluator;
 import nokogiri.internals.html.select.NodeFilter;
+import nokogiri.internals.html.select.NodeTraversor;
 import nokogiri.internals.html.select.NodeVisitor;
 import nokogiri.internals.html.select.Selector;
 
@@ -33,6 +37,10 @@ import static nokogiri.internals.html.nodes.TextNode.lastCharIsWhitespace;
 public class Element extends nokogiri.internals.html.nodes.Node implements org.w3c.dom.Element, Iterable<Element> {
     private static final List<Element> EmptyChildren = Collections.emptyList();
     private static final NodeList EmptyNodeList = new NodeList(0);
+    private static final NodeList SealedNodeList = new NodeList(0); // the children of a sealed element that has none
+    static {
+        SealedNodeList.sealed = true;
+    }
     static final String BaseUriKey = Attributes.internalKey("baseUri");
     Tag tag;
     NodeList childNodes;
@@ -167,7 +175,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
      */
     @Override
     public boolean hasChildNodes() {
-        return childNodes != EmptyNodeList;
+        return childNodes != EmptyNodeList && childNodes != SealedNodeList;
     }
 
     // org.w3c.dom.Node
@@ -328,6 +336,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     @Override
     public Attributes attributes() {
         if (attributes == null) {// not using hasAttributes, as doesn't clear warning
+            if (childNodes.sealed) return Attributes.EmptySealed; // a read must not create them
             attributes = new Attributes();
             attributes.setOwnerElement(this);
         }
@@ -351,15 +360,19 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
 
     @Override
     public <T extends Appendable> T html(T accum) {
+        innerHtml(QuietAppendable.wrap(accum));
+        return accum;
+    }
+
+    void innerHtml(QuietAppendable accum) {
         Node child = firstChild();
         if (child != null) {
-            Printer printer = Printer.printerFor(child, QuietAppendable.wrap(accum));
+            Printer printer = Printer.printerFor(child, accum);
             while (child != null) {
-                printer.traverse(child);
+                printer.print(child);
                 child = child.nextSibling();
             }
         }
-        return accum;
     }
 
     @Override @Nullable
@@ -420,6 +433,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
      */
     @Override
     public Element empty() {
+        checkNotSealed();
         // Detach each of the children -> parent links:
         int size = childNodes.size();
         for (int i = 0; i < size; i++)
@@ -749,6 +763,11 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
      */
     public Element appendChild(Node child) {
         Validate.notNull(child);
+        checkNotSealed();
+        if (child instanceof DocumentFragment) {
+            addChildren(child); // moves the fragment's children
+            return this;
+        }
 
         // was - Node#addChildren(child). short-circuits an array create and a loop.
         reparentChild(child);
@@ -955,6 +974,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
      */
     public Element tag(Tag tag) {
         Validate.notNull(tag);
+        checkNotSealed();
         this.tag = tag;
         return this;
     }
@@ -1004,6 +1024,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     public Element tagName(String tagName, String namespace) {
         Validate.notEmptyParam(tagName, "tagName");
         Validate.notEmptyParam(namespace, "namespace");
+        checkNotSealed();
         Parser parser = NodeUtils.parser(this);
         tag = parser.tagSet().valueOf(tagName, namespace, parser.settings()); // maintains the case option of the original parse
         return this;
@@ -1225,7 +1246,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
         traverse((childNode, depth) -> {
             if (childNode instanceof DataNode) {
                 DataNode data = (DataNode) childNode;
-                sb.append(data.getWholeData());
+                sb.append(data.wholeDataSequence());
             } else if (childNode instanceof Comment) {
                 Comment comment = (Comment) childNode;
                 sb.append(comment.getData());
@@ -1233,7 +1254,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
                 // this shouldn't really happen because the html parser won't see the cdata as anything special when parsing script.
                 // but in case another type gets through.
                 CDataNode cDataNode = (CDataNode) childNode;
-                sb.append(cDataNode.getWholeText());
+                sb.append(cDataNode.wholeTextSequence());
             }
         });
         return StringUtil.releaseBuilder(sb);
@@ -1298,6 +1319,64 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
         return Selector.select(evaluator, this);
     }
 
+    /**
+     Get the absolute URLs of the links of the elements that match the query, in document order. The link of each element
+     is its {@code href} attribute, if it has one, or else its {@code src}. E.g., to get the pages and images linked from
+     a document: {@code doc.links("a[href], img[src]")}.
+     <p>This gives the same URLs as calling {@link #absUrl(String)} on each element, for typical links, but is much
+     cheaper for link-dense pages: the base URI is found and parsed once per traversal, rather than on each call, and
+     relative URLs are resolved per RFC 3986 by {@link UrlResolver}, without allocating a {@link java.net.URL}. (See
+     {@code UrlResolver} for where the two can differ.)</p>
+     @param cssQuery a {@link Selector} CSS-like query
+     @return the absolute URLs; elements without a link, or whose link could not be made absolute, are skipped
+     @see #links(String, String)
+     */
+    public List<String> links(String cssQuery) {
+        return links(cssQuery, null);
+    }
+
+    /**
+     Get the absolute URLs of the attribute of the elements that match the query, in document order. E.g.
+     {@code doc.links("form", "action")}.
+     @param cssQuery a {@link Selector} CSS-like query
+     @param attributeKey the URL attribute, or null to use each element's {@code href}, or else {@code src}
+     @return the absolute URLs; elements without the attribute, or whose value could not be made absolute, are skipped
+     @see #links(String)
+     */
+    public List<String> links(String cssQuery, @Nullable String attributeKey) {
+        Evaluator evaluator = Selector.evaluatorOf(cssQuery); // newly parsed, so has no memoized state to reset
+        List<String> links = new ArrayList<>();
+        NodeTraversor.traverse(new NodeVisitor() {
+            UrlResolver resolver = new UrlResolver(baseUri());
+            @Nullable ArrayList<Object> overrides; // pairs of: the element with its own base URI, and the resolver it replaced
+
+            @Override public void head(Node node, int depth) {
+                if (!(node instanceof Element)) return;
+                Element el = (Element) node;
+                if (el.attributes == null) return; // no base uri, and no link
+                if (el != Element.this && el.attributes.hasKey(BaseUriKey)) {
+                    if (overrides == null) overrides = new ArrayList<>();
+                    overrides.add(el);
+                    overrides.add(resolver);
+                    resolver = new UrlResolver(el.attributes.get(BaseUriKey));
+                }
+                String key = attributeKey != null ? attributeKey : el.attributes.hasKeyIgnoreCase("href") ? "href" : "src";
+                if (el.attributes.hasKeyIgnoreCase(key) && evaluator.matches(Element.this, el)) {
+                    String link = resolver.resolve(el.attributes.getIgnoreCase(key));
+                    if (!link.isEmpty()) links.add(link);
+                }
+            }
+
+            @Override public void tail(Node node, int depth) {
+                if (overrides != null && !overrides.isEmpty() && overrides.get(overrides.size() - 2) == node) {
+                    resolver = (UrlResolver) overrides.remove(overrides.size() - 1);
+                    overrides.remove(overrides.size() - 1);
+                }
+            }
+        }, this);
+        return links;
+    }
+
     /**
      * Tests if this element has a class. Case-insensitive.
      * @param className name of class to check for
@@ -1308,7 +1387,11 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
         if (attributes == null)
             return false;
 
-        final String classAttr = attributes.getIgnoreCase("class");
+        return hasClass(attributes.getIgnoreCase("class"), className);
+    }
+
+    /** Tests if the whitespace separated class attribute value contains the class name, case-insensitively. */
+    static boolean hasClass(String classAttr, String className) {
         final int len = classAttr.length();
         final int wantLen = className.length();
 
@@ -1351,19 +1434,27 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     }
 
     void reindexChildren() {
-        final int size = childNodes.size();
-        for (int i = 0; i < size; i++) {
-            childNodes.get(i).setSiblingIndex(i);
-        }
-        childNodes.validChildren = true;
+        childNodes.reindex(childNodes.size());
     }
 
-    void invalidateChildren() {
-        childNodes.validChildren = false;
+    @Override
+    public boolean isSealed() {
+        return childNodes.sealed;
     }
 
-    boolean hasValidChildren() {
-        return childNodes.validChildren;
+    /**
+     Seal this element (but not its descendants): computes the sibling indexes and the child element list that would
+     otherwise be computed lazily on read, and then marks the child list and attributes as unmodifiable.
+     */
+    void sealContent() {
+        if (childNodes == EmptyNodeList) {
+            childNodes = SealedNodeList;
+        } else if (!childNodes.sealed) {
+            reindexChildren();
+            childNodes.elements = filterNodes(Element.class);
+            childNodes.sealed = true;
+        }
+        if (attributes != null) attributes.seal();
     }
 
     @Override
@@ -1396,13 +1487,209 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     static final class NodeList extends ArrayList<nokogiri.internals.html.nodes.Node> implements org.w3c.dom.NodeList {
         private static final long serialVersionUID = 1L;
 
-        /** Tracks if the children have valid sibling indices. We only need to reindex on siblingIndex() demand. */
-        boolean validChildren = true;
+        /**
+         The children before this index have valid sibling indexes. Changes to the list lower it to the first changed
+         position (and index the inserted nodes if they directly follow the valid run), and the remainder is reindexed
+         on siblingIndex() demand, only as far as the requested node. So appending, and inserting or removing at a
+         position that moves forward through the list, don't need to reindex the whole list on each change.
+         */
+        int validTo = 0;
+        /** If the owning document is sealed, the list can not be modified, and its child elements are precomputed. */
+        boolean sealed;
+        transient @Nullable List<Element> elements;
 
         public NodeList(int size) {
             super(size);
         }
 
+        /** Create a list holding the same nodes as the original, for a clone. The copy's indexes are computed on demand. */
+        NodeList(NodeList original) {
+            super(original);
+        }
+
+        private void checkNotSealed() {
+            if (sealed) throw new UnsupportedOperationException("Can not modify the children of a sealed document");
+        }
+
+        @Override public boolean add(Node node) {
+            checkNotSealed();
+            super.add(node);
+            inserted(size() - 1, 1);
+            return true;
+        }
+
+        @Override public void add(int index, Node node) {
+            checkNotSealed();
+            super.add(index, node);
+            inserted(index, 1);
+        }
+
+        @Override public boolean addAll(Collection<? extends Node> nodes) {
+            return addAll(size(), nodes);
+        }
+
+        @Override public boolean addAll(int index, Collection<? extends Node> nodes) {
+            checkNotSealed();
+            boolean changed = super.addAll(index, nodes);
+            inserted(index, nodes.size());
+            return changed;
+        }
+
+        @Override public Node set(int index, Node node) {
+            checkNotSealed();
+            Node old = super.set(index, node);
+            if (index < validTo) node.setSiblingIndex(index);
+            return old;
+        }
+
+        @Override public Node remove(int index) {
+            checkNotSealed();
+            Node old = super.remove(index);
+            if (validTo > index) validTo = index;
+            return old;
+        }
+
+        @Override public boolean remove(Object o) {
+            checkNotSealed();
+            int index = o instanceof Node ? indexOf((Node) o) : -1;
+            if (index == -1) return false;
+            remove(index);
+            return true;
+        }
+
+        @Override public void clear() {
+            checkNotSealed();
+            super.clear();
+            validTo = 0;
+        }
+
+        // the bulk changes don't report their positions, so the whole list is reindexed on demand after them
+
+        @Override public boolean removeIf(Predicate<? super Node> filter) {
+            checkNotSealed();
+            boolean changed = super.removeIf(filter);
+            if (changed) validTo = 0;
+            return changed;
+        }
+
+        @Override public boolean removeAll(Collection<?> nodes) {
+            checkNotSealed();
+            boolean changed = super.removeAll(nodes);
+            if (changed) validTo = 0;
+            return changed;
+        }
+
+        @Override public boolean retainAll(Collection<?> nodes) {
+            checkNotSealed();
+            boolean changed = super.retainAll(nodes);
+            if (changed) validTo = 0;
+            return changed;
+        }
+
+        @Override public void replaceAll(UnaryOperator<Node> operator) {
+            checkNotSealed();
+            super.replaceAll(operator);
+            validTo = 0;
+        }
+
+        @Override public void sort(@Nullable Comparator<? super Node> c) {
+            checkNotSealed();
+            super.sort(c);
+            validTo = 0;
+        }
+
+        @Override protected void removeRange(int fromIndex, int toIndex) {
+            checkNotSealed();
+            super.removeRange(fromIndex, toIndex);
+            if (validTo > fromIndex) validTo = fromIndex;
+        }
+
+        /**
+         A view of the range that makes its changes through this list, so that they are checked and indexed. (The
+         ArrayList view writes some changes, like set and removeIf, straight to the backing array.)
+         */
+        @Override public List<Node> subList(int fromIndex, int toIndex) {
+            Objects.checkFromToIndex(fromIndex, toIndex, size());
+            return new SubList(this, fromIndex, toIndex);
+        }
+
+        private static final class SubList extends AbstractList<Node> implements RandomAccess {
+            private final NodeList list;
+            private final int offset;
+            private int size;
+
+            SubList(NodeList list, int fromIndex, int toIndex) {
+                this.list = list;
+                this.offset = fromIndex;
+                this.size = toIndex - fromIndex;
+            }
+
+            @Override public Node get(int index) {
+                Objects.checkIndex(index, size);
+                return list.get(offset + index);
+            }
+
+            @Override public int size() {
+                return size;
+            }
+
+            @Override public Node set(int index, Node node) {
+                Objects.checkIndex(index, size);
+                return list.set(offset + index, node);
+            }
+
+            @Override public void add(int index, Node node) {
+                Objects.checkIndex(index, size + 1);
+                list.add(offset + index, node);
+                size++;
+                modCount++;
+            }
+
+            @Override public Node remove(int index) {
+                Objects.checkIndex(index, size);
+                Node old = list.remove(offset + index);
+                size--;
+                modCount++;
+                return old;
+            }
+
+            @Override protected void removeRange(int fromIndex, int toIndex) {
+                list.removeRange(offset + fromIndex, offset + toIndex);
+                size -= toIndex - fromIndex;
+                modCount++;
+            }
+        }
+
+        /** Find the node's position; by its sibling index if that is current, else by a scan. */
+        private int indexOf(Node node) {
+            int index = node.siblingIndex;
+            if (index < validTo && get(index) == node) return index;
+            return super.indexOf(node);
+        }
+
+        /** After nodes were inserted at the index, index them if they extend the valid run; otherwise lower it. */
+        private void inserted(int index, int count) {
+            if (validTo < index) return;
+            for (int i = index; i < index + count; i++)
+                get(i).setSiblingIndex(i);
+            validTo = index + count;
+        }
+
+        /** Make the child's sibling index valid, reindexing the stale part of the list only as far as the child. */
+        void validate(Node child) {
+            if (validTo >= size()) return;
+            int index = child.siblingIndex;
+            if (index >= 0 && index < validTo && get(index) == child) return;
+            reindex(super.indexOf(child) + 1);
+        }
+
+        /** Reindex from the end of the valid run, up to (excluding) the end index. */
+        void reindex(int end) {
+            for (int i = validTo; i < end; i++)
+                get(i).setSiblingIndex(i);
+            if (end > validTo) validTo = end;
+        }
+
         // org.w3c.dom.NodeList
         @Override
         public org.w3c.dom.Node item(int index) {
@@ -1462,6 +1749,8 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
      */
     List<Element> childElementsList() {
         if (childNodeSize() == 0) return EmptyChildren; // short circuit creating empty
+        List<Element> sealed = childNodes.elements;
+        if (sealed != null) return sealed; // precomputed when sealed, so no lock or cache
         // set atomically, so works in multi-thread. Calling methods look like reads, so should be thread-safe
         synchronized (childNodes) { // sync vs re-entrant lock, to save another field
             List<Element> children = cachedChildren();
@@ -1488,8 +1777,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     @Override
     protected Element doClone(@Nullable Node parent) {
         Element clone = (Element) super.doClone(parent);
-        clone.childNodes = new NodeList(childNodes.size());
-        clone.childNodes.addAll(childNodes); // the children then get iterated and cloned in Node.clone
+        clone.childNodes = new NodeList(childNodes); // the children then get iterated and cloned in Node.clone
         if (attributes != null) {
             clone.attributes = attributes.clone();
             // clear any cached children
@@ -1536,7 +1824,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     }
 
     private static void appendNormalisedText(StringBuilder accum, TextNode textNode) {
-        String text = textNode.getWholeText();
+        CharSequence text = textNode.wholeTextSequence();
         if (preserveWhitespace(textNode.parentNode) || textNode instanceof CDataNode)
             accum.append(text);
         else
@@ -1559,8 +1847,8 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
     }
 
     private static String wholeTextOf(Stream<Node> stream) {
-        return stream.map(node -> {
-            if (node instanceof TextNode) return ((TextNode) node).getWholeText();
+        return stream.<CharSequence>map(node -> {
+            if (node instanceof TextNode) return ((TextNode) node).wholeTextSequence();
             if (node.nameIs("br")) return "\n";
             return "";
         }).collect(StringUtil.joining(""));
@@ -1571,7 +1859,7 @@ public class Element extends nokogiri.internals.html.nodes.Node implements org.w
         return syntax == Document.OutputSettings.Syntax.xml ? Normalizer.xmlSafeTagName(tagName()) : tagName();
     }
 
-    private static class TextAccumulator implements NodeVisitor {
+    static class TextAccumulator implements NodeVisitor {
         private final StringBuilder accum;
 
         public TextAccumulator(StringBuilder accum) {
@@ -208,7 +208,7 @@ public class Entities {
         }
     }
 
-    static void escape(QuietAppendable accum, String data, Document.OutputSettings out, int options) {
+    static void escape(QuietAppendable accum, CharSequence data, Document.OutputSettings out, int options) {
         doEscape(data, accum, out.escapeMode(), out.charset(), options);
     }
 
@@ -261,7 +261,7 @@ public class Entities {
         }
     }
 
-    private static void doEscape(String data, QuietAppendable accum, EscapeMode mode, Charset charset, int options) {
+    private static void doEscape(CharSequence data, QuietAppendable accum, EscapeMode mode, Charset charset, int options) {
         final CoreCharset coreCharset = CoreCharset.byName(charset.name());
         final CharsetEncoder fallback = encoderFor(charset);
         final int length = data.length();
@@ -271,7 +271,7 @@ public class Entities {
         boolean reachedNonWhite = false;
         boolean skipped = false;
         for (int offset = 0; offset < length; offset += Character.charCount(codePoint)) {
-            codePoint = data.codePointAt(offset);
+            codePoint = Character.codePointAt(data, offset);
 
             if ((options & Normalise) != 0) {
                 if (StringUtil.isWhitespace(codePoint)) {
@@ -0,0 +1,65 @@
+package nokogiri.internals.html.nodes;
+
+import java.nio.charset.Charset;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.internal.QuietAppendable;
+import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.nodes.Document.OutputSettings;
+
+/**
+ The escaped form of a text node's value or of a set of attributes, as last printed, and the output settings it was
+ escaped with. Held by the node or attributes when {@link OutputSettings#cacheEscaped()} is enabled, so that printing an
+ unchanged tree again with the same settings copies the escaped chunks, rather than escaping each value again.
+ <p>A cache is immutable, so it may be read and replaced concurrently. A text node's cache also holds the value it was
+ escaped from, and is only used while the node's value is that same instance; so any change to the value invalidates
+ it. The attributes' cache is dropped by the attributes before they are written to.</p>
+ */
+final class Escaped {
+    private final Entities.EscapeMode escapeMode;
+    private final Charset charset;
+    private final OutputSettings.Syntax syntax;
+    private final int options;
+    private final @Nullable Object source;
+    final String html;
+
+    private Escaped(OutputSettings out, int options, @Nullable Object source, String html) {
+        this.escapeMode = out.escapeMode();
+        this.charset = out.charset();
+        this.syntax = out.syntax();
+        this.options = options;
+        this.source = source;
+        this.html = html;
+    }
+
+    /** If this cache was escaped from the source (by identity), with the same escape settings and options. */
+    boolean matches(OutputSettings out, int options, @Nullable Object source) {
+        return this.source == source
+            && this.options == options
+            && escapeMode == out.escapeMode()
+            && syntax == out.syntax()
+            && (charset == out.charset() || charset.equals(out.charset()));
+    }
+
+    /**
+     Escape the text, and make a cache of it. If nothing needed escaping and the text is a String, the cache holds that
+     String itself, rather than a copy.
+     */
+    static Escaped text(CharSequence text, OutputSettings out, int options) {
+        StringBuilder sb = StringUtil.borrowBuilder();
+        Entities.escape(QuietAppendable.wrap(sb), text, out, options);
+        String html = text instanceof String && ((String) text).contentEquals(sb) ? (String) text : sb.toString();
+        StringUtil.releaseBuilderVoid(sb);
+        return new Escaped(out, options, text, html);
+    }
+
+    /** Print the attributes, and make a cache of them. */
+    static Escaped attributes(Attributes attributes, OutputSettings out) {
+        StringBuilder sb = StringUtil.borrowBuilder();
+        attributes.htmlUncached(QuietAppendable.wrap(sb), out);
+        Escaped escaped = new Escaped(out, 0, null, sb.toString());
+        StringUtil.releaseBuilderVoid(sb);
+        return escaped;
+    }
+}
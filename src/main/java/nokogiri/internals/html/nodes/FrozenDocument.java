@@ -0,0 +1,553 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.parser.Tag;
+import nokogiri.internals.html.select.NodeVisitor;
+
+/**
+ A compact, read-only snapshot of a Document, stored as a struct of arrays rather than as a graph of node objects.
+ <p>Each node is identified by its index in document (preorder) order; the document itself is index {@code 0}. The tree
+ structure is held in {@code int} arrays of parent, first child and next sibling indexes; element tags are interned
+ into a shared table; and all text and attribute values are held as offsets into a single shared character buffer. So
+ there is no per-node object, child list, or attributes map, and traversal walks primitive arrays in document order.</p>
+ <p>Nodes are read via {@link FrozenNode} flyweights (see {@link #node(int)}), or directly by index. Selectors can be
+ run over the snapshot with {@link nokogiri.internals.html.select.FrozenSelector}, and XPath queries or other W3C DOM
+ consumers via a read-only {@link #dom() DOM view}. Any part of the snapshot can be {@link #thaw() thawed} back into a
+ regular, mutable node tree, e.g. to modify it.</p>
+ <p>Obtain via {@link Document#freeze()}. The snapshot is immutable, and so is safe for concurrent use; it is not
+ affected by later changes to the source document. Node {@link Node#attributes() user data} is not retained.</p>
+ */
+public final class FrozenDocument {
+    // node types
+    static final byte TypeDocument = 0;
+    static final byte TypeElement = 1;
+    static final byte TypeForm = 2;
+    static final byte TypeText = 3;
+    static final byte TypeCData = 4;
+    static final byte TypeData = 5;
+    static final byte TypeComment = 6;
+    static final byte TypeOther = 7; // e.g. doctype, xml declaration; held as a detached node in others
+    // a text, data or comment leaf that also has attributes is held in others too (its name), so they can be thawed
+
+    private final int size;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final byte[] type;
+    private final int[] name;       // elements: index into tags; other, and leaves with attributes: index into others; else -1
+    private final int[] offset;     // elements: first attribute index; leaves: start in chars
+    private final int[] length;     // elements: attribute count; leaves: length of text
+
+    private final int[] attrKey;    // index into keys
+    private final int[] attrOffset; // start in chars
+    private final int[] attrLength; // length in chars, or -1 for a null (boolean) value
+
+    private final String chars;
+    private final Tag[] tags;
+    private final String[] keys;
+    private final Node[] others;
+    private final Document prototype; // a shallow copy of the source document, for its settings when thawed
+
+    private FrozenDocument(Builder b) {
+        size = b.size;
+        parent = Arrays.copyOf(b.parent, size);
+        firstChild = Arrays.copyOf(b.firstChild, size);
+        nextSibling = Arrays.copyOf(b.nextSibling, size);
+        type = Arrays.copyOf(b.type, size);
+        name = Arrays.copyOf(b.name, size);
+        offset = Arrays.copyOf(b.offset, size);
+        length = Arrays.copyOf(b.length, size);
+        attrKey = Arrays.copyOf(b.attrKey, b.attrs);
+        attrOffset = Arrays.copyOf(b.attrOffset, b.attrs);
+        attrLength = Arrays.copyOf(b.attrLength, b.attrs);
+        chars = StringUtil.releaseBuilder(b.chars);
+        tags = b.tagList.toArray(new Tag[0]);
+        keys = b.keyList.toArray(new String[0]);
+        others = b.others.toArray(new Node[0]);
+        prototype = b.prototype;
+    }
+
+    /**
+     Freeze the document into a new snapshot.
+     @param doc the document to freeze
+     @return a frozen copy of the document
+     */
+    static FrozenDocument of(Document doc) {
+        Validate.notNull(doc);
+        Builder builder = new Builder(doc);
+        builder.traverse(doc);
+        return new FrozenDocument(builder);
+    }
+
+    /** The number of nodes in the snapshot, including the document node. */
+    public int size() {
+        return size;
+    }
+
+    /** The document node. */
+    public FrozenNode root() {
+        return new FrozenNode(this, 0);
+    }
+
+    /**
+     Get a node by its index.
+     @param index the node's index in document order, from {@code 0} (the document) to {@code size() - 1}
+     @return the node
+     */
+    public FrozenNode node(int index) {
+        Validate.isTrue(index >= 0 && index < size, "Node index out of bounds");
+        return new FrozenNode(this, index);
+    }
+
+    /** The index of the node's parent, or {@code -1} for the document. */
+    public int parent(int index) {
+        return parent[index];
+    }
+
+    /** The index of the node's first child, or {@code -1} if it has no children. */
+    public int firstChild(int index) {
+        return firstChild[index];
+    }
+
+    /** The index of the node's next sibling, or {@code -1} if it is the last child. */
+    public int nextSibling(int index) {
+        return nextSibling[index];
+    }
+
+    /**
+     The index of the node's previous sibling, or {@code -1} if it is the first child. As siblings are not back-linked,
+     this walks from the parent's first child.
+     */
+    public int previousSibling(int index) {
+        int p = parent[index];
+        if (p == -1) return -1;
+        int prev = -1;
+        for (int c = firstChild[p]; c != index; c = nextSibling[c]) prev = c;
+        return prev;
+    }
+
+    /**
+     The index of the first node after the node's subtree, in document order; or {@link #size()} if the subtree runs to
+     the end of the document. A node's descendants are all the indexes between it and its end.
+     */
+    public int end(int index) {
+        for (int n = index; n != -1; n = parent[n]) {
+            if (nextSibling[n] != -1) return nextSibling[n];
+        }
+        return size;
+    }
+
+    /** Test if the node is an element (including the document). */
+    public boolean isElement(int index) {
+        return type[index] <= TypeForm;
+    }
+
+    /** The element's tag, or null if the node is not an element. */
+    public @Nullable Tag tag(int index) {
+        return isElement(index) ? tags[name[index]] : null;
+    }
+
+    /** The node's name, as would be returned by {@link Node#nodeName()}. */
+    public String nodeName(int index) {
+        switch (type[index]) {
+            case TypeDocument: return "#document";
+            case TypeElement:
+            case TypeForm: return tags[name[index]].getName();
+            case TypeText: return "#text";
+            case TypeCData: return "#cdata";
+            case TypeData: return "#text";
+            case TypeComment: return "#comment";
+            default: return others[name[index]].nodeName();
+        }
+    }
+
+    /** The node's normalized name, as would be returned by {@link Node#normalName()}. */
+    public String normalName(int index) {
+        byte t = type[index];
+        if (t <= TypeForm) return tags[name[index]].normalName(); // the document is "#root"
+        if (t == TypeOther) return others[name[index]].normalName();
+        return nodeName(index);
+    }
+
+    /** Test if the node's normalized name is the supplied name. */
+    public boolean nameIs(int index, String normalName) {
+        return normalName(index).equals(normalName);
+    }
+
+    /**
+     The text value of a text, data or comment node; or an empty string for other nodes.
+     */
+    public String value(int index) {
+        byte t = type[index];
+        if (t >= TypeText && t <= TypeComment)
+            return chars.substring(offset[index], offset[index] + length[index]);
+        return "";
+    }
+
+    /** The number of (non-internal) attributes of the node. */
+    public int attributesSize(int index) {
+        if (!isElement(index)) return 0;
+        int count = 0;
+        for (int a = offset[index], end = a + length[index]; a < end; a++) {
+            if (!Attributes.isInternalKey(keys[attrKey[a]])) count++;
+        }
+        return count;
+    }
+
+    /**
+     Get an attribute value by its key, case-insensitively. Like {@link Node#attr(String)}, an {@code abs:} prefix
+     returns the absolute URL of the attribute.
+     @param index the node
+     @param key the attribute key
+     @return the attribute value, or an empty string if it is not set
+     */
+    public String attr(int index, String key) {
+        int a = indexOfAttr(index, key);
+        if (a != -1) return attrValue(a);
+        if (key.startsWith("abs:")) return absUrl(index, key.substring("abs:".length()));
+        return "";
+    }
+
+    /**
+     Test if the node has an attribute, case-insensitively. Like {@link Node#hasAttr(String)}, an {@code abs:} prefix
+     tests that the attribute has an absolute URL.
+     */
+    public boolean hasAttr(int index, String key) {
+        if (key.startsWith("abs:")) {
+            String k = key.substring("abs:".length());
+            if (indexOfAttr(index, k) != -1 && !absUrl(index, k).isEmpty()) return true;
+        }
+        return indexOfAttr(index, key) != -1;
+    }
+
+    /** The absolute URL of the attribute, resolved against the node's base URI; or an empty string. */
+    public String absUrl(int index, String key) {
+        Validate.notEmpty(key);
+        int a = indexOfAttr(index, key);
+        if (a == -1) return "";
+        return StringUtil.resolve(baseUri(index), attrValue(a));
+    }
+
+    /** The node's base URI, from its nearest ancestor that has one. */
+    public String baseUri(int index) {
+        for (int n = index; n != -1; n = parent[n]) {
+            int a = indexOfAttr(n, Element.BaseUriKey);
+            if (a != -1) return attrValue(a);
+        }
+        return "";
+    }
+
+    /** The element's {@code id} attribute, or an empty string. */
+    public String id(int index) {
+        int a = indexOfAttr(index, "id");
+        return a != -1 ? attrValue(a) : "";
+    }
+
+    /** Test if the element has the class, case-insensitively. */
+    public boolean hasClass(int index, String className) {
+        int a = indexOfAttr(index, "class");
+        return a != -1 && Element.hasClass(attrValue(a), className);
+    }
+
+    /** Find the attribute index of the key, case-insensitively; or -1. */
+    private int indexOfAttr(int index, String key) {
+        if (!isElement(index)) return -1;
+        for (int a = offset[index], end = a + length[index]; a < end; a++) {
+            if (keys[attrKey[a]].equalsIgnoreCase(key)) return a;
+        }
+        return -1;
+    }
+
+    private String attrValue(int a) {
+        int len = attrLength[a];
+        return len <= 0 ? "" : chars.substring(attrOffset[a], attrOffset[a] + len);
+    }
+
+    /** A new copy of the node's attributes (excluding internal attributes). */
+    Attributes attributes(int index) {
+        Attributes attributes = new Attributes();
+        if (isElement(index)) {
+            for (int a = offset[index], end = a + length[index]; a < end; a++) {
+                String key = keys[attrKey[a]];
+                if (!Attributes.isInternalKey(key)) attributes.add(key, attrLength[a] == -1 ? null : attrValue(a));
+            }
+        }
+        return attributes;
+    }
+
+    /** The node's type; one of the {@code Type} constants. */
+    byte type(int index) {
+        return type[index];
+    }
+
+    /** The detached node held for a {@link #TypeOther} node. */
+    Node other(int index) {
+        return others[name[index]];
+    }
+
+    /** The index of the element's first attribute, including internal attributes. */
+    int attrStart(int index) {
+        return offset[index];
+    }
+
+    /** The element's number of attributes, including internal attributes. */
+    int attrCount(int index) {
+        return isElement(index) ? length[index] : 0;
+    }
+
+    String attrKeyAt(int a) {
+        return keys[attrKey[a]];
+    }
+
+    String attrValueAt(int a) {
+        return attrValue(a);
+    }
+
+    /**
+     A new, read-only W3C DOM view of the snapshot, e.g. to run XPath queries against. The view's nodes are flyweights
+     that read the frozen arrays, created as they are reached, and are not affected by later thaws. A view (unlike the
+     snapshot) is not thread safe, so each thread should get its own.
+     @return the document node of a new view
+     @see FrozenNode#selectXpath(String)
+     */
+    public org.w3c.dom.Document dom() {
+        return new FrozenDom(this).document();
+    }
+
+    /**
+     Get the whole (unnormalized) text of the node and its descendants, as would be returned by
+     {@link Element#wholeText()}. Read from the frozen text directly, without thawing.
+     */
+    public String wholeText(int index) {
+        StringBuilder accum = StringUtil.borrowBuilder();
+        for (int n = index, end = end(index); n < end; n++) {
+            byte t = type[n];
+            if (t == TypeText || t == TypeCData)
+                accum.append(chars, offset[n], offset[n] + length[n]);
+            else if (t == TypeElement && tags[name[n]].normalName().equals("br"))
+                accum.append('\n');
+        }
+        return StringUtil.releaseBuilder(accum);
+    }
+
+    /**
+     Thaw the whole snapshot back into a new, mutable Document.
+     @return a new Document, equal to the one frozen
+     */
+    public Document thaw() {
+        return (Document) thaw(0);
+    }
+
+    /**
+     Thaw a node and its descendants into a new, mutable node tree. Unless the node is the document, the thawed node
+     has no parent. The thawed subtree has the same shape as the frozen one, so its nodes are in the same document
+     order as their indexes.
+     @param index the node to thaw
+     @return a new node
+     */
+    public Node thaw(int index) {
+        Validate.isTrue(index >= 0 && index < size, "Node index out of bounds");
+        int end = end(index);
+        Node[] nodes = new Node[end - index];
+        for (int n = index; n < end; n++) {
+            Node node = create(n);
+            nodes[n - index] = node;
+            if (n > index) // parents precede their children in document order, so have already been created
+                ((Element) nodes[parent[n] - index]).appendChild(node);
+        }
+        return nodes[0];
+    }
+
+    private Node create(int index) {
+        switch (type[index]) {
+            case TypeDocument:
+                Document doc = prototype.shallowClone(); // location and settings; attributes are from the frozen arrays
+                doc.attributes = thawAttributes(index);
+                if (doc.attributes != null) doc.attributes.setOwnerElement(doc);
+                return doc;
+            case TypeElement:
+                return new Element(tags[name[index]], null, thawAttributes(index));
+            case TypeForm:
+                return new FormElement(tags[name[index]], null, thawAttributes(index));
+            case TypeText:
+                if (name[index] != -1) return others[name[index]].shallowClone(); // has attributes
+                return new TextNode(value(index));
+            case TypeCData:
+                if (name[index] != -1) return others[name[index]].shallowClone();
+                return new CDataNode(value(index));
+            case TypeData:
+                if (name[index] != -1) return others[name[index]].shallowClone();
+                return new DataNode(value(index));
+            case TypeComment:
+                if (name[index] != -1) return others[name[index]].shallowClone();
+                return new Comment(value(index));
+            default:
+                return others[name[index]].shallowClone();
+        }
+    }
+
+    /** All attributes, including internal (e.g. base URI); or null if the element has none. */
+    private @Nullable Attributes thawAttributes(int index) {
+        int count = length[index];
+        if (count == 0) return null;
+        Attributes attributes = new Attributes();
+        for (int a = offset[index], end = a + count; a < end; a++) {
+            attributes.add(keys[attrKey[a]], attrLength[a] == -1 ? null : attrValue(a));
+        }
+        return attributes;
+    }
+
+    /**
+     Builds the arrays in a single traversal. Each node is appended in head order; the last child seen at each depth is
+     tracked, so that it can be linked to the next node at that depth.
+     */
+    private static final class Builder implements NodeVisitor {
+        final Document prototype;
+        int size;
+        int[] parent = new int[64];
+        int[] firstChild = new int[64];
+        int[] nextSibling = new int[64];
+        byte[] type = new byte[64];
+        int[] name = new int[64];
+        int[] offset = new int[64];
+        int[] length = new int[64];
+
+        int attrs;
+        int[] attrKey = new int[16];
+        int[] attrOffset = new int[16];
+        int[] attrLength = new int[16];
+
+        final StringBuilder chars = StringUtil.borrowBuilder();
+        final Map<Tag, Integer> tags = new IdentityHashMap<>(); // tags hold settings beyond their name, so by identity
+        final List<Tag> tagList = new ArrayList<>();
+        final Map<String, Integer> keys = new HashMap<>();
+        final List<String> keyList = new ArrayList<>();
+        final List<Node> others = new ArrayList<>();
+
+        int[] open = new int[16];       // the node at each depth
+        int[] lastChild = new int[16];  // the last child added at each depth, under the open node above it
+
+        Builder(Document doc) {
+            prototype = doc.shallowClone();
+        }
+
+        @Override public void head(Node node, int depth) {
+            int index = size++;
+            if (index == parent.length) grow();
+            if (depth + 1 >= open.length) {
+                open = Arrays.copyOf(open, open.length * 2);
+                lastChild = Arrays.copyOf(lastChild, lastChild.length * 2);
+            }
+
+            int p = depth == 0 ? -1 : open[depth - 1];
+            parent[index] = p;
+            firstChild[index] = -1;
+            nextSibling[index] = -1;
+            if (p != -1) {
+                int prev = lastChild[depth];
+                if (prev == -1) firstChild[p] = index;
+                else nextSibling[prev] = index;
+            }
+            open[depth] = index;
+            lastChild[depth] = index;
+            lastChild[depth + 1] = -1; // this node's children start a new run
+
+            if (node instanceof Element) {
+                Element el = (Element) node;
+                type[index] = node instanceof Document ? TypeDocument : node instanceof FormElement ? TypeForm : TypeElement;
+                name[index] = intern(tags, tagList, el.tag());
+                addAttributes(index, el.attributes);
+            } else if (isCoreType(node)) {
+                type[index] = node instanceof CDataNode ? TypeCData : node instanceof TextNode ? TypeText :
+                    node instanceof DataNode ? TypeData : TypeComment;
+                CharSequence value = ((LeafNode) node).coreSequence();
+                offset[index] = chars.length();
+                length[index] = value.length();
+                chars.append(value);
+                name[index] = -1;
+                if (!hasOnlyCoreValue((LeafNode) node)) { // keep the node too, for its attributes
+                    name[index] = others.size();
+                    others.add(node.shallowClone());
+                }
+            } else {
+                type[index] = TypeOther;
+                name[index] = others.size();
+                others.add(node.shallowClone());
+            }
+        }
+
+        @Override public void tail(Node node, int depth) {}
+
+        private static boolean isCoreType(Node node) {
+            return node instanceof TextNode || node instanceof DataNode || node instanceof Comment;
+        }
+
+        /**
+         If the leaf has no attributes other than its value. Internal attributes (like the source range held when
+         tracking positions) are user data, which is not retained, so don't need the leaf to be kept as a node.
+         */
+        private static boolean hasOnlyCoreValue(LeafNode node) {
+            return !node.hasAttributes() || node.attributes().size() == 1;
+        }
+
+        private void addAttributes(int index, @Nullable Attributes attributes) {
+            offset[index] = attrs;
+            int count = 0;
+            if (attributes != null) {
+                for (int i = 0; i < attributes.size; i++) {
+                    Object val = attributes.vals[i];
+                    if (val != null && !(val instanceof String)) continue; // user data
+                    String key = attributes.keys[i];
+                    assert key != null;
+                    if (attrs == attrKey.length) {
+                        attrKey = Arrays.copyOf(attrKey, attrs * 2);
+                        attrOffset = Arrays.copyOf(attrOffset, attrs * 2);
+                        attrLength = Arrays.copyOf(attrLength, attrs * 2);
+                    }
+                    attrKey[attrs] = intern(keys, keyList, key);
+                    attrOffset[attrs] = chars.length();
+                    if (val == null) {
+                        attrLength[attrs] = -1;
+                    } else {
+                        attrLength[attrs] = ((String) val).length();
+                        chars.append((String) val);
+                    }
+                    attrs++;
+                    count++;
+                }
+            }
+            length[index] = count;
+        }
+
+        private static <T> int intern(Map<T, Integer> table, List<T> list, T item) {
+            Integer i = table.get(item);
+            if (i == null) {
+                i = list.size();
+                table.put(item, i);
+                list.add(item);
+            }
+            return i;
+        }
+
+        private void grow() {
+            int cap = parent.length * 2;
+            parent = Arrays.copyOf(parent, cap);
+            firstChild = Arrays.copyOf(firstChild, cap);
+            nextSibling = Arrays.copyOf(nextSibling, cap);
+            type = Arrays.copyOf(type, cap);
+            name = Arrays.copyOf(name, cap);
+            offset = Arrays.copyOf(offset, cap);
+            length = Arrays.copyOf(length, cap);
+        }
+    }
+}
@@ -0,0 +1,971 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jspecify.annotations.Nullable;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+import static nokogiri.internals.html.nodes.FrozenDocument.TypeCData;
+import static nokogiri.internals.html.nodes.FrozenDocument.TypeComment;
+import static nokogiri.internals.html.nodes.FrozenDocument.TypeData;
+import static nokogiri.internals.html.nodes.FrozenDocument.TypeDocument;
+import static nokogiri.internals.html.nodes.FrozenDocument.TypeOther;
+import static nokogiri.internals.html.nodes.FrozenDocument.TypeText;
+
+/**
+ A read-only W3C DOM view of a {@link FrozenDocument}, so that DOM consumers like {@code javax.xml.xpath} can run on the
+ frozen arrays directly, without thawing.
+ <p>Each node of the view is a flyweight that holds only the view and its index, and reads the arrays on each call.
+ They are created as they are reached, and kept by the view, so that a node is always the same object within a view
+ (XPath's DOM adapter tests node identity).</p>
+ <p>The view is a DOM Level 1 style one, as for an HTML document: nodes have no namespace URI, prefix or local name, so
+ XPath names match elements and attributes by their node names. Script and style data is presented as text nodes. The
+ doctype is a {@link org.w3c.dom.DocumentType}, and other declarations are processing instructions. Changes throw a
+ {@link DOMException#NO_MODIFICATION_ALLOWED_ERR NO_MODIFICATION_ALLOWED_ERR}; {@link org.w3c.dom.Node#cloneNode(boolean)}
+ returns a thawed, mutable copy.</p>
+ */
+final class FrozenDom {
+    final FrozenDocument doc;
+    private final DomNode[] nodes;
+
+    FrozenDom(FrozenDocument doc) {
+        this.doc = doc;
+        nodes = new DomNode[doc.size()];
+    }
+
+    DomDocument document() {
+        return (DomDocument) node(0);
+    }
+
+    /** The view's node for the index; created on first use. */
+    DomNode node(int index) {
+        DomNode node = nodes[index];
+        if (node == null) {
+            node = create(index);
+            nodes[index] = node;
+        }
+        return node;
+    }
+
+    private @Nullable DomNode nodeOrNull(int index) {
+        return index == -1 ? null : node(index);
+    }
+
+    private DomNode create(int index) {
+        switch (doc.type(index)) {
+            case TypeDocument: return new DomDocument(this, index);
+            case TypeText:
+            case TypeData: return new DomText(this, index);
+            case TypeCData: return new DomCData(this, index);
+            case TypeComment: return new DomComment(this, index);
+            case TypeOther:
+                if (doc.other(index) instanceof DocumentType) return new DomDocumentType(this, index);
+                return new DomProcessingInstruction(this, index);
+            default: return new DomElement(this, index);
+        }
+    }
+
+    /** Get the frozen node of a view node, or null if the node is not from a frozen view (or is an attribute). */
+    static @Nullable FrozenNode frozenNode(org.w3c.dom.Node node) {
+        if (!(node instanceof DomNode) || node instanceof DomAttr) return null;
+        DomNode dom = (DomNode) node;
+        return dom.view.doc.node(dom.index);
+    }
+
+    static DOMException readOnly() {
+        return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "A frozen document can not be modified");
+    }
+
+    /** The base view node. Tree navigation reads the frozen arrays, via the view. */
+    abstract static class DomNode implements org.w3c.dom.Node {
+        final FrozenDom view;
+        final int index; // for an attribute, its owner element's index
+
+        DomNode(FrozenDom view, int index) {
+            this.view = view;
+            this.index = index;
+        }
+
+        final FrozenDocument doc() {
+            return view.doc;
+        }
+
+        @Override public String getNodeValue() {
+            return null;
+        }
+
+        @Override public void setNodeValue(String nodeValue) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node getParentNode() {
+            return view.nodeOrNull(doc().parent(index));
+        }
+
+        @Override public NodeList getChildNodes() {
+            List<DomNode> children = new ArrayList<>();
+            for (int c = doc().firstChild(index); c != -1; c = doc().nextSibling(c)) children.add(view.node(c));
+            return new DomNodeList(children);
+        }
+
+        @Override public org.w3c.dom.Node getFirstChild() {
+            return view.nodeOrNull(doc().firstChild(index));
+        }
+
+        @Override public org.w3c.dom.Node getLastChild() {
+            int last = -1;
+            for (int c = doc().firstChild(index); c != -1; c = doc().nextSibling(c)) last = c;
+            return view.nodeOrNull(last);
+        }
+
+        @Override public org.w3c.dom.Node getPreviousSibling() {
+            return view.nodeOrNull(doc().previousSibling(index));
+        }
+
+        @Override public org.w3c.dom.Node getNextSibling() {
+            return view.nodeOrNull(doc().nextSibling(index));
+        }
+
+        @Override public NamedNodeMap getAttributes() {
+            return null;
+        }
+
+        @Override public org.w3c.dom.Document getOwnerDocument() {
+            return view.document();
+        }
+
+        @Override public org.w3c.dom.Node insertBefore(org.w3c.dom.Node newChild, org.w3c.dom.Node refChild) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node replaceChild(org.w3c.dom.Node newChild, org.w3c.dom.Node oldChild) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node removeChild(org.w3c.dom.Node oldChild) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node appendChild(org.w3c.dom.Node newChild) {
+            throw readOnly();
+        }
+
+        @Override public boolean hasChildNodes() {
+            return doc().firstChild(index) != -1;
+        }
+
+        /** A thawed, mutable copy of the node. */
+        @Override public org.w3c.dom.Node cloneNode(boolean deep) {
+            Node thawed = doc().thaw(index);
+            return deep ? thawed : thawed.shallowClone();
+        }
+
+        @Override public void normalize() {
+            throw readOnly();
+        }
+
+        @Override public boolean isSupported(String feature, String version) {
+            return false;
+        }
+
+        @Override public String getNamespaceURI() {
+            return null;
+        }
+
+        @Override public String getPrefix() {
+            return null;
+        }
+
+        @Override public void setPrefix(String prefix) {
+            throw readOnly();
+        }
+
+        @Override public String getLocalName() {
+            return null;
+        }
+
+        @Override public boolean hasAttributes() {
+            return false;
+        }
+
+        @Override public String getBaseURI() {
+            String baseUri = doc().baseUri(index);
+            return baseUri.isEmpty() ? null : baseUri;
+        }
+
+        /** The document position of the node; for an attribute, its element's, as it follows the element. */
+        int position() {
+            return index;
+        }
+
+        @Override public short compareDocumentPosition(org.w3c.dom.Node other) {
+            if (!(other instanceof DomNode) || ((DomNode) other).doc() != doc())
+                return DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC;
+            DomNode node = (DomNode) other;
+            if (node.equals(this)) return 0;
+            int a = position(), b = node.position();
+            if (a == b) // an element and its attribute, or two attributes of an element
+                return compareAttributes(node) < 0 ? DOCUMENT_POSITION_FOLLOWING : DOCUMENT_POSITION_PRECEDING;
+            if (b > a && b < doc().end(a) && !(this instanceof DomAttr))
+                return DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING;
+            if (a > b && a < doc().end(b) && !(node instanceof DomAttr))
+                return DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING;
+            return b > a ? DOCUMENT_POSITION_FOLLOWING : DOCUMENT_POSITION_PRECEDING;
+        }
+
+        /** Order by attribute slot, where an element (-1) precedes its attributes. */
+        private int compareAttributes(DomNode other) {
+            int a = this instanceof DomAttr ? ((DomAttr) this).attr : -1;
+            int b = other instanceof DomAttr ? ((DomAttr) other).attr : -1;
+            return Integer.compare(a, b);
+        }
+
+        @Override public void setTextContent(String textContent) {
+            throw readOnly();
+        }
+
+        @Override public boolean isSameNode(org.w3c.dom.Node other) {
+            return equals(other);
+        }
+
+        @Override public String lookupPrefix(String namespaceURI) {
+            return null;
+        }
+
+        @Override public boolean isDefaultNamespace(String namespaceURI) {
+            return namespaceURI == null;
+        }
+
+        @Override public String lookupNamespaceURI(String prefix) {
+            return null;
+        }
+
+        @Override public boolean isEqualNode(org.w3c.dom.Node arg) {
+            if (arg == null || getNodeType() != arg.getNodeType()) return false;
+            if (!equal(getNodeName(), arg.getNodeName()) || !equal(getNodeValue(), arg.getNodeValue())
+                || !equal(getNamespaceURI(), arg.getNamespaceURI()) || !equal(getLocalName(), arg.getLocalName()))
+                return false;
+            NamedNodeMap attrs = getAttributes(), otherAttrs = arg.getAttributes();
+            if ((attrs == null) != (otherAttrs == null)) return false;
+            if (attrs != null) {
+                if (attrs.getLength() != otherAttrs.getLength()) return false;
+                for (int i = 0; i < attrs.getLength(); i++) {
+                    org.w3c.dom.Node attr = otherAttrs.getNamedItem(attrs.item(i).getNodeName());
+                    if (attr == null || !attrs.item(i).isEqualNode(attr)) return false;
+                }
+            }
+            NodeList children = getChildNodes(), otherChildren = arg.getChildNodes();
+            if (children.getLength() != otherChildren.getLength()) return false;
+            for (int i = 0; i < children.getLength(); i++) {
+                if (!children.item(i).isEqualNode(otherChildren.item(i))) return false;
+            }
+            return true;
+        }
+
+        private static boolean equal(@Nullable String a, @Nullable String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override public Object getFeature(String feature, String version) {
+            return null;
+        }
+
+        @Override public Object setUserData(String key, Object data, UserDataHandler handler) {
+            throw readOnly();
+        }
+
+        @Override public Object getUserData(String key) {
+            return null;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DomNode node = (DomNode) o;
+            return index == node.index && doc() == node.doc();
+        }
+
+        @Override public int hashCode() {
+            return 31 * System.identityHashCode(doc()) + index;
+        }
+
+        @Override public String toString() {
+            return doc().node(index).toString();
+        }
+    }
+
+    /** The element and descendant text content, for elements and fragments: text and CDATA, not comments. */
+    static String textContent(FrozenDocument doc, int index) {
+        StringBuilder accum = new StringBuilder();
+        for (int n = index + 1, end = doc.end(index); n < end; n++) {
+            byte t = doc.type(n);
+            if (t == TypeText || t == TypeCData || t == TypeData) accum.append(doc.value(n));
+        }
+        return accum.toString();
+    }
+
+    /** Elements within the root (excluding the root) with the node name (case-insensitively), or {@code *} for all. */
+    static NodeList elementsByTagName(FrozenDom view, int root, String name) {
+        FrozenDocument doc = view.doc;
+        List<DomNode> found = new ArrayList<>();
+        for (int n = root + 1, end = doc.end(root); n < end; n++) {
+            if (doc.isElement(n) && (name.equals("*") || doc.nodeName(n).equalsIgnoreCase(name))) found.add(view.node(n));
+        }
+        return new DomNodeList(found);
+    }
+
+    static final class DomDocument extends DomNode implements org.w3c.dom.Document {
+        DomDocument(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeName() {
+            return "#document";
+        }
+
+        @Override public short getNodeType() {
+            return DOCUMENT_NODE;
+        }
+
+        @Override public org.w3c.dom.Document getOwnerDocument() {
+            return null;
+        }
+
+        @Override public String getTextContent() {
+            return null;
+        }
+
+        @Override public org.w3c.dom.DocumentType getDoctype() {
+            for (int c = doc().firstChild(index); c != -1; c = doc().nextSibling(c)) {
+                if (view.node(c) instanceof DomDocumentType) return (DomDocumentType) view.node(c);
+            }
+            return null;
+        }
+
+        @Override public DOMImplementation getImplementation() {
+            throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not supported for a frozen document");
+        }
+
+        @Override public org.w3c.dom.Element getDocumentElement() {
+            for (int c = doc().firstChild(index); c != -1; c = doc().nextSibling(c)) {
+                if (doc().isElement(c)) return (DomElement) view.node(c);
+            }
+            return null;
+        }
+
+        @Override public org.w3c.dom.Element createElement(String tagName) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.DocumentFragment createDocumentFragment() {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Text createTextNode(String data) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Comment createComment(String data) {
+            throw readOnly();
+        }
+
+        @Override public CDATASection createCDATASection(String data) {
+            throw readOnly();
+        }
+
+        @Override public ProcessingInstruction createProcessingInstruction(String target, String data) {
+            throw readOnly();
+        }
+
+        @Override public Attr createAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override public EntityReference createEntityReference(String name) {
+            throw readOnly();
+        }
+
+        @Override public NodeList getElementsByTagName(String tagname) {
+            return elementsByTagName(view, index, tagname);
+        }
+
+        @Override public org.w3c.dom.Node importNode(org.w3c.dom.Node importedNode, boolean deep) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Element createElementNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+            return namespaceURI == null || namespaceURI.equals("*") ? getElementsByTagName(localName) : new DomNodeList(new ArrayList<>());
+        }
+
+        @Override public org.w3c.dom.Element getElementById(String elementId) {
+            for (int n = 0; n < doc().size(); n++) {
+                if (doc().isElement(n) && n != index && doc().id(n).equals(elementId)) return (DomElement) view.node(n);
+            }
+            return null;
+        }
+
+        @Override public String getInputEncoding() {
+            return null;
+        }
+
+        @Override public String getXmlEncoding() {
+            return null;
+        }
+
+        @Override public boolean getXmlStandalone() {
+            return false;
+        }
+
+        @Override public void setXmlStandalone(boolean xmlStandalone) {
+            throw readOnly();
+        }
+
+        @Override public String getXmlVersion() {
+            return "1.0";
+        }
+
+        @Override public void setXmlVersion(String xmlVersion) {
+            throw readOnly();
+        }
+
+        @Override public boolean getStrictErrorChecking() {
+            return true;
+        }
+
+        @Override public void setStrictErrorChecking(boolean strictErrorChecking) {
+            throw readOnly();
+        }
+
+        @Override public String getDocumentURI() {
+            return getBaseURI();
+        }
+
+        @Override public void setDocumentURI(String documentURI) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node adoptNode(org.w3c.dom.Node source) {
+            throw readOnly();
+        }
+
+        @Override public DOMConfiguration getDomConfig() {
+            throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not supported for a frozen document");
+        }
+
+        @Override public void normalizeDocument() {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node renameNode(org.w3c.dom.Node n, String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+    }
+
+    static final class DomElement extends DomNode implements org.w3c.dom.Element {
+        DomElement(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeName() {
+            return doc().nodeName(index);
+        }
+
+        @Override public short getNodeType() {
+            return ELEMENT_NODE;
+        }
+
+        @Override public NamedNodeMap getAttributes() {
+            return new DomAttributes(this);
+        }
+
+        @Override public boolean hasAttributes() {
+            return doc().attributesSize(index) > 0;
+        }
+
+        @Override public String getTextContent() {
+            return textContent(doc(), index);
+        }
+
+        @Override public String getTagName() {
+            return getNodeName();
+        }
+
+        /** The attribute slot of the (non-internal) attribute, case-insensitively; or -1. */
+        int attr(String name) {
+            FrozenDocument doc = doc();
+            for (int a = doc.attrStart(index), end = a + doc.attrCount(index); a < end; a++) {
+                String key = doc.attrKeyAt(a);
+                if (key.equalsIgnoreCase(name) && !Attributes.isInternalKey(key)) return a;
+            }
+            return -1;
+        }
+
+        @Override public String getAttribute(String name) {
+            int a = attr(name);
+            return a == -1 ? "" : doc().attrValueAt(a);
+        }
+
+        @Override public void setAttribute(String name, String value) {
+            throw readOnly();
+        }
+
+        @Override public void removeAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override public Attr getAttributeNode(String name) {
+            int a = attr(name);
+            return a == -1 ? null : new DomAttr(this, a);
+        }
+
+        @Override public Attr setAttributeNode(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override public Attr removeAttributeNode(Attr oldAttr) {
+            throw readOnly();
+        }
+
+        @Override public NodeList getElementsByTagName(String name) {
+            return elementsByTagName(view, index, name);
+        }
+
+        @Override public String getAttributeNS(String namespaceURI, String localName) {
+            return namespaceURI == null ? getAttribute(localName) : "";
+        }
+
+        @Override public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+            throw readOnly();
+        }
+
+        @Override public void removeAttributeNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+
+        @Override public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+            return namespaceURI == null ? getAttributeNode(localName) : null;
+        }
+
+        @Override public Attr setAttributeNodeNS(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+            return namespaceURI == null || namespaceURI.equals("*") ? getElementsByTagName(localName) : new DomNodeList(new ArrayList<>());
+        }
+
+        @Override public boolean hasAttribute(String name) {
+            return attr(name) != -1;
+        }
+
+        @Override public boolean hasAttributeNS(String namespaceURI, String localName) {
+            return namespaceURI == null && hasAttribute(localName);
+        }
+
+        @Override public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override public void setIdAttribute(String name, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override public void setIdAttributeNode(Attr idAttr, boolean isId) {
+            throw readOnly();
+        }
+    }
+
+    /** Text, data, CDATA and comment nodes; their data is the frozen value. */
+    abstract static class DomCharacterData extends DomNode implements CharacterData {
+        DomCharacterData(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeValue() {
+            return getData();
+        }
+
+        @Override public String getTextContent() {
+            return getData();
+        }
+
+        @Override public String getData() {
+            return doc().value(index);
+        }
+
+        @Override public void setData(String data) {
+            throw readOnly();
+        }
+
+        @Override public int getLength() {
+            return getData().length();
+        }
+
+        @Override public String substringData(int offset, int count) {
+            String data = getData();
+            if (offset < 0 || offset > data.length() || count < 0)
+                throw new DOMException(DOMException.INDEX_SIZE_ERR, "Offset or count out of range");
+            return data.substring(offset, Math.min(data.length(), offset + count));
+        }
+
+        @Override public void appendData(String arg) {
+            throw readOnly();
+        }
+
+        @Override public void insertData(int offset, String arg) {
+            throw readOnly();
+        }
+
+        @Override public void deleteData(int offset, int count) {
+            throw readOnly();
+        }
+
+        @Override public void replaceData(int offset, int count, String arg) {
+            throw readOnly();
+        }
+    }
+
+    static class DomText extends DomCharacterData implements org.w3c.dom.Text {
+        DomText(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeName() {
+            return "#text";
+        }
+
+        @Override public short getNodeType() {
+            return TEXT_NODE;
+        }
+
+        @Override public org.w3c.dom.Text splitText(int offset) {
+            throw readOnly();
+        }
+
+        @Override public boolean isElementContentWhitespace() {
+            return false;
+        }
+
+        /** The text of this node and its adjacent text siblings. */
+        @Override public String getWholeText() {
+            FrozenDocument doc = doc();
+            int first = index;
+            for (int prev = doc.previousSibling(first); prev != -1 && isText(doc, prev); prev = doc.previousSibling(prev))
+                first = prev;
+            StringBuilder accum = new StringBuilder();
+            for (int n = first; n != -1 && isText(doc, n); n = doc.nextSibling(n)) accum.append(doc.value(n));
+            return accum.toString();
+        }
+
+        private static boolean isText(FrozenDocument doc, int index) {
+            byte t = doc.type(index);
+            return t == TypeText || t == TypeCData || t == TypeData;
+        }
+
+        @Override public org.w3c.dom.Text replaceWholeText(String content) {
+            throw readOnly();
+        }
+    }
+
+    static final class DomCData extends DomText implements CDATASection {
+        DomCData(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeName() {
+            return "#cdata-section";
+        }
+
+        @Override public short getNodeType() {
+            return CDATA_SECTION_NODE;
+        }
+    }
+
+    static final class DomComment extends DomCharacterData implements org.w3c.dom.Comment {
+        DomComment(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeName() {
+            return "#comment";
+        }
+
+        @Override public short getNodeType() {
+            return COMMENT_NODE;
+        }
+    }
+
+    static final class DomDocumentType extends DomNode implements org.w3c.dom.DocumentType {
+        DomDocumentType(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        private DocumentType doctype() {
+            return (DocumentType) doc().other(index);
+        }
+
+        @Override public String getNodeName() {
+            return getName();
+        }
+
+        @Override public short getNodeType() {
+            return DOCUMENT_TYPE_NODE;
+        }
+
+        @Override public String getTextContent() {
+            return null;
+        }
+
+        @Override public String getName() {
+            return doctype().name();
+        }
+
+        @Override public NamedNodeMap getEntities() {
+            return new DomAttributes(null);
+        }
+
+        @Override public NamedNodeMap getNotations() {
+            return new DomAttributes(null);
+        }
+
+        @Override public String getPublicId() {
+            return doctype().publicId();
+        }
+
+        @Override public String getSystemId() {
+            return doctype().systemId();
+        }
+
+        @Override public String getInternalSubset() {
+            return null;
+        }
+    }
+
+    /** Declarations other than the doctype, like an XML declaration; the data is the declaration's attributes. */
+    static final class DomProcessingInstruction extends DomNode implements ProcessingInstruction {
+        DomProcessingInstruction(FrozenDom view, int index) {
+            super(view, index);
+        }
+
+        @Override public String getNodeName() {
+            return getTarget();
+        }
+
+        @Override public short getNodeType() {
+            return PROCESSING_INSTRUCTION_NODE;
+        }
+
+        @Override public String getNodeValue() {
+            return getData();
+        }
+
+        @Override public String getTextContent() {
+            return getData();
+        }
+
+        @Override public String getTarget() {
+            return doc().other(index).nodeName();
+        }
+
+        @Override public String getData() {
+            Node other = doc().other(index);
+            return other instanceof XmlDeclaration ? ((XmlDeclaration) other).getWholeDeclaration() : other.nodeValue();
+        }
+
+        @Override public void setData(String data) {
+            throw readOnly();
+        }
+    }
+
+    static final class DomAttr extends DomNode implements Attr {
+        final int attr; // the attribute's slot in the frozen arrays
+
+        DomAttr(DomElement owner, int attr) {
+            super(owner.view, owner.index);
+            this.attr = attr;
+        }
+
+        @Override public String getNodeName() {
+            return getName();
+        }
+
+        @Override public String getNodeValue() {
+            return getValue();
+        }
+
+        @Override public short getNodeType() {
+            return ATTRIBUTE_NODE;
+        }
+
+        @Override public org.w3c.dom.Node getParentNode() {
+            return null;
+        }
+
+        @Override public NodeList getChildNodes() {
+            return new DomNodeList(new ArrayList<>());
+        }
+
+        @Override public org.w3c.dom.Node getFirstChild() {
+            return null;
+        }
+
+        @Override public org.w3c.dom.Node getLastChild() {
+            return null;
+        }
+
+        @Override public org.w3c.dom.Node getPreviousSibling() {
+            return null;
+        }
+
+        @Override public org.w3c.dom.Node getNextSibling() {
+            return null;
+        }
+
+        @Override public boolean hasChildNodes() {
+            return false;
+        }
+
+        @Override public org.w3c.dom.Node cloneNode(boolean deep) {
+            return new Attribute(getName(), getValue());
+        }
+
+        @Override public String getTextContent() {
+            return getValue();
+        }
+
+        @Override public String getName() {
+            return doc().attrKeyAt(attr);
+        }
+
+        @Override public boolean getSpecified() {
+            return true;
+        }
+
+        @Override public String getValue() {
+            return doc().attrValueAt(attr);
+        }
+
+        @Override public void setValue(String value) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Element getOwnerElement() {
+            return (DomElement) view.node(index);
+        }
+
+        @Override public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override public boolean isId() {
+            return getName().equalsIgnoreCase("id");
+        }
+
+        @Override public boolean equals(Object o) {
+            return super.equals(o) && attr == ((DomAttr) o).attr;
+        }
+
+        @Override public int hashCode() {
+            return 31 * super.hashCode() + attr;
+        }
+
+        @Override public String toString() {
+            return getName() + "=\"" + getValue() + "\"";
+        }
+    }
+
+    static final class DomNodeList implements NodeList {
+        private final List<DomNode> nodes;
+
+        DomNodeList(List<DomNode> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override public org.w3c.dom.Node item(int index) {
+            return index >= 0 && index < nodes.size() ? nodes.get(index) : null;
+        }
+
+        @Override public int getLength() {
+            return nodes.size();
+        }
+    }
+
+    /** The (non-internal) attributes of an element; or an empty map, for a null element. */
+    static final class DomAttributes implements NamedNodeMap {
+        private final @Nullable DomElement element;
+        private final int[] attrs; // the slots of the non-internal attributes
+
+        DomAttributes(@Nullable DomElement element) {
+            this.element = element;
+            if (element == null) {
+                attrs = new int[0];
+                return;
+            }
+            FrozenDocument doc = element.doc();
+            int start = doc.attrStart(element.index), count = doc.attrCount(element.index);
+            int[] slots = new int[count];
+            int size = 0;
+            for (int a = start; a < start + count; a++) {
+                if (!Attributes.isInternalKey(doc.attrKeyAt(a))) slots[size++] = a;
+            }
+            attrs = size == count ? slots : java.util.Arrays.copyOf(slots, size);
+        }
+
+        @Override public org.w3c.dom.Node getNamedItem(String name) {
+            return element == null ? null : element.getAttributeNode(name);
+        }
+
+        @Override public org.w3c.dom.Node setNamedItem(org.w3c.dom.Node arg) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node removeNamedItem(String name) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node item(int index) {
+            if (element == null || index < 0 || index >= attrs.length) return null;
+            return new DomAttr(element, attrs[index]);
+        }
+
+        @Override public int getLength() {
+            return attrs.length;
+        }
+
+        @Override public org.w3c.dom.Node getNamedItemNS(String namespaceURI, String localName) {
+            return namespaceURI == null ? getNamedItem(localName) : null;
+        }
+
+        @Override public org.w3c.dom.Node setNamedItemNS(org.w3c.dom.Node arg) {
+            throw readOnly();
+        }
+
+        @Override public org.w3c.dom.Node removeNamedItemNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.jspecify.annotations.Nullable;
+import org.w3c.dom.NodeList;
+
+import nokogiri.internals.html.parser.Tag;
+import nokogiri.internals.html.select.FrozenSelector;
+import nokogiri.internals.html.select.Selector;
+
+/**
+ A read-only view of one node in a {@link FrozenDocument}. It is a flyweight: it holds just the document and the node's
+ index, and reads everything else from the document's arrays. So frozen nodes can be created freely as a tree is
+ walked, and two views of the same node are {@link #equals(Object) equal}.
+ <p>Element names, attributes, structure and whole text are read directly from the frozen arrays. Methods that need the
+ output formatting of a regular node (like {@link #text()} and {@link #outerHtml()}) {@link #thaw()} the node's subtree
+ first. XPath queries run on a W3C DOM view of the arrays, via {@link #selectXpath(String)}.</p>
+ */
+public final class FrozenNode {
+    private final FrozenDocument doc;
+    private final int index;
+
+    FrozenNode(FrozenDocument doc, int index) {
+        this.doc = doc;
+        this.index = index;
+    }
+
+    /** The frozen document that this node is in. */
+    public FrozenDocument document() {
+        return doc;
+    }
+
+    /** This node's index in the frozen document, in document order. */
+    public int index() {
+        return index;
+    }
+
+    /** Get the node name of this node, as {@link Node#nodeName()}. */
+    public String nodeName() {
+        return doc.nodeName(index);
+    }
+
+    /** Get the normalized name of this node, as {@link Node#normalName()}. */
+    public String normalName() {
+        return doc.normalName(index);
+    }
+
+    /** Test if this node has the normalized name. */
+    public boolean nameIs(String normalName) {
+        return doc.nameIs(index, normalName);
+    }
+
+    /** Test if this node is an element (which includes the document). */
+    public boolean isElement() {
+        return doc.isElement(index);
+    }
+
+    /** The element's tag, or null if this is not an element. */
+    public @Nullable Tag tag() {
+        return doc.tag(index);
+    }
+
+    /** This node's parent, or null if this is the document. */
+    public @Nullable FrozenNode parent() {
+        return nodeOrNull(doc.parent(index));
+    }
+
+    /** This node's first child, or null if it has none. */
+    public @Nullable FrozenNode firstChild() {
+        return nodeOrNull(doc.firstChild(index));
+    }
+
+    /** This node's next sibling, or null if it is the last child. */
+    public @Nullable FrozenNode nextSibling() {
+        return nodeOrNull(doc.nextSibling(index));
+    }
+
+    /** This node's previous sibling, or null if it is the first child. */
+    public @Nullable FrozenNode previousSibling() {
+        return nodeOrNull(doc.previousSibling(index));
+    }
+
+    /** The number of child nodes. */
+    public int childNodeSize() {
+        int count = 0;
+        for (int c = doc.firstChild(index); c != -1; c = doc.nextSibling(c)) count++;
+        return count;
+    }
+
+    /** The child nodes of this node. The list is a copy. */
+    public List<FrozenNode> childNodes() {
+        List<FrozenNode> nodes = new ArrayList<>();
+        for (int c = doc.firstChild(index); c != -1; c = doc.nextSibling(c)) nodes.add(new FrozenNode(doc, c));
+        return nodes;
+    }
+
+    /** The child elements of this node. The list is a copy. */
+    public List<FrozenNode> children() {
+        List<FrozenNode> nodes = new ArrayList<>();
+        for (int c = doc.firstChild(index); c != -1; c = doc.nextSibling(c)) {
+            if (doc.isElement(c)) nodes.add(new FrozenNode(doc, c));
+        }
+        return nodes;
+    }
+
+    /** Get an attribute value, as {@link Node#attr(String)}. */
+    public String attr(String key) {
+        return doc.attr(index, key);
+    }
+
+    /** Test if this node has an attribute, as {@link Node#hasAttr(String)}. */
+    public boolean hasAttr(String key) {
+        return doc.hasAttr(index, key);
+    }
+
+    /** Get the absolute URL of an attribute, as {@link Node#absUrl(String)}. */
+    public String absUrl(String key) {
+        return doc.absUrl(index, key);
+    }
+
+    /** Get the base URI of this node, as {@link Node#baseUri()}. */
+    public String baseUri() {
+        return doc.baseUri(index);
+    }
+
+    /** Get the {@code id} attribute, or an empty string. */
+    public String id() {
+        return doc.id(index);
+    }
+
+    /** Test if this element has the class, as {@link Element#hasClass(String)}. */
+    public boolean hasClass(String className) {
+        return doc.hasClass(index, className);
+    }
+
+    /** The number of attributes of this node. */
+    public int attributesSize() {
+        return doc.attributesSize(index);
+    }
+
+    /** Get a copy of this node's attributes. Changes to the copy do not affect the frozen document. */
+    public Attributes attributes() {
+        return doc.attributes(index);
+    }
+
+    /** The text of a text, data or comment node; or an empty string for elements. */
+    public String value() {
+        return doc.value(index);
+    }
+
+    /** Get the whole text of this node and its descendants, as {@link Element#wholeText()}. */
+    public String wholeText() {
+        return doc.wholeText(index);
+    }
+
+    /**
+     Get the normalized, combined text of this node and its descendants, as {@link Element#text()}. Thaws the subtree.
+     */
+    public String text() {
+        Node node = thaw();
+        return node instanceof Element ? ((Element) node).text() : doc.value(index);
+    }
+
+    /** Get the outer HTML of this node, as {@link Node#outerHtml()}. Thaws the subtree. */
+    public String outerHtml() {
+        return thaw().outerHtml();
+    }
+
+    /**
+     Thaw this node and its descendants into a new, mutable node tree.
+     @return a new node
+     @see FrozenDocument#thaw(int)
+     */
+    public Node thaw() {
+        return doc.thaw(index);
+    }
+
+    /**
+     Find the elements within this node (including itself) that match the CSS query.
+     @param cssQuery a CSS selector
+     @return the matching elements, in document order
+     @see FrozenSelector#select(String, FrozenNode)
+     */
+    public List<FrozenNode> select(String cssQuery) {
+        return FrozenSelector.select(cssQuery, this);
+    }
+
+    /**
+     Find the first element within this node (including itself) that matches the CSS query.
+     @param cssQuery a CSS selector
+     @return the first match, or null if there is none
+     */
+    public @Nullable FrozenNode selectFirst(String cssQuery) {
+        return FrozenSelector.selectFirst(cssQuery, this);
+    }
+
+    /**
+     Find the nodes that match the XPath query, with this node as the context node. The query runs on a new
+     {@link FrozenDocument#dom() W3C DOM view} of the snapshot, so it reads the frozen arrays without thawing. As that
+     view has no namespaces, element and attribute names are matched by name, e.g. {@code //a[@href]}.
+     @param xpath an XPath 1.0 expression that selects nodes
+     @return the matching nodes (but not attributes), in document order
+     @throws Selector.SelectorParseException if the XPath expression is invalid
+     */
+    public List<FrozenNode> selectXpath(String xpath) {
+        org.w3c.dom.Node context = new FrozenDom(doc).node(index);
+        NodeList found;
+        try {
+            found = (NodeList) XPathFactory.newInstance().newXPath().evaluate(xpath, context, XPathConstants.NODESET);
+        } catch (XPathExpressionException e) {
+            throw new Selector.SelectorParseException("Could not evaluate XPath query [%s]: %s", xpath, e.getMessage());
+        }
+        List<FrozenNode> nodes = new ArrayList<>(found.getLength());
+        for (int i = 0; i < found.getLength(); i++) {
+            FrozenNode node = FrozenDom.frozenNode(found.item(i));
+            if (node != null) nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private @Nullable FrozenNode nodeOrNull(int i) {
+        return i == -1 ? null : new FrozenNode(doc, i);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FrozenNode)) return false;
+        FrozenNode other = (FrozenNode) o;
+        return doc == other.doc && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(doc) + index;
+    }
+
+    @Override
+    public String toString() {
+        return outerHtml();
+    }
+}
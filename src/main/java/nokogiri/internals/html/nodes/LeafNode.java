@@ -6,6 +6,7 @@ import org.jspecify.annotations.Nullable;
 
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.internal.QuietAppendable;
+import nokogiri.internals.html.internal.TextSlice;
 
 public abstract class LeafNode extends Node {
     Object value;
@@ -19,6 +20,12 @@ public abstract class LeafNode extends Node {
         value = coreValue;
     }
 
+    /** Create a leaf node whose core value is a slice of the parse input; it is copied to a String when first read. */
+    protected LeafNode(TextSlice coreValue) {
+        Validate.notNull(coreValue);
+        value = coreValue;
+    }
+
     // org.w3c.dom.Node
     @Override
     public org.w3c.dom.Node getParentNode() {
@@ -34,7 +41,7 @@ public abstract class LeafNode extends Node {
     @Override
     public final Attributes attributes() {
         ensureAttributes();
-        return (Attributes) value;
+        return hasAttributes() ? (Attributes) value : coreAttributes();
     }
 
     @Override
@@ -45,13 +52,14 @@ public abstract class LeafNode extends Node {
     @Override
     public String attr(String key) {
         if (!hasAttributes()) {
-            return nodeName().equals(key) ? (String) value : EmptyString;
+            return nodeName().equals(key) ? materialize() : EmptyString;
         }
         return super.attr(key);
     }
 
     @Override
     public Node attr(String key, String value) {
+        checkNotSealed();
         if (!hasAttributes() && key.equals(nodeName())) {
             this.value = value;
         } else {
@@ -127,17 +135,35 @@ public abstract class LeafNode extends Node {
         return attr(nodeName());
     }
 
+    /** The core value, without copying it if it is a slice of the parse input. */
+    CharSequence coreSequence() {
+        return value instanceof TextSlice ? (TextSlice) value : coreValue();
+    }
+
     void coreValue(String value) {
         attr(nodeName(), value);
     }
 
+    /** The String core value. A slice is copied, and kept as the value unless this node is sealed. */
+    private String materialize() {
+        if (!(value instanceof TextSlice)) return (String) value;
+        String str = value.toString();
+        if (!isSealed()) value = str;
+        return str;
+    }
+
     private void ensureAttributes() {
-        if (!hasAttributes()) { // then value is String coreValue
-            String coreValue = (String) value;
-            Attributes attributes = new Attributes();
-            attributes.setOwnerElement(parent());
-            value = attributes;
-            attributes.put(nodeName(), coreValue);
+        if (!hasAttributes() && !isSealed()) { // then value is String or TextSlice coreValue
+            value = coreAttributes();
         }
     }
+
+    /** The core value as attributes. If this node is sealed, the node isn't converted, and these are a sealed copy. */
+    private Attributes coreAttributes() {
+        Attributes attributes = new Attributes();
+        attributes.setOwnerElement(parent());
+        attributes.put(nodeName(), value.toString());
+        attributes.sealed = isSealed();
+        return attributes;
+    }
 }
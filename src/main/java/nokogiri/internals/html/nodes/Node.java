@@ -1,5 +1,10 @@
 package nokogiri.internals.html.nodes;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -9,6 +14,7 @@ import org.w3c.dom.*;
 
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.helper.W3CValidation;
+import nokogiri.internals.html.internal.ByteAppendable;
 import nokogiri.internals.html.internal.QuietAppendable;
 import nokogiri.internals.html.internal.StringUtil;
 import nokogiri.internals.html.parser.ParseSettings;
@@ -70,7 +76,7 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         Node thisClone = doClone(null); // splits for orphan
 
         // Queue up nodes that need their children cloned (BFS).
-        final LinkedList<nokogiri.internals.html.nodes.Node> nodesToProcess = new LinkedList<>();
+        final ArrayDeque<nokogiri.internals.html.nodes.Node> nodesToProcess = new ArrayDeque<>();
         nodesToProcess.add(thisClone);
 
         while (!nodesToProcess.isEmpty()) {
@@ -98,8 +104,8 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
     public org.w3c.dom.NodeList getChildNodes() { return new Element.NodeList(0); }
     public org.w3c.dom.Node getFirstChild() { return null; }
     public org.w3c.dom.Node getLastChild() { return null; }
-    public org.w3c.dom.Node getPreviousSibling() { return nextSibling(); }
-    public org.w3c.dom.Node getNextSibling() { return previousSibling(); }
+    public org.w3c.dom.Node getPreviousSibling() { return previousSibling(); }
+    public org.w3c.dom.Node getNextSibling() { return nextSibling(); }
     public NamedNodeMap getAttributes() { return null; }
     public Document getOwnerDocument() { return ownerDocument(); }
     public org.w3c.dom.Node insertBefore(org.w3c.dom.Node newChild, org.w3c.dom.Node refChild) throws DOMException {
@@ -183,6 +189,16 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         return userData.get(key);
     }
 
+    /** Calls the user data handlers registered on this node, for the operation (e.g. {@link UserDataHandler#NODE_IMPORTED}). */
+    void notifyUserDataHandlers(short operation, @Nullable Node dst) {
+        if (dataHandlers.isEmpty()) return;
+        for (Map.Entry<String, Object> entry : dataHandlers.entrySet()) {
+            UserDataHandler handler = (UserDataHandler) entry.getValue();
+            if (handler != null)
+                handler.handle(operation, entry.getKey(), userData.get(entry.getKey()), this, dst);
+        }
+    }
+
     /**
      * Get each of the Element's attributes.
      * @return attributes (which implements Iterable, with the same order as presented in the original HTML).
@@ -308,8 +324,8 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
      * @see Element#elementSiblingIndex()
      */
     public int siblingIndex() {
-        if (parentNode != null && !parentNode.childNodes.validChildren)
-            parentNode.reindexChildren();
+        if (parentNode != null)
+            parentNode.childNodes.validate(this);
 
         return siblingIndex;
     }
@@ -352,7 +368,7 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         Node node = this;
         while (node != null) {
             if (node instanceof Document) {
-                document = (Document)node;
+                if (!isSealed()) document = (Document)node; // a read of a sealed node must not write
                 return (Document) node;
             }
             node = node.parentNode;
@@ -733,7 +749,7 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         final int index = siblingIndex() + 1;
         if (siblings.size() > index) {
             Node node = siblings.get(index);
-            assert (node.siblingIndex == index); // sanity test that invalidations haven't missed
+            assert (node.siblingIndex() == index); // sanity test that invalidations haven't missed
             return node;
         } else
             return null;
@@ -762,6 +778,20 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         return parentNode != null;
     }
 
+    /**
+     Checks if this node is in a sealed document, and so can not be modified.
+     @return if this node is sealed
+     @see Document#seal()
+     */
+    public boolean isSealed() {
+        return parentNode != null && parentNode.childNodes.sealed;
+    }
+
+    /** Throws if this node is in a sealed document. Called before any change to the node. */
+    final void checkNotSealed() {
+        if (isSealed()) throw new UnsupportedOperationException("Can not modify a sealed document");
+    }
+
     /**
      Test if this node's parent has the specified normalized name.
      * @param normalName a normalized name (e.g. {@code div}).
@@ -833,6 +863,91 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         return appendable;
     }
 
+    /**
+     Write this node and its children to the given {@link Appendable}, minified, as with
+     {@link Document.OutputSettings#minify(boolean)}, and report how much smaller the output is.
+
+     @param appendable the {@link Appendable} to write to.
+     @return the number of characters saved, compared to the output without pretty printing.
+     @throws org.jsoup.SerializationException if the appendable throws an IOException.
+     */
+    public long minify(Appendable appendable) {
+        Validate.notNull(appendable);
+        Document.OutputSettings settings = NodeUtils.outputSettings(this).clone().minify(true);
+        QuietAppendable accum = QuietAppendable.wrap(appendable);
+        Node first = this instanceof Document || this instanceof DocumentFragment ? firstChild() : this; // no wrapper
+        if (first == null) return 0;
+        Printer.Minify printer = new Printer.Minify(first, accum, settings);
+        if (first == this) {
+            printer.traverse(this);
+        } else {
+            for (Node child = first; child != null; child = child.nextSibling())
+                printer.traverse(child);
+        }
+        return printer.saved;
+    }
+
+    /**
+     Write this node and its children to the given stream, encoded in the output charset of this node's document (or
+     UTF-8 if it has none). The HTML is encoded as it is serialized, through a reused byte buffer, so no intermediate
+     String is built.
+
+     @param out the stream to write to. It is not flushed or closed.
+     @throws IOException if the stream throws an IOException
+     @see Document.OutputSettings#charset()
+     */
+    public void writeHtml(OutputStream out) throws IOException {
+        Validate.notNull(out);
+        writeHtml(out::write);
+    }
+
+    /**
+     Write this node and its children to the given channel, encoded in the output charset of this node's document (or
+     UTF-8 if it has none).
+
+     @param channel the channel to write to. It is not closed.
+     @throws IOException if the channel throws an IOException
+     @see #writeHtml(OutputStream)
+     */
+    public void writeHtml(WritableByteChannel channel) throws IOException {
+        Validate.notNull(channel);
+        writeHtml((bytes, offset, length) -> {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) channel.write(buffer);
+        });
+    }
+
+    /**
+     Write this node and its children into the given buffer, from its position, encoded in the output charset of this
+     node's document (or UTF-8 if it has none).
+
+     @param buffer the buffer to write into
+     @return the supplied buffer, for chaining
+     @throws java.nio.BufferOverflowException if the buffer does not have room for the HTML
+     @see #writeHtml(OutputStream)
+     */
+    public ByteBuffer writeHtml(ByteBuffer buffer) {
+        Validate.notNull(buffer);
+        try {
+            writeHtml(buffer::put);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by a buffer
+        }
+        return buffer;
+    }
+
+    private void writeHtml(ByteAppendable.Sink sink) throws IOException {
+        ByteAppendable accum = new ByteAppendable(NodeUtils.outputSettings(this).charset(), sink);
+        try {
+            outerHtml(accum);
+            accum.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            accum.release(); // return the pooled buffers if the output failed; a no-op once finished
+        }
+    }
+
     /**
      Returns a Stream of this Node and all of its descendant Nodes. The stream has document order.
      @return a stream of all nodes.
@@ -955,7 +1070,12 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
 
     protected void addChildren(Node... children) {
         //most used. short circuit addChildren(int), which hits reindex children and array copy
+        checkNotSealed();
         final List<Node> nodes = ensureChildNodes();
+        if (hasFragment(children)) {
+            addChildren(nodes.size(), children); // splices the fragment's children in one go
+            return;
+        }
 
         for (Node child: children) {
             reparentChild(child);
@@ -968,7 +1088,12 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         // todo clean up all these and use the list, not the var array. just need to be careful when iterating the incoming (as we are removing as we go)
         Validate.notNull(children);
         if (children.length == 0) return;
+        checkNotSealed();
         final List<nokogiri.internals.html.nodes.Node> nodes = ensureChildNodes();
+        if (hasFragment(children)) {
+            children = expandFragments(children);
+            if (children.length == 0) return;
+        }
 
         // fast path - if used as a wrap (index=0, children = child[0].parent.children - do inplace
         final Node firstParent = children[0].parent();
@@ -991,7 +1116,6 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
                 while (i-- > 0) {
                     children[i].parentNode = (Element) this;
                 }
-                ((Element) this).invalidateChildren();
                 return;
             }
         }
@@ -1001,7 +1125,37 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
             reparentChild(child);
         }
         nodes.addAll(index, Arrays.asList(children));
-        ((Element) this).invalidateChildren();
+    }
+
+    private static boolean hasFragment(Node[] nodes) {
+        for (Node node : nodes) {
+            if (node instanceof DocumentFragment) return true;
+        }
+        return false;
+    }
+
+    /**
+     Replace each fragment in the nodes with the fragment's children. Each fragment is emptied in one pass, so its
+     children are detached without a removal (and a shift of the fragment's list) per child.
+     */
+    private static Node[] expandFragments(Node[] nodes) {
+        int count = 0;
+        for (Node node : nodes) {
+            count += node instanceof DocumentFragment ? node.childNodeSize() : 1;
+        }
+        Node[] expanded = new Node[count];
+        int i = 0;
+        for (Node node : nodes) {
+            if (node instanceof DocumentFragment) {
+                DocumentFragment fragment = (DocumentFragment) node;
+                for (Node child : fragment.childNodes)
+                    expanded[i++] = child;
+                fragment.empty();
+            } else {
+                expanded[i++] = node;
+            }
+        }
+        return expanded;
     }
 
     protected void reparentChild(nokogiri.internals.html.nodes.Node child) {
@@ -1012,6 +1166,13 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
         Validate.isTrue(out.parentNode == this);
         Validate.notNull(in);
         if (out == in) return; // no-op self replacement
+        checkNotSealed();
+        if (in instanceof DocumentFragment) {
+            final int index = out.siblingIndex();
+            removeChild(out);
+            addChildren(index, in);
+            return;
+        }
 
         if (in.parentNode != null)
             in.parentNode.removeChild(in);
@@ -1027,13 +1188,8 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
 
     protected void removeChild(nokogiri.internals.html.nodes.Node out) {
         Validate.isTrue(out.parentNode == this);
-        Element el = (Element) this;
-        if (el.hasValidChildren()) // can remove by index
-            ensureChildNodes().remove(out.siblingIndex);
-        else
-            ensureChildNodes().remove(out); // iterates, but potentially not every one
-
-        el.invalidateChildren();
+        checkNotSealed();
+        ensureChildNodes().remove(out.siblingIndex()); // reindexes only up to out, if needed
         out.parentNode = null;
     }
 
@@ -1055,7 +1211,7 @@ public abstract class Node implements org.w3c.dom.Node, Cloneable {
 
     protected void outerHtml(QuietAppendable accum) {
         Printer printer = Printer.printerFor(this, accum);
-        printer.traverse(this);
+        printer.print(this);
     }
 
     protected Node[] childNodesAsArray() {
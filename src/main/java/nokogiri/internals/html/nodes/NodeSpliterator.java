@@ -0,0 +1,191 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.IdentityHashMap;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.select.NodeVisitor;
+
+/**
+ A Spliterator over a node and its descendants, in document order, that can be split by subtree for parallel streams.
+ <p>Until it is split, traversal is delegated to a {@link NodeIterator}, so sequential streams keep the iterator's
+ tolerance of nodes being removed or replaced during the traversal. Once split, each part covers an optional head node
+ plus a contiguous range of a parent's children (and all of their descendants). A range of one child is split by
+ descending into that child.</p>
+ <p>Size estimates are exact counts of the matching node type, computed on first demand in a single pass over the tree
+ and shared between the split parts. The tree must not be modified while a split traversal is in progress.</p>
+ */
+final class NodeSpliterator<T extends Node> implements Spliterator<T> {
+    private static final int Characteristics = Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED;
+
+    private final Class<T> type;
+    private final Node start;
+    private @Nullable SubtreeSizes sizes;      // lazily computed on first estimate / split, then shared
+    private @Nullable NodeIterator<T> current; // the subtree (or whole tree, if unsplit) being iterated
+    private boolean split;                     // in range mode, after the first split
+    private @Nullable Node head;               // range mode: emitted before the child range, not descended
+    private Node parent;                       // range mode: the parent of the child range
+    private int index;                         // range mode: next child index to iterate
+    private int fence;                         // range mode: one past the last child index
+    private long est;                          // range mode: number of remaining nodes of type
+
+    NodeSpliterator(Node start, Class<T> type) {
+        Validate.notNull(start);
+        Validate.notNull(type);
+        this.start = start;
+        this.type = type;
+        this.parent = start;
+    }
+
+    private NodeSpliterator(NodeSpliterator<T> from, @Nullable Node head, Node parent, int index, int fence, long est) {
+        this.start = from.start;
+        this.type = from.type;
+        this.sizes = from.sizes;
+        this.split = true;
+        this.head = head;
+        this.parent = parent;
+        this.index = index;
+        this.fence = fence;
+        this.est = est;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        Validate.notNull(action);
+        if (!split) {
+            if (current == null) current = new NodeIterator<>(start, type);
+            if (!current.hasNext()) return false;
+            action.accept(current.next());
+            return true;
+        }
+
+        if (head != null) {
+            Node node = head;
+            head = null;
+            if (type.isInstance(node)) {
+                est--;
+                action.accept(type.cast(node));
+                return true;
+            }
+        }
+        while (true) {
+            if (current != null) {
+                if (current.hasNext()) {
+                    est--;
+                    action.accept(current.next());
+                    return true;
+                }
+                current = null;
+            }
+            if (index >= fence) return false;
+            current = new NodeIterator<>(parent.childNode(index++), type);
+        }
+    }
+
+    @Override
+    public @Nullable Spliterator<T> trySplit() {
+        if (current != null) return null; // traversal in progress, (or unsplit and started); don't split
+        if (!split) {
+            split = true;
+            head = start;
+            parent = start;
+            index = 0;
+            fence = start.childNodeSize();
+            est = sizes().of(start);
+        }
+
+        while (true) {
+            int remaining = fence - index;
+            if (remaining >= 2) {
+                // split the child range at its size-weighted midpoint; the prefix takes the head
+                long headSize = head != null && type.isInstance(head) ? 1 : 0;
+                long half = (est - headSize) / 2;
+                long prefixSize = headSize;
+                long acc = 0;
+                int mid = index;
+                while (mid < fence - 1) {
+                    acc += sizes().of(parent.childNode(mid++));
+                    if (acc >= half) break;
+                }
+                prefixSize += acc;
+                NodeSpliterator<T> prefix = new NodeSpliterator<>(this, head, parent, index, mid, prefixSize);
+                head = null;
+                index = mid;
+                est -= prefixSize;
+                return prefix;
+            } else if (remaining == 1) {
+                if (head != null) { // split off the head, leaving the single subtree
+                    long headSize = type.isInstance(head) ? 1 : 0;
+                    NodeSpliterator<T> prefix = new NodeSpliterator<>(this, head, parent, index, index, headSize);
+                    head = null;
+                    est -= headSize;
+                    return prefix;
+                }
+                // descend into the only child, which becomes the head of its own children
+                Node child = parent.childNode(index);
+                if (child.childNodeSize() == 0) return null;
+                head = child;
+                parent = child;
+                index = 0;
+                fence = child.childNodeSize();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        if (!split) {
+            return current == null ? sizes().of(start) : Long.MAX_VALUE;
+        }
+        return Math.max(est, 0);
+    }
+
+    @Override
+    public int characteristics() {
+        return Characteristics;
+    }
+
+    private SubtreeSizes sizes() {
+        if (sizes == null) sizes = new SubtreeSizes(start, type);
+        return sizes;
+    }
+
+    /**
+     The number of nodes of the requested type in each subtree, counted in one post-order pass. Only nodes with children
+     are recorded; leaf sizes are derived.
+     */
+    static final class SubtreeSizes implements NodeVisitor {
+        private final IdentityHashMap<Node, Long> sizes = new IdentityHashMap<>();
+        private final Class<? extends Node> type;
+
+        SubtreeSizes(Node root, Class<? extends Node> type) {
+            this.type = type;
+            traverse(root);
+        }
+
+        long of(Node node) {
+            if (node.childNodeSize() == 0) return type.isInstance(node) ? 1 : 0;
+            Long size = sizes.get(node);
+            return size != null ? size : 0;
+        }
+
+        @Override public void head(Node node, int depth) {
+            // counted on tail, once the children are known
+        }
+
+        @Override public void tail(Node node, int depth) {
+            final int childCount = node.childNodeSize();
+            if (childCount == 0) return;
+            long size = type.isInstance(node) ? 1 : 0;
+            for (int i = 0; i < childCount; i++) {
+                size += of(node.childNode(i));
+            }
+            sizes.put(node, size);
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package nokogiri.internals.html.nodes;
 
-import java.util.Iterator;
-import java.util.Spliterator;
-import java.util.Spliterators;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -28,17 +25,8 @@ final class NodeUtils {
         return doc != null ? doc.parser() : new Parser(new HtmlTreeBuilder());
     }
 
-    /** Creates a Stream, starting with the supplied node. */
+    /** Creates a Stream, starting with the supplied node. The stream can be made parallel, and splits by subtree. */
     static <T extends Node> Stream<T> stream(Node start, Class<T> type) {
-        NodeIterator<T> iterator = new NodeIterator<>(start, type);
-        Spliterator<T> spliterator = spliterator(iterator);
-
-        return StreamSupport.stream(spliterator, false);
-    }
-
-    static <T extends Node> Spliterator<T> spliterator(Iterator<T> iterator) {
-        return Spliterators.spliteratorUnknownSize(
-                iterator,
-                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED);
+        return StreamSupport.stream(new NodeSpliterator<>(start, type), false);
     }
 }
@@ -0,0 +1,128 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+import nokogiri.internals.html.internal.QuietAppendable;
+import nokogiri.internals.html.parser.Tag;
+import nokogiri.internals.html.select.NodeTraversor;
+import nokogiri.internals.html.select.NodeVisitor;
+
+/**
+ Prints a large node by splitting it into independent runs of sibling subtrees, which are printed on ForkJoin workers,
+ each into its own buffer, and then gathered in order. Used when {@link Document.OutputSettings#parallel()} is enabled.
+ <p>The nodes above those runs (the "spine", such as {@code html} and {@code body}) are printed on the calling thread.
+ Each worker prints with the same printer type and root as the sequential printer, starting from the depth and
+ whitespace preservation state that the sequential printer would have at that point, and the pretty printer's other
+ decisions only look at a node's parent and siblings, so the output is identical to the sequential output.</p>
+ <p>A run only starts at an element (or after the spine's own output). The minifier carries one fact from text to the
+ text after it: whether the last output was a collapsed space (across a dropped comment, too); and every element resets
+ that. So a worker's fresh state is the sequential printer's state at the start of its run.</p>
+ */
+final class ParallelPrinter {
+    /** Nodes smaller than this (in total nodes) are printed sequentially. */
+    static final int MinNodes = 16 * 1024;
+    /** The target size of each run of nodes printed by a worker. */
+    static final int ChunkNodes = 2 * 1024;
+    private static final int MaxSpineDepth = 32;
+
+    private final Printer printer;
+    private final StringBuilder spineOut = new StringBuilder();
+    private final Printer spine;
+    // in output order: an Integer end offset of the spine output, or a ForkJoinTask of a worker's output
+    private final List<Object> segments = new ArrayList<>();
+    private final List<Node> run = new ArrayList<>();
+    private int runSize = 0;
+    private int runDepth = 0;
+
+    private ParallelPrinter(Printer printer) {
+        this.printer = printer;
+        spine = Printer.printerFor(printer.root, QuietAppendable.wrap(spineOut), printer.settings);
+    }
+
+    /** Print the node with the printer, in parallel if it is large enough to be worth it. */
+    static void print(Printer printer, Node node) {
+        if (size(node, MinNodes) < MinNodes) {
+            printer.traverse(node);
+            return;
+        }
+        ParallelPrinter parallel = new ParallelPrinter(printer);
+        parallel.visit(node, 0);
+        parallel.flushRun();
+        parallel.gather(printer.accum);
+    }
+
+    private void visit(Node node, int depth) {
+        int size = size(node, ChunkNodes);
+        if (size <= ChunkNodes || depth >= MaxSpineDepth || !(node instanceof Element)) {
+            if (runSize + size > ChunkNodes && node instanceof Element) flushRun(); // runs start at elements
+            run.add(node);
+            runSize += size;
+            runDepth = depth;
+            return;
+        }
+
+        flushRun();
+        spine.head(node, depth);
+        if (node.childNodeSize() > 0) {
+            node.childNode(node.childNodeSize() - 1).siblingIndex(); // index the children now, not in the workers
+            for (Node child = node.firstChild(); child != null; child = child.nextSibling())
+                visit(child, depth + 1);
+            flushRun();
+        }
+        spine.tail(node, depth);
+    }
+
+    /** Fork a worker to print the current run of siblings. */
+    private void flushRun() {
+        if (run.isEmpty()) return;
+        final Node[] nodes = run.toArray(new Node[0]);
+        final int depth = runDepth;
+        segments.add(spineOut.length());
+        segments.add(ForkJoinTask.adapt(() -> printRun(nodes, depth)).fork());
+        run.clear();
+        runSize = 0;
+    }
+
+    private StringBuilder printRun(Node[] nodes, int depth) {
+        StringBuilder out = new StringBuilder(nodes.length * 64);
+        Printer worker = Printer.printerFor(printer.root, QuietAppendable.wrap(out), printer.settings);
+        worker.inheritPreserveWhitespace(inPreserveWhitespace(nodes[0]));
+        NodeVisitor offset = new NodeVisitor() {
+            @Override public void head(Node node, int d) { worker.head(node, d + depth); }
+            @Override public void tail(Node node, int d) { worker.tail(node, d + depth); }
+        };
+        for (Node node : nodes)
+            NodeTraversor.traverse(offset, node);
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void gather(QuietAppendable accum) {
+        int start = 0;
+        for (Object segment : segments) {
+            if (segment instanceof Integer) {
+                int end = (Integer) segment;
+                if (end > start) accum.append(spineOut.subSequence(start, end));
+                start = end;
+            } else {
+                accum.append(((ForkJoinTask<StringBuilder>) segment).join());
+            }
+        }
+        if (spineOut.length() > start) accum.append(spineOut.subSequence(start, spineOut.length()));
+    }
+
+    /** The printer's whitespace state on reaching the node: if it is within a whitespace preserving element. */
+    private static boolean inPreserveWhitespace(Node node) {
+        for (Node parent = node.parentNode(); parent != null; parent = parent.parentNode()) {
+            if (Printer.Pretty.tagIs(Tag.PreserveWhitespace, parent)) return true;
+        }
+        return false;
+    }
+
+    /** The number of nodes in the node's subtree, counting no further than the limit plus one. */
+    private static int size(Node node, int limit) {
+        return (int) node.nodeStream().limit(limit + 1L).count();
+    }
+}
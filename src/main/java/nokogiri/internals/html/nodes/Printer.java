@@ -1,10 +1,13 @@
 package nokogiri.internals.html.nodes;
 
+import java.util.Arrays;
+
 import org.jspecify.annotations.Nullable;
 
 import nokogiri.internals.html.internal.QuietAppendable;
 import nokogiri.internals.html.internal.StringUtil;
 import nokogiri.internals.html.nodes.Document.OutputSettings;
+import nokogiri.internals.html.parser.Parser;
 import nokogiri.internals.html.parser.Tag;
 import nokogiri.internals.html.select.NodeVisitor;
 
@@ -43,40 +46,79 @@ class Printer implements NodeVisitor {
     }
 
     void addText(TextNode textNode, int textOptions, int depth) {
-        int options = Entities.ForText | textOptions;
-        Entities.escape(accum, textNode.coreValue(), settings, options);
+        textNode.escapedHtml(accum, settings, Entities.ForText | textOptions);
     }
 
     void addNode(LeafNode node, int depth) {
         node.outerHtmlHead(accum, settings);
     }
 
+    /** Set if the nodes to be printed are within a whitespace preserving element, for printing part of a tree. */
+    void inheritPreserveWhitespace(boolean preserve) {}
+
     void indent(int depth) {
         accum.append('\n').append(StringUtil.padding(depth * settings.indentAmount(), settings.maxPaddingWidth()));
     }
 
-    /** Pretty Printer */
+    /**
+     Pretty Printer.
+     <p>The block and whitespace facts that decide indentation are carried as the traversal goes, rather than rescanned
+     for each node: the block and non-text facts of the elements on the current path are kept by depth, the nearest
+     non-blank siblings found across a run of blank text are kept for the other nodes in that run, and the open
+     whitespace preserving elements are counted. So printing is linear in the size of the tree.</p>
+     */
     static class Pretty extends Printer {
         boolean preserveWhitespace = false;
+        private boolean inheritedPreserve = false; // if an ancestor of the traversal is whitespace preserving
+        private int openPreserves = 0; // whitespace preserving elements entered and not yet exited
+
+        // the elements on the current path, by depth, with their block and has-non-text facts. Entries above top are
+        // stale, but remain correct for their element (facts don't change while printing)
+        private Element[] path = new Element[16];
+        private boolean[] pathBlock = new boolean[16];
+        private boolean[] pathNonText = new boolean[16];
+        private int top = -1;
+
+        // the last scanned runs of blank text, as sibling index ranges, with the non-blank node found at their end
+        private @Nullable Element nextRunParent;
+        private int nextRunFrom, nextRunTo;
+        private @Nullable Node nextRunResult;
+        private @Nullable Element prevRunParent;
+        private int prevRunFrom, prevRunTo;
+        private @Nullable Node prevRunResult;
+
+        private @Nullable Node lastBlankChecked; // memo of the last blank check, which scans the text
+        private boolean lastBlank;
 
         Pretty(Node root, QuietAppendable accum, OutputSettings settings) {
             super(root, accum, settings);
 
             // check if there is a pre on stack
-            for (Node node = root; node != null; node = node.parentNode()) {
+            for (Node node = root.parentNode(); node != null; node = node.parentNode()) {
                 if (tagIs(Tag.PreserveWhitespace, node)) {
-                    preserveWhitespace = true;
+                    inheritedPreserve = true;
                     break;
                 }
             }
+            preserveWhitespace = inheritedPreserve || tagIs(Tag.PreserveWhitespace, root);
+        }
+
+        @Override
+        void inheritPreserveWhitespace(boolean preserve) {
+            inheritedPreserve = preserve;
+            preserveWhitespace = preserve;
         }
 
         @Override
         void addHead(Element el, int depth) {
+            push(el, depth);
             if (shouldIndent(el))
                 indent(depth);
             super.addHead(el, depth);
-            if (tagIs(Tag.PreserveWhitespace, el)) preserveWhitespace = true;
+            if (tagIs(Tag.PreserveWhitespace, el)) {
+                openPreserves++;
+                preserveWhitespace = true;
+            }
         }
 
         @Override
@@ -87,12 +129,11 @@ class Printer implements NodeVisitor {
             super.addTail(el, depth);
 
             // clear the preserveWhitespace if this element is not, and there are none on the stack above
-            if (preserveWhitespace && el.tag.is(Tag.PreserveWhitespace)) {
-                for (Element parent = el.parent(); parent != null; parent = parent.parent()) {
-                    if (parent.tag().preserveWhitespace()) return; // keep
-                }
-                preserveWhitespace = false;
+            if (el.tag.is(Tag.PreserveWhitespace)) {
+                openPreserves--;
+                preserveWhitespace = inheritedPreserve || openPreserves > 0;
             }
+            top = depth - 1;
         }
 
         @Override
@@ -108,7 +149,7 @@ class Printer implements NodeVisitor {
                 textOptions |= Entities.Normalise;
                 textOptions = textTrim(node, textOptions);
 
-                if (!node.isBlank() && isBlockEl(node.parentNode) && shouldIndent(node))
+                if (!isBlankText(node) && isBlockEl(node.parentNode) && shouldIndent(node))
                     indent(depth);
             }
 
@@ -131,7 +172,7 @@ class Printer implements NodeVisitor {
                 options |= Entities.TrimTrailing;
             } else { // trim trailing whitespace if the next non-empty TextNode has leading whitespace
                 next = nextNonBlank(next);
-                if (next instanceof TextNode && StringUtil.isWhitespace(next.nodeValue().codePointAt(0)))
+                if (next instanceof TextNode && StringUtil.isWhitespace(Character.codePointAt(((TextNode) next).coreSequence(), 0)))
                     options |= Entities.TrimTrailing;
             }
 
@@ -148,7 +189,7 @@ class Printer implements NodeVisitor {
             if (isBlockEl(prevSib)) return true;
 
             Element parent = node.parentNode;
-            if (!isBlockEl(parent) || parent.tag().is(Tag.InlineContainer) || !hasNonTextNodes(parent))
+            if (!isBlockEl(parent) || parent.tag().is(Tag.InlineContainer) || !hasNonText(parent))
                 return false;
 
             return prevSib == null ||
@@ -157,14 +198,41 @@ class Printer implements NodeVisitor {
         }
 
         boolean isBlockEl(@Nullable Node node) {
-            if (node == null) return false;
-            if (node instanceof Element) {
-                Element el = (Element) node;
-                return el.isBlock() ||
-                        (!el.tag.isKnownTag() && (el.parentNode instanceof Document || hasChildBlocks(el)));
+            if (!(node instanceof Element)) return false;
+            Element el = (Element) node;
+            int depth = onPath(el);
+            return depth >= 0 ? pathBlock[depth] : isBlock(el);
+        }
+
+        private boolean hasNonText(Element el) {
+            int depth = onPath(el);
+            return depth >= 0 ? pathNonText[depth] : hasNonTextNodes(el);
+        }
+
+        private void push(Element el, int depth) {
+            if (depth >= path.length) {
+                int size = Math.max(path.length * 2, depth + 1);
+                path = Arrays.copyOf(path, size);
+                pathBlock = Arrays.copyOf(pathBlock, size);
+                pathNonText = Arrays.copyOf(pathNonText, size);
             }
+            path[depth] = el;
+            pathBlock[depth] = isBlock(el);
+            pathNonText[depth] = hasNonTextNodes(el);
+            top = depth;
+        }
 
-            return false;
+        /** The depth of the element if it is held in the path near the current node, or -1. */
+        private int onPath(Element el) {
+            for (int depth = Math.max(top - 1, 0); depth <= top + 1 && depth < path.length; depth++) {
+                if (path[depth] == el) return depth;
+            }
+            return -1;
+        }
+
+        static boolean isBlock(Element el) {
+            return el.isBlock() ||
+                    (!el.tag.isKnownTag() && (el.parentNode instanceof Document || hasChildBlocks(el)));
         }
 
         /**
@@ -190,19 +258,45 @@ class Printer implements NodeVisitor {
             return false;
         }
 
-        static @Nullable Node previousNonblank(Node node) {
+        @Nullable Node previousNonblank(Node node) {
+            Element parent = node.parentNode;
+            if (parent == null) return null;
+            int index = node.siblingIndex();
+            if (parent == prevRunParent && index >= prevRunFrom && index <= prevRunTo) return prevRunResult;
+
             Node prev = node.previousSibling();
             while (isBlankText(prev)) prev = prev.previousSibling();
+            prevRunParent = parent;
+            prevRunFrom = prev == null ? 0 : prev.siblingIndex() + 1;
+            prevRunTo = index;
+            prevRunResult = prev;
             return prev;
         }
 
-        static @Nullable Node nextNonBlank(@Nullable Node node) {
+        @Nullable Node nextNonBlank(@Nullable Node node) {
+            if (node == null || !isBlankText(node)) return node;
+            Element parent = node.parentNode;
+            int index = node.siblingIndex();
+            if (parent != null && parent == nextRunParent && index >= nextRunFrom && index <= nextRunTo)
+                return nextRunResult;
+
             while (isBlankText(node)) node = node.nextSibling();
+            if (parent != null) {
+                nextRunParent = parent;
+                nextRunFrom = index;
+                nextRunTo = node == null ? parent.childNodeSize() - 1 : node.siblingIndex();
+                nextRunResult = node;
+            }
             return node;
         }
 
-        static boolean isBlankText(@Nullable Node node) {
-            return node instanceof TextNode && ((TextNode) node).isBlank();
+        boolean isBlankText(@Nullable Node node) {
+            if (!(node instanceof TextNode)) return false;
+            if (node != lastBlankChecked) {
+                lastBlankChecked = node;
+                lastBlank = ((TextNode) node).isBlank();
+            }
+            return lastBlank;
         }
 
         static boolean tagIs(int option, @Nullable Node node) {
@@ -232,8 +326,233 @@ class Printer implements NodeVisitor {
         }
     }
 
+    /**
+     Minifying Printer. Writes the compact output, less: comments; whitespace that doesn't render (collapsed in text,
+     and trimmed or dropped next to block boundaries, except within whitespace preserving elements); end tags that the
+     HTML syntax allows to be omitted; quotes around attribute values that don't need them; and the values of boolean
+     attributes. Counts the characters saved, relative to the compact output.
+     */
+    static class Minify extends Printer {
+        boolean preserveWhitespace = false;
+        private boolean inheritedPreserve = false;
+        private int openPreserves = 0;
+        private final boolean htmlSyntax;
+        private boolean afterSpace = false; // if the last output was a collapsed space from text
+        long saved = 0;
+
+        Minify(Node root, QuietAppendable accum, OutputSettings settings) {
+            super(root, accum, settings);
+            htmlSyntax = settings.syntax() == OutputSettings.Syntax.html;
+            for (Node node = root.parentNode(); node != null; node = node.parentNode()) {
+                if (Pretty.tagIs(Tag.PreserveWhitespace, node)) {
+                    inheritedPreserve = true;
+                    break;
+                }
+            }
+            preserveWhitespace = inheritedPreserve || Pretty.tagIs(Tag.PreserveWhitespace, root);
+        }
+
+        @Override
+        void inheritPreserveWhitespace(boolean preserve) {
+            inheritedPreserve = preserve;
+            preserveWhitespace = preserve;
+        }
+
+        @Override
+        void addHead(Element el, int depth) {
+            afterSpace = false;
+            if (!htmlSyntax || !isHtml(el)) {
+                el.outerHtmlHead(accum, settings); // foreign or xml, so no omitted tags or quotes
+            } else {
+                String name = el.tagName();
+                accum.append('<').append(name);
+                if (el.attributes != null) saved += el.attributes.htmlMinified(accum, settings);
+                accum.append('>');
+                if (el.childNodes.isEmpty() && !el.tag.isEmpty()) closeTag(el, name);
+            }
+            if (el.tag.is(Tag.PreserveWhitespace)) {
+                openPreserves++;
+                preserveWhitespace = true;
+            }
+        }
+
+        @Override
+        void addTail(Element el, int depth) {
+            if (el.tag.is(Tag.PreserveWhitespace)) { // back to the parent's state, for the end tag omission check
+                openPreserves--;
+                preserveWhitespace = inheritedPreserve || openPreserves > 0;
+            }
+            afterSpace = false;
+            if (!htmlSyntax || !isHtml(el)) el.outerHtmlTail(accum, settings);
+            else if (!el.childNodes.isEmpty()) closeTag(el, el.tagName());
+        }
+
+        @Override
+        void addNode(LeafNode node, int depth) {
+            if (node instanceof Comment) {
+                saved += ((Comment) node).getData().length() + 7; // <!-- -->
+                return;
+            }
+            afterSpace = false;
+            super.addNode(node, depth);
+        }
+
+        @Override
+        void addText(TextNode node, int textOptions, int depth) {
+            if (preserveWhitespace) {
+                afterSpace = false;
+                super.addText(node, textOptions, depth);
+                return;
+            }
+            Element parent = node.parentNode;
+            boolean trimLeading = trims(parent, neighbor(node, false));
+            boolean trimTrailing = trims(parent, neighbor(node, true));
+
+            CharSequence text = node.coreSequence();
+            int len = text.length();
+            StringBuilder sb = StringUtil.borrowBuilder();
+            boolean lastWhite = trimLeading || afterSpace; // (after a space from a previous text node, as comments drop)
+            for (int i = 0; i < len; i++) {
+                char c = text.charAt(i);
+                if (StringUtil.isWhitespace(c)) {
+                    if (!lastWhite) sb.append(' ');
+                    lastWhite = true;
+                } else {
+                    sb.append(c);
+                    lastWhite = false;
+                }
+            }
+            if (trimTrailing && lastWhite && sb.length() > 0) sb.setLength(sb.length() - 1);
+            if (sb.length() > 0) afterSpace = sb.charAt(sb.length() - 1) == ' ';
+            saved += len - sb.length();
+            Entities.escape(accum, sb, settings, Entities.ForText | textOptions);
+            StringUtil.releaseBuilderVoid(sb);
+        }
+
+        private void closeTag(Element el, String name) {
+            if (el != root && canOmitEndTag(el)) saved += name.length() + 3; // </name>
+            else accum.append("</").append(name).append('>');
+        }
+
+        /**
+         If the element's end tag may be omitted, per the HTML spec's optional tags rules, given what is output after
+         it.
+         */
+        private boolean canOmitEndTag(Element el) {
+            Node next = nextEmitted(el);
+            boolean last = next == null;
+            String nextName = next instanceof Element && isHtml((Element) next) ? ((Element) next).normalName() : "";
+            switch (el.normalName()) {
+                case "html":
+                case "body":
+                    return true; // not followed by a comment, as those are dropped
+                case "head":
+                case "colgroup":
+                case "caption":
+                    return !(next instanceof TextNode && StringUtil.isWhitespace(((TextNode) next).coreSequence().charAt(0)));
+                case "li":
+                    return last || nextName.equals("li");
+                case "dt":
+                    return nextName.equals("dt") || nextName.equals("dd");
+                case "dd":
+                    return last || nextName.equals("dd") || nextName.equals("dt");
+                case "rt":
+                case "rp":
+                    return last || nextName.equals("rt") || nextName.equals("rp");
+                case "optgroup":
+                    return last || nextName.equals("optgroup") || nextName.equals("hr");
+                case "option":
+                    return last || nextName.equals("option") || nextName.equals("optgroup") || nextName.equals("hr");
+                case "thead":
+                    return nextName.equals("tbody") || nextName.equals("tfoot");
+                case "tbody":
+                    return last || nextName.equals("tbody") || nextName.equals("tfoot");
+                case "tfoot":
+                    return last;
+                case "tr":
+                    return last || nextName.equals("tr");
+                case "td":
+                case "th":
+                    return last || nextName.equals("td") || nextName.equals("th");
+                case "p":
+                    if (!last) return StringUtil.inSorted(nextName, ClosesP);
+                    Element parent = el.parentNode;
+                    return parent != null && !(parent instanceof Document) && isHtml(parent)
+                        && !StringUtil.inSorted(parent.normalName(), KeepsP) && parent.normalName().indexOf('-') == -1;
+                default:
+                    return false;
+            }
+        }
+
+        /** The next sibling that will be output: skipping comments, and whitespace that is dropped. */
+        private @Nullable Node nextEmitted(Element el) {
+            Node next = el.nextSibling();
+            Node blank = null;
+            while (next instanceof Comment || isBlankText(next)) {
+                if (blank == null && next instanceof TextNode && ((TextNode) next).coreSequence().length() > 0)
+                    blank = next;
+                next = next.nextSibling();
+            }
+            Element parent = el.parentNode;
+            if (blank != null && !trims(parent, el) && !trims(parent, next)) return blank;
+            return next;
+        }
+
+        /** If whitespace within the parent, beside the sibling (or the parent's edge, if null), is not rendered. */
+        private boolean trims(@Nullable Element parent, @Nullable Node sibling) {
+            if (preserveWhitespace || parent == null) return false;
+            if (isHtml(parent) && parent.normalName().equals("head")) return true;
+            return (parent instanceof Document || isBlockBoundary(parent)) && (sibling == null || isBlockBoundary(sibling));
+        }
+
+        /** The nearest sibling in the direction that is not a comment or blank text. */
+        private static @Nullable Node neighbor(Node node, boolean forward) {
+            Node sib = node;
+            do {
+                sib = forward ? sib.nextSibling() : sib.previousSibling();
+            } while (sib instanceof Comment || isBlankText(sib));
+            return sib;
+        }
+
+        private static boolean isBlockBoundary(Node node) {
+            return node instanceof Element && isHtml((Element) node)
+                && StringUtil.inSorted(((Element) node).normalName(), BlockBoundaries);
+        }
+
+        private static boolean isHtml(Element el) {
+            return el.tag.namespace().equals(Parser.NamespaceHtml);
+        }
+
+        private static boolean isBlankText(@Nullable Node node) {
+            return node instanceof TextNode && ((TextNode) node).isBlank();
+        }
+
+        // elements that are blocks in the default rendering, so that whitespace beside them doesn't render. Sorted.
+        private static final String[] BlockBoundaries = {"address", "article", "aside", "blockquote", "body", "br",
+            "caption", "col", "colgroup", "dd", "details", "dialog", "div", "dl", "dt", "fieldset", "figcaption",
+            "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hgroup", "hr", "html",
+            "li", "main", "menu", "nav", "ol", "p", "pre", "section", "summary", "table", "tbody", "td", "tfoot", "th",
+            "thead", "tr", "ul"};
+        // elements that close an open p
+        private static final String[] ClosesP = {"address", "article", "aside", "blockquote", "details", "dialog",
+            "div", "dl", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6",
+            "header", "hgroup", "hr", "main", "menu", "nav", "ol", "p", "pre", "search", "section", "table", "ul"};
+        // parents in which a last p must keep its end tag
+        private static final String[] KeepsP = {"a", "audio", "del", "ins", "map", "noscript", "video"};
+    }
+
+    /** Print the node, splitting the work across threads if parallel output is enabled and the node is large. */
+    void print(Node node) {
+        if (settings.parallel()) ParallelPrinter.print(this, node);
+        else                     traverse(node);
+    }
+
     static Printer printerFor(Node root, QuietAppendable accum) {
-        OutputSettings settings = NodeUtils.outputSettings(root);
+        return printerFor(root, accum, NodeUtils.outputSettings(root));
+    }
+
+    static Printer printerFor(Node root, QuietAppendable accum, OutputSettings settings) {
+        if (settings.minify())      return new Printer.Minify(root, accum, settings);
         if (settings.outline())     return new Printer.Outline(root, accum, settings);
         if (settings.prettyPrint()) return new Printer.Pretty(root, accum, settings);
         return new Printer(root, accum, settings);
@@ -0,0 +1,380 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.sax.SAXSource;
+
+import org.jspecify.annotations.Nullable;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.Normalizer;
+import nokogiri.internals.html.internal.SharedConstants;
+import nokogiri.internals.html.internal.TextSlice;
+import nokogiri.internals.html.select.NodeTraversor;
+import nokogiri.internals.html.select.NodeVisitor;
+
+/**
+ An {@link XMLReader} that replays an already parsed node (a document, or any subtree of one) as SAX events, so that
+ it can be fed to {@code javax.xml.transform} (for XSLT), or to other SAX consumers, via {@link #source()}.
+ <p>The tree is walked directly with a {@link NodeTraversor}, reading attributes in place, rather than through the
+ {@code org.w3c.dom} view as a {@link javax.xml.transform.dom.DOMSource} is, so no intermediate node lists or
+ attribute nodes are created. The input source passed to {@link #parse(InputSource)} is ignored.</p>
+ <p>Elements and attributes are reported with their namespaces, and with names coerced to valid XML names, as in the
+ {@link Document.OutputSettings.Syntax#xml xml} output syntax; an element whose name can not be coerced is left out,
+ but its children are not. A colon in the name of an attribute that is not in a namespace (like {@code data-a:b}) is
+ replaced with an underscore, as it would otherwise read as an undeclared prefix. Namespace declarations are reported as prefix mappings, and {@code xmlns} attributes are
+ only reported as attributes if the {@code namespace-prefixes} feature is enabled. Comments, CDATA sections, and the
+ doctype are reported to the {@link LexicalHandler}, if one is set. Processing instructions other than the XML
+ declaration are reported; other declarations are not.</p>
+ <p>The tree must not be modified while it is being replayed.</p>
+ */
+public class SaxReader implements XMLReader {
+    static final String NamespacesFeature = "http://xml.org/sax/features/namespaces";
+    static final String NamespacePrefixesFeature = "http://xml.org/sax/features/namespace-prefixes";
+    static final String LexicalHandlerProperty = "http://xml.org/sax/properties/lexical-handler";
+    private static final String XmlNamespace = "http://www.w3.org/XML/1998/namespace";
+
+    private final Node root;
+    private boolean namespaces = true;
+    private boolean namespacePrefixes = false;
+    private @Nullable ContentHandler contentHandler;
+    private @Nullable LexicalHandler lexicalHandler;
+    private @Nullable DTDHandler dtdHandler;
+    private @Nullable EntityResolver entityResolver;
+    private @Nullable ErrorHandler errorHandler;
+
+    /**
+     Create a reader that replays the node and its descendants. If the node is a {@link Document} or a
+     {@link DocumentFragment}, its children are replayed.
+     @param root the node to replay
+     */
+    public SaxReader(Node root) {
+        Validate.notNull(root);
+        this.root = root;
+    }
+
+    /**
+     Get a source for {@code javax.xml.transform}, that reads with this reader.
+     @return a new SAXSource
+     */
+    public SAXSource source() {
+        InputSource input = new InputSource();
+        input.setSystemId(root.baseUri());
+        return new SAXSource(this, input);
+    }
+
+    @Override
+    public boolean getFeature(String name) throws SAXNotRecognizedException {
+        switch (name) {
+            case NamespacesFeature: return namespaces;
+            case NamespacePrefixesFeature: return namespacePrefixes;
+            default: throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    @Override
+    public void setFeature(String name, boolean value) throws SAXNotRecognizedException {
+        switch (name) {
+            case NamespacesFeature: namespaces = value; break;
+            case NamespacePrefixesFeature: namespacePrefixes = value; break;
+            default: throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    @Override
+    public @Nullable Object getProperty(String name) throws SAXNotRecognizedException {
+        if (name.equals(LexicalHandlerProperty)) return lexicalHandler;
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void setProperty(String name, @Nullable Object value) throws SAXNotRecognizedException {
+        if (!name.equals(LexicalHandlerProperty)) throw new SAXNotRecognizedException(name);
+        lexicalHandler = (LexicalHandler) value;
+    }
+
+    @Override
+    public void setEntityResolver(@Nullable EntityResolver resolver) {
+        entityResolver = resolver;
+    }
+
+    @Override
+    public @Nullable EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    @Override
+    public void setDTDHandler(@Nullable DTDHandler handler) {
+        dtdHandler = handler;
+    }
+
+    @Override
+    public @Nullable DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    @Override
+    public void setContentHandler(@Nullable ContentHandler handler) {
+        contentHandler = handler;
+    }
+
+    @Override
+    public @Nullable ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    @Override
+    public void setErrorHandler(@Nullable ErrorHandler handler) {
+        errorHandler = handler;
+    }
+
+    @Override
+    public @Nullable ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     Replay the node to the content handler (and the lexical handler, if set).
+     @param input ignored; the node given to the constructor is replayed
+     @throws SAXException if a handler throws one
+     */
+    @Override
+    public void parse(@Nullable InputSource input) throws SAXException {
+        ContentHandler handler = contentHandler;
+        if (handler == null) return;
+        Replay replay = new Replay(handler, lexicalHandler, namespaces, namespacePrefixes);
+        handler.startDocument();
+        try {
+            if (root instanceof Document || root instanceof DocumentFragment) {
+                for (Node child = root.firstChild(); child != null; child = child.nextSibling()) {
+                    if (root instanceof Document && child instanceof TextNode && ((TextNode) child).isBlank())
+                        continue; // not content, outside the document element
+                    NodeTraversor.traverse(replay, child);
+                }
+            } else {
+                NodeTraversor.traverse(replay, root);
+            }
+        } catch (Replay.Aborted e) {
+            throw e.exception;
+        }
+        handler.endDocument();
+    }
+
+    /**
+     Replay the node.
+     @param systemId ignored
+     @throws SAXException if a handler throws one
+     */
+    @Override
+    public void parse(@Nullable String systemId) throws SAXException {
+        parse((InputSource) null);
+    }
+
+    /** The traversal. Handler exceptions are carried out of the visitor as {@link Aborted}, and rethrown by parse. */
+    private static final class Replay implements NodeVisitor {
+        private final ContentHandler handler;
+        private final @Nullable LexicalHandler lexical;
+        private final boolean namespaces;
+        private final boolean namespacePrefixes;
+        private final AttributesImpl atts = new AttributesImpl();
+        private final char[] chars = new char[2048];
+        // the prefix mappings in scope, as prefix, uri pairs; and by depth, the size of that list on entering the element
+        private final List<String> bindings = new ArrayList<>();
+        private int[] bindingsAt = new int[32];
+
+        Replay(ContentHandler handler, @Nullable LexicalHandler lexical, boolean namespaces, boolean namespacePrefixes) {
+            this.handler = handler;
+            this.lexical = lexical;
+            this.namespaces = namespaces;
+            this.namespacePrefixes = namespacePrefixes;
+        }
+
+        @Override
+        public void head(Node node, int depth) {
+            try {
+                if (node instanceof Element) startElement((Element) node, depth);
+                else if (node instanceof CDataNode) cdata((CDataNode) node);
+                else if (node instanceof TextNode) characters(((TextNode) node).coreSequence());
+                else if (node instanceof DataNode) characters(((DataNode) node).getWholeData());
+                else if (node instanceof Comment) comment((Comment) node);
+                else if (node instanceof DocumentType) doctype((DocumentType) node);
+                else if (node instanceof XmlDeclaration) processingInstruction((XmlDeclaration) node);
+            } catch (SAXException e) {
+                throw new Aborted(e);
+            }
+        }
+
+        @Override
+        public void tail(Node node, int depth) {
+            if (!(node instanceof Element)) return;
+            try {
+                endElement((Element) node, depth);
+            } catch (SAXException e) {
+                throw new Aborted(e);
+            }
+        }
+
+        private void startElement(Element el, int depth) throws SAXException {
+            if (depth >= bindingsAt.length) bindingsAt = Arrays.copyOf(bindingsAt, depth * 2);
+            bindingsAt[depth] = bindings.size();
+            String qName = Normalizer.xmlSafeTagName(el.tagName());
+            if (qName == null) return; // can't be named; its children are still replayed
+
+            atts.clear();
+            Attributes attributes = el.attributes;
+            if (attributes != null) {
+                for (int i = 0; i < attributes.size; i++) {
+                    String key = attributes.keys[i];
+                    assert key != null;
+                    if (Attributes.isInternalKey(key)) continue;
+                    addAttribute(attributes, key, (String) attributes.vals[i]);
+                }
+            }
+
+            if (namespaces) {
+                String prefix = prefix(qName);
+                bind(prefix, el.tag.namespace());
+                handler.startElement(uriOf(prefix), qName.substring(prefix.isEmpty() ? 0 : prefix.length() + 1), qName, atts);
+            } else {
+                handler.startElement("", "", qName, atts);
+            }
+        }
+
+        private void addAttribute(Attributes attributes, String key, @Nullable String val) throws SAXException {
+            String qName = Attribute.getValidKey(key, Document.OutputSettings.Syntax.xml);
+            if (qName == null) return;
+            String value = val != null ? val : "";
+            boolean xmlns = qName.equals("xmlns") || qName.startsWith("xmlns:");
+            if (xmlns) {
+                if (!namespaces || namespacePrefixes) atts.addAttribute("", "", qName, "CDATA", value);
+                return;
+            }
+            String prefix = prefix(qName);
+            String uri = "";
+            if (prefix.equals("xml")) {
+                uri = XmlNamespace;
+            } else if (!prefix.isEmpty()) {
+                Object ns = attributes.userData(SharedConstants.XmlnsAttr + prefix); // as in Attribute#namespace()
+                if (ns instanceof String) uri = (String) ns;
+            }
+            String local;
+            if (uri.isEmpty()) { // not in a namespace, so a colon would read as an undeclared prefix, like data-a:b
+                qName = qName.replace(':', '_');
+                local = qName;
+            } else {
+                local = qName.substring(prefix.length() + 1).replace(':', '_');
+                qName = prefix + ':' + local;
+            }
+            if (!namespaces) {
+                atts.addAttribute("", "", qName, "CDATA", value);
+                return;
+            }
+            if (!uri.isEmpty()) bind(prefix, uri);
+            atts.addAttribute(uri, local, qName, "CDATA", value);
+        }
+
+        private void endElement(Element el, int depth) throws SAXException {
+            String qName = Normalizer.xmlSafeTagName(el.tagName());
+            if (qName == null) return;
+            if (!namespaces) {
+                handler.endElement("", "", qName);
+                return;
+            }
+            String prefix = prefix(qName);
+            handler.endElement(uriOf(prefix), qName.substring(prefix.isEmpty() ? 0 : prefix.length() + 1), qName);
+            int mark = bindingsAt[depth];
+            while (bindings.size() > mark) {
+                bindings.remove(bindings.size() - 1);
+                handler.endPrefixMapping(bindings.remove(bindings.size() - 1));
+            }
+        }
+
+        /** Map the prefix to the uri, if it isn't already in scope. */
+        private void bind(String prefix, String uri) throws SAXException {
+            if (prefix.equals("xml") || uri.equals(uriOf(prefix))) return;
+            if (uri.isEmpty() && !prefix.isEmpty()) return; // can't undeclare a prefix
+            bindings.add(prefix);
+            bindings.add(uri);
+            handler.startPrefixMapping(prefix, uri);
+        }
+
+        private String uriOf(String prefix) {
+            for (int i = bindings.size() - 2; i >= 0; i -= 2) {
+                if (bindings.get(i).equals(prefix)) return bindings.get(i + 1);
+            }
+            return "";
+        }
+
+        private static String prefix(String qName) {
+            int colon = qName.indexOf(':');
+            return colon > 0 ? qName.substring(0, colon) : "";
+        }
+
+        /** Report the text in chunks, copied straight from its String (or from the parse input, for a slice). */
+        private void characters(CharSequence text) throws SAXException {
+            final String source;
+            final int offset;
+            if (text instanceof TextSlice) {
+                source = ((TextSlice) text).source();
+                offset = ((TextSlice) text).offset();
+            } else {
+                source = text.toString();
+                offset = 0;
+            }
+            final int len = text.length();
+            for (int pos = 0; pos < len; pos += chars.length) {
+                int n = Math.min(chars.length, len - pos);
+                source.getChars(offset + pos, offset + pos + n, chars, 0);
+                handler.characters(chars, 0, n);
+            }
+        }
+
+        private void cdata(CDataNode node) throws SAXException {
+            if (lexical != null) lexical.startCDATA();
+            characters(node.coreSequence());
+            if (lexical != null) lexical.endCDATA();
+        }
+
+        private void comment(Comment comment) throws SAXException {
+            if (lexical == null) return;
+            String data = comment.getData();
+            lexical.comment(data.toCharArray(), 0, data.length());
+        }
+
+        private void doctype(DocumentType doctype) throws SAXException {
+            if (lexical == null) return;
+            String publicId = doctype.publicId();
+            String systemId = doctype.systemId();
+            lexical.startDTD(doctype.name(), publicId.isEmpty() ? null : publicId, systemId.isEmpty() ? null : systemId);
+            lexical.endDTD();
+        }
+
+        private void processingInstruction(XmlDeclaration decl) throws SAXException {
+            if (decl.isDeclaration() || decl.name().equalsIgnoreCase("xml")) return;
+            String whole = decl.getWholeDeclaration();
+            handler.processingInstruction(decl.name(), whole.substring(Math.min(decl.name().length(), whole.length())).trim());
+        }
+
+        static final class Aborted extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+            final SAXException exception;
+
+            Aborted(SAXException exception) {
+                super(exception);
+                this.exception = exception;
+            }
+        }
+    }
+}
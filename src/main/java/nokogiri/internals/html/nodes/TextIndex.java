@@ -0,0 +1,147 @@
+package nokogiri.internals.html.nodes;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.select.NodeVisitor;
+
+/**
+ A read-only index of the text of an element and all of its descendant elements, built in a single traversal.
+ <p>The normalized {@link Element#text()} and the {@link Element#wholeText()} of the root are each built once into a
+ shared buffer, and the range of every descendant element's text within those buffers is recorded. So the text of any
+ indexed element is available as a range, without re-walking its subtree. That makes text predicates over a whole
+ tree (as in the {@code :contains()} and {@code :matches()} selectors) linear in the size of the tree, rather than
+ quadratic for deeply nested content.</p>
+ <p>For an indexed element {@code el}, {@code text().substring(textStart(el), textEnd(el))} equals {@code el.text()},
+ and {@code wholeText().substring(wholeTextStart(el), wholeTextEnd(el))} equals {@code el.wholeText()}.</p>
+ <p>The index is a snapshot: it is not updated if the tree is later modified.</p>
+ */
+public final class TextIndex {
+    private final Element root;
+    private final String text;
+    private final String wholeText;
+    private final IdentityHashMap<Element, Integer> slots;
+    private final int[] ranges; // 4 per element: text start, text end, whole start, whole end
+
+    private TextIndex(Builder builder) {
+        this.root = builder.root;
+        this.text = StringUtil.releaseBuilder(builder.text);
+        this.wholeText = StringUtil.releaseBuilder(builder.whole);
+        this.slots = builder.slots;
+        this.ranges = builder.ranges;
+    }
+
+    /**
+     Build a text index of the supplied element and its descendants.
+     @param root the root element to index
+     @return a new text index
+     */
+    public static TextIndex of(Element root) {
+        Validate.notNull(root);
+        Builder builder = new Builder(root);
+        builder.traverse(root);
+        return new TextIndex(builder);
+    }
+
+    /** The element this index was built from. */
+    public Element root() {
+        return root;
+    }
+
+    /**
+     Test if the element is included in this index.
+     @param el element
+     @return true if the element is the root or a descendant of it, at the time the index was built
+     */
+    public boolean contains(Element el) {
+        return slots.containsKey(el);
+    }
+
+    /**
+     The normalized text buffer of the root element. Note that unlike {@link Element#text()}, it has not been trimmed.
+     */
+    public String text() {
+        return text;
+    }
+
+    /** The whole text buffer of the root element. */
+    public String wholeText() {
+        return wholeText;
+    }
+
+    /** The start of the element's normalized text within {@link #text()}, or -1 if the element is not indexed. */
+    public int textStart(Element el) {
+        return range(el, 0);
+    }
+
+    /** The end (exclusive) of the element's normalized text within {@link #text()}, or -1 if not indexed. */
+    public int textEnd(Element el) {
+        return range(el, 1);
+    }
+
+    /** The start of the element's whole text within {@link #wholeText()}, or -1 if the element is not indexed. */
+    public int wholeTextStart(Element el) {
+        return range(el, 2);
+    }
+
+    /** The end (exclusive) of the element's whole text within {@link #wholeText()}, or -1 if not indexed. */
+    public int wholeTextEnd(Element el) {
+        return range(el, 3);
+    }
+
+    private int range(Element el, int offset) {
+        Integer slot = slots.get(el);
+        return slot != null ? ranges[slot * 4 + offset] : -1;
+    }
+
+    /**
+     Drives the same TextAccumulator that {@link Element#text()} uses, over the root, and records each element's range.
+     An element's normalized text is the trimmed range between its own head and tail; any leading whitespace that
+     differs from a standalone traversal (due to the preceding context) is removed by that trim.
+     */
+    private static class Builder implements NodeVisitor {
+        final Element root;
+        final StringBuilder text = StringUtil.borrowBuilder();
+        final StringBuilder whole = StringUtil.borrowBuilder();
+        final Element.TextAccumulator accumulator = new Element.TextAccumulator(text);
+        final IdentityHashMap<Element, Integer> slots = new IdentityHashMap<>();
+        int[] ranges = new int[64];
+
+        Builder(Element root) {
+            this.root = root;
+        }
+
+        @Override public void head(Node node, int depth) {
+            if (node instanceof TextNode) {
+                accumulator.head(node, depth);
+                whole.append(((TextNode) node).wholeTextSequence());
+            } else if (node instanceof Element) {
+                Element el = (Element) node;
+                int slot = slots.size();
+                slots.put(el, slot);
+                if (ranges.length < (slot + 1) * 4) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                if (node != root) // the root's own leading space (when it is a block) would not be in its text
+                    accumulator.head(node, depth);
+                ranges[slot * 4] = text.length();
+                ranges[slot * 4 + 2] = whole.length();
+                if (el.nameIs("br")) whole.append('\n');
+            }
+        }
+
+        @Override public void tail(Node node, int depth) {
+            if (!(node instanceof Element)) return;
+            int slot = slots.get(node);
+            int start = ranges[slot * 4];
+            int end = text.length();
+            while (start < end && text.charAt(start) <= ' ') start++; // String.trim() semantics
+            while (end > start && text.charAt(end - 1) <= ' ') end--;
+            ranges[slot * 4] = start;
+            ranges[slot * 4 + 1] = end;
+            ranges[slot * 4 + 3] = whole.length();
+            if (node != root) // a trailing space after the root is outside of the tree
+                accumulator.tail(node, depth);
+        }
+    }
+}
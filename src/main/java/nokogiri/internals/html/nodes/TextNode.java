@@ -1,5 +1,6 @@
 package nokogiri.internals.html.nodes;
 
+import org.jspecify.annotations.Nullable;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Text;
 
@@ -7,8 +8,11 @@ import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.helper.W3CValidation;
 import nokogiri.internals.html.internal.QuietAppendable;
 import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.internal.TextSlice;
 
 public class TextNode extends LeafNode implements Text {
+    // the escaped text, when the output settings cacheEscaped() is set. Used only while the value is the same instance
+    private @Nullable Escaped escaped;
 
     /**
      Create a new TextNode representing the supplied (unencoded) text).
@@ -20,6 +24,16 @@ public class TextNode extends LeafNode implements Text {
         super(text);
     }
 
+    /**
+     Create a new TextNode whose text is a slice of the parse input. The slice is not copied until the text is read as
+     a String.
+     @param text raw text, as a slice
+     @see nokogiri.internals.html.parser.Parser#setSliceText(boolean)
+     */
+    public TextNode(TextSlice text) {
+        super(text);
+    }
+
     @Override
     public String toString() {
         return outerHtml();
@@ -163,6 +177,15 @@ public class TextNode extends LeafNode implements Text {
         return coreValue();
     }
 
+    /**
+     Get the (unencoded) text of this text node, without copying it if it is still a slice of the parse input.
+     @return text, as a {@link TextSlice} or a String
+     @see #getWholeText()
+     */
+    public CharSequence wholeTextSequence() {
+        return coreSequence();
+    }
+
     // org.w3c.dom.Text
     @Override
     public Text replaceWholeText(String content) throws DOMException {
@@ -176,7 +199,7 @@ public class TextNode extends LeafNode implements Text {
      @return true if this document is empty or only whitespace, false if it contains any text content.
      */
     public boolean isBlank() {
-        return StringUtil.isBlank(coreValue());
+        return StringUtil.isBlank(coreSequence());
     }
 
     /**
@@ -210,7 +233,22 @@ public class TextNode extends LeafNode implements Text {
 
     @Override
     void outerHtmlHead(QuietAppendable accum, Document.OutputSettings out) {
-        Entities.escape(accum, coreValue(), out, Entities.ForText);
+        escapedHtml(accum, out, Entities.ForText);
+    }
+
+    /** Write the escaped text; from the cached escaped form, if the output settings enable it and it is current. */
+    void escapedHtml(QuietAppendable accum, Document.OutputSettings out, int options) {
+        CharSequence text = coreSequence();
+        if (!out.cacheEscaped()) {
+            Entities.escape(accum, text, out, options);
+            return;
+        }
+        Escaped cached = escaped;
+        if (cached == null || !cached.matches(out, options, text)) {
+            cached = Escaped.text(text, out, options);
+            escaped = cached;
+        }
+        accum.append(cached.html);
     }
 
     static String normaliseWhitespace(String text) {
@@ -0,0 +1,218 @@
+package nokogiri.internals.html.nodes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.select.NodeTraversor;
+import nokogiri.internals.html.select.NodeVisitor;
+
+/**
+ Writes the normalized text of nodes to a {@link Writer} or a {@link CharBuffer} consumer, in bounded chunks, so that the
+ text of a large document can be indexed or searched without building it into a single String.
+ <p>The text written for a node is the same as its {@link Element#text()}: whitespace is normalized (as by
+ {@link StringUtil#appendNormalisedWhitespace}), other than within whitespace preserving elements like {@code <pre>};
+ block elements and {@code <br>} are separated from their neighbours by a space; and the text is trimmed. Optionally,
+ with {@link #blockNewlines(boolean)}, they are separated by a newline instead, so that each block of text is on its own
+ line.</p>
+ <p>As a {@link NodeVisitor}, it may also be driven by node insert and close events, such as from a parser; see
+ {@link nokogiri.internals.html.parser.StreamParser#writeText(TextWriter)}, which writes the text of a document while it
+ is being parsed. The only state it needs between events is the trailing whitespace held back for trimming, so it does
+ not look at a node's siblings or retain any nodes.</p>
+ <p>Each call to {@link #write(Node)} continues the same text, so several nodes may be written as one. Call
+ {@link #flush()} when done, to write the last chunk.</p>
+ */
+public final class TextWriter implements NodeVisitor {
+    /** The default maximum chunk size, in chars. */
+    public static final int DefaultChunkSize = 8 * 1024;
+    private static final int MaxScratchSize = 64 * 1024;
+
+    private final @Nullable Writer writer;
+    private final @Nullable Consumer<? super CharBuffer> consumer;
+    private char[] buf = new char[DefaultChunkSize];
+    private int pos = 0;
+    private boolean blockNewlines = false;
+
+    private final StringBuilder pending = new StringBuilder(); // trailing whitespace, written only if more text follows
+    private StringBuilder scratch = new StringBuilder();
+    private boolean started = false; // if any non-whitespace has been written
+    private char last = 0; // the last char of the text, including pending and trimmed leading whitespace
+    private @Nullable Node blockEndIn; // the parent of a just closed block, to separate it from a following sibling
+
+    /**
+     Create a text writer that writes to the Writer.
+     @param writer the destination of the text
+     */
+    public TextWriter(Writer writer) {
+        Validate.notNull(writer);
+        this.writer = writer;
+        this.consumer = null;
+    }
+
+    /**
+     Create a text writer that passes each chunk of text to the consumer. The CharBuffer is only valid for the duration of
+     the call, as its backing array is reused for the next chunk.
+     @param consumer the consumer of each chunk of text
+     */
+    public TextWriter(Consumer<? super CharBuffer> consumer) {
+        Validate.notNull(consumer);
+        this.writer = null;
+        this.consumer = consumer;
+    }
+
+    /**
+     Set the maximum size of each chunk of text that is written. Must be set before any text is written.
+     @param chars the chunk size, in chars; default {@value #DefaultChunkSize}
+     @return this, for chaining
+     */
+    public TextWriter chunkSize(int chars) {
+        Validate.isTrue(chars > 0, "Chunk size must be positive");
+        Validate.isTrue(pos == 0 && !started, "Chunk size must be set before writing");
+        buf = new char[chars];
+        return this;
+    }
+
+    /**
+     Set whether block elements and {@code <br>} are separated from their neighbours by a newline, rather than a space.
+     Within a line, whitespace is normalized as usual, and blank lines are not written.
+     @param newlines true for newlines; default false
+     @return this, for chaining
+     */
+    public TextWriter blockNewlines(boolean newlines) {
+        blockNewlines = newlines;
+        return this;
+    }
+
+    /**
+     Write the text of the node and its descendants. The last chunk is held until more is written, or {@link #flush()}.
+     @param node the node to write the text of
+     @return this, for chaining
+     @throws IOException if the Writer throws an IOException
+     */
+    public TextWriter write(Node node) throws IOException {
+        Validate.notNull(node);
+        try {
+            NodeTraversor.traverse(this, node);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return this;
+    }
+
+    /**
+     Write the current chunk of text (if any), and flush the Writer. Trailing whitespace is held back, as it is written
+     only if more text follows.
+     @throws IOException if the Writer throws an IOException
+     */
+    public void flush() throws IOException {
+        try {
+            writeChunk();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (writer != null) writer.flush();
+    }
+
+    @Override public void head(Node node, int depth) {
+        boolean separate = blockEndIn != null && node.parentNode == blockEndIn
+            && (node instanceof TextNode || node instanceof Element && ((Element) node).tag().isInline());
+        blockEndIn = null;
+        if (separate) separator();
+
+        if (node instanceof TextNode) {
+            TextNode textNode = (TextNode) node;
+            CharSequence text = textNode.wholeTextSequence();
+            if (Element.preserveWhitespace(textNode.parentNode) || textNode instanceof CDataNode) {
+                append(text);
+            } else {
+                if (scratch.capacity() > MaxScratchSize) scratch = new StringBuilder();
+                scratch.setLength(0);
+                StringUtil.appendNormalisedWhitespace(scratch, text, lastIsWhitespace());
+                append(scratch);
+            }
+        } else if (node instanceof Element) {
+            Element element = (Element) node;
+            if (element.isBlock() || element.nameIs("br")) separator();
+        }
+    }
+
+    @Override public void tail(Node node, int depth) {
+        // a block followed by a text node or inline element is separated from it: <div>One</div>Two is "One Two".
+        blockEndIn = node instanceof Element && !((Element) node).tag().isInline() ? node.parentNode : null;
+    }
+
+    private boolean lastIsWhitespace() {
+        return last == ' ' || (blockNewlines && last == '\n');
+    }
+
+    /** Separate a block, with a space or newline, unless at the start, or after whitespace that can be used instead. */
+    private void separator() {
+        if (last == 0) return;
+        if (!blockNewlines) {
+            if (last != ' ') append(" ");
+        } else if (last == ' ' && pending.length() > 0) { // the held back space becomes the newline
+            pending.setCharAt(pending.length() - 1, '\n');
+            last = '\n';
+        } else if (last != '\n') {
+            append("\n");
+        }
+    }
+
+    /** Append normalized text. Leading whitespace is dropped, and trailing whitespace held, to trim the text. */
+    private void append(CharSequence text) {
+        int len = text.length();
+        if (len == 0) return;
+        int runStart = 0;
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) <= ' ') {
+                if (i > runStart) put(text, runStart, i);
+                if (started) pending.append(text.charAt(i));
+                runStart = i + 1;
+            }
+        }
+        if (len > runStart) put(text, runStart, len);
+        last = text.charAt(len - 1);
+    }
+
+    /** Put a run of non-whitespace, after any pending whitespace. */
+    private void put(CharSequence text, int start, int end) {
+        if (pending.length() > 0) {
+            copy(pending, 0, pending.length());
+            pending.setLength(0);
+        }
+        copy(text, start, end);
+        started = true;
+    }
+
+    private void copy(CharSequence text, int start, int end) {
+        while (start < end) {
+            if (pos == buf.length) writeChunk();
+            int n = Math.min(end - start, buf.length - pos);
+            if (text instanceof String)
+                ((String) text).getChars(start, start + n, buf, pos);
+            else if (text instanceof StringBuilder)
+                ((StringBuilder) text).getChars(start, start + n, buf, pos);
+            else
+                for (int i = 0; i < n; i++) buf[pos + i] = text.charAt(start + i);
+            pos += n;
+            start += n;
+        }
+    }
+
+    private void writeChunk() {
+        if (pos == 0) return;
+        try {
+            if (writer != null) writer.write(buf, 0, pos);
+            else if (consumer != null) consumer.accept(CharBuffer.wrap(buf, 0, pos).asReadOnlyBuffer());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pos = 0;
+    }
+}
@@ -78,6 +78,11 @@ public class XmlDeclaration extends LeafNode {
         return coreValue();
     }
 
+    /** If this is a declaration (like {@code <!ENTITY ...>}), rather than a processing instruction. */
+    boolean isDeclaration() {
+        return isDeclaration;
+    }
+
     /**
      * Get the unencoded XML declaration.
      * @return XML declaration
@@ -22,7 +22,7 @@ import nokogiri.internals.html.internal.StringUtil;
  */
 public final class CharacterReader implements AutoCloseable {
     static final char EOF = (char) -1;
-    private static final int MaxStringCacheLen = 12;
+    static final int MaxStringCacheLen = 12;
     private static final int StringCacheSize = 512;
     private String[] stringCache; // holds reused strings in this doc, to lessen garbage
     private static final SoftPool<String[]> StringPool = new SoftPool<>(() -> new String[StringCacheSize]); // reuse cache between iterations
@@ -0,0 +1,579 @@
+package nokogiri.internals.html.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.Entities;
+import nokogiri.internals.html.select.Evaluator;
+import nokogiri.internals.html.select.Selector;
+import nokogiri.internals.html.select.StreamingMatcher;
+
+import static nokogiri.internals.html.internal.StringUtil.inSorted;
+import static nokogiri.internals.html.parser.Parser.NamespaceHtml;
+import static nokogiri.internals.html.parser.Parser.NamespaceMathml;
+import static nokogiri.internals.html.parser.Parser.NamespaceSvg;
+
+/**
+ A streaming HTML rewriter. It reads its input as a stream of tokens, runs the registered handlers on the start tags
+ and text that match their selectors, and writes the output as it goes. Everything that no handler changes is copied
+ from the input as it was, character for character; so a document can be rewritten (for example, to update
+ {@code href} or {@code src} attributes, or to inject a {@code <script>}) without parsing it to a Document and
+ serializing that again.
+ <p>Memory use is bounded by the depth of the open elements and the size of the largest single token, not the size of
+ the input. No DOM is built: handlers see each start tag as a detached Element (with its open ancestors, so selectors
+ can use the descendant and child combinators), and may change its attributes, or insert HTML around it or into it.
+ Selectors are limited to those that can be decided from an element and its ancestors, as with
+ {@link StreamingMatcher#canStream(Evaluator)}: tag, id, class and attribute selectors, with those combinators.</p>
+ <p>As there is no tree building, elements are only seen where they are in the input (an implied {@code <head>} or
+ {@code <tbody>} is not), and the end of an element is found from its end tag, or from the common implied end tags
+ (such as of a {@code <p>}, {@code <li>} or {@code <td>} by a following sibling), or else when a parent is closed.</p>
+ <p>Example:</p>
+ <pre>{@code
+ HtmlRewriter rewriter = new HtmlRewriter()
+     .onElement("a[href^=http:]", el -> el.attr("href", el.attr("href").replace("http:", "https:")))
+     .onElement("head", el -> el.append("<script src=/app.js></script>"));
+ rewriter.rewrite(reader, writer);
+ }</pre>
+ <p>A rewriter may be reused, and used concurrently, if its handlers allow that.</p>
+ */
+public final class HtmlRewriter {
+    private final List<Handler> handlers = new ArrayList<>();
+
+    /**
+     Add a handler that is called with each element that matches the selector, at its start tag.
+     @param selector the CSS selector; must be supported for streaming
+     @param handler the handler, which may change the element's attributes, or insert content
+     @return this, for chaining
+     @throws nokogiri.internals.html.helper.ValidationException if the selector is not valid, or can not be matched while streaming
+     */
+    public HtmlRewriter onElement(String selector, Consumer<? super ElementHandle> handler) {
+        Validate.notNull(handler);
+        handlers.add(new Handler(evaluatorFor(selector), handler, null));
+        return this;
+    }
+
+    /**
+     Add a handler that is called with each run of text within an element that matches the selector. A run of text is
+     the text between two tags, so the text of an element with child elements is seen in several runs.
+     @param selector the CSS selector; must be supported for streaming
+     @param handler the handler, which may replace the text
+     @return this, for chaining
+     @throws nokogiri.internals.html.helper.ValidationException if the selector is not valid, or can not be matched while streaming
+     */
+    public HtmlRewriter onText(String selector, Consumer<? super TextChunk> handler) {
+        Validate.notNull(handler);
+        handlers.add(new Handler(evaluatorFor(selector), null, handler));
+        return this;
+    }
+
+    private static Evaluator evaluatorFor(String selector) {
+        Evaluator evaluator = Selector.evaluatorOf(selector);
+        if (!StreamingMatcher.canStream(evaluator))
+            Validate.fail("The selector [%s] can not be matched while streaming; it may only use tag, id, class and " +
+                "attribute selectors, with descendant or child combinators", selector);
+        return evaluator;
+    }
+
+    /**
+     Rewrite the input to the output. The input is read incrementally, and is closed when read.
+     @param input the HTML to rewrite
+     @param output the destination of the rewritten HTML
+     @throws IOException if the input or output throws an IOException
+     */
+    public void rewrite(Reader input, Appendable output) throws IOException {
+        Validate.notNull(input);
+        Validate.notNull(output);
+        try {
+            new Run(input, output).run();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     Rewrite the HTML.
+     @param html the HTML to rewrite
+     @return the rewritten HTML
+     */
+    public String rewrite(String html) {
+        StringBuilder out = new StringBuilder(html.length() + 64);
+        try {
+            rewrite(new StringReader(html), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not expected with a String input and a StringBuilder output
+        }
+        return out.toString();
+    }
+
+    private static final class Handler {
+        final Evaluator evaluator;
+        final @Nullable Consumer<? super ElementHandle> element;
+        final @Nullable Consumer<? super TextChunk> text;
+
+        Handler(Evaluator evaluator, @Nullable Consumer<? super ElementHandle> element, @Nullable Consumer<? super TextChunk> text) {
+            this.evaluator = evaluator;
+            this.element = element;
+            this.text = text;
+        }
+    }
+
+    /**
+     A matched start tag, as given to an element handler. Changes to its attributes cause the start tag to be written
+     again (with the attribute names normalized, and values quoted); otherwise the start tag is copied from the input.
+     Inserted HTML is written as is.
+     */
+    public static final class ElementHandle {
+        private final Element element;
+        private boolean modified = false;
+        @Nullable private StringBuilder before, prepend, append, after;
+
+        ElementHandle(Element element) {
+            this.element = element;
+        }
+
+        /** The element's tag name (normalized, for HTML elements). */
+        public String tagName() {
+            return element.tagName();
+        }
+
+        /**
+         Get an attribute's value.
+         @param key the attribute key (case-insensitive, for HTML elements)
+         @return the value, or an empty string if the attribute is not set
+         */
+        public String attr(String key) {
+            return element.attr(key);
+        }
+
+        /**
+         Test if an attribute is set.
+         @param key the attribute key
+         @return true if set
+         */
+        public boolean hasAttr(String key) {
+            return element.hasAttr(key);
+        }
+
+        /**
+         Set an attribute's value.
+         @param key the attribute key
+         @param value the new value
+         @return this, for chaining
+         */
+        public ElementHandle attr(String key, String value) {
+            if (!value.equals(element.attributes().get(key)) || !element.attributes().hasKey(key)) {
+                element.attr(key, value);
+                modified = true;
+            }
+            return this;
+        }
+
+        /**
+         Remove an attribute.
+         @param key the attribute key
+         @return this, for chaining
+         */
+        public ElementHandle removeAttr(String key) {
+            if (element.hasAttr(key)) {
+                element.removeAttr(key);
+                modified = true;
+            }
+            return this;
+        }
+
+        /**
+         Insert HTML before the element's start tag.
+         @param html the HTML to insert
+         @return this, for chaining
+         */
+        public ElementHandle before(String html) {
+            before = add(before, html);
+            return this;
+        }
+
+        /**
+         Insert HTML after the element's start tag, before its content.
+         @param html the HTML to insert
+         @return this, for chaining
+         */
+        public ElementHandle prepend(String html) {
+            prepend = add(prepend, html);
+            return this;
+        }
+
+        /**
+         Insert HTML at the end of the element's content, before its end tag. For a void element (such as {@code <img>}),
+         this is after its tag.
+         @param html the HTML to insert
+         @return this, for chaining
+         */
+        public ElementHandle append(String html) {
+            append = add(append, html);
+            return this;
+        }
+
+        /**
+         Insert HTML after the element's end tag.
+         @param html the HTML to insert
+         @return this, for chaining
+         */
+        public ElementHandle after(String html) {
+            after = add(after, html);
+            return this;
+        }
+
+        private static StringBuilder add(@Nullable StringBuilder sb, String html) {
+            Validate.notNull(html);
+            return sb == null ? new StringBuilder(html) : sb.append(html);
+        }
+    }
+
+    /** A run of text, as given to a text handler. */
+    public static final class TextChunk {
+        private final String text;
+        private final boolean data;
+        @Nullable private String replacement;
+
+        TextChunk(String text, boolean data) {
+            this.text = text;
+            this.data = data;
+        }
+
+        /** The (unescaped) text of this run, as it was read. */
+        public String text() {
+            return text;
+        }
+
+        /**
+         Replace this run with the text. It is escaped, unless it is in an element with data content, like a
+         {@code <script>} or {@code <style>}.
+         @param text the replacement text
+         */
+        public void replace(String text) {
+            Validate.notNull(text);
+            replacement = data ? text : Entities.escape(text);
+        }
+
+        /**
+         Replace this run with the HTML, which is written as is.
+         @param html the replacement HTML
+         */
+        public void replaceHtml(String html) {
+            Validate.notNull(html);
+            replacement = html;
+        }
+    }
+
+    /** An element that has been started and not yet closed. */
+    private static final class Open {
+        final Element el;
+        final boolean @Nullable [] textMatches; // by handler index: if this element starts a text handler's scope
+        @Nullable final StringBuilder append, after;
+
+        Open(Element el, boolean @Nullable [] textMatches, @Nullable ElementHandle handle) {
+            this.el = el;
+            this.textMatches = textMatches;
+            this.append = handle != null ? handle.append : null;
+            this.after = handle != null ? handle.after : null;
+        }
+    }
+
+    /** The state of one rewrite. */
+    private final class Run {
+        private final Recorder input;
+        private final Appendable out;
+        private final HtmlTreeBuilder tb = new HtmlTreeBuilder();
+        private final Element root;
+        private final ArrayList<Open> stack = new ArrayList<>(32);
+        private final int[] textScopes = new int[handlers.size()]; // by handler index: the open elements matching it
+        private int openTextScopes = 0;
+        private int written = 0; // the input position that the output has been written through
+
+        Run(Reader input, Appendable out) {
+            this.input = new Recorder(input);
+            this.out = out;
+            tb.initialiseParse(this.input, "", Parser.htmlParser());
+            root = tb.doc;
+        }
+
+        void run() throws IOException {
+            try {
+                Tokeniser tokeniser = tb.tokeniser;
+                while (true) {
+                    Token token = tokeniser.read();
+                    switch (token.type) {
+                        case StartTag:
+                            startTag(token.asStartTag());
+                            break;
+                        case EndTag:
+                            endTag(token.asEndTag());
+                            break;
+                        case Character:
+                            characters(token.asCharacter());
+                            break;
+                        case EOF:
+                            while (!stack.isEmpty()) close(stack.remove(stack.size() - 1));
+                            copyTo(input.end());
+                            return;
+                        default: // doctype, comment, xml declaration
+                            copyTo(token.endPos());
+                    }
+                    token.reset();
+                }
+            } finally {
+                tb.completeParse();
+            }
+        }
+
+        private void startTag(Token.StartTag start) throws IOException {
+            String name = start.normalName();
+            closeImplied(name);
+            Element parent = stack.isEmpty() ? root : stack.get(stack.size() - 1).el;
+            String namespace = namespaceFor(name, parent);
+            Element el = tb.createElementFor(start, namespace, !namespace.equals(NamespaceHtml));
+            parent.appendChild(el);
+            boolean isVoid = namespace.equals(NamespaceHtml) ? el.tag().isEmpty() : start.isSelfClosing();
+            if (!isVoid) {
+                TokeniserState textState = name.equals("script") ? TokeniserState.ScriptData
+                    : name.equals("plaintext") && namespace.equals(NamespaceHtml) ? TokeniserState.PLAINTEXT
+                    : el.tag().textState();
+                if (textState != null) tb.tokeniser.transition(textState);
+            }
+
+            ElementHandle handle = null;
+            boolean[] textMatches = null;
+            for (int i = 0; i < handlers.size(); i++) {
+                Handler handler = handlers.get(i);
+                if (!StreamingMatcher.matchesOpen(handler.evaluator, root, el)) continue;
+                if (handler.element != null) {
+                    if (handle == null) handle = new ElementHandle(el);
+                    handler.element.accept(handle);
+                } else {
+                    if (textMatches == null) textMatches = new boolean[handlers.size()];
+                    textMatches[i] = true;
+                }
+            }
+
+            if (handle != null) {
+                copyTo(start.startPos());
+                write(handle.before);
+                if (handle.modified) {
+                    out.append('<').append(start.name()).append(el.attributes().html());
+                    out.append(start.isSelfClosing() ? " />" : ">");
+                    skipTo(start.endPos());
+                } else {
+                    copyTo(start.endPos());
+                }
+                write(handle.prepend);
+            } else {
+                copyTo(start.endPos());
+            }
+
+            if (isVoid) {
+                if (handle != null) {
+                    write(handle.append);
+                    write(handle.after);
+                }
+                el.remove();
+            } else {
+                stack.add(new Open(el, textMatches, handle));
+                scope(textMatches, 1);
+            }
+        }
+
+        private void endTag(Token.EndTag end) throws IOException {
+            String name = end.normalName();
+            int pos = stack.size() - 1;
+            while (pos >= 0 && !stack.get(pos).el.normalName().equals(name)) pos--;
+            if (pos < 0) { // a stray end tag
+                copyTo(end.endPos());
+                return;
+            }
+            copyTo(end.startPos());
+            while (stack.size() - 1 > pos) close(stack.remove(stack.size() - 1)); // implicitly closed by this end tag
+            Open open = stack.remove(pos);
+            write(open.append);
+            copyTo(end.endPos());
+            write(open.after);
+            closed(open);
+        }
+
+        private void characters(Token.Character chars) throws IOException {
+            if (openTextScopes == 0) {
+                copyTo(chars.endPos());
+                return;
+            }
+            Element parent = stack.isEmpty() ? root : stack.get(stack.size() - 1).el;
+            TextChunk chunk = new TextChunk(chars.getData(), parent.tag().is(Tag.Data));
+            for (int i = 0; i < handlers.size(); i++) {
+                Handler handler = handlers.get(i);
+                if (textScopes[i] > 0 && handler.text != null) handler.text.accept(chunk);
+            }
+            if (chunk.replacement != null) {
+                copyTo(chars.startPos());
+                out.append(chunk.replacement);
+                skipTo(chars.endPos());
+            } else {
+                copyTo(chars.endPos());
+            }
+        }
+
+        /** Close the open elements that the start tag implicitly ends, per the optional end tag rules. */
+        private void closeImplied(String start) throws IOException {
+            while (!stack.isEmpty()) {
+                Element current = stack.get(stack.size() - 1).el;
+                if (!current.tag().namespace().equals(NamespaceHtml) || !closesOnStart(current.normalName(), start))
+                    return;
+                close(stack.remove(stack.size() - 1));
+            }
+        }
+
+        /** Write the pending content of an element that was closed without an end tag. */
+        private void close(Open open) throws IOException {
+            write(open.append);
+            write(open.after);
+            closed(open);
+        }
+
+        private void closed(Open open) {
+            scope(open.textMatches, -1);
+            open.el.remove();
+        }
+
+        private void scope(boolean @Nullable [] textMatches, int change) {
+            if (textMatches == null) return;
+            for (int i = 0; i < textMatches.length; i++) {
+                if (textMatches[i]) {
+                    textScopes[i] += change;
+                    openTextScopes += change;
+                }
+            }
+        }
+
+        private void write(@Nullable StringBuilder html) throws IOException {
+            if (html != null) out.append(html);
+        }
+
+        /** Copy the input, from what has been written, to the position. */
+        private void copyTo(int pos) throws IOException {
+            if (pos <= written) return;
+            input.copy(out, written, pos);
+            skipTo(pos);
+        }
+
+        /** Skip the input to the position, without writing it (as it has been replaced). */
+        private void skipTo(int pos) {
+            written = Math.max(written, pos);
+            input.release(written);
+        }
+    }
+
+    /** The namespace of an element started within the parent, following the foreign content rules. */
+    static String namespaceFor(String name, Element parent) {
+        String parentNamespace = parent.tag().namespace();
+        if (parentNamespace.equals(NamespaceHtml)
+            || HtmlTreeBuilder.isHtmlIntegration(parent)
+            || (HtmlTreeBuilder.isMathmlTextIntegration(parent) && !name.equals("mglyph") && !name.equals("malignmark"))) {
+            switch (name) {
+                case "svg": return NamespaceSvg;
+                case "math": return NamespaceMathml;
+                default: return NamespaceHtml;
+            }
+        }
+        return parentNamespace;
+    }
+
+    /** If the start tag implicitly closes the open element, which is the current element. */
+    static boolean closesOnStart(String open, String start) {
+        switch (open) {
+            case "p":
+                return inSorted(start, PClosers);
+            case "a":
+                return start.equals("a");
+            case "li":
+                return start.equals("li");
+            case "dt":
+            case "dd":
+                return start.equals("dt") || start.equals("dd");
+            case "option":
+                return start.equals("option") || start.equals("optgroup");
+            case "optgroup":
+                return start.equals("optgroup");
+            case "rt":
+            case "rp":
+                return start.equals("rt") || start.equals("rp");
+            case "tr":
+                return start.equals("tr") || start.equals("tbody") || start.equals("thead") || start.equals("tfoot");
+            case "td":
+            case "th":
+                return start.equals("td") || start.equals("th") || start.equals("tr")
+                    || start.equals("tbody") || start.equals("thead") || start.equals("tfoot");
+            case "thead":
+            case "tbody":
+            case "tfoot":
+                return start.equals("tbody") || start.equals("thead") || start.equals("tfoot");
+            default:
+                return false;
+        }
+    }
+
+    // start tags that close an open p. Sorted
+    private static final String[] PClosers = {"address", "article", "aside", "blockquote", "center", "details",
+        "dialog", "dir", "div", "dl", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5",
+        "h6", "header", "hgroup", "hr", "listing", "main", "menu", "nav", "ol", "p", "plaintext", "pre", "search",
+        "section", "summary", "table", "ul", "xmp"};
+
+    /**
+     Reads the input for the tokeniser, and keeps what it has read from the position that has been written through, so
+     that unchanged tokens can be copied to the output as they were.
+     */
+    private static final class Recorder extends Reader {
+        private static final int MinRelease = 8 * 1024;
+        private final Reader in;
+        private final StringBuilder buf = new StringBuilder(4 * 1024);
+        private int base = 0; // the input position of buf[0]
+
+        Recorder(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] chars, int off, int len) throws IOException {
+            int read = in.read(chars, off, len);
+            if (read > 0) buf.append(chars, off, read);
+            return read;
+        }
+
+        /** The input position after the last char read. */
+        int end() {
+            return base + buf.length();
+        }
+
+        void copy(Appendable out, int from, int to) throws IOException {
+            out.append(buf, from - base, to - base);
+        }
+
+        /** Release the input before the position. Done in batches, to amortize the shift of what remains. */
+        void release(int pos) {
+            int len = pos - base;
+            if (len >= MinRelease && len >= buf.length() / 2) {
+                buf.delete(0, len);
+                base = pos;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package nokogiri.internals.html.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.Normalizer;
+import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.nodes.Attribute;
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.Entities;
+
+import static nokogiri.internals.html.parser.Parser.NamespaceHtml;
+
+/**
+ A streaming HTML sanitizer. It reads untrusted HTML as a stream of tokens, and writes only the elements, attributes and
+ URL protocols that its {@link Policy} allows, without building a Document. Elements that are not allowed are dropped,
+ but their text is kept (other than the contents of elements like {@code <script>} and {@code <style>}); comments and
+ doctypes are dropped.
+ <p>The output is well-formed: each element that is written is closed, in order, and all text and attribute values are
+ escaped. Elements are closed by their end tag, by the common implied end tags (such as of a {@code <p>} or {@code <li>}
+ by a following sibling), by the end of an ancestor, or at the end of the input. Memory use is bounded by the depth of
+ the open elements and the size of the largest single token.</p>
+ <p>Example:</p>
+ <pre>{@code
+ HtmlSanitizer sanitizer = new HtmlSanitizer(HtmlSanitizer.Policy.basic());
+ String safe = sanitizer.sanitize(untrusted, "https://example.com/");
+ }</pre>
+ <p>A sanitizer may be used concurrently, as long as its policy is not changed while it is in use.</p>
+ */
+public final class HtmlSanitizer {
+    private final Policy policy;
+
+    /**
+     Create a sanitizer with the policy.
+     @param policy the policy of allowed tags, attributes and protocols
+     */
+    public HtmlSanitizer(Policy policy) {
+        Validate.notNull(policy);
+        this.policy = policy;
+    }
+
+    /**
+     Sanitize the input to the output. The input is read incrementally, and is closed when read.
+     @param input the untrusted HTML
+     @param baseUri the URL that relative links are resolved against, when checking their protocols
+     @param output the destination of the sanitized HTML
+     @throws IOException if the input or output throws an IOException
+     */
+    public void sanitize(Reader input, String baseUri, Appendable output) throws IOException {
+        Validate.notNull(input);
+        Validate.notNull(baseUri);
+        Validate.notNull(output);
+        try {
+            new Run(input, baseUri, output).run();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     Sanitize the HTML.
+     @param html the untrusted HTML
+     @param baseUri the URL that relative links are resolved against, when checking their protocols
+     @return the sanitized HTML
+     */
+    public String sanitize(String html, String baseUri) {
+        StringBuilder out = new StringBuilder(html.length());
+        try {
+            sanitize(new StringReader(html), baseUri, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not expected with a String input and a StringBuilder output
+        }
+        return out.toString();
+    }
+
+    /**
+     Sanitize the HTML. As there is no base URI, only absolute links are kept.
+     @param html the untrusted HTML
+     @return the sanitized HTML
+     */
+    public String sanitize(String html) {
+        return sanitize(html, "");
+    }
+
+    /** An element that has been started and not yet closed. */
+    private static final class Open {
+        final Element el;
+        final boolean kept; // if its tags are written
+        final boolean dropContent; // if its text is dropped
+
+        Open(Element el, boolean kept, boolean dropContent) {
+            this.el = el;
+            this.kept = kept;
+            this.dropContent = dropContent;
+        }
+    }
+
+    /** The state of one sanitize. */
+    private final class Run {
+        private final String baseUri;
+        private final Appendable out;
+        private final HtmlTreeBuilder tb = new HtmlTreeBuilder();
+        private final Element root;
+        private final ArrayList<Open> stack = new ArrayList<>(32);
+        private int dropping = 0; // the open elements that drop their content
+
+        Run(Reader input, String baseUri, Appendable out) {
+            this.baseUri = baseUri;
+            this.out = out;
+            tb.initialiseParse(input, baseUri, Parser.htmlParser());
+            root = tb.doc;
+        }
+
+        void run() throws IOException {
+            try {
+                Tokeniser tokeniser = tb.tokeniser;
+                while (true) {
+                    Token token = tokeniser.read();
+                    switch (token.type) {
+                        case StartTag:
+                            startTag(token.asStartTag());
+                            break;
+                        case EndTag:
+                            endTag(token.asEndTag());
+                            break;
+                        case Character:
+                            if (dropping == 0) characters(token.asCharacter());
+                            break;
+                        case EOF:
+                            while (!stack.isEmpty()) close(stack.remove(stack.size() - 1));
+                            return;
+                        default: // doctype, comment, xml declaration: dropped
+                    }
+                    token.reset();
+                }
+            } finally {
+                tb.completeParse();
+            }
+        }
+
+        private void startTag(Token.StartTag start) throws IOException {
+            String name = start.normalName();
+            while (!stack.isEmpty()) { // close the elements that this start tag implicitly ends
+                Element current = stack.get(stack.size() - 1).el;
+                if (!current.tag().namespace().equals(NamespaceHtml) || !HtmlRewriter.closesOnStart(current.normalName(), name))
+                    break;
+                close(stack.remove(stack.size() - 1));
+            }
+            Element parent = stack.isEmpty() ? root : stack.get(stack.size() - 1).el;
+            String namespace = HtmlRewriter.namespaceFor(name, parent);
+            Element el = tb.createElementFor(start, namespace, !namespace.equals(NamespaceHtml));
+            boolean isVoid = namespace.equals(NamespaceHtml) ? el.tag().isEmpty() : start.isSelfClosing();
+            if (!isVoid) {
+                TokeniserState textState = name.equals("script") ? TokeniserState.ScriptData
+                    : name.equals("plaintext") && namespace.equals(NamespaceHtml) ? TokeniserState.PLAINTEXT
+                    : el.tag().textState();
+                if (textState != null) tb.tokeniser.transition(textState);
+            }
+
+            boolean kept = dropping == 0 && policy.allowsTag(name)
+                && namespace.equals(HtmlRewriter.namespaceFor(name, outputParent())); // not moved in or out of foreign content
+            if (kept) {
+                out.append('<').append(el.tagName());
+                attributes(name, el);
+                out.append('>');
+                if (isVoid && !namespace.equals(NamespaceHtml)) out.append("</").append(el.tagName()).append('>');
+            }
+            if (!isVoid) {
+                boolean dropContent = !kept && el.tag().is(Tag.Data);
+                parent.appendChild(el);
+                stack.add(new Open(el, kept, dropContent));
+                if (dropContent) dropping++;
+            }
+        }
+
+        /** The element that the next written element will be in, in the output: the nearest kept open element. */
+        private Element outputParent() {
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                Open open = stack.get(i);
+                if (open.kept) return open.el;
+            }
+            return root;
+        }
+
+        private void endTag(Token.EndTag end) throws IOException {
+            String name = end.normalName();
+            int pos = stack.size() - 1;
+            while (pos >= 0 && !stack.get(pos).el.normalName().equals(name)) pos--;
+            if (pos < 0) return; // a stray end tag
+            while (stack.size() > pos) close(stack.remove(stack.size() - 1));
+        }
+
+        private void characters(Token.Character chars) throws IOException {
+            String data = chars.getData();
+            Open current = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+            if (current != null && current.kept && current.el.tag().is(Tag.Data))
+                out.append(data); // allowed script or style; can not contain its end tag, as the tokeniser ended on that
+            else
+                escape(data);
+        }
+
+        /** Write the element's allowed attributes, and the attributes the policy enforces. */
+        private void attributes(String name, Element el) throws IOException {
+            for (Attribute attr : el.attributes()) {
+                String key = attr.getKey();
+                if (!policy.allowsAttribute(name, key)) continue;
+                String value = attr.getValue();
+                Set<String> protocols = policy.protocols(name, key);
+                if (protocols != null) {
+                    value = policy.validUrl(value, baseUri, protocols);
+                    if (value == null) continue;
+                }
+                if (policy.enforced(name).containsKey(key)) continue; // written with the enforced value
+                out.append(' ').append(key).append("=\"");
+                escape(value);
+                out.append('"');
+            }
+            for (Map.Entry<String, String> enforced : policy.enforced(name).entrySet()) {
+                out.append(' ').append(enforced.getKey()).append("=\"");
+                escape(enforced.getValue());
+                out.append('"');
+            }
+        }
+
+        /** Write the text or attribute value, escaped. Most runs need no escaping, so are written as they are. */
+        private void escape(String data) throws IOException {
+            for (int i = 0; i < data.length(); i++) {
+                char c = data.charAt(i);
+                if (c < 0x20 || c == '&' || c == '<' || c == '>' || c == '"' || c == '\'' || c == 0xA0 || Character.isSurrogate(c)) {
+                    out.append(Entities.escape(data));
+                    return;
+                }
+            }
+            out.append(data);
+        }
+
+        private void close(Open open) throws IOException {
+            if (open.kept) out.append("</").append(open.el.tagName()).append('>');
+            if (open.dropContent) dropping--;
+            open.el.remove();
+        }
+    }
+
+    /**
+     The allowlist of tags, attributes and URL protocols that a sanitizer keeps. Everything else is dropped. Tag names
+     and attribute keys are matched case-insensitively.
+     <p>Start from {@link #none()}, {@link #basic()} or {@link #relaxed()}, and allow more as needed:</p>
+     <pre>{@code
+     Policy policy = Policy.basic()
+         .allowTags("img")
+         .allowAttributes("img", "src", "alt")
+         .allowProtocols("img", "src", "https");
+     }</pre>
+     */
+    public static final class Policy {
+        /** The pseudo tag name to allow an attribute on every allowed tag. */
+        public static final String All = ":all";
+        private final Set<String> tags = new HashSet<>();
+        private final Map<String, Set<String>> attributes = new HashMap<>();
+        private final Map<String, Map<String, String>> enforced = new HashMap<>();
+        private final Map<String, Map<String, Set<String>>> protocols = new HashMap<>();
+        private boolean preserveRelativeLinks = false;
+
+        /** A policy that allows only text. */
+        public static Policy none() {
+            return new Policy();
+        }
+
+        /**
+         A policy that allows simple text formatting: {@code a, b, blockquote, br, cite, code, dd, dl, dt, em, i, li, ol,
+         p, pre, q, small, span, strike, strong, sub, sup, u, ul}. Links may have {@code http}, {@code https},
+         {@code ftp} and {@code mailto} URLs, and are made {@code rel="nofollow"}.
+         */
+        public static Policy basic() {
+            return new Policy()
+                .allowTags("a", "b", "blockquote", "br", "cite", "code", "dd", "dl", "dt", "em", "i", "li", "ol", "p",
+                    "pre", "q", "small", "span", "strike", "strong", "sub", "sup", "u", "ul")
+                .allowAttributes("a", "href")
+                .allowAttributes("blockquote", "cite")
+                .allowAttributes("q", "cite")
+                .allowProtocols("a", "href", "ftp", "http", "https", "mailto")
+                .allowProtocols("blockquote", "cite", "http", "https")
+                .allowProtocols("q", "cite", "http", "https")
+                .enforceAttribute("a", "rel", "nofollow");
+        }
+
+        /**
+         A policy that allows a full range of text and structural HTML: that of {@link #basic()} (without the enforced
+         {@code rel}), and {@code caption, col, colgroup, div, h1-h6, img, table, tbody, td, tfoot, th, thead, tr}.
+         Images may have {@code http} and {@code https} URLs.
+         */
+        public static Policy relaxed() {
+            return new Policy()
+                .allowTags("a", "b", "blockquote", "br", "caption", "cite", "code", "col", "colgroup", "dd", "div", "dl",
+                    "dt", "em", "h1", "h2", "h3", "h4", "h5", "h6", "i", "img", "li", "ol", "p", "pre", "q", "small",
+                    "span", "strike", "strong", "sub", "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "u",
+                    "ul")
+                .allowAttributes("a", "href", "title")
+                .allowAttributes("blockquote", "cite")
+                .allowAttributes("col", "span", "width")
+                .allowAttributes("colgroup", "span", "width")
+                .allowAttributes("img", "align", "alt", "height", "src", "title", "width")
+                .allowAttributes("ol", "start", "type")
+                .allowAttributes("q", "cite")
+                .allowAttributes("table", "summary", "width")
+                .allowAttributes("td", "abbr", "axis", "colspan", "rowspan", "width")
+                .allowAttributes("th", "abbr", "axis", "colspan", "rowspan", "scope", "width")
+                .allowAttributes("ul", "type")
+                .allowProtocols("a", "href", "ftp", "http", "https", "mailto")
+                .allowProtocols("blockquote", "cite", "http", "https")
+                .allowProtocols("img", "src", "http", "https")
+                .allowProtocols("q", "cite", "http", "https");
+        }
+
+        /**
+         Allow the tags.
+         @param tags the tag names to allow
+         @return this, for chaining
+         */
+        public Policy allowTags(String... tags) {
+            for (String tag : tags) {
+                Validate.notEmpty(tag);
+                Validate.isFalse(tag.equals(All), "The :all pseudo tag can not be allowed as a tag");
+                this.tags.add(Normalizer.lowerCase(tag));
+            }
+            return this;
+        }
+
+        /**
+         Allow the attributes on the tag. The tag itself must also be allowed.
+         @param tag the tag name, or {@link #All} for every allowed tag
+         @param keys the attribute keys to allow
+         @return this, for chaining
+         */
+        public Policy allowAttributes(String tag, String... keys) {
+            Validate.notEmpty(tag);
+            Set<String> allowed = attributes.computeIfAbsent(Normalizer.lowerCase(tag), k -> new HashSet<>());
+            for (String key : keys) {
+                Validate.notEmpty(key);
+                allowed.add(Normalizer.lowerCase(key));
+            }
+            return this;
+        }
+
+        /**
+         Add an attribute, with a fixed value, to each instance of the tag. Any value in the input is replaced.
+         @param tag the tag name
+         @param key the attribute key
+         @param value the attribute value
+         @return this, for chaining
+         */
+        public Policy enforceAttribute(String tag, String key, String value) {
+            Validate.notEmpty(tag);
+            Validate.notEmpty(key);
+            Validate.notNull(value);
+            enforced.computeIfAbsent(Normalizer.lowerCase(tag), k -> new LinkedHashMap<>())
+                .put(Normalizer.lowerCase(key), value);
+            return this;
+        }
+
+        /**
+         Restrict the URL protocols of the attribute on the tag. A URL that does not use one of the protocols (after being
+         resolved against the base URI) is dropped. Use {@code #} to allow in-page anchors, like {@code #top}.
+         @param tag the tag name
+         @param key the attribute key
+         @param protocols the allowed protocols, without the {@code :}; like {@code https}
+         @return this, for chaining
+         */
+        public Policy allowProtocols(String tag, String key, String... protocols) {
+            Validate.notEmpty(tag);
+            Validate.notEmpty(key);
+            Set<String> allowed = this.protocols.computeIfAbsent(Normalizer.lowerCase(tag), k -> new HashMap<>())
+                .computeIfAbsent(Normalizer.lowerCase(key), k -> new HashSet<>());
+            for (String protocol : protocols) {
+                Validate.notEmpty(protocol);
+                allowed.add(Normalizer.lowerCase(protocol));
+            }
+            return this;
+        }
+
+        /**
+         Set whether relative links that pass the protocol check are kept as they were, or written as absolute URLs
+         (the default).
+         @param preserve true to keep relative links
+         @return this, for chaining
+         */
+        public Policy preserveRelativeLinks(boolean preserve) {
+            preserveRelativeLinks = preserve;
+            return this;
+        }
+
+        boolean allowsTag(String tag) {
+            return tags.contains(tag);
+        }
+
+        boolean allowsAttribute(String tag, String key) {
+            Set<String> allowed = attributes.get(tag);
+            if (allowed != null && allowed.contains(key)) return true;
+            allowed = attributes.get(All);
+            return allowed != null && allowed.contains(key);
+        }
+
+        @Nullable Set<String> protocols(String tag, String key) {
+            Map<String, Set<String>> byKey = protocols.get(tag);
+            return byKey != null ? byKey.get(key) : null;
+        }
+
+        Map<String, String> enforced(String tag) {
+            Map<String, String> byKey = enforced.get(tag);
+            return byKey != null ? byKey : Collections.emptyMap();
+        }
+
+        /** The URL to write, if it uses one of the protocols, or null if it is to be dropped. */
+        @Nullable String validUrl(String value, String baseUri, Set<String> protocols) {
+            String abs = StringUtil.resolve(baseUri, value);
+            if (abs.isEmpty()) abs = value; // could not be made absolute; check as is, to allow custom protocols
+            String lower = Normalizer.lowerCase(abs);
+            for (String protocol : protocols) {
+                if (protocol.equals("#")) {
+                    if (isValidAnchor(value)) return value;
+                } else if (lower.startsWith(protocol) && lower.startsWith(":", protocol.length())) {
+                    return preserveRelativeLinks ? value : abs;
+                }
+            }
+            return null;
+        }
+
+        private static boolean isValidAnchor(String value) {
+            if (!value.startsWith("#")) return false;
+            for (int i = 0; i < value.length(); i++) {
+                if (StringUtil.isWhitespace(value.charAt(i))) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.jspecify.annotations.Nullable;
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.internal.Normalizer;
 import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.internal.TextSlice;
 import nokogiri.internals.html.nodes.Attributes;
 import nokogiri.internals.html.nodes.CDataNode;
 import nokogiri.internals.html.nodes.Comment;
@@ -420,13 +421,14 @@ public class HtmlTreeBuilder extends TreeBuilder {
     void insertCharacterToElement(Token.Character characterToken, Element el) {
         final Node node;
         final String data = characterToken.getData();
+        final TextSlice slice = slice(characterToken, data);
 
         if (characterToken.isCData())
-            node = new CDataNode(data);
+            node = slice != null ? new CDataNode(slice) : new CDataNode(data);
         else if (el.tag().is(Tag.Data))
-            node = new DataNode(data);
+            node = slice != null ? new DataNode(slice) : new DataNode(data);
         else
-            node = new TextNode(data);
+            node = slice != null ? new TextNode(slice) : new TextNode(data);
         el.appendChild(node); // doesn't use insertNode, because we don't foster these; and will always have a stack.
         onNodeInserted(node);
     }
@@ -991,6 +993,37 @@ public class HtmlTreeBuilder extends TreeBuilder {
         replaceInQueue(formattingElements, out, in);
     }
 
+    /**
+     The adoption agency may yet move nodes while an active formatting element is open: its end tag (or that of a
+     formatting element that it is within) moves the content of the furthest block below it into a clone of it. Content
+     inserted while no such element is open is never moved.
+     */
+    @Override boolean mayMoveNodes() {
+        if (stack == null) return false; // the parse is complete
+        for (int i = formattingElements.size() - 1; i >= 0; i--) {
+            Element el = formattingElements.get(i);
+            if (el != null && onStack(el)) return true;
+        }
+        return false;
+    }
+
+    /**
+     The adoption agency only moves the furthest block below a formatting element (and so its content): that is the
+     first special element below the formatting element on the stack. So content that is not within the first special
+     element below the outermost open formatting element is never moved.
+     */
+    @Override @Nullable Element movableBlock() {
+        if (stack == null) return null;
+        for (int i = 0; i < stack.size(); i++) {
+            if (!isInActiveFormattingElements(stack.get(i))) continue;
+            for (int j = i + 1; j < stack.size(); j++) {
+                if (isSpecial(stack.get(j))) return stack.get(j);
+            }
+            return null;
+        }
+        return null;
+    }
+
     void insertMarkerToFormattingElements() {
         formattingElements.add(null);
     }
@@ -29,6 +29,10 @@ public class Parser implements Cloneable {
     private ParseErrorList errors;
     private ParseSettings settings;
     private boolean trackPosition = false;
+    private boolean sliceText = false;
+    private boolean dedupeStrings = false;
+    private @Nullable StringTable stringTable; // shared across parses, if set
+    private @Nullable StringTable lastStringTable; // the table used by the last parse
     private @Nullable TagSet tagSet;
     private final ReentrantLock lock = new ReentrantLock();
 
@@ -61,6 +65,9 @@ public class Parser implements Cloneable {
         errors = new ParseErrorList(copy.errors); // only copies size, not contents
         settings = new ParseSettings(copy.settings);
         trackPosition = copy.trackPosition;
+        sliceText = copy.sliceText;
+        dedupeStrings = copy.dedupeStrings;
+        stringTable = copy.stringTable;
     }
 
     /**
@@ -71,7 +78,14 @@ public class Parser implements Cloneable {
      @return parsed Document
      */
     public Document parseInput(String html, String baseUri) {
-        return parseInput(new StringReader(html), baseUri);
+        try {
+            lock.lock();
+            treeBuilder.source = sliceText ? html : null;
+            return parseInput(new StringReader(html), baseUri);
+        } finally {
+            treeBuilder.source = null;
+            lock.unlock();
+        }
     }
 
     /**
@@ -177,6 +191,82 @@ public class Parser implements Cloneable {
         return this;
     }
 
+    /**
+     Test if attribute string deduplication is enabled. By default, it is not.
+     @return current deduplication setting
+     @see #setDedupeStrings(boolean)
+     */
+    public boolean isDedupeStrings() {
+        return dedupeStrings || stringTable != null;
+    }
+
+    /**
+     Enable or disable attribute string deduplication. If enabled, each parse interns its attribute names and short to
+     medium length values in a new, bounded {@link StringTable}, so that repeated values share one String. To share a
+     table across parses, use {@link #setStringTable(StringTable)} instead.
+     @param dedupeStrings deduplication setting; {@code true} to enable
+     @return this Parser, for chaining
+     @see #stringTable()
+     */
+    public Parser setDedupeStrings(boolean dedupeStrings) {
+        this.dedupeStrings = dedupeStrings;
+        return this;
+    }
+
+    /**
+     Set a string table to deduplicate attribute names and values in, shared by all parses by this parser (and by any
+     other parsers using the same table, e.g. {@link StringTable#shared()}). Set to {@code null} to stop sharing.
+     @param stringTable the table to use, or null
+     @return this Parser, for chaining
+     */
+    public Parser setStringTable(@Nullable StringTable stringTable) {
+        this.stringTable = stringTable;
+        return this;
+    }
+
+    /**
+     Get the string table used by the last parse; to report its effectiveness. If a table is
+     {@link #setStringTable(StringTable) shared}, that is returned.
+     @return the string table, or null if deduplication is not enabled, or there has been no parse
+     */
+    public @Nullable StringTable stringTable() {
+        return stringTable != null ? stringTable : lastStringTable;
+    }
+
+    /** Get the table for a new parse: the shared table if set, else a new table if deduplication is enabled. */
+    @Nullable StringTable stringTableForParse() {
+        if (stringTable != null) return stringTable;
+        lastStringTable = dedupeStrings ? new StringTable() : null;
+        return lastStringTable;
+    }
+
+    /**
+     Test if text slicing is enabled. By default, it is not.
+     @return current text slicing setting
+     @see #setSliceText(boolean)
+     */
+    public boolean isSliceText() {
+        return sliceText;
+    }
+
+    /**
+     Enable or disable text slicing. If enabled, when parsing a String, the values of text and data nodes are held as
+     {@link nokogiri.internals.html.internal.TextSlice slices} of the retained input String, rather than as copies of
+     it; so the document retains its text once, in the input, rather than in each node. A slice is converted to a String
+     when the node's value is first read as a String (e.g. by
+     {@link nokogiri.internals.html.nodes.TextNode#getWholeText()}); printing the document and getting element text
+     read slices directly.
+     <p>Text that differs from its source (e.g. text that had character references decoded) and short text, are held as
+     Strings as usual. Parses from a Reader are not sliced. If most of a sliced document is later removed, use
+     {@link nokogiri.internals.html.nodes.Document#compactText()} to release the input.</p>
+     @param sliceText text slicing setting; {@code true} to enable
+     @return this Parser, for chaining
+     */
+    public Parser setSliceText(boolean sliceText) {
+        this.sliceText = sliceText;
+        return this;
+    }
+
     /**
      Update the ParseSettings of this Parser, to control the case sensitivity of tags and attributes.
      * @param settings the new settings
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -12,6 +13,7 @@ import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -20,10 +22,13 @@ import org.jspecify.annotations.Nullable;
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.nodes.Document;
 import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.LeafNode;
 import nokogiri.internals.html.nodes.Node;
+import nokogiri.internals.html.nodes.TextWriter;
 import nokogiri.internals.html.select.Evaluator;
 import nokogiri.internals.html.select.NodeVisitor;
 import nokogiri.internals.html.select.Selector;
+import nokogiri.internals.html.select.StreamingMatcher;
 
 /**
  A StreamParser provides a progressive parse of its input. As each Element is completed, it is emitted via a Stream or
@@ -299,6 +304,118 @@ public class StreamParser implements Closeable {
         }
     }
 
+    /**
+     Runs the parser over the rest of the input, passing each Element that matches the query to the consumer as it is
+     completed. Content that is not part of a match is removed from the Document as the parse proceeds, so that
+     selector-based extraction from very large inputs runs in bounded memory.
+     <p>The query may only use selectors that can be decided from an element and its ancestors (tag, id, class and
+     attribute selectors, with descendant and child combinators). See {@link StreamingMatcher}.</p>
+     <p>Delivered elements are detached from the Document after the consumer returns, unless they are within another
+     match. The parse can be ended early by calling {@link #stop()} from the consumer.</p>
+     @param query the {@link nokogiri.internals.html.select.Selector} query.
+     @param consumer the consumer of each matching Element
+     @return the number of elements matched
+     @throws IOException if an I/O error occurs
+     @throws nokogiri.internals.html.helper.ValidationException if the query can not be matched while streaming
+     @see #selectEach(Evaluator, Consumer)
+     */
+    public long selectEach(String query, Consumer<? super Element> consumer) throws IOException {
+        return selectEach(Selector.evaluatorOf(query), consumer);
+    }
+
+    /**
+     Runs the parser over the rest of the input, passing each Element that matches the evaluator to the consumer as it
+     is completed, and pruning the rest.
+     <p>While the parser may still move content that it has inserted (within an open formatting element, such as a
+     misnested {@code <b>}), the completed elements are held, and are matched once their place in the tree is settled.
+     So the matches are the same as from a select of the whole document. The parser only moves the content of the first
+     block element within the outermost open formatting element (as the {@code <div>} in {@code <b><div>...}), so that
+     block's content is retained until the block closes: memory is bounded by the size of such a block, which for a
+     formatting element left open around the whole body may be most of the input.</p>
+     @param eval the {@link nokogiri.internals.html.select.Selector} evaluator.
+     @param consumer the consumer of each matching Element
+     @return the number of elements matched
+     @throws IOException if an I/O error occurs
+     @throws nokogiri.internals.html.helper.ValidationException if the evaluator can not be matched while streaming
+     @see #selectEach(String, Consumer)
+     */
+    public long selectEach(Evaluator eval, Consumer<? super Element> consumer) throws IOException {
+        StreamingMatcher matcher = new StreamingMatcher(eval, document(), consumer);
+        treeBuilder.nodeListener(matcher);
+        try {
+            while (!stopped) { // matches are delivered from the node listener, or on release
+                boolean hold = treeBuilder.mayMoveNodes();
+                if (hold) matcher.hold();
+                if (!treeBuilder.stepParser()) break;
+                if (hold) matcher.release(openElements(), treeBuilder.movableBlock());
+            }
+            matcher.release(openElements(), null);
+        } catch (UncheckedIOException e) {
+            // Reader threw an IO exception during a read
+            throw e.getCause();
+        } finally {
+            treeBuilder.nodeListener(it);
+        }
+        if (!stopped) {
+            stop();
+            close();
+        }
+        return matcher.matched();
+    }
+
+    private List<Element> openElements() {
+        return treeBuilder.stack != null ? treeBuilder.stack : Collections.emptyList();
+    }
+
+    /**
+     Runs the parser over the rest of the input, writing the normalized text of the document to the text writer as it is
+     parsed, and then flushes the writer. Content is removed from the Document once its text has been written, so the
+     text of a very large input is extracted in bounded memory.
+     <p>The text is written in the order that nodes are inserted by the parser. That is the document order, other than
+     for content that the parser moves after inserting it (as in misnested tables and formatting elements). Nothing is
+     held back for such moves (unlike {@link #selectEach(Evaluator, Consumer)}), so the retained tree is bounded by the
+     depth of the open elements, and the open elements' current children.</p>
+     @param text the text writer, which may be configured for chunk size and block newlines
+     @throws IOException if an I/O error occurs, in the input or in the text writer
+     @see TextWriter
+     */
+    public void writeText(TextWriter text) throws IOException {
+        Validate.notNull(text);
+        Element root = document();
+        treeBuilder.nodeListener(new NodeVisitor() {
+            @Override public void head(Node node, int depth) {
+                text.head(node, depth);
+                pruneLeaf(node.previousSibling());
+            }
+
+            @Override public void tail(Node node, int depth) {
+                text.tail(node, depth);
+                if (!(node instanceof Element) || node == root) return;
+                pruneLeaf(((Element) node).lastChild()); // the last child had no next sibling insert to prune it
+                if (node.parent() != null) node.remove();
+            }
+
+            private void pruneLeaf(@Nullable Node node) {
+                if (node instanceof LeafNode && node.parent() != null) node.remove();
+            }
+        });
+        try {
+            while (!stopped && treeBuilder.stepParser()) {
+                // text is written from the node listener
+            }
+        } catch (UncheckedIOException e) {
+            // Reader or text writer threw an IO exception
+            throw e.getCause();
+        } finally {
+            treeBuilder.nodeListener(it);
+        }
+        text.flush();
+        if (!stopped) {
+            stop();
+            close();
+        }
+    }
+
     final class ElementIterator implements Iterator<Element>, NodeVisitor {
         // listeners add to a next emit queue, as a single token read step may yield multiple elements
         final private Queue<Element> emitQueue = new LinkedList<>();
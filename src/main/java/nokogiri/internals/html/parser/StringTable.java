@@ -0,0 +1,145 @@
+package nokogiri.internals.html.parser;
+
+import java.util.Arrays;
+
+import nokogiri.internals.html.helper.Validate;
+
+/**
+ A bounded table used to deduplicate the attribute names and values created during a parse, so that a value that is
+ repeated across a document (like a common class name, or a {@code rel}, {@code type} or {@code target} value) is held
+ as one shared String, rather than one copy per attribute.
+ <p>The table is direct mapped: each String hashes to one slot, and a String that finds its slot holding a different
+ value replaces it, on the basis that the most recently used values are the most likely to recur next. So the table
+ never grows beyond its capacity, and a lookup is a hash and at most one equality test. Strings longer than the
+ table's maximum length are not interned.</p>
+ <p>Enable per-parse tables with {@link Parser#setDedupeStrings(boolean)}, or share one table across parses (and
+ threads) with {@link Parser#setStringTable(StringTable)}; {@link #shared()} is a process-wide instance. The table
+ counts its lookups and hits, to report how effective it is on a given corpus. The counts are not synchronized, so
+ they are approximate if the table is used by concurrent parses.</p>
+ */
+public final class StringTable {
+    /** The default number of slots. */
+    public static final int DefaultCapacity = 1024;
+    /** The default maximum length of a String to intern. */
+    public static final int DefaultMaxLength = 64;
+
+    // Estimated footprint of a String beyond its chars: the String object (24 bytes), and its byte array header (16
+    // bytes), with compressed oops on a 64-bit JVM.
+    private static final int StringOverhead = 24 + 16;
+
+    private static final StringTable Shared = new StringTable(DefaultCapacity * 4, DefaultMaxLength);
+
+    private final String[] table;
+    private final int maxLength;
+    private long lookups;
+    private long hits;
+    private long bytesSaved;
+
+    /** Create a new table, with the default capacity and maximum length. */
+    public StringTable() {
+        this(DefaultCapacity, DefaultMaxLength);
+    }
+
+    /**
+     Create a new table.
+     @param capacity the number of slots; rounded up to a power of two
+     @param maxLength the maximum length of a String to intern; longer Strings are passed through
+     */
+    public StringTable(int capacity, int maxLength) {
+        Validate.isTrue(capacity > 0 && capacity <= 1 << 24, "Capacity must be between 1 and 2^24");
+        Validate.isTrue(maxLength > 0, "Max length must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        table = new String[size];
+        this.maxLength = maxLength;
+    }
+
+    /**
+     Get the process-wide table, which may be shared by parsers across threads.
+     @return the shared table
+     */
+    public static StringTable shared() {
+        return Shared;
+    }
+
+    /**
+     Get the canonical copy of the string from this table, adding it if it is not already present.
+     @param string the string to intern
+     @return an equal string, which will be the same instance as previous equal strings while it is retained in the
+     table; or the input string if it was not present or is too long to intern
+     */
+    public String intern(String string) {
+        final int len = string.length();
+        if (len == 0 || len > maxLength) return string;
+
+        lookups++;
+        final int hash = string.hashCode();
+        final int index = (hash ^ (hash >>> 16)) & (table.length - 1);
+        final String cached = table[index]; // a racy read is safe: Strings are immutable, and a miss just replaces
+        if (cached != null && cached.hashCode() == hash && cached.equals(string)) {
+            if (cached != string) {
+                hits++;
+                bytesSaved += StringOverhead + len * (isLatin1(string) ? 1 : 2);
+            }
+            return cached;
+        }
+        table[index] = string; // add or replace
+        return string;
+    }
+
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) return false;
+        }
+        return true;
+    }
+
+    /** The number of slots in this table. */
+    public int capacity() {
+        return table.length;
+    }
+
+    /** The maximum length of a String that this table will intern. */
+    public int maxLength() {
+        return maxLength;
+    }
+
+    /** The number of strings looked up (excluding those too long to intern). */
+    public long lookups() {
+        return lookups;
+    }
+
+    /** The number of lookups that were deduplicated to a previously seen instance. */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     The proportion of lookups that were deduplicated.
+     @return the ratio of hits to lookups, between 0 and 1
+     */
+    public double dedupRatio() {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     An estimate of the heap saved by deduplication: the size of each duplicate String that was replaced by its
+     canonical instance, assuming compact strings and compressed oops on a 64-bit JVM.
+     @return estimated bytes saved
+     */
+    public long bytesSaved() {
+        return bytesSaved;
+    }
+
+    /** Clear the table's contents and its counts. */
+    public void clear() {
+        Arrays.fill(table, null);
+        lookups = hits = bytesSaved = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StringTable[capacity=%d, lookups=%d, hits=%d, ratio=%.3f, bytesSaved=%d]",
+            table.length, lookups, hits, dedupRatio(), bytesSaved);
+    }
+}
@@ -159,6 +159,11 @@ abstract class Token {
                         value = "";
                     else
                         value = null;
+                    final StringTable strings = treeBuilder.strings;
+                    if (strings != null) {
+                        name = strings.intern(name);
+                        if (value != null) value = strings.intern(value);
+                    }
                     // note that we add, not put. So that the first is kept, and rest are deduped, once in a context where case sensitivity is known, and we can warn for duplicates.
                     attributes.add(name, value);
 
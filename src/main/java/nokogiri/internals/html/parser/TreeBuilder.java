@@ -8,6 +8,7 @@ import org.jspecify.annotations.Nullable;
 
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.internal.SharedConstants;
+import nokogiri.internals.html.internal.TextSlice;
 import nokogiri.internals.html.nodes.Attributes;
 import nokogiri.internals.html.nodes.Document;
 import nokogiri.internals.html.nodes.Element;
@@ -37,6 +38,8 @@ abstract class TreeBuilder {
     abstract ParseSettings defaultSettings();
 
     boolean trackSourceRange;  // optionally tracks the source range of nodes and attributes
+    @Nullable String source;   // the input, if text nodes should slice it rather than copy; set by the Parser
+    @Nullable StringTable strings; // interns attribute names and values, if enabled
 
     void initialiseParse(Reader input, String baseUri, Parser parser) {
         Validate.notNullParam(input, "input");
@@ -49,6 +52,7 @@ abstract class TreeBuilder {
         settings = parser.settings();
         reader = new CharacterReader(input);
         trackSourceRange = parser.isTrackPosition();
+        strings = parser.stringTableForParse();
         reader.trackNewlines(parser.isTrackErrors() || trackSourceRange); // when tracking errors or source ranges, enable newline tracking for better legibility
         if (parser.isTrackErrors()) parser.getErrors().clear();
         tokeniser = new Tokeniser(this);
@@ -152,6 +156,22 @@ abstract class TreeBuilder {
         return process(end.reset().name(name));
     }
 
+    /**
+     If the parser may yet move nodes that it has already inserted (and reported to the node listener), so that their
+     ancestors change. The HTML tree builder may, in the adoption agency algorithm; the XML tree builder never does.
+     */
+    boolean mayMoveNodes() {
+        return false;
+    }
+
+    /**
+     The open element whose content the parser may yet move, if any. Nodes that are not within it are settled, even
+     while {@link #mayMoveNodes()}.
+     */
+    @Nullable Element movableBlock() {
+        return null;
+    }
+
     /**
      Removes the last Element from the stack, hits onNodeClosed, and then returns it.
      * @return
@@ -248,6 +268,20 @@ abstract class TreeBuilder {
         return TagSet.Html();
     }
 
+    /**
+     If text slicing is enabled, gets the character token's data as a slice of the source. Only data that is an
+     unmodified copy of the token's source range is sliced; and short data is left as its (likely cached) String.
+     @return the slice, or null if the data should be held as a String
+     */
+    @Nullable TextSlice slice(Token.Character token, String data) {
+        if (source == null) return null;
+        int start = token.startPos(), end = token.endPos(), len = data.length();
+        if (len <= CharacterReader.MaxStringCacheLen || start < 0 || end - start != len
+            || end > source.length() || !source.regionMatches(start, data, 0, len))
+            return null;
+        return new TextSlice(source, start, end);
+    }
+
     /**
      Called by implementing TreeBuilders when a node has been inserted. This implementation includes optionally tracking
      the source range of the node.  @param node the node that was just inserted
@@ -11,6 +11,7 @@ import org.jspecify.annotations.Nullable;
 
 import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.internal.SharedConstants;
+import nokogiri.internals.html.internal.TextSlice;
 import nokogiri.internals.html.nodes.Attribute;
 import nokogiri.internals.html.nodes.Attributes;
 import nokogiri.internals.html.nodes.CDataNode;
@@ -222,10 +223,11 @@ public class XmlTreeBuilder extends TreeBuilder {
 
     void insertCharacterFor(Token.Character token) {
         final String data = token.getData();
+        final TextSlice slice = slice(token, data);
         LeafNode node;
-        if      (token.isCData())                       node = new CDataNode(data);
-        else if (currentElement().tag().is(Tag.Data))   node = new DataNode(data);
-        else                                            node = new TextNode(data);
+        if      (token.isCData())                       node = slice != null ? new CDataNode(slice) : new CDataNode(data);
+        else if (currentElement().tag().is(Tag.Data))   node = slice != null ? new DataNode(slice) : new DataNode(data);
+        else                                            node = slice != null ? new TextNode(slice) : new TextNode(data);
         insertLeafNode(node);
     }
 
@@ -1,9 +1,11 @@
 package nokogiri.internals.html.select;
 
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import org.jspecify.annotations.Nullable;
 
+import nokogiri.internals.html.helper.Validate;
 import nokogiri.internals.html.nodes.Element;
 import nokogiri.internals.html.nodes.LeafNode;
 import nokogiri.internals.html.nodes.Node;
@@ -33,6 +35,36 @@ public class Collector {
         return stream.collect(toCollection(Elements::new));
     }
 
+    /**
+     Build a list of elements, by testing the root and every descendant of root against the Evaluator in parallel. The
+     tree is split by subtree across the pool's workers; the results are in document order, the same as
+     {@link #collect(Evaluator, Element)}.
+     <p>The root must be {@link nokogiri.internals.html.nodes.Document#seal() sealed}. An unsealed tree computes some
+     state lazily on read (such as its sibling indexes, and an element's empty attributes), which is not safe from
+     several threads at once.</p>
+     <p>Once the query completes, the memos that the pool's workers made for it are released, so that they don't retain
+     the document. Memos of other queries running with the same evaluator are not affected.</p>
+     @param eval Evaluator to test elements against
+     @param root root of tree to descend; must be sealed
+     @param pool the pool to run the query in
+     @return list of matches; empty if none
+     @throws IllegalArgumentException if the root is not sealed
+     */
+    public static Elements collectParallel(Evaluator eval, Element root, ForkJoinPool pool) {
+        Validate.notNull(pool);
+        Validate.isTrue(root.isSealed(), "The root must be sealed (see Document#seal()) to be queried in parallel");
+        QueryLocal.Query query = new QueryLocal.Query();
+        Stream<Element> stream = eval.wantsNodes() ?
+                streamNodes(eval, root, Element.class, query) :
+                stream(eval, root, query);
+
+        try {
+            return pool.submit(() -> stream.parallel().collect(toCollection(Elements::new))).join();
+        } finally {
+            query.release(); // drops the memos of each worker thread, which otherwise hold the document and its text index
+        }
+    }
+
     /**
      Obtain a Stream of elements by visiting the root and every descendant of root and testing it against the evaluator.
 
@@ -42,8 +74,12 @@ public class Collector {
      @since 1.19.1
      */
     public static Stream<Element> stream(Evaluator evaluator, Element root) {
+        return stream(evaluator, root, new QueryLocal.Query());
+    }
+
+    private static Stream<Element> stream(Evaluator evaluator, Element root, QueryLocal.Query query) {
         evaluator.reset();
-        return root.stream().filter(evaluator.asPredicate(root));
+        return root.stream().filter(query.wrap(evaluator.asPredicate(root)));
     }
 
     /**
@@ -58,8 +94,13 @@ public class Collector {
      @since 1.21.1
      */
     public static <T extends Node> Stream<T> streamNodes(Evaluator evaluator, Element root, Class<T> type) {
+        return streamNodes(evaluator, root, type, new QueryLocal.Query());
+    }
+
+    private static <T extends Node> Stream<T> streamNodes(Evaluator evaluator, Element root, Class<T> type,
+                                                          QueryLocal.Query query) {
         evaluator.reset();
-        return root.nodeStream(type).filter(evaluator.asNodePredicate(root));
+        return root.nodeStream(type).filter(query.wrap(evaluator.asNodePredicate(root)));
     }
 
     /**
@@ -0,0 +1,269 @@
+package nokogiri.internals.html.select;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.nodes.Document;
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.LeafNode;
+
+import static nokogiri.internals.html.internal.Normalizer.lowerCase;
+
+/**
+ An Evaluator that has been compiled from a parsed evaluator tree into a flat instruction array. The And and Or
+ combinators become short-circuit jumps, and the common simple evaluators (tag, id, class and attribute tests) become
+ opcodes that are executed inline by a single switch loop. So matching an element is one monomorphic call, rather than
+ a virtual call per evaluator in the tree. Any other evaluator is called as-is; structural evaluators get their inner
+ evaluators compiled.
+ <p>Obtain via {@link Selector#compile(String)}. The compiled evaluator matches exactly as its source evaluator
+ does.</p>
+ */
+final class CompiledEvaluator extends Evaluator {
+    // opcodes; each instruction is an opcode and an operand
+    static final int OpTrue = 0;            // result = true
+    static final int OpFalse = 1;           // result = false
+    static final int OpTag = 2;             // strings[arg]: tag name
+    static final int OpId = 3;              // strings[arg]: id
+    static final int OpClass = 4;           // strings[arg]: class name
+    static final int OpAttr = 5;            // strings[arg]: attribute key
+    static final int OpAttrEquals = 6;      // strings[arg], strings[arg + 1]: key, lower-case value
+    static final int OpAttrNotEquals = 7;
+    static final int OpAttrStarting = 8;
+    static final int OpAttrEnding = 9;
+    static final int OpAttrContaining = 10;
+    static final int OpRoot = 11;           // the element is the query root
+    static final int OpIsRoot = 12;         // the element is the document root (:root)
+    static final int OpCall = 13;           // evaluators[arg]
+    static final int OpJumpIfFalse = 14;    // jump to instruction arg if the result is false
+    static final int OpJumpIfTrue = 15;     // jump to instruction arg if the result is true
+
+    private final Evaluator source;
+    private final int[] code;
+    private final String[] strings;
+    private final Evaluator[] calls;
+
+    private CompiledEvaluator(Evaluator source, Compiler compiler) {
+        this.source = source;
+        this.code = compiler.code();
+        this.strings = compiler.strings.toArray(new String[0]);
+        this.calls = compiler.calls.toArray(new Evaluator[0]);
+    }
+
+    /**
+     Compile the evaluator. Evaluators that match leaf nodes (and not just elements) are returned as-is.
+     @param evaluator the evaluator to compile
+     @return a compiled evaluator, or the input if it is already compiled or can not be compiled
+     */
+    static Evaluator compile(Evaluator evaluator) {
+        Validate.notNull(evaluator);
+        if (evaluator instanceof CompiledEvaluator || evaluator.wantsNodes())
+            return evaluator;
+        Compiler compiler = new Compiler();
+        compiler.emit(evaluator);
+        return new CompiledEvaluator(evaluator, compiler);
+    }
+
+    /** The evaluator that this was compiled from. */
+    Evaluator source() {
+        return source;
+    }
+
+    @Override
+    public boolean matches(Element root, Element el) {
+        final int[] code = this.code;
+        final String[] strings = this.strings;
+        final int len = code.length;
+        boolean result = true;
+        int pc = 0;
+        while (pc < len) {
+            final int op = code[pc];
+            final int arg = code[pc + 1];
+            pc += 2;
+            switch (op) {
+                case OpTrue:
+                    result = true;
+                    break;
+                case OpFalse:
+                    result = false;
+                    break;
+                case OpTag:
+                    result = el.nameIs(strings[arg]);
+                    break;
+                case OpId:
+                    result = strings[arg].equals(el.id());
+                    break;
+                case OpClass:
+                    result = el.hasClass(strings[arg]);
+                    break;
+                case OpAttr:
+                    result = el.hasAttr(strings[arg]);
+                    break;
+                case OpAttrEquals:
+                    result = el.hasAttr(strings[arg]) && strings[arg + 1].equalsIgnoreCase(el.attr(strings[arg]));
+                    break;
+                case OpAttrNotEquals:
+                    result = !strings[arg + 1].equalsIgnoreCase(el.attr(strings[arg]));
+                    break;
+                case OpAttrStarting:
+                    result = el.hasAttr(strings[arg]) && lowerCase(el.attr(strings[arg])).startsWith(strings[arg + 1]);
+                    break;
+                case OpAttrEnding:
+                    result = el.hasAttr(strings[arg]) && lowerCase(el.attr(strings[arg])).endsWith(strings[arg + 1]);
+                    break;
+                case OpAttrContaining:
+                    result = el.hasAttr(strings[arg]) && lowerCase(el.attr(strings[arg])).contains(strings[arg + 1]);
+                    break;
+                case OpRoot:
+                    result = el == root;
+                    break;
+                case OpIsRoot:
+                    result = el == (root instanceof Document ? root.firstElementChild() : root);
+                    break;
+                case OpCall:
+                    result = calls[arg].matches(root, el);
+                    break;
+                case OpJumpIfFalse:
+                    if (!result) pc = arg;
+                    break;
+                case OpJumpIfTrue:
+                    if (result) pc = arg;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + op);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    boolean matches(Element root, LeafNode leafNode) {
+        return false; // only evaluators that don't want nodes are compiled
+    }
+
+    @Override protected void reset() {
+        for (Evaluator call : calls) {
+            call.reset();
+        }
+        super.reset();
+    }
+
+    @Override protected int cost() {
+        return source.cost();
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+    /**
+     Emits the instructions for an evaluator tree. Combinators are emitted in the same cost-sorted order that they
+     would be interpreted in, so that evaluation order (and so any memoized state) is unchanged.
+     */
+    private static final class Compiler {
+        int[] code = new int[16];
+        int pc = 0;
+        final List<String> strings = new ArrayList<>();
+        final List<Evaluator> calls = new ArrayList<>();
+
+        void emit(Evaluator eval) {
+            if (eval instanceof CombiningEvaluator.And) {
+                List<Evaluator> evals = ((CombiningEvaluator) eval).sortedEvaluators;
+                if (evals.isEmpty()) {
+                    op(OpTrue, 0);
+                    return;
+                }
+                emitRun(evals, OpJumpIfFalse);
+            } else if (eval instanceof CombiningEvaluator.Or) {
+                List<Evaluator> evals = ((CombiningEvaluator) eval).sortedEvaluators;
+                if (evals.isEmpty()) {
+                    op(OpFalse, 0);
+                    return;
+                }
+                emitRun(evals, OpJumpIfTrue);
+            } else if (eval instanceof Evaluator.Tag) {
+                op(OpTag, string(((Evaluator.Tag) eval).tagName));
+            } else if (eval instanceof Evaluator.Id) {
+                op(OpId, string(((Evaluator.Id) eval).id));
+            } else if (eval instanceof Evaluator.Class) {
+                op(OpClass, string(((Evaluator.Class) eval).className));
+            } else if (eval instanceof Evaluator.Attribute) {
+                op(OpAttr, string(((Evaluator.Attribute) eval).key));
+            } else if (eval instanceof Evaluator.AttributeWithValue) {
+                keyPair(OpAttrEquals, (Evaluator.AttributeKeyPair) eval);
+            } else if (eval instanceof Evaluator.AttributeWithValueNot) {
+                keyPair(OpAttrNotEquals, (Evaluator.AttributeKeyPair) eval);
+            } else if (eval instanceof Evaluator.AttributeWithValueStarting) {
+                keyPair(OpAttrStarting, (Evaluator.AttributeKeyPair) eval);
+            } else if (eval instanceof Evaluator.AttributeWithValueEnding) {
+                keyPair(OpAttrEnding, (Evaluator.AttributeKeyPair) eval);
+            } else if (eval instanceof Evaluator.AttributeWithValueContaining) {
+                keyPair(OpAttrContaining, (Evaluator.AttributeKeyPair) eval);
+            } else if (eval instanceof Evaluator.AllElements) {
+                op(OpTrue, 0);
+            } else if (eval instanceof StructuralEvaluator.Root) {
+                op(OpRoot, 0);
+            } else if (eval instanceof Evaluator.IsRoot) {
+                op(OpIsRoot, 0);
+            } else {
+                calls.add(compileInner(eval));
+                op(OpCall, calls.size() - 1);
+            }
+        }
+
+        /** A run of evaluators, where each short-circuits to the end of the run via the jump. */
+        private void emitRun(List<Evaluator> evals, int jump) {
+            int[] jumps = new int[evals.size() - 1];
+            for (int i = 0; i < evals.size(); i++) {
+                emit(evals.get(i));
+                if (i < jumps.length) {
+                    jumps[i] = pc;
+                    op(jump, -1); // target patched below
+                }
+            }
+            for (int at : jumps) code[at + 1] = pc;
+        }
+
+        /** Structural evaluators are rebuilt with their inner evaluators compiled. */
+        private static Evaluator compileInner(Evaluator eval) {
+            return StructuralEvaluator.mapInner(eval, CompiledEvaluator::compile);
+        }
+
+        private void keyPair(int opcode, Evaluator.AttributeKeyPair pair) {
+            int arg = string(pair.key);
+            string(pair.value);
+            op(opcode, arg);
+        }
+
+        private int string(String s) {
+            strings.add(s);
+            return strings.size() - 1;
+        }
+
+        private void op(int opcode, int arg) {
+            if (pc + 2 > code.length) code = Arrays.copyOf(code, code.length * 2);
+            code[pc++] = opcode;
+            code[pc++] = arg;
+        }
+
+        /** The final code, with jumps that land on another jump threaded through to their final target. */
+        int[] code() {
+            int[] out = Arrays.copyOf(code, pc);
+            for (int i = 0; i < pc; i += 2) {
+                int op = out[i];
+                if (op != OpJumpIfFalse && op != OpJumpIfTrue) continue;
+                int target = out[i + 1];
+                while (target < pc) {
+                    int next = out[target];
+                    if (next == op) target = out[target + 1];      // same condition: it will jump too
+                    else if (next == OpJumpIfFalse || next == OpJumpIfTrue) target += 2; // opposite: it won't jump
+                    else break;
+                }
+                out[i + 1] = target;
+            }
+            return out;
+        }
+    }
+}
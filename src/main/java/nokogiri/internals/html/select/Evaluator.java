@@ -46,6 +46,12 @@ public abstract class Evaluator {
 
     /**
      * Test if the element meets the evaluator's requirements.
+     * <p>Some evaluators memoize what they compute for a query. The text of each element for {@code :contains} and
+     * {@code :matches} is only memoized within a select (by the {@link Collector}), so a direct call to this method
+     * reads the current text. The structural matches of {@code :has} and the combinators are also memoized for direct
+     * calls, and reset at the start of each select on the calling thread; so after modifying the tree, run a select
+     * with this evaluator before testing elements directly, or use a new evaluator (e.g. from
+     * {@link Selector#evaluatorOf(String)}); otherwise a structural result may reflect the tree as it was.</p>
      *
      * @param root    Root of the matching subtree
      * @param element tested element
@@ -89,7 +95,7 @@ public abstract class Evaluator {
      * Evaluator for tag name
      */
     public static final class Tag extends Evaluator {
-        private final String tagName;
+        final String tagName;
 
         public Tag(String tagName) {
             this.tagName = tagName;
@@ -157,7 +163,7 @@ public abstract class Evaluator {
      * Evaluator for element id
      */
     public static final class Id extends Evaluator {
-        private final String id;
+        final String id;
 
         public Id(String id) {
             this.id = id;
@@ -181,7 +187,7 @@ public abstract class Evaluator {
      * Evaluator for element class
      */
     public static final class Class extends Evaluator {
-        private final String className;
+        final String className;
 
         public Class(String className) {
             this.className = className;
@@ -207,7 +213,7 @@ public abstract class Evaluator {
      * Evaluator for attribute name matching
      */
     public static final class Attribute extends Evaluator {
-        private final String key;
+        final String key;
 
         public Attribute(String key) {
             this.key = key;
@@ -808,6 +814,7 @@ public abstract class Evaluator {
      */
     public static final class ContainsText extends Evaluator {
         private final String searchText;
+        private final TextMemo memo = new TextMemo();
 
         public ContainsText(String searchText) {
             this.searchText = lowerCase(normaliseWhitespace(searchText));
@@ -815,7 +822,12 @@ public abstract class Evaluator {
 
         @Override
         public boolean matches(Element root, Element element) {
-            return lowerCase(element.text()).contains(searchText);
+            return memo.containsText(root, element, searchText);
+        }
+
+        @Override protected void reset() {
+            memo.reset();
+            super.reset();
         }
 
         @Override protected int cost() {
@@ -835,6 +847,7 @@ public abstract class Evaluator {
      */
     public static final class ContainsWholeText extends Evaluator {
         private final String searchText;
+        private final TextMemo memo = new TextMemo();
 
         public ContainsWholeText(String searchText) {
             this.searchText = searchText;
@@ -842,7 +855,12 @@ public abstract class Evaluator {
 
         @Override
         public boolean matches(Element root, Element element) {
-            return element.wholeText().contains(searchText);
+            return memo.containsWholeText(root, element, searchText);
+        }
+
+        @Override protected void reset() {
+            memo.reset();
+            super.reset();
         }
 
         @Override protected int cost() {
@@ -925,6 +943,7 @@ public abstract class Evaluator {
      */
     public static final class Matches extends Evaluator {
         private final Pattern pattern;
+        private final TextMemo memo = new TextMemo();
 
         public Matches(Pattern pattern) {
             this.pattern = pattern;
@@ -932,8 +951,12 @@ public abstract class Evaluator {
 
         @Override
         public boolean matches(Element root, Element element) {
-            Matcher m = pattern.matcher(element.text());
-            return m.find();
+            return memo.findText(root, element, pattern);
+        }
+
+        @Override protected void reset() {
+            memo.reset();
+            super.reset();
         }
 
         @Override protected int cost() {
@@ -978,6 +1001,7 @@ public abstract class Evaluator {
      */
     public static final class MatchesWholeText extends Evaluator {
         private final Pattern pattern;
+        private final TextMemo memo = new TextMemo();
 
         public MatchesWholeText(Pattern pattern) {
             this.pattern = pattern;
@@ -985,8 +1009,12 @@ public abstract class Evaluator {
 
         @Override
         public boolean matches(Element root, Element element) {
-            Matcher m = pattern.matcher(element.wholeText());
-            return m.find();
+            return memo.findWholeText(root, element, pattern);
+        }
+
+        @Override protected void reset() {
+            memo.reset();
+            super.reset();
         }
 
         @Override protected int cost() {
@@ -0,0 +1,353 @@
+package nokogiri.internals.html.select;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.FrozenDocument;
+import nokogiri.internals.html.nodes.FrozenNode;
+import nokogiri.internals.html.nodes.Node;
+
+import static nokogiri.internals.html.internal.Normalizer.lowerCase;
+
+/**
+ Runs CSS selectors over a {@link FrozenDocument}.
+ <p>Selectors made of tag, id, class and attribute selectors, the descendant ({@code a b}) and child ({@code a > b})
+ combinators, {@code *}, {@code :root}, the index and position selectors ({@code :lt}, {@code :gt}, {@code :eq},
+ {@code :nth-child} and its variants, {@code :first-child}, {@code :last-child}, {@code :only-child} and
+ {@code :only-of-type}), and {@code :is()} / {@code :not()} and groups of those, are matched directly against the
+ frozen arrays, with the same semantics as their evaluators have on a regular tree. Any other selector is run by
+ thawing the query root's subtree, selecting on that, and mapping the results back to frozen nodes.</p>
+ <p>A thawed subtree has no parent or siblings, so that is only done for selectors that look no further than the query
+ root's subtree (like {@code :contains}, or {@code :has(b)}). A selector that mixes those with a position or sibling
+ selector (like {@code p:nth-child(2):contains(x)}, or {@code :has(+ p)}), and custom evaluators, instead thaw the
+ whole document each time they are run, so that the query root has its context. That costs a full copy of the
+ document per query; use {@link #canMatch(Evaluator)} to check that a selector will be matched on the frozen arrays,
+ or use {@link FrozenNode#selectXpath(String)}, which runs without thawing.</p>
+ */
+public final class FrozenSelector {
+    private FrozenSelector() {}
+
+    /**
+     Find the elements within the root (including the root itself) that match the CSS query.
+     @param query CSS selector
+     @param root the root node to descend into
+     @return the matching elements, in document order
+     */
+    public static List<FrozenNode> select(String query, FrozenNode root) {
+        Validate.notEmpty(query);
+        return select(QueryParser.parse(query), root);
+    }
+
+    /**
+     Find the elements within the root (including the root itself) that match the evaluator.
+     @param evaluator the query evaluator
+     @param root the root node to descend into
+     @return the matching elements, in document order
+     */
+    public static List<FrozenNode> select(Evaluator evaluator, FrozenNode root) {
+        Validate.notNull(evaluator);
+        Validate.notNull(root);
+        List<FrozenNode> results = new ArrayList<>();
+        collect(evaluator, root, results, false);
+        return results;
+    }
+
+    /**
+     Find the first element within the root (including the root itself) that matches the CSS query.
+     @param query CSS selector
+     @param root the root node to descend into
+     @return the first match, or null if there is none
+     */
+    public static @Nullable FrozenNode selectFirst(String query, FrozenNode root) {
+        Validate.notEmpty(query);
+        List<FrozenNode> results = new ArrayList<>(1);
+        collect(QueryParser.parse(query), root, results, true);
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     Test if the evaluator can be matched directly against the frozen arrays; if not, queries using it will thaw.
+     @param evaluator the evaluator to test
+     @return true if the evaluator is matched natively
+     */
+    public static boolean canMatch(Evaluator evaluator) {
+        if (evaluator instanceof CompiledEvaluator)
+            return canMatch(((CompiledEvaluator) evaluator).source());
+        if (evaluator instanceof CombiningEvaluator) {
+            for (Evaluator eval : ((CombiningEvaluator) evaluator).evaluators) {
+                if (!canMatch(eval)) return false;
+            }
+            return true;
+        }
+        if (evaluator instanceof StructuralEvaluator.ImmediateParentRun) {
+            for (Evaluator eval : ((StructuralEvaluator.ImmediateParentRun) evaluator).evaluators) {
+                if (!canMatch(eval)) return false;
+            }
+            return true;
+        }
+        if (evaluator instanceof StructuralEvaluator.Ancestor
+            || evaluator instanceof StructuralEvaluator.Is
+            || evaluator instanceof StructuralEvaluator.Not)
+            return canMatch(((StructuralEvaluator) evaluator).evaluator);
+
+        return evaluator instanceof Evaluator.Tag
+            || evaluator instanceof Evaluator.Id
+            || evaluator instanceof Evaluator.Class
+            || evaluator instanceof Evaluator.Attribute
+            || evaluator instanceof Evaluator.AttributeKeyPair
+            || evaluator instanceof Evaluator.AttributeWithValueMatching
+            || evaluator instanceof Evaluator.AllElements
+            || evaluator instanceof Evaluator.IsRoot
+            || evaluator instanceof StructuralEvaluator.Root
+            || evaluator instanceof Evaluator.IsFirstChild
+            || evaluator instanceof Evaluator.IsLastChild
+            || evaluator instanceof Evaluator.IsOnlyChild
+            || evaluator instanceof Evaluator.IsOnlyOfType
+            || ((evaluator instanceof Evaluator.IndexEvaluator || evaluator instanceof Evaluator.CssNthEvaluator)
+                && evaluator.getClass().getEnclosingClass() == Evaluator.class); // not a custom subclass
+    }
+
+    private static void collect(Evaluator evaluator, FrozenNode root, List<FrozenNode> results, boolean first) {
+        FrozenDocument doc = root.document();
+        int r = root.index();
+        if (!doc.isElement(r)) return;
+
+        if (canMatch(evaluator)) {
+            for (int n = r, end = doc.end(r); n < end; n++) {
+                if (doc.isElement(n) && matches(evaluator, doc, r, n)) {
+                    results.add(doc.node(n));
+                    if (first) return;
+                }
+            }
+        } else {
+            thawAndCollect(evaluator, doc, r, results, first);
+        }
+    }
+
+    /**
+     Runs the query on a thawed copy of the root, then maps the matches back by their position in document order. If the
+     evaluator may look outside the root's subtree, the whole document is thawed, so that the root has its context.
+     */
+    private static void thawAndCollect(Evaluator evaluator, FrozenDocument doc, int r, List<FrozenNode> results,
+                                       boolean first) {
+        Element thawed = (Element) (r == 0 || isolated(evaluator) ? doc.thaw(r) : nodeAt(doc.thaw(0), r));
+        Set<Node> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (first) {
+            Element el = Collector.findFirst(evaluator, thawed);
+            if (el != null) found.add(el);
+        } else {
+            found.addAll(Collector.collect(evaluator, thawed));
+        }
+        if (found.isEmpty()) return;
+
+        int[] position = {r};
+        thawed.traverse((node, depth) -> {
+            if (found.contains(node)) results.add(doc.node(position[0]));
+            position[0]++;
+        });
+    }
+
+    /**
+     Test if the evaluator, when the query root is matched, looks no further than the root's subtree; so that the
+     subtree can be thawed alone. Position and sibling evaluators also read the root's parent and siblings, and custom
+     evaluators may read anything.
+     */
+    static boolean isolated(Evaluator evaluator) {
+        Evaluator eval = StructuralEvaluator.unwrap(evaluator);
+        if (eval instanceof CombiningEvaluator) {
+            for (Evaluator inner : ((CombiningEvaluator) eval).evaluators) {
+                if (!isolated(inner)) return false;
+            }
+            return true;
+        }
+        if (eval instanceof StructuralEvaluator.ImmediateParentRun) {
+            for (Evaluator inner : ((StructuralEvaluator.ImmediateParentRun) eval).evaluators) {
+                if (!isolated(inner)) return false;
+            }
+            return true;
+        }
+        if (eval instanceof StructuralEvaluator.Has && ((StructuralEvaluator.Has) eval).checkSiblings)
+            return false;
+        if (eval instanceof StructuralEvaluator)
+            return isolated(((StructuralEvaluator) eval).evaluator);
+        if (eval instanceof Evaluator.IndexEvaluator
+            || eval instanceof Evaluator.CssNthEvaluator
+            || eval instanceof Evaluator.IsFirstChild
+            || eval instanceof Evaluator.IsLastChild
+            || eval instanceof Evaluator.IsOnlyChild
+            || eval instanceof Evaluator.IsOnlyOfType)
+            return false;
+        return eval.getClass().getEnclosingClass() == Evaluator.class // the built in evaluators
+            || eval instanceof NodeEvaluator
+            || eval instanceof StructuralEvaluator.Root;
+    }
+
+    /** The node at the index (in document order) of a thawed document. */
+    private static Element nodeAt(Node thawed, int index) {
+        Node[] found = new Node[1];
+        int[] position = {0};
+        NodeTraversor.filter(new NodeFilter() {
+            @Override public FilterResult head(Node node, int depth) {
+                if (position[0]++ < index) return FilterResult.CONTINUE;
+                found[0] = node;
+                return FilterResult.STOP;
+            }
+        }, thawed);
+        if (found[0] == null) throw new IllegalStateException("No node at index " + index + " of the thawed document");
+        return (Element) found[0];
+    }
+
+    /** Match the evaluator against the element at index {@code el}, with the query root at index {@code root}. */
+    static boolean matches(Evaluator eval, FrozenDocument doc, int root, int el) {
+        if (eval instanceof CompiledEvaluator) {
+            return matches(((CompiledEvaluator) eval).source(), doc, root, el);
+        } else if (eval instanceof CombiningEvaluator.And) {
+            for (Evaluator inner : ((CombiningEvaluator) eval).sortedEvaluators) {
+                if (!matches(inner, doc, root, el)) return false;
+            }
+            return true;
+        } else if (eval instanceof CombiningEvaluator.Or) {
+            for (Evaluator inner : ((CombiningEvaluator) eval).sortedEvaluators) {
+                if (matches(inner, doc, root, el)) return true;
+            }
+            return false;
+        } else if (eval instanceof Evaluator.Tag) {
+            return doc.nameIs(el, ((Evaluator.Tag) eval).tagName);
+        } else if (eval instanceof Evaluator.Id) {
+            return ((Evaluator.Id) eval).id.equals(doc.id(el));
+        } else if (eval instanceof Evaluator.Class) {
+            return doc.hasClass(el, ((Evaluator.Class) eval).className);
+        } else if (eval instanceof Evaluator.Attribute) {
+            return doc.hasAttr(el, ((Evaluator.Attribute) eval).key);
+        } else if (eval instanceof Evaluator.AttributeWithValueNot) {
+            Evaluator.AttributeKeyPair pair = (Evaluator.AttributeKeyPair) eval;
+            return !pair.value.equalsIgnoreCase(doc.attr(el, pair.key));
+        } else if (eval instanceof Evaluator.AttributeKeyPair) {
+            Evaluator.AttributeKeyPair pair = (Evaluator.AttributeKeyPair) eval;
+            if (!doc.hasAttr(el, pair.key)) return false;
+            String value = doc.attr(el, pair.key);
+            if (eval instanceof Evaluator.AttributeWithValue) return pair.value.equalsIgnoreCase(value);
+            if (eval instanceof Evaluator.AttributeWithValueStarting) return lowerCase(value).startsWith(pair.value);
+            if (eval instanceof Evaluator.AttributeWithValueEnding) return lowerCase(value).endsWith(pair.value);
+            return lowerCase(value).contains(pair.value); // AttributeWithValueContaining
+        } else if (eval instanceof Evaluator.AttributeWithValueMatching) {
+            Evaluator.AttributeWithValueMatching m = (Evaluator.AttributeWithValueMatching) eval;
+            return doc.hasAttr(el, m.key) && m.pattern.matcher(doc.attr(el, m.key)).find();
+        } else if (eval instanceof Evaluator.AllElements) {
+            return true;
+        } else if (eval instanceof StructuralEvaluator.Root) {
+            return el == root;
+        } else if (eval instanceof Evaluator.IsRoot) {
+            return el == (doc.parent(root) == -1 ? firstElementChild(doc, root) : root);
+        } else if (eval instanceof Evaluator.IndexEvaluator) {
+            int index = ((Evaluator.IndexEvaluator) eval).index;
+            int pos = elementSiblingIndex(doc, el);
+            if (eval instanceof Evaluator.IndexLessThan) return el != root && pos < index;
+            if (eval instanceof Evaluator.IndexGreaterThan) return pos > index;
+            return pos == index; // IndexEquals
+        } else if (eval instanceof Evaluator.CssNthEvaluator) {
+            Evaluator.CssNthEvaluator nth = (Evaluator.CssNthEvaluator) eval;
+            if (!hasParentElement(doc, el)) return false;
+            int pos = nthPosition(nth, doc, el);
+            if (nth.a == 0) return pos == nth.b;
+            return (pos - nth.b) * nth.a >= 0 && (pos - nth.b) % nth.a == 0;
+        } else if (eval instanceof Evaluator.IsFirstChild) {
+            return hasParentElement(doc, el) && firstElementChild(doc, doc.parent(el)) == el;
+        } else if (eval instanceof Evaluator.IsLastChild) {
+            return hasParentElement(doc, el) && nextElementSibling(doc, el) == -1;
+        } else if (eval instanceof Evaluator.IsOnlyChild) {
+            return hasParentElement(doc, el) && firstElementChild(doc, doc.parent(el)) == el
+                && nextElementSibling(doc, el) == -1;
+        } else if (eval instanceof Evaluator.IsOnlyOfType) {
+            if (!hasParentElement(doc, el)) return false;
+            int count = 0;
+            for (int c = firstElementChild(doc, doc.parent(el)); c != -1 && count < 2; c = nextElementSibling(doc, c)) {
+                if (sameName(doc, c, el)) count++;
+            }
+            return count == 1;
+        } else if (eval instanceof StructuralEvaluator.Is) {
+            return matches(((StructuralEvaluator) eval).evaluator, doc, root, el);
+        } else if (eval instanceof StructuralEvaluator.Not) {
+            return !matches(((StructuralEvaluator) eval).evaluator, doc, root, el);
+        } else if (eval instanceof StructuralEvaluator.Ancestor) {
+            if (el == root) return false;
+            Evaluator inner = ((StructuralEvaluator) eval).evaluator;
+            for (int p = doc.parent(el); p != -1; p = doc.parent(p)) {
+                if (matches(inner, doc, root, p)) return true;
+                if (p == root) break;
+            }
+            return false;
+        } else if (eval instanceof StructuralEvaluator.ImmediateParentRun) {
+            if (el == root) return false;
+            List<Evaluator> evaluators = ((StructuralEvaluator.ImmediateParentRun) eval).evaluators;
+            int node = el;
+            for (int i = evaluators.size() - 1; i >= 0; --i) {
+                if (node == -1) return false;
+                if (!matches(evaluators.get(i), doc, root, node)) return false;
+                node = doc.parent(node);
+            }
+            return true;
+        }
+        throw new IllegalStateException("Unsupported frozen evaluator " + eval.getClass().getSimpleName());
+    }
+
+    /** The 1-based position of the element that the nth evaluator tests; as its {@code calculatePosition}. */
+    private static int nthPosition(Evaluator.CssNthEvaluator nth, FrozenDocument doc, int el) {
+        int pos = 0;
+        if (nth instanceof Evaluator.IsNthChild) {
+            return elementSiblingIndex(doc, el) + 1;
+        } else if (nth instanceof Evaluator.IsNthLastChild) {
+            for (int c = el; c != -1; c = nextElementSibling(doc, c)) pos++;
+        } else if (nth instanceof Evaluator.IsNthOfType) {
+            for (int c = firstElementChild(doc, doc.parent(el)); c != el; c = nextElementSibling(doc, c)) {
+                if (sameName(doc, c, el)) pos++;
+            }
+            pos++; // el
+        } else { // IsNthLastOfType
+            for (int c = el; c != -1; c = nextElementSibling(doc, c)) {
+                if (sameName(doc, c, el)) pos++;
+            }
+        }
+        return pos;
+    }
+
+    /** Test if the element's parent is an element, and not the document (which is the only node without a parent). */
+    private static boolean hasParentElement(FrozenDocument doc, int el) {
+        int p = doc.parent(el);
+        return p != -1 && doc.parent(p) != -1;
+    }
+
+    /** The element's index amongst its parent's element children, as {@link Element#elementSiblingIndex()}. */
+    private static int elementSiblingIndex(FrozenDocument doc, int el) {
+        int p = doc.parent(el);
+        if (p == -1) return 0;
+        int pos = 0;
+        for (int c = firstElementChild(doc, p); c != el; c = nextElementSibling(doc, c)) pos++;
+        return pos;
+    }
+
+    private static boolean sameName(FrozenDocument doc, int a, int b) {
+        return doc.normalName(a).equals(doc.normalName(b));
+    }
+
+    private static int nextElementSibling(FrozenDocument doc, int index) {
+        for (int c = doc.nextSibling(index); c != -1; c = doc.nextSibling(c)) {
+            if (doc.isElement(c)) return c;
+        }
+        return -1;
+    }
+
+    private static int firstElementChild(FrozenDocument doc, int index) {
+        for (int c = doc.firstChild(index); c != -1; c = doc.nextSibling(c)) {
+            if (doc.isElement(c)) return c;
+        }
+        return -1;
+    }
+}
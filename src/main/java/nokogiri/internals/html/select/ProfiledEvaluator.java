@@ -0,0 +1,99 @@
+package nokogiri.internals.html.select;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.LeafNode;
+
+/**
+ Wraps an evaluator to count its invocations and matches, and the time spent in it. Used by {@link SelectorProfile} to
+ instrument each evaluator in a query's tree. The wrapper reports the same cost as its delegate, so the evaluation
+ order chosen by the combining evaluators is unchanged.
+ */
+final class ProfiledEvaluator extends Evaluator {
+    final Evaluator delegate;
+    final int depth;
+    final List<ProfiledEvaluator> children = new ArrayList<>();
+    long invocations;
+    long matches;
+    long nanos; // inclusive of any nested evaluators
+
+    private ProfiledEvaluator(Evaluator delegate, int depth) {
+        this.delegate = delegate;
+        this.depth = depth;
+    }
+
+    /**
+     Instrument the evaluator tree, by rebuilding each combining and structural evaluator with instrumented children.
+     */
+    static ProfiledEvaluator instrument(Evaluator eval) {
+        return instrument(eval, 0);
+    }
+
+    private static ProfiledEvaluator instrument(Evaluator eval, int depth) {
+        List<ProfiledEvaluator> children = new ArrayList<>();
+        Evaluator rebuilt;
+        if (eval instanceof CompiledEvaluator) {
+            return instrument(((CompiledEvaluator) eval).source(), depth); // profile the tree it was compiled from
+        } else if (eval instanceof CombiningEvaluator) {
+            // add in cost order, so the report reads in evaluation order
+            CombiningEvaluator combining = eval instanceof CombiningEvaluator.And ?
+                new CombiningEvaluator.And() : new CombiningEvaluator.Or();
+            for (Evaluator inner : ((CombiningEvaluator) eval).sortedEvaluators) {
+                ProfiledEvaluator child = instrument(inner, depth + 1);
+                children.add(child);
+                combining.add(child);
+            }
+            rebuilt = combining;
+        } else {
+            rebuilt = StructuralEvaluator.mapInner(eval, inner -> {
+                ProfiledEvaluator child = instrument(inner, depth + 1);
+                children.add(child);
+                return child;
+            });
+        }
+        ProfiledEvaluator profiled = new ProfiledEvaluator(rebuilt, depth);
+        profiled.children.addAll(children);
+        return profiled;
+    }
+
+    @Override
+    public boolean matches(Element root, Element element) {
+        long start = System.nanoTime();
+        boolean matched = delegate.matches(root, element);
+        nanos += System.nanoTime() - start;
+        invocations++;
+        if (matched) matches++;
+        return matched;
+    }
+
+    @Override
+    boolean matches(Element root, LeafNode leafNode) {
+        long start = System.nanoTime();
+        boolean matched = delegate.matches(root, leafNode);
+        nanos += System.nanoTime() - start;
+        invocations++;
+        if (matched) matches++;
+        return matched;
+    }
+
+    @Override
+    boolean wantsNodes() {
+        return delegate.wantsNodes();
+    }
+
+    @Override protected void reset() {
+        delegate.reset();
+        super.reset();
+    }
+
+    @Override protected int cost() {
+        return delegate.cost();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package nokogiri.internals.html.select;
+
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ A per thread value for an evaluator's memos, that lasts for one {@link Query}: each thread that tests an element within
+ a query gets its own value for that query, so a new query (on this or any other thread) never drops the values that
+ another query is still using.
+ <p>The values of a query are held strongly only by the query, and by the threads just weakly. So once the query is
+ done (or {@link Query#release() released}), the values of every thread that took part in it (such as the workers of a
+ parallel select) can be collected, along with the documents that they reference; even though those threads may not
+ use the evaluator again.</p>
+ <p>Outside a query (when an evaluator is tested directly), each thread has a value that it holds itself, until it
+ calls {@link #reset()}.</p>
+ */
+final class QueryLocal<T> {
+    private static final ThreadLocal<@Nullable Query> current = new ThreadLocal<>();
+
+    private final Supplier<T> initial;
+    private final ThreadLocal<@Nullable WeakReference<Held<T>>> local = new ThreadLocal<>();
+    private final ThreadLocal<@Nullable T> direct = new ThreadLocal<>();
+
+    QueryLocal(Supplier<T> initial) {
+        this.initial = initial;
+    }
+
+    /** Get this thread's value for its current query (or its direct value), creating it if not yet used. */
+    T get() {
+        Query query = current.get();
+        if (query == null) {
+            T value = direct.get();
+            if (value == null) {
+                value = initial.get();
+                direct.set(value);
+            }
+            return value;
+        }
+
+        WeakReference<Held<T>> ref = local.get();
+        Held<T> held = ref != null ? ref.get() : null;
+        if (held == null || held.query != query) {
+            held = new Held<>(query, initial.get());
+            query.held.add(held);
+            local.set(new WeakReference<>(held));
+        }
+        return held.value;
+    }
+
+    /** Drop this thread's values; the values of other threads are not affected. */
+    void reset() {
+        direct.remove();
+        local.remove();
+    }
+
+    /** Test if this thread is testing elements within a query. */
+    static boolean inQuery() {
+        return current.get() != null;
+    }
+
+    /**
+     A Collector query. Its predicates (see {@link #wrap(Predicate)}) run in the query, on whichever thread tests them, so
+     that the evaluator's memos are scoped to this query alone.
+     */
+    static final class Query {
+        private final Queue<Held<?>> held = new ConcurrentLinkedQueue<>(); // the strong references; one per value
+
+        /** Wrap the predicate so that each test runs in this query. */
+        <N> Predicate<N> wrap(Predicate<N> predicate) {
+            return node -> {
+                Query prev = current.get();
+                current.set(this);
+                try {
+                    return predicate.test(node);
+                } finally {
+                    current.set(prev);
+                }
+            };
+        }
+
+        /** Drop the values made in this query, for every thread that took part in it. */
+        void release() {
+            held.clear();
+        }
+    }
+
+    private static final class Held<T> {
+        final Query query;
+        final T value;
+
+        Held(Query query, T value) {
+            this.query = query;
+            this.value = value;
+        }
+    }
+}
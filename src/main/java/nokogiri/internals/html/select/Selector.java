@@ -1,10 +1,13 @@
 package nokogiri.internals.html.select;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import org.jspecify.annotations.Nullable;
 
 import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.StringUtil;
 import nokogiri.internals.html.nodes.Element;
 
 public class Selector {
@@ -37,6 +40,41 @@ public class Selector {
         return Collector.collect(evaluator, root);
     }
 
+    /**
+     Find Elements matching the CSS query, evaluating the tree in parallel on the supplied pool. Results are in document
+     order, the same as {@link #select(String, Element)}. Useful for large documents; for small ones the sequential
+     select is generally faster.
+     <p>The root must be {@link nokogiri.internals.html.nodes.Document#seal() sealed}, so that the tree is only read by
+     the pool's threads.</p>
+
+     @param query CSS selector
+     @param root root element to descend into; must be sealed
+     @param pool the ForkJoinPool to run the query in
+     @return matching elements, empty if none
+     @throws nokogiri.internals.html.select.Selector.SelectorParseException (unchecked) on an invalid CSS query.
+     @throws IllegalArgumentException if the root is not sealed
+     */
+    public static Elements selectParallel(String query, Element root, ForkJoinPool pool) {
+        Validate.notEmpty(query);
+        return selectParallel(evaluatorOf(query), root, pool);
+    }
+
+    /**
+     Find Elements matching the Evaluator, evaluating the tree in parallel on the supplied pool. Results are in document
+     order.
+
+     @param evaluator CSS Evaluator
+     @param root root (context) element to start from; must be sealed
+     @param pool the ForkJoinPool to run the query in
+     @return matching elements, empty if none
+     @see #selectParallel(String, Element, ForkJoinPool)
+     */
+    public static Elements selectParallel(Evaluator evaluator, Element root, ForkJoinPool pool) {
+        Validate.notNull(evaluator);
+        Validate.notNull(root);
+        return Collector.collectParallel(evaluator, root, pool);
+    }
+
     /**
      Finds a Stream of elements matching the CSS query.
 
@@ -91,6 +129,108 @@ public class Selector {
         return QueryParser.parse(css);
     }
 
+    /**
+     Parse and compile a CSS query into an Evaluator. The selector's evaluator tree is flattened into an instruction
+     array, so that matching an element runs a single tight loop rather than a chain of virtual calls. This is worth
+     doing for a query that will be run many times, e.g. over many documents; the result matches the same elements as
+     {@link #evaluatorOf(String)}.
+
+     @param css CSS query
+     @return a compiled Evaluator
+     @throws nokogiri.internals.html.select.Selector.SelectorParseException if the CSS query is invalid
+     */
+    public static Evaluator compile(String css) {
+        return compile(evaluatorOf(css));
+    }
+
+    /**
+     Compile an Evaluator into a flattened matcher. Evaluators that also match non-element nodes (e.g. {@code ::textnode})
+     are returned as-is.
+
+     @param evaluator the evaluator to compile
+     @return a compiled Evaluator
+     @see #compile(String)
+     */
+    public static Evaluator compile(Evaluator evaluator) {
+        return CompiledEvaluator.compile(evaluator);
+    }
+
+    /**
+     Explain how a CSS query will be evaluated: the parsed evaluator tree, with one line per evaluator showing its type,
+     relative cost, and selector. The children of a combining evaluator are listed in the order they will be tested,
+     which is by ascending cost. Use this with {@link #profile(String, Element)} to find why a query is slow.
+
+     @param css CSS query
+     @return a multi-line explanation of the evaluator tree
+     @throws nokogiri.internals.html.select.Selector.SelectorParseException if the CSS query is invalid
+     */
+    public static String explain(String css) {
+        return explain(evaluatorOf(css));
+    }
+
+    /**
+     Explain how the Evaluator will be evaluated.
+
+     @param evaluator the evaluator
+     @return a multi-line explanation of the evaluator tree
+     @see #explain(String)
+     */
+    public static String explain(Evaluator evaluator) {
+        Validate.notNull(evaluator);
+        StringBuilder sb = StringUtil.borrowBuilder();
+        explain(evaluator, 0, sb);
+        return StringUtil.releaseBuilder(sb);
+    }
+
+    private static void explain(Evaluator eval, int depth, StringBuilder sb) {
+        if (sb.length() > 0) sb.append('\n');
+        sb.append(StringUtil.padding(depth * 2, -1))
+            .append(eval.getClass().getSimpleName())
+            .append(" (cost ").append(eval.cost()).append("): ")
+            .append(eval);
+
+        if (eval instanceof CompiledEvaluator) {
+            explain(((CompiledEvaluator) eval).source(), depth + 1, sb);
+        } else if (eval instanceof CombiningEvaluator) {
+            for (Evaluator inner : ((CombiningEvaluator) eval).sortedEvaluators)
+                explain(inner, depth + 1, sb);
+        } else if (eval instanceof StructuralEvaluator.ImmediateParentRun) {
+            List<Evaluator> evals = ((StructuralEvaluator.ImmediateParentRun) eval).evaluators;
+            for (int i = evals.size() - 1; i >= 0; i--) // tested from the element up through its parents
+                explain(evals.get(i), depth + 1, sb);
+        } else if (eval instanceof StructuralEvaluator) {
+            explain(((StructuralEvaluator) eval).evaluator, depth + 1, sb);
+        }
+    }
+
+    /**
+     Run a CSS query with profiling instrumentation, recording the invocation count, match rate, and time of each
+     evaluator in the query. The profile is also emitted as JFR events if a Flight Recording is active. Profiling adds
+     overhead, so should be used to analyse a query rather than for every query.
+
+     @param css CSS query
+     @param root root element to descend into
+     @return the query's profile, including its results
+     @throws nokogiri.internals.html.select.Selector.SelectorParseException if the CSS query is invalid
+     @see SelectorProfile
+     */
+    public static SelectorProfile profile(String css, Element root) {
+        Validate.notEmpty(css);
+        return profile(evaluatorOf(css), root);
+    }
+
+    /**
+     Run the Evaluator with profiling instrumentation.
+
+     @param evaluator the evaluator
+     @param root root element to descend into
+     @return the query's profile, including its results
+     @see #profile(String, Element)
+     */
+    public static SelectorProfile profile(Evaluator evaluator, Element root) {
+        return SelectorProfile.profile(evaluator, root);
+    }
+
     public static class SelectorParseException extends IllegalStateException {
         private static final long serialVersionUID = 1L;
 
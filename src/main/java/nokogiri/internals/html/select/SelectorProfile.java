@@ -0,0 +1,227 @@
+package nokogiri.internals.html.select;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.internal.StringUtil;
+import nokogiri.internals.html.nodes.Element;
+
+/**
+ A profile of a selector query: the matched elements, plus the invocation count, match rate, and time of each evaluator
+ in the query's evaluator tree. Obtain via {@link Selector#profile(String, Element)}.
+ <p>The evaluator timings are inclusive: a combining or structural evaluator's time includes that of the evaluators
+ within it. Timing adds overhead to each evaluator call, so the absolute times are higher than an unprofiled query;
+ use them to compare the evaluators within a query.</p>
+ <p>Each profile is also recorded as Java Flight Recorder events, when a recording is active: a
+ {@code nokogiri.SelectorQuery} event for the query, and a {@code nokogiri.SelectorEvaluator} event for each
+ evaluator.</p>
+ */
+public final class SelectorProfile {
+    private final String query;
+    private final Elements results;
+    private final List<Entry> entries;
+    private final long nanos;
+
+    private SelectorProfile(String query, Elements results, List<Entry> entries, long nanos) {
+        this.query = query;
+        this.results = results;
+        this.entries = Collections.unmodifiableList(entries);
+        this.nanos = nanos;
+    }
+
+    /**
+     Run the evaluator over the root with profiling instrumentation.
+     @param evaluator the query evaluator
+     @param root the root element to query
+     @return the profile
+     */
+    static SelectorProfile profile(Evaluator evaluator, Element root) {
+        Validate.notNull(evaluator);
+        Validate.notNull(root);
+        String query = evaluator.toString();
+        ProfiledEvaluator profiled = ProfiledEvaluator.instrument(evaluator);
+
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Elements results = Collector.collect(profiled, root);
+        long nanos = System.nanoTime() - start;
+        event.end();
+
+        List<Entry> entries = new ArrayList<>();
+        addEntries(profiled, entries);
+        if (event.shouldCommit()) {
+            event.query = query;
+            event.results = results.size();
+            event.tested = profiled.invocations;
+            event.commit();
+            for (Entry entry : entries) {
+                EvaluatorEvent ee = new EvaluatorEvent();
+                ee.query = query;
+                ee.evaluator = entry.evaluator;
+                ee.type = entry.type;
+                ee.depth = entry.depth;
+                ee.cost = entry.cost;
+                ee.invocations = entry.invocations;
+                ee.matches = entry.matches;
+                ee.time = entry.nanos;
+                ee.commit();
+            }
+        }
+        return new SelectorProfile(query, results, entries, nanos);
+    }
+
+    private static void addEntries(ProfiledEvaluator profiled, List<Entry> entries) {
+        entries.add(new Entry(profiled));
+        for (ProfiledEvaluator child : profiled.children) {
+            addEntries(child, entries);
+        }
+    }
+
+    /** The query that was profiled. */
+    public String query() {
+        return query;
+    }
+
+    /** The elements matched by the query. */
+    public Elements results() {
+        return results;
+    }
+
+    /** The evaluator entries, in tree order (depth first, with children in their evaluation order). */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /** The total time taken by the query, in nanoseconds. */
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     A report of the profile, with an indented line per evaluator.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = StringUtil.borrowBuilder();
+        sb.append("Query: ").append(query).append(" (").append(results.size()).append(" results in ")
+            .append(nanos / 1000).append("us)");
+        for (Entry entry : entries) {
+            sb.append('\n').append(StringUtil.padding(entry.depth * 2, -1))
+                .append(entry.type).append(" [").append(entry.evaluator).append("]")
+                .append(" cost=").append(entry.cost)
+                .append(" calls=").append(entry.invocations)
+                .append(" matches=").append(entry.matches)
+                .append(String.format(" (%.1f%%)", entry.matchRate() * 100))
+                .append(" time=").append(entry.nanos / 1000).append("us");
+        }
+        return StringUtil.releaseBuilder(sb);
+    }
+
+    /**
+     The profile of one evaluator in the query's evaluator tree.
+     */
+    public static final class Entry {
+        private final String evaluator;
+        private final String type;
+        private final int depth;
+        private final int cost;
+        private final long invocations;
+        private final long matches;
+        private final long nanos;
+
+        Entry(ProfiledEvaluator profiled) {
+            Evaluator delegate = profiled.delegate;
+            evaluator = delegate.toString();
+            type = delegate.getClass().getSimpleName();
+            depth = profiled.depth;
+            cost = delegate.cost();
+            invocations = profiled.invocations;
+            matches = profiled.matches;
+            nanos = profiled.nanos;
+        }
+
+        /** The evaluator, as a selector string. */
+        public String evaluator() {
+            return evaluator;
+        }
+
+        /** The evaluator type (its class name). */
+        public String type() {
+            return type;
+        }
+
+        /** The depth of this evaluator in the tree; the root evaluator is 0. */
+        public int depth() {
+            return depth;
+        }
+
+        /** The evaluator's relative cost, which orders evaluation within its parent. */
+        public int cost() {
+            return cost;
+        }
+
+        /** The number of times this evaluator was tested against a node. */
+        public long invocations() {
+            return invocations;
+        }
+
+        /** The number of times this evaluator matched. */
+        public long matches() {
+            return matches;
+        }
+
+        /** The fraction of invocations that matched, from 0 to 1. */
+        public double matchRate() {
+            return invocations == 0 ? 0 : (double) matches / invocations;
+        }
+
+        /** The total time spent in this evaluator (including any nested evaluators), in nanoseconds. */
+        public long nanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s [%s] cost=%d calls=%d matches=%d time=%dns",
+                type, evaluator, cost, invocations, matches, nanos);
+        }
+    }
+
+    @Name("nokogiri.SelectorQuery")
+    @Label("Selector Query")
+    @Category({"nokogiri", "Selector"})
+    @Description("A profiled selector query")
+    @StackTrace(false)
+    static final class QueryEvent extends Event {
+        @Label("Query") String query;
+        @Label("Results") int results;
+        @Label("Nodes Tested") long tested;
+    }
+
+    @Name("nokogiri.SelectorEvaluator")
+    @Label("Selector Evaluator")
+    @Category({"nokogiri", "Selector"})
+    @Description("The profile of one evaluator within a profiled selector query")
+    @StackTrace(false)
+    static final class EvaluatorEvent extends Event {
+        @Label("Query") String query;
+        @Label("Evaluator") String evaluator;
+        @Label("Type") String type;
+        @Label("Depth") int depth;
+        @Label("Cost") int cost;
+        @Label("Invocations") long invocations;
+        @Label("Matches") long matches;
+        @Label("Time") @Timespan(Timespan.NANOSECONDS) long time;
+    }
+}
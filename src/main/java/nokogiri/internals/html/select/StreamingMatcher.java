@@ -0,0 +1,267 @@
+package nokogiri.internals.html.select;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.helper.Validate;
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.LeafNode;
+import nokogiri.internals.html.nodes.Node;
+
+/**
+ A forward-only selector matcher, driven by a parser's node insert and close events, that delivers each matching element
+ to a consumer as it is completed, and prunes everything else from the tree as it goes.
+ <p>Only selectors that can be decided from an element itself and its open ancestors are supported: tag, id, class and
+ attribute selectors, the descendant ({@code a b}) and child ({@code a > b}) combinators, {@code *}, {@code :root},
+ and {@code :is()} / {@code :not()} and groups of those. As each element is inserted, its match is decided against its
+ ancestors (which are the parser's stack of open elements). When a matched element is closed, it is complete, and is
+ passed to the consumer. Content that is not part of a match is then removed, so the retained tree stays bounded by the
+ depth of the document and the size of the matched elements, rather than the size of the input.</p>
+ <p>A matched element is detached from the tree after it has been delivered, unless it is within another match (in
+ which case it stays in place, and is also delivered as part of that match).</p>
+ <p>An HTML parser may move nodes after it has inserted them, when it rebuilds misnested formatting elements (as in
+ {@code <b><p>one</b>two</p>}), which changes their ancestors. So while the parser may still do that (see
+ {@link #hold()}), elements are not delivered or pruned as they close, but are held, and are matched again against the
+ settled tree on {@link #release(List, Element)}. Only the content of the block that the parser may move (the first
+ block element within an open formatting element, as the {@code <p>} above) stays held after a release; so that content
+ is retained until the block is closed, and the retained tree is then bounded by the size of that block.</p>
+ @see #canStream(Evaluator)
+ */
+public final class StreamingMatcher implements NodeVisitor {
+    private final Evaluator evaluator;
+    private final Element root;
+    private final Consumer<? super Element> consumer;
+    private final Set<Element> openMatches = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long matched;
+    private long pruned;
+    private boolean holding = false;
+    private final List<Element> held = new ArrayList<>(); // closed while holding, in close order
+    private @Nullable Element heldBlock; // the movable block at the last release
+    private int heldWithin; // the first held elements, that were within the held block at the last release
+
+    /**
+     Create a new streaming matcher.
+     @param evaluator the selector evaluator; must be supported for streaming
+     @param root the root (document) that the parser is building
+     @param consumer consumer that will receive each matched element, when it is complete
+     @throws nokogiri.internals.html.helper.ValidationException if the evaluator uses selectors that can not be decided while streaming
+     */
+    public StreamingMatcher(Evaluator evaluator, Element root, Consumer<? super Element> consumer) {
+        Validate.notNull(evaluator);
+        Validate.notNull(root);
+        Validate.notNull(consumer);
+        if (!canStream(evaluator))
+            Validate.fail("The selector [%s] can not be matched while streaming; it may only use tag, id, class and " +
+                "attribute selectors, with descendant or child combinators", evaluator);
+        this.evaluator = evaluator;
+        this.root = root;
+        this.consumer = consumer;
+    }
+
+    /**
+     Test if the evaluator can be decided at element insert, from the element and its ancestors alone; i.e., without
+     needing its siblings or content.
+     @param evaluator the evaluator to test
+     @return true if the evaluator can be used for streaming matches
+     */
+    public static boolean canStream(Evaluator evaluator) {
+        if (evaluator instanceof CompiledEvaluator)
+            return canStream(((CompiledEvaluator) evaluator).source());
+        if (evaluator instanceof CombiningEvaluator) {
+            for (Evaluator eval : ((CombiningEvaluator) evaluator).evaluators) {
+                if (!canStream(eval)) return false;
+            }
+            return true;
+        }
+        if (evaluator instanceof StructuralEvaluator.ImmediateParentRun) {
+            for (Evaluator eval : ((StructuralEvaluator.ImmediateParentRun) evaluator).evaluators) {
+                if (!canStream(eval)) return false;
+            }
+            return true;
+        }
+        if (evaluator instanceof StructuralEvaluator.Ancestor
+            || evaluator instanceof StructuralEvaluator.Is
+            || evaluator instanceof StructuralEvaluator.Not)
+            return canStream(((StructuralEvaluator) evaluator).evaluator);
+
+        return evaluator instanceof Evaluator.Tag
+            || evaluator instanceof Evaluator.TagStartsWith
+            || evaluator instanceof Evaluator.TagEndsWith
+            || evaluator instanceof Evaluator.Id
+            || evaluator instanceof Evaluator.Class
+            || evaluator instanceof Evaluator.Attribute
+            || evaluator instanceof Evaluator.AttributeStarting
+            || evaluator instanceof Evaluator.AttributeKeyPair
+            || evaluator instanceof Evaluator.AttributeWithValueMatching
+            || evaluator instanceof Evaluator.AllElements
+            || evaluator instanceof Evaluator.IsRoot
+            || evaluator instanceof StructuralEvaluator.Root;
+    }
+
+    /**
+     Test if an element matches a streamable evaluator, where the element's ancestors are only those that are still
+     open (so sibling and content state are not available). Memoized evaluator state is cleared first, so that it
+     doesn't retain the elements that have already been tested.
+     @param evaluator the evaluator, which must be supported for streaming
+     @param root the root of the open elements
+     @param element the element to test
+     @return true if the element matches
+     @see #canStream(Evaluator)
+     */
+    public static boolean matchesOpen(Evaluator evaluator, Element root, Element element) {
+        evaluator.reset();
+        return evaluator.matches(root, element);
+    }
+
+    /** The number of elements delivered to the consumer. */
+    public long matched() {
+        return matched;
+    }
+
+    /** The number of nodes (including their descendants) pruned from the tree. */
+    public long pruned() {
+        return pruned;
+    }
+
+    /**
+     Hold the elements that close from now, rather than delivering or pruning them, as the parser may yet move them (or
+     their ancestors). Their matches are decided when they are released.
+     @see #release(List, Element)
+     */
+    public void hold() {
+        holding = true;
+    }
+
+    /**
+     Release the held elements that the parser will no longer move. The open and released elements are matched again
+     against their current ancestors; the released matches are delivered (in the order that they were closed), and the
+     rest of the released content is pruned. Elements within the movable block stay held, until a later release with a
+     different block (or none).
+     @param open the parser's stack of open elements, from the outermost
+     @param block the open element whose content the parser may still move; or null if it will not move any
+     */
+    public void release(List<Element> open, @Nullable Element block) {
+        if (!holding) return;
+        holding = false;
+
+        openMatches.clear();
+        for (Element el : open) {
+            if (el != root && matchesOpen(evaluator, root, el))
+                openMatches.add(el);
+        }
+
+        // keep the elements within the block held; those kept by the last release are still within it, if it is the same
+        if (block != heldBlock) {
+            heldBlock = block;
+            heldWithin = 0;
+        }
+        Set<Element> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Element> closed = new ArrayList<>();
+        int kept = heldWithin;
+        for (int i = heldWithin; i < held.size(); i++) {
+            Element el = held.get(i);
+            if (el.root() != root) continue; // removed by the parser
+            if (block != null && isWithin(el, block)) {
+                held.set(kept++, el);
+                continue;
+            }
+            closed.add(el);
+            if (matchesOpen(evaluator, root, el)) matches.add(el);
+        }
+        held.subList(kept, held.size()).clear();
+        heldWithin = kept;
+
+        for (Element el : closed) {
+            if (matches.contains(el)) {
+                matched++;
+                consumer.accept(el);
+            }
+        }
+        // prune the released content that is not part of a match; the open elements and their ancestors stay
+        Set<Element> openAncestors = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!open.isEmpty()) {
+            for (Element el = open.get(open.size() - 1); el != null; el = el.parent())
+                openAncestors.add(el);
+        }
+        for (Element el : closed) {
+            if (el.parent() != null && !openAncestors.contains(el) && !withinMatch(el, matches)) {
+                el.remove();
+                pruned++;
+            }
+        }
+        if (!retaining()) {
+            pruneLeaves(root);
+            for (Element el : open) {
+                if (el == block) break; // the block's content may yet be moved into a match
+                pruneLeaves(el);
+            }
+        }
+    }
+
+    private static boolean isWithin(Element el, Element block) {
+        for (Element parent = el.parent(); parent != null; parent = parent.parent()) {
+            if (parent == block) return true;
+        }
+        return false;
+    }
+
+    /** If an ancestor of the element is a held or an open match, so the element is part of that match. */
+    private boolean withinMatch(Element el, Set<Element> matches) {
+        for (Element parent = el.parent(); parent != null; parent = parent.parent()) {
+            if (matches.contains(parent) || openMatches.contains(parent)) return true;
+        }
+        return false;
+    }
+
+    @Override public void head(Node node, int depth) {
+        if (!retaining() && !holding) pruneLeaf(node.previousSibling());
+
+        if (node instanceof Element && node != root) {
+            if (matchesOpen(evaluator, root, (Element) node))
+                openMatches.add((Element) node);
+        }
+    }
+
+    @Override public void tail(Node node, int depth) {
+        if (!(node instanceof Element) || node == root) return;
+        Element el = (Element) node;
+        if (holding) {
+            openMatches.remove(el);
+            held.add(el);
+            return;
+        }
+        if (!retaining()) pruneLeaf(el.lastChild()); // the last child had no next sibling insert to prune it
+
+        if (openMatches.remove(el)) {
+            matched++;
+            consumer.accept(el);
+        }
+        if (!retaining() && el.parent() != null) {
+            el.remove();
+            pruned++;
+        }
+    }
+
+    /** If there is a match open, its content is kept. */
+    private boolean retaining() {
+        return !openMatches.isEmpty();
+    }
+
+    private void pruneLeaves(Element el) {
+        for (int i = el.childNodeSize() - 1; i >= 0; i--)
+            pruneLeaf(el.childNode(i));
+    }
+
+    private void pruneLeaf(@Nullable Node node) {
+        if (node instanceof LeafNode && node.parent() != null) {
+            node.remove();
+            pruned++;
+        }
+    }
+}
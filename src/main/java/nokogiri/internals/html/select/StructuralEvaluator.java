@@ -2,7 +2,9 @@ package nokogiri.internals.html.select;
 
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import nokogiri.internals.html.internal.Functions;
 import nokogiri.internals.html.internal.SoftPool;
@@ -31,9 +33,10 @@ abstract class StructuralEvaluator extends Evaluator {
     }
 
     // Memoize inner matches, to save repeated re-evaluations of parent, sibling etc.
-    // root + element: Boolean matches. ThreadLocal in case the Evaluator is compiled then reused across multi threads
-    final ThreadLocal<IdentityHashMap<Node, IdentityHashMap<Node, Boolean>>>
-        threadMemo = ThreadLocal.withInitial(IdentityHashMap::new);
+    // root + element: Boolean matches. Per thread in case the Evaluator is compiled then reused across multi threads.
+    // Scoped to each Collector query, so a query on one thread never drops the memos of another that shares this evaluator.
+    final QueryLocal<IdentityHashMap<Node, IdentityHashMap<Node, Boolean>>> threadMemo =
+        new QueryLocal<>(IdentityHashMap::new);
 
     boolean memoMatches(final Element root, final Node node) {
         Map<Node, IdentityHashMap<Node, Boolean>> rootMemo = threadMemo.get();
@@ -42,7 +45,7 @@ abstract class StructuralEvaluator extends Evaluator {
     }
 
     @Override protected void reset() {
-        threadMemo.get().clear();
+        threadMemo.reset();
         evaluator.reset();
         super.reset();
     }
@@ -59,6 +62,37 @@ abstract class StructuralEvaluator extends Evaluator {
 
     abstract boolean evaluateMatch(Element root, Node node);
 
+    /**
+     Rebuild a structural evaluator with its inner evaluator(s) mapped; e.g. compiled, or instrumented. Returns the input
+     evaluator if it is not structural, or if the mapping left its inner evaluators unchanged.
+     */
+    static Evaluator mapInner(Evaluator eval, UnaryOperator<Evaluator> mapper) {
+        if (eval instanceof ImmediateParentRun) {
+            List<Evaluator> evals = ((ImmediateParentRun) eval).evaluators;
+            ImmediateParentRun run = new ImmediateParentRun(mapper.apply(evals.get(0)));
+            for (int i = 1; i < evals.size(); i++) run.add(mapper.apply(evals.get(i)));
+            return run;
+        }
+        if (!(eval instanceof StructuralEvaluator)) return eval;
+        Evaluator inner = ((StructuralEvaluator) eval).evaluator;
+        Evaluator mapped = mapper.apply(inner);
+        if (mapped == inner) return eval;
+        if (eval instanceof Has) return new Has(mapped);
+        if (eval instanceof Is) return new Is(mapped);
+        if (eval instanceof Not) return new Not(mapped);
+        if (eval instanceof Ancestor) return new Ancestor(mapped);
+        if (eval instanceof PreviousSibling) return new PreviousSibling(mapped);
+        if (eval instanceof ImmediatePreviousSibling) return new ImmediatePreviousSibling(mapped);
+        return eval;
+    }
+
+    /** Get the evaluator that a compiled or profiled evaluator wraps. */
+    static Evaluator unwrap(Evaluator eval) {
+        if (eval instanceof CompiledEvaluator) return unwrap(((CompiledEvaluator) eval).source());
+        if (eval instanceof ProfiledEvaluator) return unwrap(((ProfiledEvaluator) eval).delegate);
+        return eval;
+    }
+
     static class Root extends Evaluator {
         @Override
         public boolean matches(Element root, Element element) {
@@ -75,11 +109,12 @@ abstract class StructuralEvaluator extends Evaluator {
     }
 
     static class Has extends StructuralEvaluator {
+        // the node here is just a placeholder so this can be final - gets set in restart()
+        private static final TextNode Placeholder = new TextNode("");
         static final SoftPool<NodeIterator<Node>> NodeIterPool =
-            new SoftPool<>(() -> new NodeIterator<>(new TextNode(""), Node.class));
-        // the element here is just a placeholder so this can be final - gets set in restart()
+            new SoftPool<>(() -> new NodeIterator<>(Placeholder, Node.class));
 
-        private final boolean checkSiblings; // evaluating against siblings (or children)
+        final boolean checkSiblings; // evaluating against siblings (or children)
 
         public Has(Evaluator evaluator) {
             super(evaluator);
@@ -106,6 +141,7 @@ abstract class StructuralEvaluator extends Evaluator {
                     }
                 }
             } finally {
+                it.restart(Placeholder); // so the pooled iterator doesn't retain the document
                 NodeIterPool.release(it);
             }
             return false;
@@ -118,9 +154,11 @@ abstract class StructuralEvaluator extends Evaluator {
 
         /* Test if the :has sub-clause wants sibling elements (vs nested elements) - will be a Combining eval */
         private static boolean evalWantsSiblings(Evaluator eval) {
+            eval = unwrap(eval);
             if (eval instanceof CombiningEvaluator) {
                 CombiningEvaluator ce = (CombiningEvaluator) eval;
                 for (Evaluator innerEval : ce.evaluators) {
+                    innerEval = unwrap(innerEval);
                     if (innerEval instanceof PreviousSibling || innerEval instanceof ImmediatePreviousSibling)
                         return true;
                 }
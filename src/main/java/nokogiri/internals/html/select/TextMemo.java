@@ -0,0 +1,162 @@
+package nokogiri.internals.html.select;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jspecify.annotations.Nullable;
+
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.nodes.TextIndex;
+
+import static nokogiri.internals.html.internal.Normalizer.lowerCase;
+
+/**
+ Memoizes a {@link TextIndex} for the text evaluators (:contains, :matches etc), so that within a Collector query the
+ text of each element is built once, instead of once per ancestor that is tested.
+ <p>The index is per thread and per Collector query (see {@link QueryLocal}), so queries that share an evaluator across
+ threads don't drop each other's index. It is only used within a query: an evaluator that is tested directly (via
+ {@link Evaluator#matches(Element, Element)} or {@link Evaluator#asPredicate(Element)}) computes each element's text
+ directly, and so always sees the current tree.</p>
+ <p>The index is not invalidated when the tree is modified, as there is no cheap way to tell that a descendant's text
+ changed; but as each query builds its own, that only matters if the tree is modified during a query.</p>
+ */
+final class TextMemo {
+    private final QueryLocal<Slot> threadSlot = new QueryLocal<>(Slot::new);
+
+    void reset() {
+        threadSlot.reset();
+    }
+
+    /** Tests if the element's (normalized, lower-cased) text contains the lower-cased search text. */
+    boolean containsText(Element root, Element el, String searchText) {
+        Slot slot = slot(root, el);
+        if (slot != null && slot.lowerText() != null) {
+            TextIndex index = slot.index;
+            return slot.contains(searchText, slot.lowerText, index.textStart(el), index.textEnd(el));
+        }
+        return lowerCase(el.text()).contains(searchText);
+    }
+
+    /** Tests if the element's whole text contains the search text. */
+    boolean containsWholeText(Element root, Element el, String searchText) {
+        Slot slot = slot(root, el);
+        if (slot != null) {
+            TextIndex index = slot.index;
+            return slot.contains(searchText, index.wholeText(), index.wholeTextStart(el), index.wholeTextEnd(el));
+        }
+        return el.wholeText().contains(searchText);
+    }
+
+    /** Tests if the pattern can be found in the element's normalized text. */
+    boolean findText(Element root, Element el, Pattern pattern) {
+        Slot slot = slot(root, el);
+        if (slot != null) {
+            TextIndex index = slot.index;
+            return slot.find(pattern, index.text(), index.textStart(el), index.textEnd(el));
+        }
+        return pattern.matcher(el.text()).find();
+    }
+
+    /** Tests if the pattern can be found in the element's whole text. */
+    boolean findWholeText(Element root, Element el, Pattern pattern) {
+        Slot slot = slot(root, el);
+        if (slot != null) {
+            TextIndex index = slot.index;
+            return slot.find(pattern, index.wholeText(), index.wholeTextStart(el), index.wholeTextEnd(el));
+        }
+        return pattern.matcher(el.wholeText()).find();
+    }
+
+    /**
+     Gets this thread's slot with an index that includes the element, indexing the root if required. Returns null if
+     not within a Collector query, or if the element is not within the root.
+     */
+    private @Nullable Slot slot(Element root, Element el) {
+        if (!QueryLocal.inQuery()) return null;
+        Slot slot = threadSlot.get();
+        if (slot.index != null) {
+            if (slot.index.contains(el)) return slot;
+            if (slot.index.root() == root) return null; // el is outside of the query root; don't re-index
+        }
+        if (!isWithin(el, root)) return null; // e.g. a sibling, as tested by :has(+ p)
+        slot.clear();
+        slot.index = TextIndex.of(root);
+        return slot;
+    }
+
+    private static boolean isWithin(Element el, Element root) {
+        for (Element e = el; e != null; e = e.parent()) {
+            if (e == root) return true;
+        }
+        return false;
+    }
+
+    static final class Slot {
+        @Nullable TextIndex index;
+        @Nullable String lowerText;         // the lower-cased normalized text, if it aligns with the original
+        boolean lowered;
+        @Nullable String searchText;        // the search text that positions are for
+        @Nullable CharSequence searched;    // the buffer that positions are for
+        int[] positions = new int[0];       // sorted start positions of every searchText occurrence in searched
+        int count;
+        @Nullable Matcher matcher;
+
+        void clear() {
+            index = null;
+            lowerText = null;
+            lowered = false;
+            searchText = null;
+            searched = null;
+            count = 0;
+            matcher = null;
+        }
+
+        /**
+         The lower-cased text, or null if lower-casing does not map one char to one char (and so ranges would not line
+         up). Final sigma is context-sensitive when lower-cased, so its presence also disables the lower-cased form.
+         */
+        @Nullable String lowerText() {
+            if (!lowered) {
+                lowered = true;
+                String text = index.text();
+                String lower = lowerCase(text);
+                lowerText = lower.length() == text.length() && text.indexOf('\u03A3') == -1 ? lower : null;
+            }
+            return lowerText;
+        }
+
+        boolean contains(String searchText, String buffer, int start, int end) {
+            if (searchText.isEmpty()) return true;
+            if (buffer != searched || !searchText.equals(this.searchText)) {
+                // find all occurrences, once per query
+                searched = buffer;
+                this.searchText = searchText;
+                count = 0;
+                int pos = buffer.indexOf(searchText);
+                while (pos != -1) {
+                    if (count == positions.length) positions = Arrays.copyOf(positions, Math.max(8, count * 2));
+                    positions[count++] = pos;
+                    pos = buffer.indexOf(searchText, pos + 1);
+                }
+            }
+            // the first occurrence at or after start must also end within the range
+            int i = Arrays.binarySearch(positions, 0, count, start);
+            if (i < 0) i = -i - 1;
+            return i < count && positions[i] + searchText.length() <= end;
+        }
+
+        boolean find(Pattern pattern, String buffer, int start, int end) {
+            Matcher m = matcher;
+            if (m == null || m.pattern() != pattern) {
+                m = pattern.matcher(buffer);
+                matcher = m;
+            } else {
+                m.reset(buffer);
+            }
+            // opaque and anchoring bounds (the defaults), so the region matches as if it were the element's own text
+            m.region(start, end);
+            return m.find();
+        }
+    }
+}
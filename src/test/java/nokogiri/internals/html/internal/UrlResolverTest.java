@@ -0,0 +1,84 @@
+package nokogiri.internals.html.internal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UrlResolverTest {
+    private static final String Base = "http://a/b/c/d;p?q"; // the base of the RFC 3986 section 5.4 examples
+    private final UrlResolver resolver = new UrlResolver(Base);
+
+    @Test
+    public void resolvesNormalExamples() {
+        // RFC 3986 section 5.4.1
+        String[][] examples = {
+            {"g:h", "g:h"}, {"g", "http://a/b/c/g"}, {"./g", "http://a/b/c/g"}, {"g/", "http://a/b/c/g/"},
+            {"/g", "http://a/g"}, {"//g", "http://g"}, {"?y", "http://a/b/c/d;p?y"}, {"g?y", "http://a/b/c/g?y"},
+            {"#s", "http://a/b/c/d;p?q#s"}, {"g#s", "http://a/b/c/g#s"}, {"g?y#s", "http://a/b/c/g?y#s"},
+            {";x", "http://a/b/c/;x"}, {"g;x", "http://a/b/c/g;x"}, {"g;x?y#s", "http://a/b/c/g;x?y#s"},
+            {"", "http://a/b/c/d;p?q"}, {".", "http://a/b/c/"}, {"./", "http://a/b/c/"}, {"..", "http://a/b/"},
+            {"../", "http://a/b/"}, {"../g", "http://a/b/g"}, {"../..", "http://a/"}, {"../../", "http://a/"},
+            {"../../g", "http://a/g"}};
+        for (String[] example : examples)
+            assertEquals(example[1], resolver.resolve(example[0]), example[0]);
+    }
+
+    @Test
+    public void resolvesAbnormalExamples() {
+        // RFC 3986 section 5.4.2, in strict mode
+        String[][] examples = {
+            {"../../../g", "http://a/g"}, {"../../../../g", "http://a/g"}, {"/./g", "http://a/g"},
+            {"/../g", "http://a/g"}, {"g.", "http://a/b/c/g."}, {".g", "http://a/b/c/.g"}, {"g..", "http://a/b/c/g.."},
+            {"..g", "http://a/b/c/..g"}, {"./../g", "http://a/b/g"}, {"./g/.", "http://a/b/c/g/"},
+            {"g/./h", "http://a/b/c/g/h"}, {"g/../h", "http://a/b/c/h"}, {"g;x=1/./y", "http://a/b/c/g;x=1/y"},
+            {"g;x=1/../y", "http://a/b/c/y"}, {"g?y/./x", "http://a/b/c/g?y/./x"}, {"g?y/../x", "http://a/b/c/g?y/../x"},
+            {"g#s/./x", "http://a/b/c/g#s/./x"}, {"g#s/../x", "http://a/b/c/g#s/../x"}, {"http:g", "http:g"}};
+        for (String[] example : examples)
+            assertEquals(example[1], resolver.resolve(example[0]), example[0]);
+    }
+
+    @Test
+    public void removesDotSegmentsFromAbsoluteUrlsAndPaths() {
+        assertEquals("http://a/g", resolver.resolve("http://a/b/../g"));
+        assertEquals("http://a/b/g", resolver.resolve("/b/./g"));
+        assertEquals("http://a/b/../g", StringUtil.resolve(Base, "http://a/b/../g")); // java.net.URL keeps them
+    }
+
+    @Test
+    public void emptyReferenceDropsTheBaseFragment() {
+        UrlResolver withFragment = new UrlResolver(Base + "#f");
+        assertEquals("http://a/b/c/d;p?q", withFragment.resolve(""));
+        assertEquals("http://a/b/c/d;p?q#s", withFragment.resolve("#s"));
+        assertEquals("http://a/b/c/d;p?q#f", StringUtil.resolve(Base + "#f", ""));
+    }
+
+    @Test
+    public void keepsUserInfo() {
+        assertEquals("http://u:p@h/x", resolver.resolve("http://u:p@h/x"));
+        assertEquals("http://u@h/x", resolver.resolve("//u@h/x"));
+        assertEquals("http://u:p@a/b/g", new UrlResolver("http://u:p@a/b/c").resolve("g"));
+        assertEquals("http://h/x", StringUtil.resolve(Base, "http://u:p@h/x"));
+    }
+
+    @Test
+    public void sameSchemeWithoutAuthorityIsNotResolvedAgainstTheBase() {
+        assertEquals("http:g", resolver.resolve("http:g"));
+        assertEquals("http://a/b/c/g", StringUtil.resolve(Base, "http:g"));
+    }
+
+    @Test
+    public void opaqueReferencesAreReturnedAsIs() {
+        assertEquals("JavaScript:alert(1)", resolver.resolve("JavaScript:alert(1)"));
+        assertEquals("MAILTO:x@example.com", resolver.resolve(" MAILTO:x@example.com ")); // trimmed, not lower-cased
+        assertEquals("https://H/x", resolver.resolve("HTTPS://H/x")); // a hierarchical scheme is lower-cased
+    }
+
+    @Test
+    public void delegatesWhatItDoesNotResolve() {
+        assertEquals("", new UrlResolver("").resolve("g")); // no base, so relative links can't be resolved
+        assertEquals("http://x/", new UrlResolver("").resolve("http://x/"));
+        assertEquals(StringUtil.resolve("mailto:x", "g"), new UrlResolver("mailto:x").resolve("g"));
+        assertEquals(StringUtil.resolve(Base, "g\\h"), resolver.resolve("g\\h"));
+        assertEquals("file:/x/z", new UrlResolver("file:/x/y").resolve("z"));
+    }
+}
@@ -429,4 +429,101 @@ public class AttributesTest {
         assertEquals(2, attrs.size); // we keep the internals
         assertTrue(attrs.isEmpty());
     }
+
+    @Test
+    public void attributeNodesHaveStableIdentity() {
+        Document doc = Parser.parse("<div id=one Class=a title=t>", "");
+        Element div = doc.selectFirst("div");
+        Attributes attributes = div.attributes();
+
+        org.w3c.dom.Node id = attributes.getNamedItem("id");
+        assertSame(id, attributes.item(0));
+        assertSame(id, attributes.attribute("id"));
+        assertSame(id, attributes.iterator().next());
+        assertSame(attributes.item(2), attributes.asList().get(2));
+        assertTrue(id.isSameNode(attributes.item(0)));
+        assertFalse(id.isSameNode(attributes.item(1)));
+
+        Attribute title = attributes.attribute("title");
+        attributes.put("title", "changed");
+        assertEquals("changed", title.getValue());
+        attributes.attribute("id").setValue("two");
+        assertEquals("two", div.id());
+        assertEquals("two", ((Attribute) id).getValue());
+
+        attributes.remove("id");
+        assertSame(title, attributes.item(1)); // shifted along with its slot
+        Attribute replacement = new Attribute("title", "new");
+        attributes.put(replacement);
+        assertSame(replacement, attributes.attribute("title"));
+
+        Attributes clone = attributes.clone();
+        assertNotSame(attributes.item(0), clone.item(0));
+        assertEquals(attributes.item(0), clone.item(0));
+    }
+
+    @Test
+    public void manyAttributesUseHashedLookup() {
+        StringBuilder html = new StringBuilder("<div");
+        for (int i = 0; i < 40; i++) html.append(" data-Attr").append(i).append("=v").append(i);
+        html.append(" data-attr5=dupe DATA-ATTR6=dupe>"); // dupes of earlier keys
+        Document doc = Parser.parse(html.toString(), "");
+        Element div = doc.selectFirst("div");
+        Attributes attributes = div.attributes();
+        assertEquals(40, attributes.size()); // the dupes were removed, and the first values kept
+        assertEquals("v5", attributes.get("data-attr5"));
+        assertEquals("v6", attributes.get("data-attr6"));
+        assertEquals("v39", attributes.getIgnoreCase("DATA-attr39"));
+        assertTrue(attributes.hasKeyIgnoreCase("Data-Attr0"));
+        assertFalse(attributes.hasKey("data-attr40"));
+        assertEquals(1, doc.select("[data-attr17]").size());
+
+        attributes.remove("data-attr10");
+        assertFalse(attributes.hasKey("data-attr10"));
+        assertEquals("v11", attributes.get("data-attr11"));
+        for (int i = 40; i < 100; i++) attributes.put("extra" + i, "e" + i);
+        assertEquals("e99", attributes.get("extra99"));
+        assertEquals("v39", attributes.get("data-attr39"));
+        attributes.attribute("extra50").setKey("Renamed");
+        assertFalse(attributes.hasKey("extra50"));
+        assertEquals("e50", attributes.getIgnoreCase("renamed"));
+        assertEquals(99, attributes.size());
+
+        Attributes clone = attributes.clone();
+        clone.removeIgnoreCase("renamed");
+        assertTrue(attributes.hasKey("Renamed"));
+        assertFalse(clone.hasKeyIgnoreCase("renamed"));
+    }
+
+    @Test
+    public void clonedAttributesAreCopiedOnWrite() {
+        Document doc = Parser.parse("<div class=card data-id=1 title=Card><a href=/x>Link</a></div>", "");
+        Element template = doc.selectFirst("div");
+        Element copy = template.clone();
+        Element other = template.clone();
+        assertSame(template.attributes().keys, copy.attributes().keys); // shared until written
+
+        copy.attr("data-id", "2");
+        copy.selectFirst("a").attr("href", "/y");
+        assertNotSame(template.attributes().keys, copy.attributes().keys);
+        assertEquals("1", template.attr("data-id"));
+        assertEquals("1", other.attr("data-id"));
+        assertEquals("2", copy.attr("data-id"));
+        assertEquals("/x", template.selectFirst("a").attr("href"));
+        assertEquals("/y", copy.selectFirst("a").attr("href"));
+
+        template.attributes().attribute("title").setValue("Changed"); // a write to the original doesn't reach the copies
+        template.removeAttr("class");
+        assertEquals("Card", other.attr("title"));
+        assertEquals("card", other.attr("class"));
+        assertEquals(" class=\"card\" data-id=\"1\" title=\"Card\"", other.attributes().html());
+        assertEquals(" data-id=\"1\" title=\"Changed\"", template.attributes().html());
+
+        Element third = other.clone();
+        third.attributes().normalize(); // already lower case, so no copy
+        assertSame(other.attributes().keys, third.attributes().keys);
+        other.attr("id", "new");
+        assertEquals("new", other.id());
+        assertEquals("", template.id());
+    }
 }
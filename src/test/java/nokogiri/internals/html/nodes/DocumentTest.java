@@ -2,17 +2,28 @@ package nokogiri.internals.html.nodes;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import nokogiri.internals.html.TextUtil;
+import nokogiri.internals.html.internal.TextSlice;
 import nokogiri.internals.html.parser.ParseSettings;
 import nokogiri.internals.html.parser.Parser;
+import nokogiri.internals.html.parser.StreamParser;
 import nokogiri.internals.html.parser.Tag;
+import nokogiri.internals.html.select.Elements;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -298,4 +309,633 @@ public class DocumentTest {
         doc.head().appendElement("meta").attr("name", "charset").attr("content", charset);
         return doc;
     }
+
+    @Test
+    public void streamingSelectPrunesUnmatchedContent() throws IOException {
+        StringBuilder sb = new StringBuilder("<html><body><div id=list>");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<div class=item><p>Para ").append(i).append("</p><a href=/").append(i).append(">Link <b>")
+                .append(i).append("</b></a></div><span>Skip ").append(i).append("</span>\n");
+        }
+        sb.append("</div></body></html>");
+        String html = sb.toString();
+        String query = "#list > .item a[href], div span";
+
+        List<String> expected = new java.util.ArrayList<>();
+        for (Element el : Parser.parse(html, "").select(query)) expected.add(el.outerHtml());
+
+        List<String> found = new java.util.ArrayList<>();
+        StreamParser streamer = new StreamParser(Parser.htmlParser());
+        streamer.parse(html, "");
+        long count = streamer.selectEach(query, el -> found.add(el.outerHtml()));
+
+        assertEquals(2000, count);
+        assertEquals(expected.size(), found.size());
+        assertTrue(found.containsAll(expected));
+        assertEquals("<a href=\"/7\">Link <b>7</b></a>", found.get(14));
+        assertTrue(streamer.document().getAllElements().size() < 5); // everything else was pruned as the parse ran
+
+        streamer.parse(html, "");
+        assertThrows(IllegalArgumentException.class, () -> streamer.selectEach("li + li", el -> {}));
+        assertThrows(IllegalArgumentException.class, () -> streamer.selectEach("p:contains(Para)", el -> {}));
+    }
+
+    @Test
+    public void streamingSelectMatchesAfterAdoption() throws IOException {
+        // the adoption agency moves the p out of the b, after both have been inserted
+        String html = "<div><b><p>one</b>two</p></div><p>three</p>";
+        for (String query : new String[]{"div > p", "b", "div b", "p > b", "p"}) {
+            List<String> expected = new java.util.ArrayList<>();
+            for (Element el : Parser.parse(html, "").select(query)) expected.add(el.outerHtml());
+
+            List<String> found = new java.util.ArrayList<>();
+            StreamParser streamer = new StreamParser(Parser.htmlParser());
+            streamer.parse(html, "");
+            long count = streamer.selectEach(query, el -> found.add(el.outerHtml()));
+
+            assertEquals(expected.size(), count, query);
+            assertEquals(expected.size(), found.size(), query);
+            assertTrue(found.containsAll(expected), query);
+        }
+
+        List<String> found = new java.util.ArrayList<>();
+        StreamParser streamer = new StreamParser(Parser.htmlParser());
+        streamer.parse(html, "");
+        streamer.selectEach("div > p", el -> found.add(el.outerHtml()));
+        assertEquals(Collections.singletonList("<p><b>one</b>two</p>"), found);
+    }
+
+    @Test
+    public void streamingSelectOnlyHoldsTheMovableBlock() throws IOException {
+        // the b is never closed, but only the content of the open block within it can be moved; so each block is
+        // released once it closes, rather than the whole body being held until the end
+        StringBuilder sb = new StringBuilder("<div><b>");
+        for (int i = 0; i < 2000; i++) sb.append("<section><p>").append(i).append("</p><i>x</i></section>");
+        sb.append("<div><b><p>one</b>two</p></div>");
+        String html = sb.toString();
+
+        for (String query : new String[]{"p", "b > p", "section > p", "b i", "div > p"}) {
+            List<String> expected = new java.util.ArrayList<>();
+            for (Element el : Parser.parse(html, "").select(query)) expected.add(el.outerHtml());
+
+            List<String> found = new java.util.ArrayList<>();
+            int[] retained = {0};
+            StreamParser streamer = new StreamParser(Parser.htmlParser());
+            streamer.parse(html, "");
+            Document doc = streamer.document();
+            streamer.selectEach(query, el -> {
+                found.add(el.outerHtml());
+                retained[0] = Math.max(retained[0], doc.getAllElements().size());
+            });
+
+            assertEquals(expected, found, query);
+            assertTrue(retained[0] < 20, query + ": " + retained[0]);
+        }
+    }
+
+    @Test
+    public void frozenDocumentMatchesSource() {
+        String html = "<!doctype html><html><head><title>Frozen</title><script>var x = 1 < 2;</script></head>" +
+            "<body><div id=main class='One two'><p>Hello <b>there</b><br>now</p><!-- note -->" +
+            "<form><input name=q disabled></form><a href='/x'>Link</a><p class=two data-x=Y>Two</p></div></body></html>";
+        Document doc = Parser.parse(html, "https://example.com/");
+        FrozenDocument frozen = doc.freeze();
+
+        assertEquals(doc.outerHtml(), frozen.thaw().outerHtml());
+        assertEquals(doc.getAllElements().size(), frozen.root().select("*").size());
+        assertEquals("https://example.com/", frozen.thaw().location());
+        assertTrue(frozen.thaw().select("form").first() instanceof FormElement);
+
+        String[] queries = {"p", "#main", ".TWO", "div > p", "body p b", "[data-x=y]", "[href^=/]", ":not(p)",
+            "a[abs:href]", ":root", "p:contains(there)", "p + p", "p:nth-child(2)"};
+        for (String query : queries) {
+            List<String> expected = new java.util.ArrayList<>();
+            for (Element el : doc.select(query)) expected.add(el.outerHtml());
+            List<String> found = new java.util.ArrayList<>();
+            for (FrozenNode node : frozen.root().select(query)) found.add(node.outerHtml());
+            assertEquals(expected, found, query);
+        }
+
+        FrozenNode p = frozen.root().selectFirst("p");
+        assertNotNull(p);
+        assertEquals("Hello there now", p.text());
+        assertEquals("Hello there\nnow", p.wholeText());
+        assertEquals(doc.selectFirst("p").wholeText(), p.wholeText());
+        assertEquals("div", p.parent().normalName());
+        assertEquals(4, p.childNodeSize());
+        assertEquals("One two", p.parent().attr("CLASS"));
+        assertEquals("https://example.com/x", frozen.root().selectFirst("a").absUrl("href"));
+        assertTrue(frozen.root().selectFirst("input").hasAttr("disabled"));
+        assertEquals(p, frozen.node(p.index()));
+
+        // from a nested root, selectors that read the root's position or siblings still see them
+        Element two = doc.selectFirst("p.two");
+        FrozenNode frozenTwo = frozen.root().selectFirst("p.two");
+        for (String query : new String[]{"p:nth-child(5)", "p:last-of-type", "p:has(~ *)", "a ~ p", "p:contains(two)"})
+            assertEquals(two.select(query).size(), frozenTwo.select(query).size(), query);
+        assertEquals(1, frozenTwo.select("p:last-of-type").size());
+
+        doc.select("p").remove(); // the snapshot is independent of the source
+        assertEquals(2, frozen.root().select("p").size());
+    }
+
+    @Test
+    public void frozenPositionSelectorsMatchWithoutThawing() {
+        Document doc = Parser.parse("<div><p>1</p><span>2</span><p>3</p><p>4</p></div><div><i>5</i></div>" +
+            "<ul><li>a<li>b<li>c<li>d<li>e</ul>", "");
+        FrozenDocument frozen = doc.freeze();
+
+        String[] queries = {"p:nth-child(3)", "li:nth-child(2n+1)", "li:nth-child(-n+2)", "li:nth-last-child(2)",
+            "p:nth-of-type(2)", "p:nth-last-of-type(1)", "p:first-of-type", "p:last-of-type", ":first-child",
+            ":last-child", ":only-child", ":only-of-type", "li:lt(2)", "li:gt(2)", "li:eq(0)", "div:eq(1) > i",
+            ":not(:first-child)", "div > :is(p:nth-child(odd), span)", "html:first-child", "body:only-child"};
+        for (String query : queries) {
+            assertTrue(nokogiri.internals.html.select.FrozenSelector.canMatch(
+                nokogiri.internals.html.select.QueryParser.parse(query)), query);
+            List<String> expected = new java.util.ArrayList<>();
+            for (Element el : doc.select(query)) expected.add(el.outerHtml());
+            List<String> found = new java.util.ArrayList<>();
+            for (FrozenNode node : frozen.root().select(query)) found.add(node.outerHtml());
+            assertEquals(expected, found, query);
+        }
+
+        // from a nested root, :lt does not match the root itself, and positions are still read from the root's siblings
+        FrozenNode li = frozen.root().selectFirst("li:eq(3)");
+        assertEquals(0, li.select("li:lt(5)").size());
+        assertEquals(1, li.select("li:nth-child(4)").size());
+        assertEquals(1, li.select("li:nth-last-child(2)").size());
+    }
+
+    @Test
+    public void frozenDocumentRunsXpathWithoutThawing() {
+        Document doc = Parser.parse("<!doctype html><div id=main><p>One <a href='/x'>Two</a></p><!-- c -->" +
+            "<p class=b>Three<script>x < y</script></p></div>", "https://example.com/");
+        FrozenDocument frozen = doc.freeze();
+        FrozenNode root = frozen.root();
+
+        assertEquals("[<a href=\"/x\">Two</a>]", root.selectXpath("//a").toString());
+        assertEquals(2, root.selectXpath("//div/p").size());
+        assertEquals("Three", root.selectXpath("//p[@class='b']/text()").get(0).value());
+        assertEquals(1, root.selectXpath("//p[a[@href]]").size());
+        assertEquals(1, root.selectXpath("//p[contains(., 'Two')]").size());
+        assertEquals(" c ", root.selectXpath("//comment()").get(0).value());
+        assertEquals("div", root.selectXpath("id('main')").get(0).normalName());
+        assertTrue(root.selectXpath("//a/@href").isEmpty()); // attributes are not nodes of the snapshot
+
+        FrozenNode a = root.selectFirst("a");
+        assertEquals("p", a.selectXpath("..").get(0).normalName());
+        assertEquals(a.parent(), a.selectXpath("ancestor::p").get(0));
+        assertEquals("b", a.selectXpath("../following-sibling::*").get(0).attr("class"));
+        assertEquals(1, a.selectXpath("self::a[. = 'Two']").size());
+        assertThrows(nokogiri.internals.html.select.Selector.SelectorParseException.class, () -> root.selectXpath("//["));
+
+        // a W3C DOM view reads the frozen arrays; it is read-only, and clones thaw
+        org.w3c.dom.Document dom = frozen.dom();
+        assertEquals("html", dom.getDoctype().getName());
+        assertSame(dom.getDocumentElement(), dom.getFirstChild().getNextSibling());
+        org.w3c.dom.Element div = dom.getElementById("main");
+        assertEquals("One TwoThreex < y", div.getTextContent());
+        assertEquals("/x", ((org.w3c.dom.Element) div.getElementsByTagName("A").item(0)).getAttribute("href"));
+        assertEquals(1, div.getElementsByTagName("a").item(0).getAttributes().getLength()); // no internal attributes
+        assertThrows(org.w3c.dom.DOMException.class, () -> div.setAttribute("id", "x"));
+        org.w3c.dom.Node clone = div.cloneNode(true);
+        assertEquals(doc.getElementById("main").outerHtml(), ((Element) clone).outerHtml());
+    }
+
+    @Test
+    public void frozenPositionTrackedTextIsHeldInTheSharedBuffer() {
+        StringBuilder sb = new StringBuilder("<div>");
+        for (int i = 0; i < 20000; i++) sb.append("<p>Text ").append(i).append("<!-- c --></p>");
+        Document doc = Parser.htmlParser().setTrackPosition(true).parseInput(sb.toString(), "");
+        assertTrue(doc.selectFirst("p").textNodes().get(0).hasAttributes()); // holds the source range
+
+        FrozenDocument frozen = doc.freeze(); // linear, though each leaf has (internal) attributes
+        FrozenNode text = frozen.root().selectFirst("p").firstChild();
+        assertEquals("Text 0", frozen.value(text.index()));
+        assertEquals(" c ", frozen.value(text.index() + 1));
+        assertEquals(doc.outerHtml(), frozen.thaw().outerHtml());
+
+        TextNode custom = doc.selectFirst("p").textNodes().get(0);
+        custom.attr("title", "x"); // a leaf with a real attribute is kept as a node, so the attribute survives
+        assertEquals("x", doc.freeze().thaw().selectFirst("p").textNodes().get(0).attr("title"));
+    }
+
+    @Test
+    public void sealedDocumentIsImmutableAndSafeForConcurrentReads() throws Exception {
+        StringBuilder sb = new StringBuilder("<div id=list>");
+        for (int i = 0; i < 200; i++) {
+            sb.append("<p class=item>Item <b>").append(i).append("</b><!-- c --></p><span>").append(i).append("</span>");
+        }
+        sb.append("</div>");
+        Document doc = Parser.parse(sb.toString(), "https://example.com/");
+        doc.select("span").first().before("<i>Inserted</i>"); // leaves sibling indexes to be lazily reindexed
+        String html = doc.outerHtml();
+        assertSame(doc, doc.seal());
+        assertTrue(doc.isSealed());
+        assertTrue(doc.body().isSealed());
+        assertTrue(doc.selectFirst("b").textNodes().get(0).isSealed());
+
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(8);
+        try {
+            List<java.util.concurrent.Future<String>> results = new java.util.ArrayList<>();
+            for (int t = 0; t < 32; t++) {
+                results.add(pool.submit(() -> {
+                    StringBuilder check = new StringBuilder();
+                    Element list = doc.getElementById("list");
+                    for (Element child : list.children()) {
+                        check.append(child.elementSiblingIndex()).append(child.siblingIndex())
+                            .append(child.attributes().size()).append(child.childNodeSize());
+                        for (Attribute attr : child.attributes()) check.append(System.identityHashCode(attr)); // stable nodes
+                        Node first = child.firstChild();
+                        if (first != null) check.append(first.hasAttr("href")).append(first.absUrl("src"));
+                    }
+                    check.append(doc.select("p.item > b").size()).append(doc.select("span + p").size())
+                        .append(list.child(400).text()).append(doc.outerHtml().equals(html));
+                    return check.toString();
+                }));
+            }
+            String expected = results.get(0).get();
+            assertTrue(expected.endsWith("200199199true"));
+            for (java.util.concurrent.Future<String> result : results) assertEquals(expected, result.get());
+        } finally {
+            pool.shutdown();
+        }
+
+        Element p = doc.selectFirst("p");
+        TextNode text = (TextNode) p.childNode(0);
+        assertThrows(UnsupportedOperationException.class, () -> p.appendElement("a"));
+        assertThrows(UnsupportedOperationException.class, () -> p.attr("title", "x"));
+        assertThrows(UnsupportedOperationException.class, () -> p.attributes().put("title", "x"));
+        assertThrows(UnsupportedOperationException.class, () -> p.remove());
+        assertThrows(UnsupportedOperationException.class, () -> p.empty());
+        assertThrows(UnsupportedOperationException.class, () -> p.tagName("div"));
+        assertThrows(UnsupportedOperationException.class, () -> text.text("changed"));
+        assertThrows(UnsupportedOperationException.class, () -> doc.body().appendChild(new Element("div")));
+        assertThrows(UnsupportedOperationException.class, () -> new Element("div").appendChild(p));
+        assertThrows(org.w3c.dom.DOMException.class, () -> p.setAttribute("title", "x"));
+        assertEquals(html, doc.outerHtml());
+        assertFalse(p.hasAttr("title"));
+
+        Document clone = doc.clone();
+        assertFalse(clone.isSealed());
+        clone.selectFirst("p").attr("title", "x").appendElement("a");
+        assertEquals(html, doc.outerHtml());
+        assertNotEquals(html, clone.outerHtml());
+    }
+
+    @Test
+    public void slicedTextReadsFromTheInput() {
+        String html = "<div><p>One two three four five</p><p>Fish &amp; chips and peas</p><p>Short</p>"
+            + "<script>var answer = 6 * 7;</script><p>Another long run of text</p></div>";
+        Parser parser = Parser.htmlParser().setSliceText(true);
+        assertTrue(parser.isSliceText());
+        Document doc = parser.parseInput(html, "");
+        Document plain = Parser.parse(html, "");
+        assertEquals(plain.html(), doc.html());
+        assertEquals(plain.text(), doc.text());
+        assertEquals(plain.wholeText(), doc.wholeText());
+        assertEquals(plain.selectFirst("script").data(), doc.selectFirst("script").data());
+
+        Elements ps = doc.select("p");
+        TextNode sliced = (TextNode) ps.get(0).childNode(0);
+        assertInstanceOf(TextSlice.class, sliced.wholeTextSequence());
+        assertSame(html, ((TextSlice) sliced.wholeTextSequence()).source());
+        assertInstanceOf(String.class, ((TextNode) ps.get(1).childNode(0)).wholeTextSequence()); // decoded
+        assertInstanceOf(String.class, ((TextNode) ps.get(2).childNode(0)).wholeTextSequence()); // short
+        assertInstanceOf(TextSlice.class, ((DataNode) doc.selectFirst("script").childNode(0)).wholeDataSequence());
+
+        assertEquals("One two three four five", sliced.getWholeText()); // materializes
+        assertInstanceOf(String.class, sliced.wholeTextSequence());
+
+        ps.get(0).remove();
+        ps.get(1).remove();
+        doc.selectFirst("script").remove();
+        doc.compactText();
+        TextSlice compacted = (TextSlice) ((TextNode) ps.get(3).childNode(0)).wholeTextSequence();
+        assertEquals("Another long run of text", compacted.source());
+        assertEquals("<p>Another long run of text</p>", ps.get(3).outerHtml());
+    }
+
+    @Test
+    public void importsAndAdoptsNodesFromOtherDocuments() {
+        Document target = Parser.parse("<div id=out></div>", "");
+        Document source = Parser.parse("<ul><li class=a>One</li><li>Two</li></ul><p>Para</p>", "");
+        Element out = target.getElementById("out");
+        Element ul = source.selectFirst("ul");
+        Element p = source.selectFirst("p");
+
+        List<String> events = new java.util.ArrayList<>();
+        org.w3c.dom.UserDataHandler handler = (op, key, data, src, dst) ->
+            events.add(op + ":" + key + ":" + data + ":" + ((Node) src).nodeName() + ":" + (dst == null ? null : ((Node) dst).nodeName()));
+        ul.setUserData("k", "v", handler);
+        ul.child(0).setUserData("li", 1, handler);
+
+        Element copy = (Element) target.importNode(ul, true);
+        assertNull(copy.parent());
+        assertSame(target, copy.ownerDocument());
+        assertSame(target, copy.child(1).ownerDocument());
+        assertNull(copy.getUserData("k"));
+        assertEquals("[2:k:v:ul:ul, 2:li:1:li:li]", events.toString());
+        out.appendChild((org.w3c.dom.Node) copy);
+        copy.child(0).attr("class", "b");
+        assertEquals("a", ul.child(0).attr("class")); // independent of the source
+        assertEquals("<ul><li class=\"b\">One</li><li>Two</li></ul>", TextUtil.stripNewlines(out.html()));
+
+        Element shallow = (Element) target.importNode(p, false);
+        assertEquals(0, shallow.childNodeSize());
+        assertEquals("p", shallow.tagName());
+
+        events.clear();
+        org.w3c.dom.Node adopted = target.adoptNode(ul);
+        assertSame(ul, adopted);
+        assertNull(ul.parent());
+        assertNull(source.selectFirst("ul"));
+        assertSame(target, ul.child(0).ownerDocument());
+        assertEquals("[5:k:v:ul:null, 5:li:1:li:null]", events.toString());
+        out.appendChild((org.w3c.dom.Node) ul); // no longer a wrong document
+        assertEquals(2, out.select("ul").size());
+
+        assertThrows(org.w3c.dom.DOMException.class, () -> target.adoptNode(source));
+        assertThrows(org.w3c.dom.DOMException.class, () -> target.importNode(source, true));
+        assertThrows(org.w3c.dom.DOMException.class, () -> out.appendChild((org.w3c.dom.Node) p)); // not yet adopted
+    }
+
+    @Test
+    public void documentFragmentMovesItsChildrenInOneInsert() {
+        Document doc = Parser.parse("<ul><li>First</li><li>Last</li></ul>", "");
+        Element ul = doc.selectFirst("ul");
+        DocumentFragment fragment = doc.createDocumentFragment();
+        assertEquals(org.w3c.dom.Node.DOCUMENT_FRAGMENT_NODE, fragment.getNodeType());
+        assertEquals("#document-fragment", fragment.getNodeName());
+        assertSame(doc, fragment.ownerDocument());
+
+        for (int i = 1; i <= 3; i++) {
+            org.w3c.dom.Element li = doc.createElement("li");
+            li.appendChild(doc.createTextNode("Item " + i));
+            fragment.appendChild(li);
+        }
+        assertEquals("<li>Item 1</li><li>Item 2</li><li>Item 3</li>", TextUtil.stripNewlines(fragment.outerHtml()));
+
+        ul.insertBefore(fragment, ul.child(1));
+        assertEquals(0, fragment.childNodeSize());
+        assertEquals("<li>First</li><li>Item 1</li><li>Item 2</li><li>Item 3</li><li>Last</li>", TextUtil.stripNewlines(ul.html()));
+        for (int i = 0; i < ul.childNodeSize(); i++) {
+            assertSame(ul, ul.childNode(i).parent());
+            assertEquals(i, ul.childNode(i).siblingIndex());
+        }
+        assertEquals("Last", ul.child(4).text()); // child element cache was invalidated
+
+        // the jsoup API takes fragments too, and an empty fragment is a no-op
+        fragment.appendChild(new Element("li").text("Appended"));
+        ul.appendChild(fragment);
+        ul.appendChild(fragment);
+        assertEquals(6, ul.childNodeSize());
+        assertEquals("Appended", ul.child(5).text());
+
+        fragment.appendChild(new Element("li").text("Replacement"));
+        ul.replaceChild((org.w3c.dom.Node) fragment, (org.w3c.dom.Node) ul.child(0));
+        assertEquals("Replacement", ul.child(0).text());
+        assertEquals(6, ul.childNodeSize());
+
+        // can't insert a fragment into one of its own descendants
+        Element holder = new Element("div");
+        fragment.appendChild(holder);
+        assertThrows(org.w3c.dom.DOMException.class, () -> holder.appendChild((org.w3c.dom.Node) fragment));
+        assertSame(holder, fragment.childNode(0));
+    }
+
+    @Test
+    public void writesHtmlStraightToBytes() throws IOException {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 500; i++) // larger than the encode buffer
+            html.append("<p title=\"caf\u00e9 \ud83d\ude00\">Hello \u3053\u3093\u306b\u3061\u306f \ud83c\udf89 &amp; <b>").append(i).append("</b></p>");
+        Document doc = Parser.parse(html.toString(), "");
+
+        for (String charset : new String[]{"UTF-8", "US-ASCII", "ISO-8859-1", "Shift_JIS", "UTF-16"}) {
+            doc.charset(Charset.forName(charset));
+            byte[] expected = doc.outerHtml().getBytes(doc.charset());
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            doc.writeHtml(out);
+            assertArrayEquals(expected, out.toByteArray(), charset);
+
+            java.io.ByteArrayOutputStream channelOut = new java.io.ByteArrayOutputStream();
+            doc.writeHtml(java.nio.channels.Channels.newChannel(channelOut));
+            assertArrayEquals(expected, channelOut.toByteArray(), charset);
+        }
+
+        doc.charset(Charset.forName("UTF-8"));
+        Element p = doc.selectFirst("p");
+        java.nio.ByteBuffer buffer = p.writeHtml(java.nio.ByteBuffer.allocate(1024));
+        assertEquals(p.outerHtml(), new String(buffer.array(), 0, buffer.position(), doc.charset()));
+        assertThrows(java.nio.BufferOverflowException.class, () -> doc.writeHtml(java.nio.ByteBuffer.allocate(16)));
+
+        java.io.OutputStream failing = new java.io.OutputStream() {
+            @Override public void write(int b) throws IOException { throw new IOException("Closed"); }
+        };
+        IOException e = assertThrows(IOException.class, () -> doc.writeHtml(failing));
+        assertEquals("Closed", e.getMessage());
+    }
+
+    @Test
+    public void parallelSerializationMatchesSequential() {
+        StringBuilder html = new StringBuilder("<!doctype html><title>Big</title>");
+        for (int i = 0; i < 600; i++) {
+            html.append("<section id=s").append(i).append("><h2>Part <i>").append(i).append("</i></h2>")
+                .append("<p>Some <b>bold</b> and  <a href=/").append(i).append(">linked</a> text.</p>")
+                .append("<ul><li>One<li>Two <span>inline</span><li><div>Block</div></ul>")
+                .append("<pre>  keep\n   <b>this</b>  </pre><custom-el><p>In custom</p></custom-el>  trailing &amp; text ")
+                .append("</section>");
+        }
+        html.append("<pre>"); // large enough to be split within the pre
+        for (int i = 0; i < 3000; i++) html.append(" <span> x </span>\n  <p>y</p>");
+        html.append("</pre><p>After</p>");
+        Document doc = Parser.parse(html.toString(), "");
+        Element body = doc.body();
+        assertTrue(body.nodeStream().count() > ParallelPrinter.MinNodes);
+
+        for (int mode = 0; mode < 3; mode++) {
+            doc.outputSettings().prettyPrint(mode != 0).outline(mode == 2).parallel(false);
+            String docHtml = doc.html();
+            String bodyHtml = body.outerHtml();
+            String preHtml = doc.selectFirst("pre").outerHtml();
+
+            doc.outputSettings().parallel(true);
+            assertEquals(docHtml, doc.html());
+            assertEquals(bodyHtml, body.outerHtml());
+            assertEquals(preHtml, doc.selectFirst("pre").outerHtml());
+        }
+    }
+
+    @Test
+    public void parallelMinifyMatchesSequential() {
+        // a comment between two spaces drops, so the second space collapses into the first; each worker must know that
+        StringBuilder html = new StringBuilder("<div>");
+        for (int i = 0; i < 5000; i++) html.append("one <!-- c --> two <i>").append(i).append("</i>  ");
+        html.append("</div>");
+        Document doc = Parser.parse(html.toString(), "");
+        assertTrue(doc.body().nodeStream().count() > ParallelPrinter.MinNodes);
+
+        doc.outputSettings().minify(true).parallel(false);
+        String sequential = doc.html();
+        assertTrue(sequential.startsWith("<html><head><body><div>one two <i>0</i> one two <i>1</i>"));
+        doc.outputSettings().parallel(true);
+        assertEquals(sequential, doc.html());
+    }
+
+    @Test
+    public void minifiesOutput() {
+        String html = "<!doctype html>\n<html>\n <head>\n  <title> My  Title </title>\n  <!-- note -->\n </head>\n <body>\n"
+            + "  <div class=\"card main\" id=\"x\">\n   <p>Hello,   <b>bold</b>  world! </p>\n   <p>Second</p>\n  </div>\n"
+            + "  <ul>\n   <li>One</li>\n   <li>Two <a href=\"/x?a=1&amp;b=2\" title=\"a b\">link</a></li>\n  </ul>\n"
+            + "  <input type=\"checkbox\" checked=\"checked\" disabled=\"\"><select><option selected>A</option><option>B</option></select>\n"
+            + "  <pre>  keep   this\n  </pre>\n  <table><tr><td> 1 </td><td>2</td></tr><tr><td>3</td></tr></table>\n"
+            + "  <span> inline </span> <i>x</i>\n </body>\n</html>\n";
+        Document doc = Parser.parse(html, "");
+        String expected = "<!doctype html><html><head><title> My  Title </title><body>"
+            + "<div class=\"card main\" id=x><p>Hello, <b>bold</b> world!<p>Second</div>"
+            + "<ul><li>One<li>Two <a href=\"/x?a=1&amp;b=2\" title=\"a b\">link</a></ul>"
+            + "<input type=checkbox checked disabled><select><option selected>A<option>B</select>"
+            + "<pre>  keep   this\n  </pre><table><tbody><tr><td>1<td>2<tr><td>3</table><span> inline </span> <i>x</i>";
+
+        StringBuilder out = new StringBuilder();
+        long saved = doc.minify(out);
+        assertEquals(expected, out.toString());
+        doc.outputSettings().prettyPrint(false);
+        assertEquals(doc.html().length() - expected.length(), saved);
+
+        doc.outputSettings().minify(true);
+        assertEquals(expected, doc.html());
+        Document reparsed = Parser.parse(expected, "");
+        assertEquals(doc.text(), reparsed.text());
+        reparsed.outputSettings().minify(true);
+        assertEquals(expected, reparsed.html()); // idempotent
+        assertEquals("<li>One</li>", doc.selectFirst("li").outerHtml()); // the printed node keeps its end tag
+        assertEquals("<ul><li>One<li>Two <a href=\"/x?a=1&amp;b=2\" title=\"a b\">link</a></ul>",
+            doc.selectFirst("ul").outerHtml());
+    }
+
+    @Test
+    public void minifyKeepsBooleanAttributeValues() {
+        Document doc = Parser.parse("<div hidden=\"until-found\" title=\"hidden\">One</div><input hidden=HIDDEN disabled=\"\">", "");
+        doc.outputSettings().minify(true);
+        assertEquals("<div hidden=until-found title=hidden>One</div>", doc.selectFirst("div").outerHtml());
+        assertEquals("<input hidden disabled>", doc.selectFirst("input").outerHtml());
+    }
+
+    @Test
+    public void cachesEscapedOutputUntilModified() {
+        Document doc = Parser.parse("<p title='a &amp; b'>One &lt; two ü</p><p>Three</p>", "");
+        doc.outputSettings().prettyPrint(false).cacheEscaped(true);
+        String expected = "<p title=\"a &amp; b\">One &lt; two ü</p><p>Three</p>";
+        assertEquals(expected, doc.body().html());
+        assertEquals(expected, doc.body().html());
+
+        doc.outputSettings().charset("ascii"); // the cache is keyed by the settings
+        assertEquals("<p title=\"a &amp; b\">One &lt; two &uuml;</p><p>Three</p>", doc.body().html());
+        doc.outputSettings().charset("UTF-8").escapeMode(Entities.EscapeMode.xhtml).syntax(Document.OutputSettings.Syntax.xml);
+        assertEquals(expected, doc.body().html());
+
+        Element p = doc.selectFirst("p");
+        p.attr("title", "c > d");
+        p.textNodes().get(0).text("Four & five");
+        doc.select("p").last().attributes().put("id", "x");
+        assertEquals("<p title=\"c &gt; d\">Four &amp; five</p><p id=\"x\">Three</p>", doc.body().html());
+        doc.outputSettings().cacheEscaped(false);
+        assertEquals("<p title=\"c &gt; d\">Four &amp; five</p><p id=\"x\">Three</p>", doc.body().html());
+    }
+
+    @Test
+    public void replaysDocumentAsSaxEvents() throws TransformerException {
+        Document doc = Parser.parse("<!doctype html><title>T</title><p id=x hidden class='a b' \"q=1>One &amp; <b>two</b>"
+            + "<!-- c --></p><svg viewBox='0 0 1 1'><circle r=1 /></svg><script>if (a < b) x();</script>", "");
+        Transformer identity = TransformerFactory.newInstance().newTransformer();
+        identity.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+        StringWriter out = new StringWriter();
+        identity.transform(new SaxReader(doc).source(), new StreamResult(out));
+        String p = "<p xmlns=\"http://www.w3.org/1999/xhtml\" id=\"x\" hidden=\"\" class=\"a b\" _q=\"1\">One &amp; <b>two</b><!-- c --></p>";
+        assertEquals("<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>T</title></head><body>"
+            + p.replace(" xmlns=\"http://www.w3.org/1999/xhtml\"", "")
+            + "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 1 1\"><circle r=\"1\"/></svg>"
+            + "<script>if (a &lt; b) x();</script></body></html>", out.toString());
+
+        out = new StringWriter();
+        identity.transform(new SaxReader(doc.selectFirst("p")).source(), new StreamResult(out));
+        assertEquals(p, out.toString()); // a subtree
+
+        String xsl = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:h='http://www.w3.org/1999/xhtml'>"
+            + "<xsl:output method='text'/><xsl:template match='/'><xsl:value-of select='//h:p/@id'/>:<xsl:value-of select='//h:b'/></xsl:template>"
+            + "</xsl:stylesheet>";
+        out = new StringWriter();
+        TransformerFactory.newInstance().newTransformer(new StreamSource(new StringReader(xsl)))
+            .transform(new SaxReader(doc).source(), new StreamResult(out));
+        assertEquals("x:two", out.toString());
+
+        assertSame(doc.body(), doc.head().getNextSibling()); // as a DOMSource walks the tree
+        assertSame(doc.head(), doc.body().getPreviousSibling());
+
+        SaxReader reader = new SaxReader(doc);
+        reader.setContentHandler(new org.xml.sax.helpers.DefaultHandler() {
+            @Override public void startElement(String uri, String localName, String qName, org.xml.sax.Attributes atts) throws org.xml.sax.SAXException {
+                if (localName.equals("b")) throw new org.xml.sax.SAXException("Stop at " + qName);
+            }
+        });
+        org.xml.sax.SAXException e = assertThrows(org.xml.sax.SAXException.class, () -> reader.parse((String) null));
+        assertEquals("Stop at b", e.getMessage());
+
+        doc = Parser.parse("<p data-a:b=z xml:lang=en>One</p>", "");
+        out = new StringWriter();
+        identity.transform(new SaxReader(doc.selectFirst("p")).source(), new StreamResult(out));
+        assertEquals("<p xmlns=\"http://www.w3.org/1999/xhtml\" data-a_b=\"z\" xml:lang=\"en\">One</p>",
+            out.toString()); // data-a:b has no namespace, so its colon would read as an undeclared prefix
+    }
+
+    @Test
+    public void writesTextInChunks() throws IOException {
+        String html = "<p> One <b>two</b>  </p><div>Three<pre> x\n y</pre>four</div><br>five<!-- c --><ul><li>six<li>seven</ul> ";
+        Document doc = Parser.parse(html, "");
+        StringWriter out = new StringWriter();
+        TextWriter text = new TextWriter(out).chunkSize(4);
+        text.write(doc);
+        text.flush();
+        assertEquals(doc.text(), out.toString());
+        assertEquals("One two Three  x\n y four five six seven", out.toString());
+
+        List<String> chunks = new java.util.ArrayList<>();
+        text = new TextWriter(chunk -> chunks.add(chunk.toString())).chunkSize(4);
+        text.write(doc.selectFirst("ul"));
+        text.flush();
+        assertEquals(List.of("six ", "seve", "n"), chunks);
+
+        out = new StringWriter();
+        text = new TextWriter(out).blockNewlines(true);
+        text.write(doc.body());
+        text.flush();
+        assertEquals("One two\nThree\n x\n y\nfour\nfive\nsix\nseven", out.toString());
+
+        out = new StringWriter();
+        StreamParser parser = new StreamParser(Parser.htmlParser()).parse(html, "");
+        parser.writeText(new TextWriter(out));
+        assertEquals(doc.text(), out.toString()); // written as parsed
+        assertEquals(1, parser.document().nodeStream().count()); // with the content removed once written
+    }
+
+    @Test
+    public void extractsAbsoluteLinks() {
+        Document doc = Parser.parse("<base href='https://example.com/a/b/page.html?q=1'>"
+            + "<a href=c>1</a><a href='../d?x#y'>2</a><a href='//cdn.example.org/e'>3</a><a href='?r'>4</a>"
+            + "<a href=#top>5</a><a href='mailto:x@example.com'>6</a><a>7</a><img src=/f.png>"
+            + "<form action=send></form><div id=other><a href=g>8</a></div>", "https://ignored.example/");
+        doc.selectFirst("#other").setBaseUri("http://other.example/x/");
+
+        List<String> expected = List.of("https://example.com/a/b/c", "https://example.com/a/d?x#y",
+            "https://cdn.example.org/e", "https://example.com/a/b/page.html?r", "https://example.com/a/b/page.html?q=1#top",
+            "mailto:x@example.com", "https://example.com/f.png", "http://other.example/x/g");
+        assertEquals(expected, doc.links("a, img"));
+        List<String> abs = new java.util.ArrayList<>();
+        for (Element el : doc.select("a[href], img[src]")) abs.add(el.absUrl(el.hasAttr("href") ? "href" : "src"));
+        assertEquals(abs, doc.links("a, img")); // the same as absUrl, for typical links
+        assertEquals(List.of("https://example.com/a/b/send"), doc.links("form", "action"));
+        assertEquals(List.of("http://other.example/x/g"), doc.selectFirst("#other").links("a"));
+    }
 }
@@ -4,8 +4,13 @@ import org.junit.jupiter.api.Test;
 import nokogiri.internals.html.TextUtil;
 import nokogiri.internals.html.parser.Parser;
 import nokogiri.internals.html.select.Elements;
+import nokogiri.internals.html.select.Evaluator;
+import nokogiri.internals.html.select.Selector;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -411,4 +416,160 @@ public class ElementTest {
         Elements children = div.children();
         assertNotNull(div.cachedChildren());;
     }
+
+    @Test
+    public void textIndexRangesMatchElementText() {
+        Document doc = Parser.parse("<div id=a> One <p>Two  <b>Three</b>\n Four</p><pre>  Five\n  <i> Six </i></pre>" +
+            "Seven<br>Eight<span>Nine</span><div>Ten</div>Eleven <ul><li>Twelve<li> <li>\u200b Thirteen</ul></div>" +
+            "<p>  </p><script>data</script>", "");
+        TextIndex index = TextIndex.of(doc);
+        for (Element el : doc.getAllElements()) {
+            assertTrue(index.contains(el));
+            assertEquals(el.text(), index.text().substring(index.textStart(el), index.textEnd(el)), el.outerHtml());
+            assertEquals(el.wholeText(), index.wholeText().substring(index.wholeTextStart(el), index.wholeTextEnd(el)), el.outerHtml());
+        }
+        assertFalse(index.contains(new Element("p")));
+        assertEquals(-1, index.textStart(new Element("p")));
+    }
+
+    @Test
+    public void containsTextOnDeepNesting() {
+        // each level's text includes all of the descendants' text, so computing each element's text separately is
+        // quadratic in the depth; the query uses a text index built once instead
+        Document doc = Parser.parse("", "");
+        Element el = doc.body();
+        for (int i = 0; i < 5000; i++) {
+            el = el.appendElement("div").appendText("Level " + i + " ");
+        }
+        el.appendElement("b").text("Needle");
+
+        Elements found = doc.select("div:contains(needle)");
+        assertEquals(5000, found.size());
+        assertEquals(5000, doc.select("div:matches(Needle$)").size());
+        assertEquals(5000, doc.select("div:containsWholeText(4999 Needle)").size());
+        assertEquals(1, doc.select("div:contains(level 0 level 1)").size());
+        assertEquals(2, doc.select("div:contains(level 1 level 2)").size());
+        assertEquals(0, doc.select("div:contains(level 5000)").size());
+        assertEquals(1, doc.select("div:matches(^Level 0 Level 1 )").size());
+
+        // each select resets the memo, so a reused evaluator sees the modified text
+        Evaluator needle = Selector.evaluatorOf("b:contains(needle)");
+        assertEquals(1, doc.select(needle).size());
+        el.selectFirst("b").text("Pin");
+        assertEquals(0, doc.select(needle).size());
+        assertEquals(5000, doc.select("div:contains(pin)").size());
+
+        // outside of a select, the text is not memoized, so a direct test sees the current text
+        Element b = el.selectFirst("b");
+        Evaluator pin = Selector.evaluatorOf("b:contains(pin)");
+        assertEquals(1, doc.select(pin).size());
+        assertTrue(pin.matches(doc, b));
+        b.text("Other");
+        assertFalse(pin.matches(doc, b));
+        assertFalse(pin.asPredicate(doc).test(b));
+        b.text("Pin");
+        assertTrue(pin.asPredicate(doc).test(b));
+    }
+
+    @Test
+    public void siblingIndexesStayValidThroughIncrementalEdits() {
+        Document doc = Parser.parse("<table><tbody></tbody></table>", "");
+        Element tbody = doc.selectFirst("tbody");
+        Element first = tbody.appendElement("tr");
+        Element last = first;
+        for (int i = 1; i < 20000; i++) { // inserting after the previous row, each is indexed as it is added
+            Element row = new Element("tr").attr("n", String.valueOf(i));
+            last.after(row);
+            assertEquals(i, row.siblingIndex());
+            last = row;
+        }
+        assertEquals(20000, tbody.childNodeSize());
+
+        Node second = tbody.childNode(1);
+        tbody.childNode(0).remove();
+        assertEquals(0, second.siblingIndex());
+        assertEquals(19998, last.siblingIndex());
+        tbody.prependChild(first);
+        assertEquals(19999, last.siblingIndex());
+        assertSame(last, tbody.childNode(19999));
+
+        for (int i = 0; i < 100; i++) tbody.childNode(i * 10).remove(); // walks forward through the list
+        assertEquals(19900, tbody.childNodeSize());
+        for (int i = 0; i < tbody.childNodeSize(); i++)
+            assertEquals(i, tbody.childNode(i).siblingIndex());
+        assertSame(tbody.childNode(501), tbody.childNode(500).nextSibling());
+        assertSame(tbody.childNode(499), tbody.childNode(500).previousSibling());
+    }
+
+    @Test
+    public void siblingIndexesStayValidThroughBulkListEdits() {
+        Document doc = Parser.parse("<div><p>0</p><p>1</p><p>2</p><p>3</p><p>4</p><p>5</p></div>", "");
+        Element div = doc.selectFirst("div");
+        @SuppressWarnings("unchecked") List<Node> children = (List<Node>) div.getChildNodes();
+        children.get(5).siblingIndex(); // validates the whole list
+
+        List<Node> range = children.subList(1, 3);
+        range.set(0, range.set(1, range.get(0))); // swaps 1 and 2
+        children.subList(3, 5).clear();
+        assertEquals("<p>0</p><p>2</p><p>1</p><p>5</p>", TextUtil.stripNewlines(div.html()));
+        assertIndexed(children);
+        children.sort(Comparator.comparing((Node node) -> ((TextNode) node.childNode(0)).text()).reversed());
+        assertEquals("<p>5</p><p>2</p><p>1</p><p>0</p>", TextUtil.stripNewlines(div.html()));
+        assertIndexed(children);
+        children.removeIf(node -> ((TextNode) node.childNode(0)).text().equals("1"));
+        assertIndexed(children);
+        Iterator<Node> it = children.iterator();
+        it.next();
+        it.remove();
+        assertIndexed(children);
+        Node a = children.get(0), b = children.get(1);
+        children.replaceAll(node -> node == a ? b : a);
+        assertEquals("<p>0</p><p>2</p>", TextUtil.stripNewlines(div.html()));
+        assertIndexed(children);
+
+        doc.seal();
+        assertThrows(UnsupportedOperationException.class, () -> children.removeIf(node -> true));
+        assertThrows(UnsupportedOperationException.class, () -> children.removeAll(children));
+        assertThrows(UnsupportedOperationException.class, () -> children.retainAll(Collections.emptyList()));
+        assertThrows(UnsupportedOperationException.class, () -> children.subList(0, 1).clear());
+        assertThrows(UnsupportedOperationException.class, () -> children.subList(0, 1).set(0, new Element("b")));
+        assertThrows(UnsupportedOperationException.class, () -> children.replaceAll(node -> node));
+        assertThrows(UnsupportedOperationException.class, () -> children.sort(null));
+        assertThrows(UnsupportedOperationException.class, () -> {
+            Iterator<Node> iterator = children.iterator();
+            iterator.next();
+            iterator.remove();
+        });
+        assertEquals("<p>0</p><p>2</p>", TextUtil.stripNewlines(div.html()));
+    }
+
+    private static void assertIndexed(List<Node> children) {
+        for (int i = 0; i < children.size(); i++)
+            assertEquals(i, children.get(i).siblingIndex());
+    }
+
+    @Test
+    public void prettyPrintsRunsOfBlankTextAndWideCustomElements() {
+        Element wide = new Element("x-wide");
+        for (int i = 0; i < 3; i++) wide.appendChild(new Comment("c")).appendChild(new TextNode(" "));
+        wide.appendChild(new Element("span").text("s")).appendChild(new Element("div").text("d"));
+        assertEquals("<x-wide>\n <!--c-->\n <!--c-->\n <!--c-->\n <span>s</span>\n <div>d</div>\n</x-wide>", wide.outerHtml());
+
+        Element blanks = new Element("div");
+        for (int i = 0; i < 3; i++) blanks.appendChild(new TextNode("  "));
+        blanks.appendChild(new Element("p").text("p"));
+        for (int i = 0; i < 3; i++) blanks.appendChild(new TextNode(" \n"));
+        blanks.appendChild(new TextNode(" text "));
+        blanks.appendChild(new Element("pre").appendChild(new Element("pre").text(" a ")).appendChild(new TextNode(" b ")));
+        blanks.appendChild(new TextNode(" c "));
+        assertEquals("<div> \n <p>p</p>\n  text\n <pre><pre> a </pre> b </pre>\n c\n</div>", blanks.outerHtml());
+
+        // wide enough that rescanning the siblings for each child would be quadratic
+        Element wider = new Element("x-wider");
+        for (int i = 0; i < 20000; i++) wider.appendChild(new Comment("c")).appendChild(new TextNode(" "));
+        wider.appendChild(new Element("div"));
+        String html = wider.outerHtml();
+        assertTrue(html.startsWith("<x-wider>\n <!--c-->\n <!--c-->"));
+        assertTrue(html.endsWith("<!--c-->\n <div></div>\n</x-wider>"));
+    }
 }
@@ -0,0 +1,69 @@
+package nokogiri.internals.html.parser;
+
+import org.junit.jupiter.api.Test;
+import nokogiri.internals.html.helper.ValidationException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HtmlRewriterTest {
+    @Test
+    public void rewritesAttributes() {
+        HtmlRewriter rewriter = new HtmlRewriter()
+            .onElement("a[href^=http:]", el -> el.attr("href", el.attr("href").replace("http:", "https:")));
+        assertEquals("<p>Go <A href=\"https://a.com/x\" data-x>there</A> <a href=/y>here</a>",
+            rewriter.rewrite("<p>Go <A HREF='http://a.com/x' data-x>there</A> <a href=/y>here</a>"));
+    }
+
+    @Test
+    public void removesAttributes() {
+        HtmlRewriter rewriter = new HtmlRewriter().onElement("img", el -> el.removeAttr("src"));
+        assertEquals("<p>One <img alt=\"x\"> two", rewriter.rewrite("<p>One <img src=a.png alt=x> two"));
+    }
+
+    @Test
+    public void appendsAndPrependsContent() {
+        HtmlRewriter rewriter = new HtmlRewriter()
+            .onElement("head", el -> el.append("<meta charset=utf-8>"))
+            .onElement("li", el -> el.prepend("* "));
+        assertEquals("<head><TITLE>T</TITLE><meta charset=utf-8></head><ul><li>* One<li>* Two</ul>",
+            rewriter.rewrite("<head><TITLE>T</TITLE></head><ul><li>One<li>Two</ul>"));
+    }
+
+    @Test
+    public void insertsBeforeAndAfterElements() {
+        HtmlRewriter rewriter = new HtmlRewriter()
+            .onElement("p.lead", el -> el.before("<hr>").after("<!-- end lead -->"))
+            .onElement("img", el -> el.after("!"));
+        // after an implied end tag too
+        assertEquals("<hr><p class=lead>Go<!-- end lead --><p>Then <img src=a.png>!",
+            rewriter.rewrite("<p class=lead>Go<p>Then <img src=a.png>"));
+    }
+
+    @Test
+    public void replacesText() {
+        HtmlRewriter rewriter = new HtmlRewriter()
+            .onText("title", text -> text.replace(text.text().toUpperCase()))
+            .onText("script", text -> text.replace(text.text().replace("go", "stop")));
+        assertEquals("<TITLE>OLD &amp; TITLE</TITLE><script>if (a < b) stop();</script>",
+            rewriter.rewrite("<TITLE>Old &amp; title</TITLE><script>if (a < b) go();</script>"));
+    }
+
+    @Test
+    public void passesUntouchedInputThrough() throws IOException {
+        String html = "<!DOCTYPE html>\n<HTML><head><TITLE>Old &amp; title</TITLE></head>\n<body>"
+            + "<p class=lead>Go <A HREF='http://a.com/x' data-x>there</A>.<p>Then <a href=/y>here</a> <img src=a.png>"
+            + "<ul><li>One<li>Two</ul><script>if (a < b) go();</script></body></html>";
+        StringBuilder out = new StringBuilder();
+        new HtmlRewriter().onElement("p", el -> {}).rewrite(new StringReader(html), out);
+        assertEquals(html, out.toString());
+    }
+
+    @Test
+    public void rejectsSelectorsThatCanNotStream() {
+        HtmlRewriter rewriter = new HtmlRewriter();
+        assertThrows(ValidationException.class, () -> rewriter.onElement("p:has(a)", el -> {}));
+    }
+}
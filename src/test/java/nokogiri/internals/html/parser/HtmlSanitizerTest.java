@@ -0,0 +1,46 @@
+package nokogiri.internals.html.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HtmlSanitizerTest {
+    @Test
+    public void basicPolicyKeepsSafeMarkup() {
+        HtmlSanitizer sanitizer = new HtmlSanitizer(HtmlSanitizer.Policy.basic());
+        String dirty = "<!doctype html><div onclick=x()><p class=a>One <a href='javascript:alert(1)'>x</a> "
+            + "<A HREF=/two REL=me TITLE=t>Two</A><script>alert('<p>')</script><style>p {}</style>"
+            + "<b>Three <i>&amp; \"four\"</b></i><!-- comment --><ul><li>Five<li>Six</ul><img src=x onerror=y>"
+            + "<p>Seven <svg><script>z</script><a href=#s>s</a></svg>";
+        assertEquals("<p>One <a rel=\"nofollow\">x</a> <a href=\"https://example.com/two\" rel=\"nofollow\">Two</a>"
+                + "<b>Three <i>&amp; &quot;four&quot;</i></b></p><ul><li>Five</li><li>Six</li></ul><p>Seven s</p>",
+            sanitizer.sanitize(dirty, "https://example.com/a/"));
+    }
+
+    @Test
+    public void dropsRelativeLinksWithoutABaseUri() {
+        HtmlSanitizer sanitizer = new HtmlSanitizer(HtmlSanitizer.Policy.basic());
+        assertEquals("<p>One <a rel=\"nofollow\">x</a> <a rel=\"nofollow\">Two</a></p>",
+            sanitizer.sanitize("<p>One <a href='javascript:alert(1)'>x</a> <a href=/two>Two</a>"));
+    }
+
+    @Test
+    public void customPolicyAllowsOnlyWhatItLists() {
+        HtmlSanitizer custom = new HtmlSanitizer(HtmlSanitizer.Policy.none()
+            .allowTags("a", "img", "td", "tr", "table")
+            .allowAttributes(HtmlSanitizer.Policy.All, "title")
+            .allowAttributes("a", "href")
+            .allowProtocols("a", "href", "https", "#")
+            .preserveRelativeLinks(true));
+        assertEquals("<table><tr><td title=\"&lt;/td&gt;\">1</td><td>2</td></tr></table><a href=\"#top\">top</a>"
+                + "<a href=\"/x\" title=\"t\">x</a><a>y</a><img title=\"i\">",
+            custom.sanitize("<table><tr><td title='</td>'>1<td>2</table><a href=#top>top</a>"
+                + "<a href=/x title=t>x<a href=http://y>y</a></a><img title=i src=z>", "https://example.com/"));
+    }
+
+    @Test
+    public void nonePolicyKeepsEscapedText() {
+        assertEquals("One &lt;two&gt; &amp; three", new HtmlSanitizer(HtmlSanitizer.Policy.none())
+            .sanitize("<p>One &lt;two&gt; &amp; <b>three</b><script>four</script>"));
+    }
+}
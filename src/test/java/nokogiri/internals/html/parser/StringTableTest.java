@@ -0,0 +1,60 @@
+package nokogiri.internals.html.parser;
+
+import org.junit.jupiter.api.Test;
+import nokogiri.internals.html.nodes.Document;
+import nokogiri.internals.html.select.Elements;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringTableTest {
+    private static String links() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            html.append("<a class='navigation-link external' rel=noopener target=_blank href='/page/").append(i).append("'>x</a>");
+        return html.toString();
+    }
+
+    @Test
+    public void dedupesAttributeValues() {
+        Parser parser = Parser.htmlParser().setDedupeStrings(true);
+        assertTrue(parser.isDedupeStrings());
+        Document doc = parser.parseInput(links(), "");
+        Elements links = doc.select("a");
+        assertEquals(50, links.size());
+        assertSame(links.get(0).attr("class"), links.get(49).attr("class"));
+        assertSame(links.get(0).attr("rel"), links.get(49).attr("rel"));
+        assertEquals("/page/49", links.get(49).attr("href"));
+        assertEquals(Parser.parse(links(), "").html(), doc.html());
+    }
+
+    @Test
+    public void countsSavings() {
+        Parser parser = Parser.htmlParser().setDedupeStrings(true);
+        parser.parseInput(links(), "");
+        StringTable table = parser.stringTable();
+        assertNotNull(table);
+        assertTrue(table.hits() >= 49); // at least the class values, which are too long for the reader's cache
+        assertTrue(table.dedupRatio() > 0);
+        assertTrue(table.bytesSaved() >= 49L * "navigation-link external".length());
+    }
+
+    @Test
+    public void tableIsScopedToAParse() {
+        Parser parser = Parser.htmlParser().setDedupeStrings(true);
+        Document first = parser.parseInput(links(), "");
+        StringTable table = parser.stringTable();
+
+        Parser other = Parser.htmlParser().setDedupeStrings(true);
+        Document second = other.parseInput(links(), "");
+        assertNotSame(table, other.stringTable());
+        assertNotSame(first.selectFirst("a").attr("class"), second.selectFirst("a").attr("class"));
+    }
+
+    @Test
+    public void sharedTableDedupesAcrossParses() {
+        StringTable shared = new StringTable();
+        Document a = Parser.htmlParser().setStringTable(shared).parseInput(links(), "");
+        Document b = Parser.htmlParser().setStringTable(shared).parseInput(links(), "");
+        assertSame(a.selectFirst("a").attr("class"), b.selectFirst("a").attr("class"));
+    }
+}
@@ -0,0 +1,67 @@
+package nokogiri.internals.html.select;
+
+import org.junit.jupiter.api.Test;
+import nokogiri.internals.html.nodes.Document;
+import nokogiri.internals.html.nodes.Element;
+import nokogiri.internals.html.parser.Parser;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CollectorTest {
+    private static Document nested() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("<div id=d").append(i).append("><p>One <b>").append(i).append("</b></p><span>Two</span>");
+            if (i % 3 == 0) sb.append("<div><p class=deep>Three</p></div>");
+            sb.append("</div>");
+        }
+        return Parser.parse(sb.toString(), "");
+    }
+
+    @Test
+    public void parallelStreamMatchesSequentialOrder() {
+        Document doc = nested();
+        List<Element> sequential = doc.stream().collect(Collectors.toList());
+        List<Element> parallel = doc.stream().parallel().collect(Collectors.toList());
+        assertEquals(sequential, parallel);
+        assertEquals(sequential.size(), doc.stream().spliterator().estimateSize());
+        assertEquals(doc.nodeStream().count(), doc.nodeStream().parallel().count());
+
+        Evaluator eval = Selector.evaluatorOf("div > p");
+        assertEquals(Collector.stream(eval, doc).collect(Collectors.toList()),
+            Collector.stream(eval, doc).parallel().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void parallelSelectMatchesSequential() {
+        Document doc = nested();
+        doc.seal();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String query : new String[]{"p", "div > p.deep", "div:has(p.deep)", "span + div", "b:containsOwn(7)",
+                "p:not(.deep)", "div:contains(Three) > span"}) {
+                Elements expected = doc.select(query);
+                Elements actual = Selector.selectParallel(query, doc, pool);
+                assertFalse(expected.isEmpty(), query);
+                assertEquals(expected, actual, query);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelSelectRequiresASealedRoot() {
+        Document doc = nested();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> Selector.selectParallel("p", doc, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package nokogiri.internals.html.select;
+
+import org.junit.jupiter.api.Test;
+import nokogiri.internals.html.nodes.Document;
+import nokogiri.internals.html.parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledEvaluatorTest {
+    @Test
+    public void compiledSelectorsMatchInterpreted() {
+        Document doc = Parser.parse("<div id=a class='x y'><p title=Foo>One <a href=/one>1</a></p><p class=y lang=en-US>Two</p>" +
+            "<span data-n=5>Three</span><ul><li>A<li class=x>B<li>C</ul></div><div class=x><p>Four</p></div>", "");
+        String[] queries = {"p", "#a", ".x", "[title]", "[title=foo]", "[lang^=EN]", "[lang$=us]", "[lang*=n-u]",
+            "[title!=foo]", "div.x", "div.x.y", "p, span", "div > p", "div p", "div > p > a", "li + li", "li ~ li.x",
+            "div:has(a)", "div:not(.y)", ":is(p, span)[data-n], ul", "*", ":root", "p.y:contains(two), span",
+            "li:nth-child(2n+1)", "div:has(> p.y) span", ":not(div, p)"};
+        for (String query : queries) {
+            Evaluator compiled = Selector.compile(query);
+            assertEquals(doc.select(query), doc.select(compiled), query);
+            assertEquals(Selector.evaluatorOf(query).toString(), compiled.toString());
+            assertEquals(doc.select(query), doc.select(compiled), query); // reusable
+        }
+    }
+}
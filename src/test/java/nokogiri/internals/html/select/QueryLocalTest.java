@@ -0,0 +1,52 @@
+package nokogiri.internals.html.select;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryLocalTest {
+    @Test
+    public void valuesAreScopedToTheirQuery() throws InterruptedException {
+        QueryLocal<Object> local = new QueryLocal<>(Object::new);
+        List<Object> seen = new ArrayList<>();
+        Predicate<String> inFirst = new QueryLocal.Query().wrap(s -> seen.add(local.get()));
+
+        inFirst.test("a");
+        Thread other = new Thread(() -> { // another query, and a reset, on another thread
+            new QueryLocal.Query().<String>wrap(s -> local.get() != null).test("b");
+            local.reset();
+        });
+        other.start();
+        other.join();
+        inFirst.test("c");
+        assertSame(seen.get(0), seen.get(1)); // the first query's value was not dropped
+
+        new QueryLocal.Query().<String>wrap(s -> seen.add(local.get())).test("d");
+        assertNotSame(seen.get(0), seen.get(2)); // a new query gets a new value
+    }
+
+    @Test
+    public void directValuesLastUntilReset() {
+        QueryLocal<Object> local = new QueryLocal<>(Object::new);
+        assertFalse(QueryLocal.inQuery());
+        Object direct = local.get();
+        assertSame(direct, local.get());
+
+        Object[] inQuery = new Object[1];
+        new QueryLocal.Query().<String>wrap(s -> {
+            assertTrue(QueryLocal.inQuery());
+            inQuery[0] = local.get();
+            return true;
+        }).test("a");
+        assertNotSame(direct, inQuery[0]);
+        assertFalse(QueryLocal.inQuery());
+        assertSame(direct, local.get());
+
+        local.reset();
+        assertNotSame(direct, local.get());
+    }
+}
@@ -0,0 +1,48 @@
+package nokogiri.internals.html.select;
+
+import org.junit.jupiter.api.Test;
+import nokogiri.internals.html.nodes.Document;
+import nokogiri.internals.html.parser.Parser;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SelectorProfileTest {
+    @Test
+    public void profileCountsEvaluatorCalls() throws Exception {
+        Document doc = Parser.parse("<div class=foo><p>One</p><p>Two</p></div><div><p>Three</p></div>", "");
+        Path file = Files.createTempFile("selector", ".jfr");
+        SelectorProfile profile;
+        try (Recording recording = new Recording()) {
+            recording.enable("nokogiri.SelectorQuery");
+            recording.enable("nokogiri.SelectorEvaluator");
+            recording.start();
+            profile = Selector.profile("div.foo p", doc);
+            recording.stop();
+            recording.dump(file);
+        }
+        assertEquals(doc.select("div.foo p"), profile.results());
+        assertEquals(2, profile.results().size());
+
+        List<SelectorProfile.Entry> entries = profile.entries();
+        assertEquals("And", entries.get(0).type());
+        assertEquals(doc.getAllElements().size(), entries.get(0).invocations());
+        assertEquals(2, entries.get(0).matches());
+        assertEquals("Tag", entries.get(1).type()); // p, tested first
+        assertEquals(3, entries.get(1).matches());
+        assertEquals(3, entries.get(2).invocations()); // the ancestor test, only run for the p's
+        assertTrue(profile.toString().contains("calls="));
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertEquals(1, events.stream().filter(e -> e.getEventType().getName().equals("nokogiri.SelectorQuery")).count());
+        assertEquals(entries.size(), events.stream().filter(e -> e.getEventType().getName().equals("nokogiri.SelectorEvaluator")).count());
+    }
+}
@@ -0,0 +1,16 @@
+package nokogiri.internals.html.select;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SelectorTest {
+    @Test
+    public void explainShowsEvaluationOrder() {
+        String explain = Selector.explain("div.foo[title] > p, span");
+        String[] lines = explain.split("\n");
+        assertTrue(lines[0].startsWith("Or (cost "), explain);
+        assertTrue(lines[1].startsWith("  Tag (cost 1): span"), explain); // cheapest first
+        assertTrue(explain.contains("      Attribute (cost 2): [title]\n      Class (cost 8): .foo"), explain);
+    }
+}